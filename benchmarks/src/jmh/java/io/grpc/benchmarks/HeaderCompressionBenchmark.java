@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.benchmarks;
+
+import io.grpc.Metadata;
+import io.grpc.okhttp.Headers;
+import io.grpc.okhttp.internal.framed.FrameWriter;
+import io.grpc.okhttp.internal.framed.Header;
+import io.grpc.okhttp.internal.framed.Http2;
+
+import okio.Buffer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of encoding the request headers of the OkHttp transport, reporting the bytes written
+ * per request on a connection that has already sent a number of requests.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class HeaderCompressionBenchmark {
+  private static final Metadata.Key<String> AUTHORIZATION_KEY =
+      Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
+
+  @Param({"false", "true"})
+  public boolean authorization;
+
+  private final Buffer sink = new Buffer();
+  private FrameWriter frameWriter;
+  private List<Header> requestHeaders;
+  private int streamId;
+
+  /**
+   * Counts the bytes written for the headers.
+   */
+  @AuxCounters
+  @State(Scope.Thread)
+  public static class AdditionalCounters {
+    private long requests;
+    private long headerBytes;
+
+    @Setup(Level.Iteration)
+    public void clean() {
+      requests = 0;
+      headerBytes = 0;
+    }
+
+    /**
+     * Bytes of HEADERS frames written per request.
+     */
+    public long headerBytesPerRequest() {
+      return requests == 0 ? 0 : headerBytes / requests;
+    }
+  }
+
+  /**
+   * Creates the frame writer and the headers of a unary call.
+   */
+  @Setup(Level.Trial)
+  public void setup() {
+    frameWriter = new Http2().newWriter(sink, true);
+    Metadata metadata = new Metadata();
+    if (authorization) {
+      metadata.put(AUTHORIZATION_KEY,
+          "Bearer ya29.AHES6ZRVmB7fkLtd1XTmq6mo0S1wqZZi3-Lh_s-6Uw7p8vtgSwg");
+    }
+    requestHeaders = Headers.createRequestHeaders(
+        metadata, "/grpc.testing.TestService/UnaryCall", "grpc-test.example.com:443");
+    streamId = 1;
+  }
+
+  /**
+   * Writes the HEADERS frame starting a stream.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void writeRequestHeaders(AdditionalCounters counters) throws IOException {
+    frameWriter.synStream(false, false, streamId, 0, requestHeaders);
+    streamId += 2;
+    counters.requests++;
+    counters.headerBytes += sink.size();
+    sink.clear();
+  }
+}
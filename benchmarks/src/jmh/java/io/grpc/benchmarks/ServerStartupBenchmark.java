@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.benchmarks;
+
+import static io.grpc.testing.TestUtils.pickUnusedPort;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.benchmarks.qps.AsyncServer;
+import io.grpc.internal.AbstractServerImplBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.okhttp.NegotiationType;
+import io.grpc.okhttp.OkHttpChannelBuilder;
+import io.grpc.okhttp.OkHttpServerBuilder;
+import io.grpc.testing.SimpleRequest;
+import io.grpc.testing.SimpleResponse;
+import io.grpc.testing.TestServiceGrpc;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a cold start of the Netty and OkHttp servers: the time to build and start the server
+ * and complete a first unary call, and the resident memory of the process afterwards. Every fork
+ * measures a single start, so that class loading and JIT warm-up are part of the result.
+ */
+@State(Scope.Benchmark)
+@Fork(10)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ServerStartupBenchmark {
+  public enum Transport {
+    NETTY, OKHTTP
+  }
+
+  @Param({"NETTY", "OKHTTP"})
+  public Transport transport;
+
+  private Server server;
+  private ManagedChannel channel;
+
+  /**
+   * Resident set size of the process once the first call completed, as reported by Linux.
+   */
+  @AuxCounters
+  @State(Scope.Thread)
+  public static class MemoryCounters {
+    public long residentKilobytes;
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws Exception {
+    channel.shutdown();
+    server.shutdown();
+    channel.awaitTermination(1, TimeUnit.SECONDS);
+    server.awaitTermination(1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Starts the server and makes a first call to it. The client is always OkHttp, so that only
+   * the server differs between the runs.
+   */
+  @Benchmark
+  public SimpleResponse startAndCall(MemoryCounters counters) throws Exception {
+    int port = pickUnusedPort();
+    AbstractServerImplBuilder<?> serverBuilder;
+    switch (transport) {
+      case NETTY:
+        serverBuilder = NettyServerBuilder.forPort(port);
+        break;
+      case OKHTTP:
+        serverBuilder = OkHttpServerBuilder.forPort(port);
+        break;
+      default:
+        throw new Exception("Unknown transport: " + transport);
+    }
+    server = serverBuilder
+        .addService(TestServiceGrpc.bindService(new AsyncServer.TestServiceImpl()))
+        .build();
+    server.start();
+    channel = OkHttpChannelBuilder.forAddress("localhost", port)
+        .negotiationType(NegotiationType.PLAINTEXT)
+        .build();
+    SimpleResponse response =
+        TestServiceGrpc.newBlockingStub(channel).unaryCall(SimpleRequest.getDefaultInstance());
+    counters.residentKilobytes = residentKilobytes();
+    return response;
+  }
+
+  /**
+   * Returns the {@code VmRSS} of the process from {@code /proc/self/status}, or -1 where that is
+   * not available.
+   */
+  private static long residentKilobytes() {
+    try {
+      BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.startsWith("VmRSS:")) {
+            // e.g. "VmRSS:     123456 kB"
+            return Long.parseLong(line.substring("VmRSS:".length()).replace("kB", "").trim());
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      // Not Linux.
+    }
+    return -1;
+  }
+}
@@ -33,9 +33,17 @@ package io.grpc.benchmarks;
 
 import static io.grpc.testing.TestUtils.pickUnusedPort;
 
+import com.google.common.io.ByteStreams;
 import com.google.protobuf.ByteString;
 
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
 import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.Marshaller;
 import io.grpc.Server;
 import io.grpc.benchmarks.qps.AsyncServer;
 import io.grpc.inprocess.InProcessChannelBuilder;
@@ -46,6 +54,8 @@ import io.grpc.netty.NegotiationType;
 import io.grpc.netty.NettyChannelBuilder;
 import io.grpc.netty.NettyServerBuilder;
 import io.grpc.okhttp.OkHttpChannelBuilder;
+import io.grpc.shm.ShmChannelBuilder;
+import io.grpc.shm.ShmServerBuilder;
 import io.grpc.testing.Payload;
 import io.grpc.testing.SimpleRequest;
 import io.grpc.testing.SimpleResponse;
@@ -63,18 +73,27 @@ import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.util.concurrent.TimeUnit;
 
-/** Some text. */
+/**
+ * Compares the latency of unary calls between the transports. {@code INPROCESS} passes the message
+ * objects through, while {@code INPROCESS_SERIALIZED} serializes them, as for a marshaller that
+ * differs between client and server. {@code SHM} goes through shared memory, like a call to another
+ * process of the same machine would.
+ */
 @State(Scope.Benchmark)
 public class TransportBenchmark {
   public enum Transport {
-    INPROCESS, NETTY, NETTY_LOCAL, OKHTTP
+    INPROCESS, INPROCESS_SERIALIZED, NETTY, NETTY_LOCAL, OKHTTP, SHM
   }
 
-  @Param({"INPROCESS", "NETTY", "NETTY_LOCAL", "OKHTTP"})
+  @Param({"INPROCESS", "INPROCESS_SERIALIZED", "NETTY", "NETTY_LOCAL", "OKHTTP", "SHM"})
   public Transport transport;
   @Param({"true", "false"})
   public boolean direct;
@@ -89,6 +108,7 @@ public class TransportBenchmark {
     AbstractManagedChannelImplBuilder<?> channelBuilder;
     switch (transport) {
       case INPROCESS:
+      case INPROCESS_SERIALIZED:
       {
         String name = "bench" + Math.random();
         serverBuilder = InProcessServerBuilder.forName(name);
@@ -114,6 +134,13 @@ public class TransportBenchmark {
             .negotiationType(NegotiationType.PLAINTEXT);
         break;
       }
+      case SHM:
+      {
+        String name = "bench" + Math.random();
+        serverBuilder = ShmServerBuilder.forName(name);
+        channelBuilder = ShmChannelBuilder.forName(name);
+        break;
+      }
       case OKHTTP:
       {
         int port = pickUnusedPort();
@@ -138,7 +165,12 @@ public class TransportBenchmark {
         .build();
     server.start();
     channel = channelBuilder.build();
-    stub = TestServiceGrpc.newBlockingStub(channel);
+    if (transport == Transport.INPROCESS_SERIALIZED) {
+      stub = TestServiceGrpc.newBlockingStub(
+          ClientInterceptors.intercept(channel, new SerializingInterceptor()));
+    } else {
+      stub = TestServiceGrpc.newBlockingStub(channel);
+    }
     // Wait for channel to start
     stub.unaryCall(SimpleRequest.getDefaultInstance());
   }
@@ -168,4 +200,63 @@ public class TransportBenchmark {
   public SimpleResponse unaryCall1024() {
     return stub.unaryCall(simpleRequest);
   }
+
+  /**
+   * Unary calls from many threads at once over the same channel, which share one transport.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @Threads(8)
+  public SimpleResponse unaryCall1024Concurrent() {
+    return stub.unaryCall(simpleRequest);
+  }
+
+  /**
+   * Calls the unary method with marshallers of its own that produce and parse plain bytes, like
+   * custom marshallers do. The in-process transport then serializes and parses every message,
+   * instead of passing the objects through.
+   */
+  private static final class SerializingInterceptor implements ClientInterceptor {
+    private final MethodDescriptor<SimpleRequest, SimpleResponse> unaryCall =
+        MethodDescriptor.create(
+            TestServiceGrpc.METHOD_UNARY_CALL.getType(),
+            TestServiceGrpc.METHOD_UNARY_CALL.getFullMethodName(),
+            serializing(TestServiceGrpc.METHOD_UNARY_CALL.getRequestMarshaller()),
+            serializing(TestServiceGrpc.METHOD_UNARY_CALL.getResponseMarshaller()));
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+        MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+      // Only the unary method is called.
+      return next.newCall((MethodDescriptor<ReqT, RespT>) (Object) unaryCall, callOptions);
+    }
+
+    private static <T> Marshaller<T> serializing(final Marshaller<T> marshaller) {
+      return new Marshaller<T>() {
+        @Override
+        public InputStream stream(T value) {
+          return copy(marshaller.stream(value));
+        }
+
+        @Override
+        public T parse(InputStream stream) {
+          return marshaller.parse(copy(stream));
+        }
+      };
+    }
+
+    /**
+     * Copies the bytes to a plain stream, which keeps the protobuf marshaller from recognizing
+     * its own streams.
+     */
+    private static InputStream copy(InputStream stream) {
+      try {
+        return new ByteArrayInputStream(ByteStreams.toByteArray(stream));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
 }
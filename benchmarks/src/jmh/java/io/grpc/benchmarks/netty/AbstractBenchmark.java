@@ -221,7 +221,7 @@ public abstract class AbstractBenchmark {
       SocketAddress address = sock.getLocalSocketAddress();
       sock.close();
       serverBuilder = NettyServerBuilder.forAddress(address);
-      channelBuilder = NettyChannelBuilder.forAddress(address);
+      channelBuilder = NettyChannelBuilder.forAddress(clientAddress(address));
     }
 
     if (serverExecutor == ExecutorType.DIRECT) {
@@ -240,6 +240,7 @@ public abstract class AbstractBenchmark {
 
     channelBuilder.negotiationType(NegotiationType.PLAINTEXT);
     serverBuilder.maxConcurrentCallsPerConnection(maxConcurrentStreams);
+    configureBuilders(serverBuilder, channelBuilder);
 
     // Create buffers of the desired size for requests and responses.
     PooledByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
@@ -391,6 +392,21 @@ public abstract class AbstractBenchmark {
     }
   }
 
+  /**
+   * Returns the address the clients connect to for a server bound to {@code serverAddress} when
+   * using {@link ChannelType#NIO}. Subclasses may interpose a proxy.
+   */
+  protected SocketAddress clientAddress(SocketAddress serverAddress) throws IOException {
+    return serverAddress;
+  }
+
+  /**
+   * Allows subclasses to apply additional settings before the server and channels are built.
+   */
+  protected void configureBuilders(NettyServerBuilder serverBuilder,
+      NettyChannelBuilder channelBuilder) {
+  }
+
   /**
    * Start a continuously executing set of unary calls that will terminate when
    * {@code done.get()} is true. Each completed call will increment the counter by the specified
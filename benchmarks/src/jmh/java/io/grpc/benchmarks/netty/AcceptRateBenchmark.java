@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.benchmarks.netty;
+
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.testing.TestUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark measuring how many connections per second a server accepts and sets up, with the
+ * default transport (the native epoll transport when available) and optionally several
+ * {@code SO_REUSEPORT} listeners. More than one listener requires the epoll transport.
+ *
+ * <p>Each operation opens a connection, sends the HTTP/2 connection preface and waits for the
+ * server's SETTINGS frame, so the server has created a transport for it, before closing it.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(16)
+public class AcceptRateBenchmark {
+
+  private static final byte[] PREFACE =
+      "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(Charset.forName("US-ASCII"));
+
+  /** An empty SETTINGS frame. */
+  private static final byte[] EMPTY_SETTINGS = {0, 0, 0, 4, 0, 0, 0, 0, 0};
+
+  /** The length of an HTTP/2 frame header. */
+  private static final int FRAME_HEADER_LENGTH = 9;
+
+  @Param({"1", "4"})
+  public int listeners;
+
+  private Server server;
+  private InetSocketAddress address;
+
+  /**
+   * Starts the server.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    address = new InetSocketAddress(InetAddress.getByName("localhost"), TestUtils.pickUnusedPort());
+    server = NettyServerBuilder.forAddress(address)
+        .reusePortListeners(listeners)
+        .addService(ServerServiceDefinition.builder("benchmark").build())
+        .build()
+        .start();
+  }
+
+  /**
+   * Stops the server.
+   */
+  @TearDown(Level.Trial)
+  public void teardown() throws Exception {
+    server.shutdown();
+    server.awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Opens a connection and closes it once the server has answered the connection preface.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public void connect() throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.setSoLinger(true, 0);
+      socket.connect(address);
+      OutputStream out = socket.getOutputStream();
+      out.write(PREFACE);
+      out.write(EMPTY_SETTINGS);
+      out.flush();
+      InputStream in = socket.getInputStream();
+      for (int i = 0; i < FRAME_HEADER_LENGTH; i++) {
+        if (in.read() == -1) {
+          throw new EOFException("Connection closed before the server's SETTINGS");
+        }
+      }
+    } finally {
+      socket.close();
+    }
+  }
+}
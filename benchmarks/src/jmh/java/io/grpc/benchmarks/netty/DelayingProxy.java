@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.benchmarks.netty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TCP proxy that delays all bytes flowing through it in either direction by a fixed amount,
+ * simulating a link with a given one-way latency. Bandwidth is not limited.
+ */
+final class DelayingProxy {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final SocketAddress target;
+  private final long delayNanos;
+  private final ServerSocket serverSocket;
+  private final List<Socket> sockets = new ArrayList<Socket>();
+  private volatile boolean shutdown;
+
+  DelayingProxy(SocketAddress target, long delay, TimeUnit unit) throws IOException {
+    this.target = target;
+    this.delayNanos = unit.toNanos(delay);
+    serverSocket = new ServerSocket();
+    serverSocket.bind(new InetSocketAddress(((InetSocketAddress) target).getAddress(), 0));
+    startThread("accept", new Runnable() {
+      @Override
+      public void run() {
+        acceptLoop();
+      }
+    });
+  }
+
+  /**
+   * Returns the address clients should connect to.
+   */
+  SocketAddress getAddress() {
+    return serverSocket.getLocalSocketAddress();
+  }
+
+  /**
+   * Closes the listening socket and all proxied connections.
+   */
+  void shutdown() {
+    shutdown = true;
+    closeQuietly(serverSocket);
+    synchronized (sockets) {
+      for (Socket socket : sockets) {
+        closeQuietly(socket);
+      }
+      sockets.clear();
+    }
+  }
+
+  private void acceptLoop() {
+    while (!shutdown) {
+      Socket client;
+      try {
+        client = serverSocket.accept();
+      } catch (IOException ex) {
+        return;
+      }
+      Socket server = new Socket();
+      try {
+        server.connect(target);
+        client.setTcpNoDelay(true);
+        server.setTcpNoDelay(true);
+      } catch (IOException ex) {
+        closeQuietly(client);
+        closeQuietly(server);
+        continue;
+      }
+      synchronized (sockets) {
+        sockets.add(client);
+        sockets.add(server);
+      }
+      pipe(client, server);
+      pipe(server, client);
+    }
+  }
+
+  /**
+   * Copies bytes from {@code in} to {@code out}, releasing each chunk only once it has been in
+   * flight for the configured delay.
+   */
+  private void pipe(final Socket in, final Socket out) {
+    final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<Chunk>();
+    startThread("reader", new Runnable() {
+      @Override
+      public void run() {
+        byte[] buf = new byte[BUFFER_SIZE];
+        try {
+          InputStream is = in.getInputStream();
+          int read;
+          while ((read = is.read(buf)) != -1) {
+            byte[] data = new byte[read];
+            System.arraycopy(buf, 0, data, 0, read);
+            queue.put(new Chunk(data, System.nanoTime() + delayNanos));
+          }
+        } catch (Exception ex) {
+          // Connection closed.
+        } finally {
+          queue.add(Chunk.EOF);
+        }
+      }
+    });
+    startThread("writer", new Runnable() {
+      @Override
+      public void run() {
+        try {
+          OutputStream os = out.getOutputStream();
+          while (true) {
+            Chunk chunk = queue.take();
+            if (chunk == Chunk.EOF) {
+              break;
+            }
+            long waitNanos = chunk.deadlineNanos - System.nanoTime();
+            if (waitNanos > 0) {
+              TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            os.write(chunk.data);
+          }
+        } catch (Exception ex) {
+          // Connection closed.
+        } finally {
+          closeQuietly(in);
+          closeQuietly(out);
+        }
+      }
+    });
+  }
+
+  private static void startThread(String name, Runnable runnable) {
+    Thread thread = new Thread(runnable, "delaying-proxy-" + name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ex) {
+      // Ignore.
+    }
+  }
+
+  private static void closeQuietly(ServerSocket socket) {
+    try {
+      socket.close();
+    } catch (IOException ex) {
+      // Ignore.
+    }
+  }
+
+  private static final class Chunk {
+    static final Chunk EOF = new Chunk(new byte[0], 0);
+
+    final byte[] data;
+    final long deadlineNanos;
+
+    Chunk(byte[] data, long deadlineNanos) {
+      this.data = data;
+      this.deadlineNanos = deadlineNanos;
+    }
+  }
+}
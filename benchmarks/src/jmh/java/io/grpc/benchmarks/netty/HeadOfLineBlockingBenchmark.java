@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package io.grpc.benchmarks.netty;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.StreamObserver;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Benchmark of the latency distribution, including p99, of small unary calls sharing a connection
+ * with streams that continuously send large responses. Compare runs without bulk streams to see
+ * how much the bulk streams delay the small calls, and runs with a higher weight for the small
+ * calls to see how much weighting them recovers.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public class HeadOfLineBlockingBenchmark extends AbstractBenchmark {
+
+  @Param({"0", "4"})
+  public int bulkStreams = 4;
+
+  @Param({"16", "256"})
+  public int unaryWeight = 256;
+
+  private MethodDescriptor<ByteBuf, ByteBuf> bulkMethod;
+  private ByteBuf bulkResponse;
+  private CallOptions unaryCallOptions;
+  private AtomicBoolean completed;
+
+  /**
+   * Setup with direct executors, small unary payloads, one channel and the bulk streams.
+   */
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    bulkMethod = MethodDescriptor.create(MethodType.SERVER_STREAMING,
+        "bulk/download",
+        new ByteBufOutputMarshaller(),
+        new ByteBufOutputMarshaller());
+    bulkResponse = PooledByteBufAllocator.DEFAULT.buffer(MessageSize.JUMBO.bytes());
+    bulkResponse.writerIndex(bulkResponse.capacity() - 1);
+    super.setup(ExecutorType.DIRECT,
+        ExecutorType.DIRECT,
+        MessageSize.SMALL,
+        MessageSize.SMALL,
+        FlowWindowSize.LARGE,
+        ChannelType.NIO,
+        1000,
+        1);
+    unaryCallOptions = CallOptions.DEFAULT.withStreamWeight(unaryWeight);
+    completed = new AtomicBoolean();
+    for (int i = 0; i < bulkStreams; i++) {
+      startBulkStream();
+    }
+  }
+
+  @Override
+  protected void configureBuilders(NettyServerBuilder serverBuilder,
+      NettyChannelBuilder channelBuilder) {
+    serverBuilder.streamWeight("benchmark/unary", unaryWeight);
+    serverBuilder.addService(ServerServiceDefinition.builder("bulk")
+        .addMethod(bulkMethod, new ServerCallHandler<ByteBuf, ByteBuf>() {
+          @Override
+          public ServerCall.Listener<ByteBuf> startCall(
+              MethodDescriptor<ByteBuf, ByteBuf> method,
+              final ServerCall<ByteBuf> call,
+              Metadata headers) {
+            call.sendHeaders(new Metadata());
+            call.request(1);
+            return new ServerCall.Listener<ByteBuf>() {
+              @Override
+              public void onMessage(ByteBuf message) {
+                message.release();
+              }
+
+              @Override
+              public void onHalfClose() {
+                onReady();
+              }
+
+              @Override
+              public void onCancel() {
+
+              }
+
+              @Override
+              public void onComplete() {
+
+              }
+
+              @Override
+              public void onReady() {
+                while (call.isReady()) {
+                  call.sendMessage(bulkResponse.slice());
+                }
+              }
+            };
+          }
+        })
+        .build());
+  }
+
+  private void startBulkStream() {
+    final ClientCall<ByteBuf, ByteBuf> call =
+        channels[0].newCall(bulkMethod, CallOptions.DEFAULT);
+    ClientCalls.asyncServerStreamingCall(call, Unpooled.EMPTY_BUFFER,
+        new StreamObserver<ByteBuf>() {
+          @Override
+          public void onNext(ByteBuf value) {
+            if (completed.get()) {
+              call.cancel();
+            }
+          }
+
+          @Override
+          public void onError(Throwable t) {
+          }
+
+          @Override
+          public void onCompleted() {
+          }
+        });
+  }
+
+  /**
+   * Stop the bulk streams then stop the server and client channels.
+   */
+  @Override
+  @TearDown(Level.Trial)
+  public void teardown() throws Exception {
+    completed.set(true);
+    Thread.sleep(5000);
+    super.teardown();
+    bulkResponse.release();
+  }
+
+  /**
+   * Issue a small unary call and wait for the response.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public ByteBuf blockingUnary() throws Exception {
+    return ClientCalls.blockingUnaryCall(
+        channels[0].newCall(unaryMethod, unaryCallOptions), Unpooled.EMPTY_BUFFER);
+  }
+
+  /**
+   * Useful for triggering a subset of the benchmark in a profiler.
+   */
+  public static void main(String[] argv) throws Exception {
+    HeadOfLineBlockingBenchmark bench = new HeadOfLineBlockingBenchmark();
+    bench.setup();
+    for (int i = 0; i < 10000; i++) {
+      bench.blockingUnary();
+    }
+    bench.teardown();
+    System.exit(0);
+  }
+}
@@ -31,6 +31,8 @@
 
 package io.grpc.benchmarks.netty;
 
+import io.grpc.netty.InboundFlowControlStats;
+
 import org.openjdk.jmh.annotations.AuxCounters;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Fork;
@@ -72,11 +74,19 @@ public class StreamingPingPongsPerSecondBenchmark extends AbstractBenchmark {
     @Setup(Level.Iteration)
     public void clean() {
       callCounter.set(0);
+      InboundFlowControlStats.reset();
     }
 
     public long pingPongsPerSecond() {
       return callCounter.get();
     }
+
+    /**
+     * WINDOW_UPDATE frames sent by both client and server per MiB of received messages.
+     */
+    public long windowUpdatesPerMegabyte() {
+      return Math.round(InboundFlowControlStats.windowUpdatesPerMegabyte());
+    }
   }
 
   /**
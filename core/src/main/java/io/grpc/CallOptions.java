@@ -32,6 +32,7 @@
 package io.grpc;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
@@ -66,6 +67,9 @@ public final class CallOptions {
   @Nullable
   private String compressorName;
 
+  @Nullable
+  private Integer streamWeight;
+
   /**
    * Override the HTTP/2 authority the channel claims to be connecting to. <em>This is not
    * generally safe.</em> Overriding allows advanced users to re-use a single Channel for multiple
@@ -170,6 +174,35 @@ public final class CallOptions {
     return authority;
   }
 
+  /**
+   * Returns a new {@code CallOptions} with the given stream weight. Transports that multiplex
+   * calls over a connection share its outbound bandwidth between the calls in proportion to their
+   * weights, so a call with a higher weight is less affected by large messages sent on other
+   * calls. Weights use the range of HTTP/2 stream weights, 1 to 256; calls without a weight use
+   * the HTTP/2 default of 16.
+   *
+   * @param streamWeight the weight of the call, or {@code null} for the default weight.
+   */
+  @ExperimentalApi
+  public CallOptions withStreamWeight(@Nullable Integer streamWeight) {
+    if (streamWeight != null) {
+      Preconditions.checkArgument(streamWeight >= 1 && streamWeight <= 256,
+          "streamWeight must be between 1 and 256");
+    }
+    CallOptions newOptions = new CallOptions(this);
+    newOptions.streamWeight = streamWeight;
+    return newOptions;
+  }
+
+  /**
+   * Returns the stream weight of the call, or {@code null} if the default weight is used.
+   */
+  @ExperimentalApi
+  @Nullable
+  public Integer getStreamWeight() {
+    return streamWeight;
+  }
+
   /**
    * Returns a new {@code CallOptions} with {@code executor} to be used instead of the default
    * executor specified with {@link ManagedChannelBuilder#executor}.
@@ -197,6 +230,7 @@ public final class CallOptions {
     requestKey = other.requestKey;
     executor = other.executor;
     compressorName = other.compressorName;
+    streamWeight = other.streamWeight;
   }
 
   @Override
@@ -31,31 +31,80 @@
 
 package io.grpc;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
 
 import io.grpc.internal.GrpcUtil;
 import io.grpc.internal.SharedResourceHolder;
+import io.grpc.internal.SharedResourceHolder.Resource;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URI;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * A DNS-based {@link NameResolver}.
  *
+ * <p>The name is resolved when the resolver is started, every {@code refreshIntervalNanos} if
+ * periodic refresh is enabled, and whenever {@link #refresh} is called. A result is considered
+ * fresh for {@code cacheTtlNanos}; refreshes requested within that window are deferred until it
+ * has passed, because the JVM's own address cache would return the same answer anyway. The
+ * listener is only notified when the resolved set of addresses actually changes.
+ *
  * @see DnsNameResolverFactory
  */
 final class DnsNameResolver extends NameResolver {
   private final String authority;
   private final String host;
   private final int port;
+  private final long refreshIntervalNanos;
+  private final long cacheTtlNanos;
+  private final Resource<ExecutorService> executorResource;
+  private final Resource<ScheduledExecutorService> timerServiceResource;
+
+  @GuardedBy("this")
+  private final Stopwatch sinceLastResolution;
+  @GuardedBy("this")
+  private boolean shutdown;
+  @GuardedBy("this")
   private ExecutorService executor;
+  @GuardedBy("this")
+  private ScheduledExecutorService timerService;
+  @GuardedBy("this")
+  private boolean resolving;
+  @GuardedBy("this")
+  @Nullable
+  private ScheduledFuture<?> resolutionTask;
+  @GuardedBy("this")
+  private Listener listener;
+  @GuardedBy("this")
+  @Nullable
+  private HashSet<SocketAddress> lastAddresses;
+  @GuardedBy("this")
+  private AddressResolver addressResolver = JdkAddressResolver.INSTANCE;
+
+  DnsNameResolver(@Nullable String nsAuthority, String name, Attributes params,
+      long refreshIntervalNanos, long cacheTtlNanos) {
+    this(nsAuthority, name, params, refreshIntervalNanos, cacheTtlNanos,
+        GrpcUtil.SHARED_CHANNEL_EXECUTOR, GrpcUtil.TIMER_SERVICE, Stopwatch.createUnstarted());
+  }
 
-  DnsNameResolver(@Nullable String nsAuthority, String name, Attributes params) {
+  @VisibleForTesting
+  DnsNameResolver(@Nullable String nsAuthority, String name, Attributes params,
+      long refreshIntervalNanos, long cacheTtlNanos, Resource<ExecutorService> executorResource,
+      Resource<ScheduledExecutorService> timerServiceResource, Stopwatch sinceLastResolution) {
     // TODO: if a DNS server is provided as nsAuthority, use it.
     // https://www.captechconsulting.com/blogs/accessing-the-dusty-corners-of-dns-with-java
 
@@ -76,6 +125,13 @@ final class DnsNameResolver extends NameResolver {
     } else {
       port = nameUri.getPort();
     }
+    this.refreshIntervalNanos = refreshIntervalNanos;
+    this.cacheTtlNanos = cacheTtlNanos;
+    this.executorResource = Preconditions.checkNotNull(executorResource, "executorResource");
+    this.timerServiceResource =
+        Preconditions.checkNotNull(timerServiceResource, "timerServiceResource");
+    this.sinceLastResolution =
+        Preconditions.checkNotNull(sinceLastResolution, "sinceLastResolution");
   }
 
   @Override
@@ -84,39 +140,174 @@ final class DnsNameResolver extends NameResolver {
   }
 
   @Override
-  public synchronized void start(final Listener listener) {
-    Preconditions.checkState(executor == null, "already started");
-    executor = SharedResourceHolder.get(GrpcUtil.SHARED_CHANNEL_EXECUTOR);
-    executor.execute(new Runnable() {
+  public synchronized void start(Listener listener) {
+    Preconditions.checkState(this.listener == null, "already started");
+    Preconditions.checkState(!shutdown, "already shutdown");
+    this.listener = Preconditions.checkNotNull(listener, "listener");
+    executor = SharedResourceHolder.get(executorResource);
+    timerService = SharedResourceHolder.get(timerServiceResource);
+    resolve();
+  }
+
+  @Override
+  public synchronized void refresh() {
+    Preconditions.checkState(listener != null, "not started");
+    if (shutdown || resolving) {
+      return;
+    }
+    long delayNanos = 0;
+    if (sinceLastResolution.isRunning()) {
+      delayNanos = cacheTtlNanos - sinceLastResolution.elapsed(TimeUnit.NANOSECONDS);
+    }
+    if (delayNanos <= 0) {
+      cancelResolutionTask();
+      resolve();
+    } else if (resolutionTask == null
+        || resolutionTask.getDelay(TimeUnit.NANOSECONDS) > delayNanos) {
+      // The cached result is still fresh. Re-resolve as soon as it expires.
+      scheduleResolution(delayNanos);
+    }
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    if (shutdown) {
+      return;
+    }
+    shutdown = true;
+    cancelResolutionTask();
+    if (executor != null) {
+      executor = SharedResourceHolder.release(executorResource, executor);
+    }
+    if (timerService != null) {
+      timerService = SharedResourceHolder.release(timerServiceResource, timerService);
+    }
+  }
+
+  @GuardedBy("this")
+  private void resolve() {
+    resolving = true;
+    executor.execute(resolutionRunnable);
+  }
+
+  @GuardedBy("this")
+  private void scheduleResolution(long delayNanos) {
+    cancelResolutionTask();
+    resolutionTask = timerService.schedule(new Runnable() {
       @Override
       public void run() {
-        InetAddress[] inetAddrs;
-        try {
-          inetAddrs = InetAddress.getAllByName(host);
-        } catch (Exception e) {
-          listener.onError(Status.UNAVAILABLE.withCause(e));
-          return;
+        synchronized (DnsNameResolver.this) {
+          resolutionTask = null;
+          if (shutdown || resolving) {
+            return;
+          }
+          resolve();
         }
-        ArrayList<ResolvedServerInfo> servers
-            = new ArrayList<ResolvedServerInfo>(inetAddrs.length);
-        for (int i = 0; i < inetAddrs.length; i++) {
-          InetAddress inetAddr = inetAddrs[i];
-          servers.add(
-              new ResolvedServerInfo(new InetSocketAddress(inetAddr, port), Attributes.EMPTY));
-        }
-        listener.onUpdate(servers, Attributes.EMPTY);
       }
-    });
+    }, delayNanos, TimeUnit.NANOSECONDS);
   }
 
-  @Override
-  public synchronized void shutdown() {
-    if (executor != null) {
-      executor = SharedResourceHolder.release(GrpcUtil.SHARED_CHANNEL_EXECUTOR, executor);
+  @GuardedBy("this")
+  private void cancelResolutionTask() {
+    if (resolutionTask != null) {
+      resolutionTask.cancel(false);
+      resolutionTask = null;
     }
   }
 
+  private final Runnable resolutionRunnable = new Runnable() {
+    @Override
+    public void run() {
+      Listener savedListener;
+      AddressResolver savedAddressResolver;
+      synchronized (DnsNameResolver.this) {
+        if (shutdown) {
+          resolving = false;
+          return;
+        }
+        savedListener = listener;
+        savedAddressResolver = addressResolver;
+      }
+      InetAddress[] inetAddrs = null;
+      Exception error = null;
+      try {
+        inetAddrs = savedAddressResolver.resolveAddress(host);
+      } catch (Exception e) {
+        error = e;
+      }
+      ArrayList<ResolvedServerInfo> servers = null;
+      boolean changed = false;
+      synchronized (DnsNameResolver.this) {
+        resolving = false;
+        if (shutdown) {
+          return;
+        }
+        sinceLastResolution.reset().start();
+        if (refreshIntervalNanos > 0) {
+          scheduleResolution(refreshIntervalNanos);
+        }
+        if (inetAddrs != null) {
+          servers = new ArrayList<ResolvedServerInfo>(inetAddrs.length);
+          HashSet<SocketAddress> addresses = new HashSet<SocketAddress>(inetAddrs.length);
+          for (int i = 0; i < inetAddrs.length; i++) {
+            InetSocketAddress address = new InetSocketAddress(inetAddrs[i], port);
+            servers.add(new ResolvedServerInfo(address, Attributes.EMPTY));
+            addresses.add(address);
+          }
+          // DNS servers commonly rotate the order of the records, which does not constitute a
+          // change worth propagating to the load balancer.
+          changed = !addresses.equals(lastAddresses);
+          lastAddresses = addresses;
+        } else {
+          // Make sure the next successful resolution is reported, as the listener may have
+          // discarded the previous result upon the error.
+          lastAddresses = null;
+        }
+      }
+      if (error != null) {
+        savedListener.onError(Status.UNAVAILABLE.withCause(error));
+      } else if (changed) {
+        savedListener.onUpdate(servers, Attributes.EMPTY);
+      }
+    }
+  };
+
   int getPort() {
     return port;
   }
+
+  long getRefreshIntervalNanos() {
+    return refreshIntervalNanos;
+  }
+
+  long getCacheTtlNanos() {
+    return cacheTtlNanos;
+  }
+
+  @VisibleForTesting
+  synchronized void setAddressResolver(AddressResolver addressResolver) {
+    this.addressResolver = Preconditions.checkNotNull(addressResolver, "addressResolver");
+  }
+
+  /**
+   * Looks up the addresses of a host. Allows tests to substitute a local stand-in for the system
+   * resolver.
+   */
+  @VisibleForTesting
+  interface AddressResolver {
+    InetAddress[] resolveAddress(String host) throws Exception;
+  }
+
+  /**
+   * Resolves addresses through {@link InetAddress#getAllByName}, which issues the A and AAAA
+   * queries through the system resolver.
+   */
+  private static final class JdkAddressResolver implements AddressResolver {
+    static final JdkAddressResolver INSTANCE = new JdkAddressResolver();
+
+    @Override
+    public InetAddress[] resolveAddress(String host) throws UnknownHostException {
+      return InetAddress.getAllByName(host);
+    }
+  }
 }
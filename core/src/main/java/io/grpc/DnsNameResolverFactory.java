@@ -34,6 +34,10 @@ package io.grpc;
 import com.google.common.base.Preconditions;
 
 import java.net.URI;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A factory for {@link DnsNameResolver}.
@@ -49,12 +53,30 @@ import java.net.URI;
  *   yet))</li>
  *   <li>{@code "dns:///foo.googleapis.com"} (without port)</li>
  * </ul>
+ *
+ * <p>The resolvers re-resolve the name when the channel fails to connect to any of the resolved
+ * addresses, and optionally at a fixed interval (see {@link #withRefreshInterval}). A resolution
+ * result is cached for the JVM's positive DNS cache TTL ({@code networkaddress.cache.ttl}) unless
+ * overridden with {@link #withCacheTtl}.
  */
 @ExperimentalApi
 public final class DnsNameResolverFactory extends NameResolver.Factory {
+  private static final Logger log = Logger.getLogger(DnsNameResolverFactory.class.getName());
 
   private static final String SCHEME = "dns";
-  private static final DnsNameResolverFactory instance = new DnsNameResolverFactory();
+
+  /**
+   * The cache TTL used by the JVM when neither a security manager nor {@code
+   * networkaddress.cache.ttl} is configured.
+   */
+  private static final long DEFAULT_CACHE_TTL_SECONDS = 30;
+  private static final String CACHE_TTL_PROPERTY = "networkaddress.cache.ttl";
+
+  private static final DnsNameResolverFactory instance =
+      new DnsNameResolverFactory(0, TimeUnit.SECONDS.toNanos(getJvmCacheTtlSeconds()));
+
+  private final long refreshIntervalNanos;
+  private final long cacheTtlNanos;
 
   @Override
   public NameResolver newNameResolver(URI targetUri, Attributes params) {
@@ -63,7 +85,8 @@ public final class DnsNameResolverFactory extends NameResolver.Factory {
       Preconditions.checkArgument(targetPath.startsWith("/"),
           "the path component (%s) of the target (%s) must start with '/'", targetPath, targetUri);
       String name = targetPath.substring(1);
-      return new DnsNameResolver(targetUri.getAuthority(), name, params);
+      return new DnsNameResolver(
+          targetUri.getAuthority(), name, params, refreshIntervalNanos, cacheTtlNanos);
     } else {
       return null;
     }
@@ -74,10 +97,52 @@ public final class DnsNameResolverFactory extends NameResolver.Factory {
     return SCHEME;
   }
 
-  private DnsNameResolverFactory() {
+  /**
+   * Returns a factory whose resolvers also re-resolve the name every {@code interval}, so that
+   * changes to the DNS records are picked up even while connections are healthy. A non-positive
+   * interval disables periodic re-resolution, which is the default.
+   */
+  public DnsNameResolverFactory withRefreshInterval(long interval, TimeUnit unit) {
+    return new DnsNameResolverFactory(unit.toNanos(interval), cacheTtlNanos);
+  }
+
+  /**
+   * Returns a factory whose resolvers consider a resolution result fresh for {@code ttl}. Requests
+   * to re-resolve within this period are deferred until it has elapsed.
+   */
+  public DnsNameResolverFactory withCacheTtl(long ttl, TimeUnit unit) {
+    return new DnsNameResolverFactory(refreshIntervalNanos, unit.toNanos(ttl));
+  }
+
+  private DnsNameResolverFactory(long refreshIntervalNanos, long cacheTtlNanos) {
+    this.refreshIntervalNanos = refreshIntervalNanos;
+    this.cacheTtlNanos = cacheTtlNanos;
   }
 
   public static DnsNameResolverFactory getInstance() {
     return instance;
   }
+
+  /**
+   * Returns how long the JVM caches successful lookups, which is the lowest interval at which
+   * re-resolving can observe a change. A negative value ("cache forever") is treated as zero, since
+   * the channel would otherwise never re-resolve.
+   */
+  private static long getJvmCacheTtlSeconds() {
+    String ttl = null;
+    try {
+      ttl = Security.getProperty(CACHE_TTL_PROPERTY);
+    } catch (SecurityException e) {
+      log.log(Level.FINE, "Unable to read " + CACHE_TTL_PROPERTY, e);
+    }
+    if (ttl == null) {
+      return DEFAULT_CACHE_TTL_SECONDS;
+    }
+    try {
+      return Math.max(0, Long.parseLong(ttl.trim()));
+    } catch (NumberFormatException e) {
+      log.log(Level.WARNING, "Invalid value for " + CACHE_TTL_PROPERTY + ": " + ttl, e);
+      return DEFAULT_CACHE_TTL_SECONDS;
+    }
+  }
 }
@@ -73,4 +73,24 @@ public abstract class ManagedChannel extends Channel {
    * @return whether the channel is terminated, as would be done by {@link #isTerminated()}.
    */
   public abstract boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
+
+  /**
+   * Starts connecting to the servers that the load balancer uses, without waiting for the first
+   * call, so that the first calls don't pay for name resolution and connection establishment.
+   * Servers that the load balancer starts using later are also connected to as soon as they are
+   * known. A channel in idle mode leaves it, and from then on no longer enters idle mode.
+   */
+  @ExperimentalApi
+  public abstract void connectEagerly();
+
+  /**
+   * Connects eagerly, as would be done by {@link #connectEagerly()}, and waits until connections
+   * to at least {@code minReadyServers} servers are ready, giving up if the timeout is reached or
+   * the channel is shut down.
+   *
+   * @return whether at least {@code minReadyServers} connections are ready
+   */
+  @ExperimentalApi
+  public abstract boolean awaitReady(int minReadyServers, long timeout, TimeUnit unit)
+      throws InterruptedException;
 }
@@ -33,6 +33,7 @@ package io.grpc;
 
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A builder for {@link ManagedChannel} instances.
@@ -179,6 +180,55 @@ public abstract class ManagedChannelBuilder<T extends ManagedChannelBuilder<T>>
   @ExperimentalApi
   public abstract T compressorRegistry(CompressorRegistry registry);
 
+  /**
+   * Enables racing connection attempts to the addresses of an {@link EquivalentAddressGroup}. If
+   * a connection attempt hasn't completed within {@code delay}, an attempt to the next address is
+   * started in parallel, and the first connection to complete is used. This avoids stalling on an
+   * unreachable address until its connect timeout expires. A delay of around 250 milliseconds is
+   * recommended by RFC 8305.
+   *
+   * <p>If this method is not called, or the delay is not positive, the addresses are tried one at
+   * a time.
+   */
+  @ExperimentalApi
+  public abstract T connectionAttemptDelay(long delay, TimeUnit unit);
+
+  /**
+   * Allows opening up to {@code maxConnections} connections to the same server address. Once every
+   * connection to an address has at least {@code maxCalls} active calls, another connection is
+   * opened. New calls go to the connection with the fewest active calls, and extra connections are
+   * closed when they become idle while the other connections have plenty of spare capacity.
+   *
+   * <p>{@code maxCalls} should not be larger than the server's {@code MAX_CONCURRENT_STREAMS},
+   * since calls beyond that limit wait for earlier calls to complete instead of triggering a new
+   * connection.
+   *
+   * <p>By default, there is a single connection per address.
+   */
+  @ExperimentalApi
+  public abstract T maxCallsPerConnection(int maxCalls, int maxConnections);
+
+  /**
+   * Makes the channel connect to the servers that the load balancer uses as soon as they are
+   * resolved, instead of when the first call is made. See {@link ManagedChannel#connectEagerly}.
+   */
+  @ExperimentalApi
+  public abstract T connectEagerly();
+
+  /**
+   * Sets how long the channel can be without calls before it enters idle mode. In idle mode, the
+   * channel shuts down its connections, its load balancer and its name resolver, to free their
+   * resources. The next call transparently brings them back, waiting for name resolution and a
+   * connection like the first call on a new channel does.
+   *
+   * <p>A channel that {@linkplain #connectEagerly connects eagerly} never enters idle mode, since
+   * that would lose the connections it was asked to keep.
+   *
+   * <p>By default, the channel never enters idle mode.
+   */
+  @ExperimentalApi
+  public abstract T idleTimeout(long value, TimeUnit unit);
+
   /**
    * Builds a channel using the given parameters.
    */
@@ -134,6 +134,37 @@ public class MethodDescriptor<ReqT, RespT> {
     public T parse(InputStream stream);
   }
 
+  /**
+   * A {@link Marshaller} for mutable messages.
+   *
+   * <p>Transports within a single process may hand the message object itself to the other side of
+   * the call, without serializing it, when both sides use the same marshaller instance. They do
+   * so with a copy made by this marshaller, so that changes made to the message after it was sent
+   * are not seen by the receiver. Messages of marshallers that are neither copying nor {@link
+   * ImmutableMarshaller immutable} are serialized when sent.
+   *
+   * @param <T> type of serializable message
+   */
+  @ExperimentalApi
+  public interface CopyingMarshaller<T> extends Marshaller<T> {
+    /**
+     * Returns a deep copy of {@code value}.
+     */
+    public T copy(T value);
+  }
+
+  /**
+   * A {@link Marshaller} for messages that can't be changed once created, like protobuf messages.
+   *
+   * <p>Transports within a single process may hand the message object itself to the other side of
+   * the call, without serializing it, when both sides use the same marshaller instance.
+   *
+   * @param <T> type of serializable message
+   */
+  @ExperimentalApi
+  public interface ImmutableMarshaller<T> extends Marshaller<T> {
+  }
+
   /**
    * Creates a new {@code MethodDescriptor}.
    *
@@ -174,6 +205,22 @@ public class MethodDescriptor<ReqT, RespT> {
     return fullMethodName;
   }
 
+  /**
+   * The marshaller used to encode and decode requests.
+   */
+  @ExperimentalApi
+  public Marshaller<ReqT> getRequestMarshaller() {
+    return requestMarshaller;
+  }
+
+  /**
+   * The marshaller used to encode and decode responses.
+   */
+  @ExperimentalApi
+  public Marshaller<RespT> getResponseMarshaller() {
+    return responseMarshaller;
+  }
+
   /**
    * Parse a response payload from the given {@link InputStream}.
    *
@@ -68,6 +68,15 @@ public abstract class NameResolver {
    */
   public abstract void shutdown();
 
+  /**
+   * Re-resolves the name.
+   *
+   * <p>Can only be called after {@link #start} has been called. This is only a hint; an
+   * implementation may delay the resolution, e.g., if the current result is still considered
+   * fresh. The default implementation does nothing.
+   */
+  public void refresh() {}
+
   public abstract static class Factory {
     /**
      * The port number used in case the target or the underlying naming system doesn't provide a
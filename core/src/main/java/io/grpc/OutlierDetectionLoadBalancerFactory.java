@@ -0,0 +1,668 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import io.grpc.internal.ClientStream;
+import io.grpc.internal.ClientStreamListener;
+import io.grpc.internal.ClientTransport;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A {@link LoadBalancer.Factory} whose load balancers temporarily stop routing calls to backends
+ * that fail much more often than the others.
+ *
+ * <p>The load balancers wrap ones created by a delegate factory, and observe the status of every
+ * call made on the transports that the delegate obtains from the {@link TransportManager}. A
+ * backend, identified by its {@link EquivalentAddressGroup}, is ejected when:
+ *
+ * <ul>
+ *   <li>its calls have failed a number of times in a row; or</li>
+ *   <li>at the end of an interval, its success rate is more than a configured number of standard
+ *   deviations below the mean success rate of all backends with enough calls in the interval.
+ *   </li>
+ * </ul>
+ *
+ * <p>A call counts as failed if it was closed with {@code UNAVAILABLE}, {@code UNKNOWN}, {@code
+ * INTERNAL} or {@code DATA_LOSS}. An ejected backend is skipped when picking a transport, until its
+ * ejection time has passed. The ejection time doubles every time the same backend is ejected again,
+ * up to a maximum, and shrinks back for every interval that the backend isn't ejected. No more than
+ * a configured percentage of the backends are ejected at any time, though one of two or more
+ * backends can always be ejected.
+ *
+ * <p>Only works with delegates that pick among several address groups, e.g., round-robin, since
+ * picks for an ejected backend are retried with the delegate.
+ */
+@ExperimentalApi
+public final class OutlierDetectionLoadBalancerFactory extends LoadBalancer.Factory {
+  private static final Set<Status.Code> FAILURE_CODES = EnumSet.of(
+      Status.Code.UNAVAILABLE, Status.Code.UNKNOWN, Status.Code.INTERNAL, Status.Code.DATA_LOSS);
+
+  private final LoadBalancer.Factory delegate;
+  private final int consecutiveFailures;
+  private final double successRateStdevFactor;
+  private final int successRateMinimumRequestVolume;
+  private final int successRateMinimumHosts;
+  private final long intervalNanos;
+  private final long baseEjectionTimeNanos;
+  private final long maxEjectionTimeNanos;
+  private final int maxEjectionPercent;
+  private final Ticker ticker;
+
+  private OutlierDetectionLoadBalancerFactory(Builder builder) {
+    this.delegate = builder.delegate;
+    this.consecutiveFailures = builder.consecutiveFailures;
+    this.successRateStdevFactor = builder.successRateStdevFactor;
+    this.successRateMinimumRequestVolume = builder.successRateMinimumRequestVolume;
+    this.successRateMinimumHosts = builder.successRateMinimumHosts;
+    this.intervalNanos = builder.intervalNanos;
+    this.baseEjectionTimeNanos = builder.baseEjectionTimeNanos;
+    this.maxEjectionTimeNanos = builder.maxEjectionTimeNanos;
+    this.maxEjectionPercent = builder.maxEjectionPercent;
+    this.ticker = builder.ticker;
+  }
+
+  /**
+   * Returns a builder for a factory that wraps load balancers created by {@code delegate}.
+   */
+  public static Builder newBuilder(LoadBalancer.Factory delegate) {
+    return new Builder(delegate);
+  }
+
+  @Override
+  public <T> LoadBalancer<T> newLoadBalancer(String serviceName, TransportManager<T> tm) {
+    OutlierDetector detector = new OutlierDetector();
+    RecordingTransportManager<T> recordingTm = new RecordingTransportManager<T>(tm, detector);
+    return new OutlierDetectionLoadBalancer<T>(
+        delegate.<T>newLoadBalancer(serviceName, recordingTm), recordingTm, detector);
+  }
+
+  /**
+   * Builder for {@link OutlierDetectionLoadBalancerFactory}.
+   */
+  public static final class Builder {
+    private final LoadBalancer.Factory delegate;
+    private int consecutiveFailures = 5;
+    private double successRateStdevFactor = 1.9;
+    private int successRateMinimumRequestVolume = 100;
+    private int successRateMinimumHosts = 5;
+    private long intervalNanos = TimeUnit.SECONDS.toNanos(10);
+    private long baseEjectionTimeNanos = TimeUnit.SECONDS.toNanos(30);
+    private long maxEjectionTimeNanos = TimeUnit.SECONDS.toNanos(300);
+    private int maxEjectionPercent = 10;
+    private Ticker ticker = Ticker.systemTicker();
+
+    private Builder(LoadBalancer.Factory delegate) {
+      this.delegate = Preconditions.checkNotNull(delegate, "delegate");
+    }
+
+    /**
+     * Sets the number of consecutive failed calls after which a backend is ejected. Defaults to
+     * 5.
+     */
+    public Builder consecutiveFailures(int consecutiveFailures) {
+      Preconditions.checkArgument(consecutiveFailures > 0, "consecutiveFailures must be positive");
+      this.consecutiveFailures = consecutiveFailures;
+      return this;
+    }
+
+    /**
+     * Sets how many standard deviations below the mean success rate a backend's success rate must
+     * be for it to be ejected. Defaults to 1.9.
+     */
+    public Builder successRateStdevFactor(double successRateStdevFactor) {
+      Preconditions.checkArgument(successRateStdevFactor >= 0,
+          "successRateStdevFactor must not be negative");
+      this.successRateStdevFactor = successRateStdevFactor;
+      return this;
+    }
+
+    /**
+     * Sets the number of calls a backend needs to have completed in an interval for its success
+     * rate to be considered. Defaults to 100.
+     */
+    public Builder successRateMinimumRequestVolume(int successRateMinimumRequestVolume) {
+      Preconditions.checkArgument(successRateMinimumRequestVolume > 0,
+          "successRateMinimumRequestVolume must be positive");
+      this.successRateMinimumRequestVolume = successRateMinimumRequestVolume;
+      return this;
+    }
+
+    /**
+     * Sets the number of backends that must have enough calls in an interval for success rates to
+     * be compared. Defaults to 5.
+     */
+    public Builder successRateMinimumHosts(int successRateMinimumHosts) {
+      Preconditions.checkArgument(successRateMinimumHosts > 0,
+          "successRateMinimumHosts must be positive");
+      this.successRateMinimumHosts = successRateMinimumHosts;
+      return this;
+    }
+
+    /**
+     * Sets the interval at which success rates are compared. Defaults to 10 seconds.
+     */
+    public Builder interval(long interval, TimeUnit unit) {
+      Preconditions.checkArgument(interval > 0, "interval must be positive");
+      this.intervalNanos = unit.toNanos(interval);
+      return this;
+    }
+
+    /**
+     * Sets how long a backend is ejected the first time. Defaults to 30 seconds.
+     */
+    public Builder baseEjectionTime(long time, TimeUnit unit) {
+      Preconditions.checkArgument(time > 0, "time must be positive");
+      this.baseEjectionTimeNanos = unit.toNanos(time);
+      return this;
+    }
+
+    /**
+     * Sets the longest a backend can be ejected for. Defaults to 300 seconds.
+     */
+    public Builder maxEjectionTime(long time, TimeUnit unit) {
+      Preconditions.checkArgument(time > 0, "time must be positive");
+      this.maxEjectionTimeNanos = unit.toNanos(time);
+      return this;
+    }
+
+    /**
+     * Sets the maximum percentage of backends that can be ejected at the same time. Defaults to
+     * 10. Unless it is 0, one backend can be ejected even if the percentage rounds down to none,
+     * as long as there are at least two.
+     */
+    public Builder maxEjectionPercent(int maxEjectionPercent) {
+      Preconditions.checkArgument(maxEjectionPercent >= 0 && maxEjectionPercent <= 100,
+          "maxEjectionPercent must be between 0 and 100");
+      this.maxEjectionPercent = maxEjectionPercent;
+      return this;
+    }
+
+    @VisibleForTesting
+    Builder ticker(Ticker ticker) {
+      this.ticker = Preconditions.checkNotNull(ticker, "ticker");
+      return this;
+    }
+
+    public OutlierDetectionLoadBalancerFactory build() {
+      return new OutlierDetectionLoadBalancerFactory(this);
+    }
+  }
+
+  private static final class OutlierDetectionLoadBalancer<T> extends LoadBalancer<T> {
+    private final LoadBalancer<T> delegate;
+    private final RecordingTransportManager<T> tm;
+    private final OutlierDetector detector;
+
+    OutlierDetectionLoadBalancer(LoadBalancer<T> delegate, RecordingTransportManager<T> tm,
+        OutlierDetector detector) {
+      this.delegate = delegate;
+      this.tm = tm;
+      this.detector = detector;
+    }
+
+    @Override
+    public ListenableFuture<T> pickTransport(@Nullable RequestKey requestKey) {
+      // If the delegate picks an ejected backend, ask it again. Each retry moves a round-robin
+      // delegate to another backend, so retrying as many times as there are ejected backends is
+      // enough.
+      int retries = 0;
+      ListenableFuture<T> pick;
+      while (true) {
+        tm.startPick();
+        pick = delegate.pickTransport(requestKey);
+        EquivalentAddressGroup pickedGroup = tm.finishPick();
+        if (pickedGroup == null || !detector.isEjected(pickedGroup)
+            || retries++ >= detector.ejectedCount()) {
+          break;
+        }
+        pick.cancel(false);
+      }
+      return pick;
+    }
+
+    @Override
+    public void shutdown() {
+      delegate.shutdown();
+    }
+
+    @Override
+    public void handleResolvedAddresses(List<ResolvedServerInfo> servers, Attributes config) {
+      delegate.handleResolvedAddresses(servers, config);
+    }
+
+    @Override
+    public void handleNameResolutionError(Status error) {
+      delegate.handleNameResolutionError(error);
+    }
+
+    @Override
+    public void transportReady(EquivalentAddressGroup addressGroup, T transport) {
+      delegate.transportReady(addressGroup, transport);
+    }
+
+    @Override
+    public void transportShutdown(EquivalentAddressGroup addressGroup, T transport, Status s) {
+      delegate.transportShutdown(addressGroup, transport, s);
+    }
+  }
+
+  /**
+   * Wraps the transports given to the delegate load balancer, so that the outcome of the calls
+   * made on them is reported to the {@link OutlierDetector}.
+   */
+  private static final class RecordingTransportManager<T> extends TransportManager<T> {
+    private final TransportManager<T> delegate;
+    private final OutlierDetector detector;
+    /**
+     * The address group requested by the delegate during the current pick, if this thread is
+     * picking.
+     */
+    private final ThreadLocal<EquivalentAddressGroup[]> pickedGroup =
+        new ThreadLocal<EquivalentAddressGroup[]>();
+
+    RecordingTransportManager(TransportManager<T> delegate, OutlierDetector detector) {
+      this.delegate = delegate;
+      this.detector = detector;
+    }
+
+    void startPick() {
+      pickedGroup.set(new EquivalentAddressGroup[1]);
+    }
+
+    @Nullable
+    EquivalentAddressGroup finishPick() {
+      EquivalentAddressGroup group = pickedGroup.get()[0];
+      pickedGroup.remove();
+      return group;
+    }
+
+    @Override
+    public void updateRetainedTransports(Collection<EquivalentAddressGroup> addrs) {
+      delegate.updateRetainedTransports(addrs);
+    }
+
+    @Override
+    public ListenableFuture<T> getTransport(final EquivalentAddressGroup addressGroup) {
+      EquivalentAddressGroup[] picking = pickedGroup.get();
+      if (picking != null) {
+        picking[0] = addressGroup;
+      }
+      detector.track(addressGroup);
+      return Futures.transform(delegate.getTransport(addressGroup), new Function<T, T>() {
+        @Override
+        public T apply(T transport) {
+          if (!(transport instanceof ClientTransport)) {
+            return transport;
+          }
+          @SuppressWarnings("unchecked")
+          T recordingTransport =
+              (T) new RecordingTransport((ClientTransport) transport, addressGroup, detector);
+          return recordingTransport;
+        }
+      });
+    }
+
+    @Override
+    public Channel makeChannel(T transport) {
+      return delegate.makeChannel(transport);
+    }
+  }
+
+  private static final class RecordingTransport implements ClientTransport {
+    private final ClientTransport delegate;
+    private final EquivalentAddressGroup addressGroup;
+    private final OutlierDetector detector;
+
+    RecordingTransport(ClientTransport delegate, EquivalentAddressGroup addressGroup,
+        OutlierDetector detector) {
+      this.delegate = delegate;
+      this.addressGroup = addressGroup;
+      this.detector = detector;
+    }
+
+    @Override
+    public ClientStream newStream(MethodDescriptor<?, ?> method, Metadata headers) {
+      return new RecordingStream(delegate.newStream(method, headers), addressGroup, detector);
+    }
+
+    @Override
+    public void ping(PingCallback callback, Executor executor) {
+      delegate.ping(callback, executor);
+    }
+
+    @Override
+    public String toString() {
+      return delegate.toString();
+    }
+  }
+
+  private static final class RecordingStream implements ClientStream {
+    private final ClientStream delegate;
+    private final EquivalentAddressGroup addressGroup;
+    private final OutlierDetector detector;
+
+    RecordingStream(ClientStream delegate, EquivalentAddressGroup addressGroup,
+        OutlierDetector detector) {
+      this.delegate = delegate;
+      this.addressGroup = addressGroup;
+      this.detector = detector;
+    }
+
+    @Override
+    public void start(final ClientStreamListener listener) {
+      delegate.start(new ClientStreamListener() {
+        @Override
+        public void headersRead(Metadata headers) {
+          listener.headersRead(headers);
+        }
+
+        @Override
+        public void closed(Status status, Metadata trailers) {
+          detector.recordOutcome(addressGroup, status);
+          listener.closed(status, trailers);
+        }
+
+        @Override
+        public void messageRead(InputStream message) {
+          listener.messageRead(message);
+        }
+
+        @Override
+        public void onReady() {
+          listener.onReady();
+        }
+      });
+    }
+
+    @Override
+    public void cancel(Status reason) {
+      delegate.cancel(reason);
+    }
+
+    @Override
+    public void halfClose() {
+      delegate.halfClose();
+    }
+
+    @Override
+    public void setAuthority(String authority) {
+      delegate.setAuthority(authority);
+    }
+
+    @Override
+    public void setWeight(int weight) {
+      delegate.setWeight(weight);
+    }
+
+    @Override
+    public void request(int numMessages) {
+      delegate.request(numMessages);
+    }
+
+    @Override
+    public void writeMessage(InputStream message) {
+      delegate.writeMessage(message);
+    }
+
+    @Override
+    public void flush() {
+      delegate.flush();
+    }
+
+    @Override
+    public boolean isReady() {
+      return delegate.isReady();
+    }
+
+    @Override
+    public void setCompressor(Compressor compressor) {
+      delegate.setCompressor(compressor);
+    }
+
+    @Override
+    public void setDecompressor(Decompressor decompressor) {
+      delegate.setDecompressor(decompressor);
+    }
+
+    @Override
+    public void setMessageCompression(boolean enable) {
+      delegate.setMessageCompression(enable);
+    }
+  }
+
+  /**
+   * Keeps per-backend call statistics and decides which backends are ejected. Work that happens
+   * once per interval is done lazily by the first caller after the interval has passed.
+   */
+  private final class OutlierDetector {
+    private final Object lock = new Object();
+
+    @GuardedBy("lock")
+    private final Map<EquivalentAddressGroup, BackendStats> backends =
+        new HashMap<EquivalentAddressGroup, BackendStats>();
+    @GuardedBy("lock")
+    private int ejectedCount;
+    @GuardedBy("lock")
+    private long nextIntervalNanos = ticker.read() + intervalNanos;
+
+    void track(EquivalentAddressGroup addressGroup) {
+      synchronized (lock) {
+        maybeStartNextInterval();
+        getStats(addressGroup).active = true;
+      }
+    }
+
+    void recordOutcome(EquivalentAddressGroup addressGroup, Status status) {
+      synchronized (lock) {
+        maybeStartNextInterval();
+        BackendStats stats = getStats(addressGroup);
+        stats.active = true;
+        if (FAILURE_CODES.contains(status.getCode())) {
+          stats.failures++;
+          stats.consecutiveFailures++;
+          if (stats.consecutiveFailures >= consecutiveFailures) {
+            maybeEject(stats);
+          }
+        } else if (status.getCode() != Status.Code.CANCELLED) {
+          // Cancellations are usually initiated by the client, and say nothing about the backend.
+          stats.successes++;
+          stats.consecutiveFailures = 0;
+        }
+      }
+    }
+
+    boolean isEjected(EquivalentAddressGroup addressGroup) {
+      synchronized (lock) {
+        maybeStartNextInterval();
+        BackendStats stats = backends.get(addressGroup);
+        if (stats == null || !stats.ejected) {
+          return false;
+        }
+        if (ticker.read() - stats.ejectedUntilNanos >= 0) {
+          uneject(stats);
+          return false;
+        }
+        return true;
+      }
+    }
+
+    int ejectedCount() {
+      synchronized (lock) {
+        return ejectedCount;
+      }
+    }
+
+    @GuardedBy("lock")
+    private BackendStats getStats(EquivalentAddressGroup addressGroup) {
+      BackendStats stats = backends.get(addressGroup);
+      if (stats == null) {
+        stats = new BackendStats();
+        backends.put(addressGroup, stats);
+      }
+      return stats;
+    }
+
+    @GuardedBy("lock")
+    private void maybeEject(BackendStats stats) {
+      if (stats.ejected || ejectedCount >= maxEjectedCount()) {
+        return;
+      }
+      stats.ejected = true;
+      ejectedCount++;
+      // Double the ejection time every time, without overflowing.
+      long ejectionTimeNanos = baseEjectionTimeNanos;
+      for (int i = 0; i < stats.ejectionMultiplier && ejectionTimeNanos < maxEjectionTimeNanos;
+          i++) {
+        ejectionTimeNanos *= 2;
+      }
+      stats.ejectedUntilNanos = ticker.read() + Math.min(ejectionTimeNanos, maxEjectionTimeNanos);
+      stats.ejectionMultiplier++;
+      stats.consecutiveFailures = 0;
+    }
+
+    /**
+     * Returns how many backends may be ejected at the same time. Rounding down the percentage
+     * would never eject any of a few backends, so one of them may always be ejected.
+     */
+    @GuardedBy("lock")
+    private int maxEjectedCount() {
+      if (maxEjectionPercent == 0 || backends.size() < 2) {
+        return 0;
+      }
+      return Math.max(1, backends.size() * maxEjectionPercent / 100);
+    }
+
+    @GuardedBy("lock")
+    private void uneject(BackendStats stats) {
+      stats.ejected = false;
+      ejectedCount--;
+    }
+
+    @GuardedBy("lock")
+    private void maybeStartNextInterval() {
+      long now = ticker.read();
+      if (now - nextIntervalNanos < 0) {
+        return;
+      }
+      nextIntervalNanos = now + intervalNanos;
+
+      for (Iterator<BackendStats> it = backends.values().iterator(); it.hasNext(); ) {
+        BackendStats stats = it.next();
+        // Backends that aren't ejected are forgiven one ejection per interval.
+        if (!stats.ejected && stats.ejectionMultiplier > 0) {
+          stats.ejectionMultiplier--;
+        }
+        if (stats.ejected && now - stats.ejectedUntilNanos >= 0) {
+          uneject(stats);
+        }
+        if (!stats.active && !stats.ejected) {
+          // Forget the backends that the delegate no longer uses.
+          it.remove();
+        }
+      }
+      ejectSuccessRateOutliers();
+      for (BackendStats stats : backends.values()) {
+        stats.successes = 0;
+        stats.failures = 0;
+        stats.active = false;
+      }
+    }
+
+    @GuardedBy("lock")
+    private void ejectSuccessRateOutliers() {
+      int hosts = 0;
+      double sum = 0;
+      double sumOfSquares = 0;
+      for (BackendStats stats : backends.values()) {
+        if (stats.requestVolume() >= successRateMinimumRequestVolume) {
+          double successRate = stats.successRate();
+          hosts++;
+          sum += successRate;
+          sumOfSquares += successRate * successRate;
+        }
+      }
+      if (hosts < successRateMinimumHosts) {
+        return;
+      }
+      double mean = sum / hosts;
+      double stdev = Math.sqrt(Math.max(0, sumOfSquares / hosts - mean * mean));
+      double threshold = mean - successRateStdevFactor * stdev;
+      for (BackendStats stats : backends.values()) {
+        if (stats.requestVolume() >= successRateMinimumRequestVolume
+            && stats.successRate() < threshold) {
+          maybeEject(stats);
+        }
+      }
+    }
+  }
+
+  private static final class BackendStats {
+    // Counts of the current interval
+    int successes;
+    int failures;
+    boolean active;
+
+    int consecutiveFailures;
+    boolean ejected;
+    long ejectedUntilNanos;
+    /** How many times the ejection time has been doubled. */
+    int ejectionMultiplier;
+
+    int requestVolume() {
+      return successes + failures;
+    }
+
+    double successRate() {
+      return (double) successes / requestVolume();
+    }
+  }
+}
@@ -39,6 +39,7 @@ import io.grpc.internal.BlankFutureProvider;
 
 import java.net.SocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -69,8 +70,11 @@ public final class SimpleLoadBalancerFactory extends LoadBalancer.Factory {
   private static class SimpleLoadBalancer<T> extends LoadBalancer<T> {
     private final Object lock = new Object();
 
-    @GuardedBy("lock")
-    private EquivalentAddressGroup addresses;
+    /**
+     * The latest resolved addresses. Read without the lock by {@link #pickTransport}, but 'lock'
+     * must be held when assigning to it.
+     */
+    private volatile EquivalentAddressGroup addresses;
     @GuardedBy("lock")
     private final BlankFutureProvider<T> pendingPicks = new BlankFutureProvider<T>();
     @GuardedBy("lock")
@@ -84,14 +88,17 @@ public final class SimpleLoadBalancerFactory extends LoadBalancer.Factory {
 
     @Override
     public ListenableFuture<T> pickTransport(@Nullable RequestKey requestKey) {
-      EquivalentAddressGroup addressesCopy;
-      synchronized (lock) {
-        addressesCopy = addresses;
-        if (addressesCopy == null) {
-          if (nameResolutionError != null) {
-            return Futures.immediateFailedFuture(nameResolutionError);
+      EquivalentAddressGroup addressesCopy = addresses;
+      if (addressesCopy == null) {
+        synchronized (lock) {
+          // Check again, since it could have changed before acquiring the lock
+          addressesCopy = addresses;
+          if (addressesCopy == null) {
+            if (nameResolutionError != null) {
+              return Futures.immediateFailedFuture(nameResolutionError);
+            }
+            return pendingPicks.newBlankFuture();
           }
-          return pendingPicks.newBlankFuture();
         }
       }
       return tm.getTransport(addressesCopy);
@@ -116,6 +123,7 @@ public final class SimpleLoadBalancerFactory extends LoadBalancer.Factory {
         nameResolutionError = null;
         pendingPicksFulfillmentBatch = pendingPicks.createFulfillmentBatch();
       }
+      tm.updateRetainedTransports(Collections.singletonList(newAddresses));
       pendingPicksFulfillmentBatch.link(new Supplier<ListenableFuture<T>>() {
         @Override public ListenableFuture<T> get() {
           return tm.getTransport(newAddresses);
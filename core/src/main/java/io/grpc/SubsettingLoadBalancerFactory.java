@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link LoadBalancer.Factory} that limits the servers each client connects to, so that in a
+ * large fleet every server only holds connections from a fraction of the clients.
+ *
+ * <p>The {@link LoadBalancer}s it creates pass at most {@code subsetSize} of the resolved servers
+ * to a delegate {@code LoadBalancer}. The subset is chosen with rendezvous (highest random weight)
+ * hashing of the client ID and each server address, which makes it:
+ *
+ * <ul>
+ *   <li>deterministic: a client gets the same subset for the same servers, regardless of the order
+ *   in which they were resolved;</li>
+ *   <li>evenly distributed: with distinct client IDs, every server is selected by about the same
+ *   number of clients;</li>
+ *   <li>stable: adding or removing a server changes at most one member of each client's subset.
+ *   </li>
+ * </ul>
+ */
+@ExperimentalApi
+public final class SubsettingLoadBalancerFactory extends LoadBalancer.Factory {
+  private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+  private final LoadBalancer.Factory delegate;
+  private final String clientId;
+  private final int subsetSize;
+
+  private SubsettingLoadBalancerFactory(
+      LoadBalancer.Factory delegate, String clientId, int subsetSize) {
+    this.delegate = Preconditions.checkNotNull(delegate, "delegate");
+    this.clientId = Preconditions.checkNotNull(clientId, "clientId");
+    Preconditions.checkArgument(subsetSize > 0, "subsetSize must be positive");
+    this.subsetSize = subsetSize;
+  }
+
+  /**
+   * Creates a factory whose load balancers pass at most {@code subsetSize} servers to load
+   * balancers created by {@code delegate}.
+   *
+   * @param delegate creates the load balancers that receive the subset
+   * @param clientId identifies this client, e.g., a host name and process ID. Clients should use
+   *                 distinct IDs for the servers to be evenly distributed among them.
+   * @param subsetSize the maximum number of servers this client connects to
+   */
+  public static SubsettingLoadBalancerFactory newInstance(
+      LoadBalancer.Factory delegate, String clientId, int subsetSize) {
+    return new SubsettingLoadBalancerFactory(delegate, clientId, subsetSize);
+  }
+
+  @Override
+  public <T> LoadBalancer<T> newLoadBalancer(String serviceName, TransportManager<T> tm) {
+    return new SubsettingLoadBalancer<T>(delegate.<T>newLoadBalancer(serviceName, tm));
+  }
+
+  /**
+   * Returns the servers selected for this client, in the order they were given.
+   */
+  @VisibleForTesting
+  List<ResolvedServerInfo> selectSubset(List<ResolvedServerInfo> servers) {
+    if (servers.size() <= subsetSize) {
+      return servers;
+    }
+    long[] weights = new long[servers.size()];
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] = weight(servers.get(i).getAddress());
+    }
+    // A server is in the subset if its weight is among the subsetSize highest weights. Ties, which
+    // are extremely unlikely, are broken by the position in the list.
+    long[] sortedWeights = weights.clone();
+    Arrays.sort(sortedWeights);
+    long threshold = sortedWeights[sortedWeights.length - subsetSize];
+    int slotsAtThreshold = 0;
+    for (int i = sortedWeights.length - subsetSize; i < sortedWeights.length; i++) {
+      if (sortedWeights[i] == threshold) {
+        slotsAtThreshold++;
+      }
+    }
+    ArrayList<ResolvedServerInfo> subset = new ArrayList<ResolvedServerInfo>(subsetSize);
+    for (int i = 0; i < weights.length; i++) {
+      if (weights[i] > threshold) {
+        subset.add(servers.get(i));
+      } else if (weights[i] == threshold && slotsAtThreshold > 0) {
+        slotsAtThreshold--;
+        subset.add(servers.get(i));
+      }
+    }
+    return subset;
+  }
+
+  private long weight(SocketAddress address) {
+    Hasher hasher = HASH_FUNCTION.newHasher().putString(clientId, Charsets.UTF_8);
+    if (address instanceof InetSocketAddress && !((InetSocketAddress) address).isUnresolved()) {
+      // Don't depend on whether the host name of the address is known, which would differ between
+      // clients.
+      InetSocketAddress inetAddress = (InetSocketAddress) address;
+      hasher.putBytes(inetAddress.getAddress().getAddress()).putInt(inetAddress.getPort());
+    } else {
+      hasher.putString(String.valueOf(address), Charsets.UTF_8);
+    }
+    return hasher.hash().asLong();
+  }
+
+  private final class SubsettingLoadBalancer<T> extends LoadBalancer<T> {
+    private final LoadBalancer<T> delegate;
+
+    SubsettingLoadBalancer(LoadBalancer<T> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public ListenableFuture<T> pickTransport(@Nullable RequestKey requestKey) {
+      return delegate.pickTransport(requestKey);
+    }
+
+    @Override
+    public void shutdown() {
+      delegate.shutdown();
+    }
+
+    @Override
+    public void handleResolvedAddresses(List<ResolvedServerInfo> servers, Attributes config) {
+      delegate.handleResolvedAddresses(selectSubset(servers), config);
+    }
+
+    @Override
+    public void handleNameResolutionError(Status error) {
+      delegate.handleNameResolutionError(error);
+    }
+
+    @Override
+    public void transportReady(EquivalentAddressGroup addressGroup, T transport) {
+      delegate.transportReady(addressGroup, transport);
+    }
+
+    @Override
+    public void transportShutdown(EquivalentAddressGroup addressGroup, T transport, Status s) {
+      delegate.transportShutdown(addressGroup, transport, s);
+    }
+  }
+}
@@ -46,6 +46,12 @@ import java.net.SocketAddress;
  * its name.
  *
  * <p>The channel is intended to be fully-featured, high performance, and useful in testing.
+ *
+ * <p>Messages are not serialized when the client and the server use the same marshaller instance,
+ * as they do when both use the same {@link io.grpc.MethodDescriptor}, and the marshaller is an
+ * {@link io.grpc.MethodDescriptor.ImmutableMarshaller} or a {@link
+ * io.grpc.MethodDescriptor.CopyingMarshaller}. The server then receives the client's message
+ * objects, or copies of them, and vice versa. Messages of other marshallers are serialized.
  */
 @ExperimentalApi("There is no plan to make this API stable.")
 public class InProcessChannelBuilder extends
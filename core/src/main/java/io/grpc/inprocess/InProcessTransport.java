@@ -42,37 +42,51 @@ import io.grpc.internal.ClientStream;
 import io.grpc.internal.ClientStreamListener;
 import io.grpc.internal.ManagedClientTransport;
 import io.grpc.internal.NoopClientStream;
+import io.grpc.internal.PassThroughStream;
 import io.grpc.internal.ServerStream;
 import io.grpc.internal.ServerStreamListener;
 import io.grpc.internal.ServerTransport;
 import io.grpc.internal.ServerTransportListener;
+import io.grpc.internal.StreamListener;
 
 import java.io.InputStream;
-import java.util.ArrayDeque;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+/**
+ * A transport connecting a client to an in-process server.
+ *
+ * <p>One transport carries all the calls between a channel and the server, so creating, starting
+ * and closing streams doesn't lock the transport. Each stream hands messages to the other side
+ * through lock-free queues, one per direction.
+ */
 @ThreadSafe
 class InProcessTransport implements ServerTransport, ManagedClientTransport {
   private static final Logger log = Logger.getLogger(InProcessTransport.class.getName());
 
   private final String name;
-  private ServerTransportListener serverTransportListener;
+  private volatile ServerTransportListener serverTransportListener;
   private ManagedClientTransport.Listener clientTransportListener;
   @GuardedBy("this")
   private boolean shutdown;
   @GuardedBy("this")
   private boolean terminated;
-  @GuardedBy("this")
-  private Status shutdownStatus;
-  @GuardedBy("this")
-  private Set<InProcessStream> streams = new HashSet<InProcessStream>();
+  // Written while holding the lock, but also read without it.
+  private volatile Status shutdownStatus;
+  private final Set<InProcessStream> streams =
+      Collections.newSetFromMap(new ConcurrentHashMap<InProcessStream, Boolean>());
 
   public InProcessTransport(String name) {
     this.name = name;
@@ -115,10 +129,9 @@ class InProcessTransport implements ServerTransport, ManagedClientTransport {
   }
 
   @Override
-  public synchronized ClientStream newStream(
-      final MethodDescriptor<?, ?> method, final Metadata headers) {
-    if (shutdownStatus != null) {
-      final Status capturedStatus = shutdownStatus;
+  public ClientStream newStream(final MethodDescriptor<?, ?> method, final Metadata headers) {
+    final Status capturedStatus = shutdownStatus;
+    if (capturedStatus != null) {
       return new NoopClientStream() {
         @Override
         public void start(ClientStreamListener listener) {
@@ -191,162 +204,70 @@ class InProcessTransport implements ServerTransport, ManagedClientTransport {
     private final InProcessServerStream serverStream = new InProcessServerStream();
     private final InProcessClientStream clientStream = new InProcessClientStream();
     private final Metadata headers;
-    private MethodDescriptor<?, ?> method;
+    private final MethodDescriptor<?, ?> method;
 
     private InProcessStream(MethodDescriptor<?, ?> method, Metadata headers) {
       this.method = checkNotNull(method);
       this.headers = checkNotNull(headers);
-
     }
 
     // Can be called multiple times due to races on both client and server closing at same time.
     private void streamClosed() {
-      synchronized (InProcessTransport.this) {
-        boolean justRemovedAnElement = streams.remove(this);
-        if (shutdown && streams.isEmpty() && justRemovedAnElement) {
-          notifyTerminated();
-        }
+      boolean justRemovedAnElement = streams.remove(this);
+      if (justRemovedAnElement && shutdownStatus != null && streams.isEmpty()) {
+        notifyTerminated();
       }
     }
 
-    private class InProcessServerStream implements ServerStream {
-      @GuardedBy("this")
-      private ClientStreamListener clientStreamListener;
-      @GuardedBy("this")
-      private int clientRequested;
-      @GuardedBy("this")
-      private ArrayDeque<InputStream> clientReceiveQueue = new ArrayDeque<InputStream>();
-      @GuardedBy("this")
-      private Status clientNotifyStatus;
-      @GuardedBy("this")
-      private Metadata clientNotifyTrailers;
-      // Only is intended to prevent double-close when client cancels.
-      @GuardedBy("this")
-      private boolean closed;
-
-      private synchronized void setListener(ClientStreamListener listener) {
-        clientStreamListener = listener;
-      }
+    private class InProcessServerStream implements ServerStream, PassThroughStream {
+      /** Messages, headers and the close of the call, on their way to the client. */
+      private final ToClient toClient = new ToClient();
 
       @Override
       public void request(int numMessages) {
-        boolean onReady = clientStream.serverRequested(numMessages);
-        if (onReady) {
-          synchronized (this) {
-            if (!closed) {
-              clientStreamListener.onReady();
-            }
-          }
+        if (clientStream.toServer.request(numMessages)) {
+          toClient.onReady();
         }
       }
 
-      // This method is the only reason we have to synchronize field accesses.
-      /**
-       * Client requested more messages.
-       *
-       * @return whether onReady should be called on the server
-       */
-      private synchronized boolean clientRequested(int numMessages) {
-        if (closed) {
-          return false;
-        }
-        boolean previouslyReady = clientRequested > 0;
-        clientRequested += numMessages;
-        while (clientRequested > 0 && !clientReceiveQueue.isEmpty()) {
-          clientRequested--;
-          clientStreamListener.messageRead(clientReceiveQueue.poll());
-        }
-        // Attempt being reentrant-safe
-        if (closed) {
-          return false;
-        }
-        if (clientReceiveQueue.isEmpty() && clientNotifyStatus != null) {
-          closed = true;
-          clientStreamListener.closed(clientNotifyStatus, clientNotifyTrailers);
-        }
-        boolean nowReady = clientRequested > 0;
-        return !previouslyReady && nowReady;
-      }
-
-      private void clientCancelled(Status status) {
-        internalCancel(status);
-      }
-
       @Override
-      public synchronized void writeMessage(InputStream message) {
-        if (closed) {
-          return;
-        }
-        if (clientRequested > 0) {
-          clientRequested--;
-          clientStreamListener.messageRead(message);
-        } else {
-          clientReceiveQueue.add(message);
-        }
+      public void writeMessage(InputStream message) {
+        toClient.write(message);
       }
 
       @Override
       public void flush() {}
 
       @Override
-      public synchronized boolean isReady() {
-        if (closed) {
-          return false;
-        }
-        return clientRequested > 0;
+      public boolean isReady() {
+        return toClient.isReady();
       }
 
       @Override
-      public synchronized void writeHeaders(Metadata headers) {
-        if (closed) {
-          return;
-        }
-        clientStreamListener.headersRead(headers);
+      public void writeHeaders(Metadata headers) {
+        toClient.writeHeaders(headers);
       }
 
       @Override
       public void close(Status status, Metadata trailers) {
-        synchronized (this) {
-          if (closed) {
-            return;
-          }
-          if (clientReceiveQueue.isEmpty()) {
-            closed = true;
-            clientStreamListener.closed(status, trailers);
-          } else {
-            clientNotifyStatus = status;
-            clientNotifyTrailers = trailers;
-          }
+        if (!toClient.close(status, trailers)) {
+          return;
         }
-
         clientStream.serverClosed(Status.OK);
         streamClosed();
       }
 
       @Override
       public void cancel(Status status) {
-        if (!internalCancel(Status.CANCELLED.withDescription("server cancelled stream"))) {
+        if (!toClient.cancel(Status.CANCELLED.withDescription("server cancelled stream"))) {
           return;
         }
         clientStream.serverClosed(status);
         streamClosed();
       }
 
-      private synchronized boolean internalCancel(Status status) {
-        if (closed) {
-          return false;
-        }
-        closed = true;
-        InputStream stream;
-        while ((stream = clientReceiveQueue.poll()) != null) {
-          try {
-            stream.close();
-          } catch (Throwable t) {
-            log.log(Level.WARNING, "Exception closing stream", t);
-          }
-        }
-        clientStreamListener.closed(status, new Metadata());
-        return true;
+      private void clientCancelled(Status status) {
+        toClient.cancel(status);
       }
 
       @Override
@@ -361,123 +282,46 @@ class InProcessTransport implements ServerTransport, ManagedClientTransport {
       public void setDecompressor(Decompressor decompressor) {}
     }
 
-    private class InProcessClientStream implements ClientStream {
-      @GuardedBy("this")
-      private ServerStreamListener serverStreamListener;
-      @GuardedBy("this")
-      private int serverRequested;
-      @GuardedBy("this")
-      private ArrayDeque<InputStream> serverReceiveQueue = new ArrayDeque<InputStream>();
-      @GuardedBy("this")
-      private boolean serverNotifyHalfClose;
-      // Only is intended to prevent double-close when server closes.
-      @GuardedBy("this")
-      private boolean closed;
-
-      private synchronized void setListener(ServerStreamListener listener) {
-        this.serverStreamListener = listener;
-      }
+    private class InProcessClientStream implements ClientStream, PassThroughStream {
+      /** Messages and the half-close of the call, on their way to the server. */
+      private final ToServer toServer = new ToServer();
 
       @Override
       public void request(int numMessages) {
-        boolean onReady = serverStream.clientRequested(numMessages);
-        if (onReady) {
-          synchronized (this) {
-            if (!closed) {
-              serverStreamListener.onReady();
-            }
-          }
+        if (serverStream.toClient.request(numMessages)) {
+          toServer.onReady();
         }
       }
 
-      // This method is the only reason we have to synchronize field accesses.
-      /**
-       * Client requested more messages.
-       *
-       * @return whether onReady should be called on the server
-       */
-      private synchronized boolean serverRequested(int numMessages) {
-        if (closed) {
-          return false;
-        }
-        boolean previouslyReady = serverRequested > 0;
-        serverRequested += numMessages;
-        while (serverRequested > 0 && !serverReceiveQueue.isEmpty()) {
-          serverRequested--;
-          serverStreamListener.messageRead(serverReceiveQueue.poll());
-        }
-        if (serverReceiveQueue.isEmpty() && serverNotifyHalfClose) {
-          serverNotifyHalfClose = false;
-          serverStreamListener.halfClosed();
-        }
-        boolean nowReady = serverRequested > 0;
-        return !previouslyReady && nowReady;
-      }
-
       private void serverClosed(Status status) {
-        internalCancel(status);
+        toServer.cancel(status);
       }
 
       @Override
-      public synchronized void writeMessage(InputStream message) {
-        if (closed) {
-          return;
-        }
-        if (serverRequested > 0) {
-          serverRequested--;
-          serverStreamListener.messageRead(message);
-        } else {
-          serverReceiveQueue.add(message);
-        }
+      public void writeMessage(InputStream message) {
+        toServer.write(message);
       }
 
       @Override
       public void flush() {}
 
       @Override
-      public synchronized boolean isReady() {
-        if (closed) {
-          return false;
-        }
-        return serverRequested > 0;
+      public boolean isReady() {
+        return toServer.isReady();
       }
 
       @Override
       public void cancel(Status reason) {
-        if (!internalCancel(reason)) {
-          return;
-        }
+        // Even if the server closed the stream already, its close may still be queued behind
+        // messages the client never requested.
+        toServer.cancel(reason);
         serverStream.clientCancelled(reason);
         streamClosed();
       }
 
-      private synchronized boolean internalCancel(Status reason) {
-        if (closed) {
-          return false;
-        }
-        closed = true;
-        InputStream stream;
-        while ((stream = serverReceiveQueue.poll()) != null) {
-          try {
-            stream.close();
-          } catch (Throwable t) {
-            log.log(Level.WARNING, "Exception closing stream", t);
-          }
-        }
-        serverStreamListener.closed(reason);
-        return true;
-      }
-
       @Override
-      public synchronized void halfClose() {
-        if (closed) {
-          return;
-        }
-        if (serverReceiveQueue.isEmpty()) {
-          serverStreamListener.halfClosed();
-        } else {
-          serverNotifyHalfClose = true;
-        }
+      public void halfClose() {
+        toServer.halfClose();
       }
 
       @Override
@@ -490,15 +334,25 @@ class InProcessTransport implements ServerTransport, ManagedClientTransport {
       }
 
       @Override
-      public void start(ClientStreamListener listener) {
-        serverStream.setListener(listener);
+      public void setWeight(int weight) {
+        // Nothing is multiplexed on the wire.
+      }
 
-        synchronized (InProcessTransport.this) {
-          ServerStreamListener serverStreamListener = serverTransportListener.streamCreated(
-              serverStream, method.getFullMethodName(), headers);
-          clientStream.setListener(serverStreamListener);
-          streams.add(InProcessTransport.InProcessStream.this);
+      @Override
+      public void start(ClientStreamListener listener) {
+        serverStream.toClient.setListener(listener);
+
+        streams.add(InProcessStream.this);
+        Status capturedStatus = shutdownStatus;
+        if (capturedStatus != null) {
+          // Raced with shutdown, which may not have seen this stream.
+          serverStream.toClient.cancel(capturedStatus);
+          streamClosed();
+          return;
         }
+        ServerStreamListener serverStreamListener = serverTransportListener.streamCreated(
+            serverStream, method.getFullMethodName(), headers);
+        toServer.setListener(serverStreamListener);
       }
 
       @Override
@@ -508,4 +362,234 @@ class InProcessTransport implements ServerTransport, ManagedClientTransport {
       public void setDecompressor(Decompressor decompressor) {}
     }
   }
+
+  /**
+   * Hands the messages written on one side of a stream to the listener of the other side, in the
+   * order they were written and as many as the listener requested.
+   *
+   * <p>Any thread may write, request or close without locking. The listener is called by the
+   * thread that finds it idle, which then delivers everything that arrives until it catches up,
+   * so the listener is called by one thread at a time. This also makes it safe for the listener
+   * to call back into the stream.
+   */
+  private abstract static class Handoff<L extends StreamListener> {
+    private final Queue<InputStream> messages = new ConcurrentLinkedQueue<InputStream>();
+    /** Messages the listener requested and was not given yet. */
+    private final AtomicInteger requested = new AtomicInteger();
+    /** Messages the listener requested beyond those written, which makes the writer ready. */
+    private final AtomicInteger credit = new AtomicInteger();
+    private final AtomicBoolean onReadyPending = new AtomicBoolean();
+    private final AtomicReference<Status> cancelStatus = new AtomicReference<Status>();
+    /** Number of deliveries asked for since the current one started, 0 when idle. */
+    private final AtomicInteger deliveries = new AtomicInteger();
+    private volatile L listener;
+    /** Whether the writer has finished, to be told to the listener after the messages. */
+    private volatile boolean finished;
+    // Only accessed by the delivering thread.
+    private boolean finishDelivered;
+    private boolean closed;
+
+    final void setListener(L listener) {
+      this.listener = listener;
+      deliver();
+    }
+
+    final void write(InputStream message) {
+      if (cancelStatus.get() != null) {
+        return;
+      }
+      credit.decrementAndGet();
+      messages.add(message);
+      deliver();
+    }
+
+    final boolean isReady() {
+      return cancelStatus.get() == null && !finished && credit.get() > 0;
+    }
+
+    /**
+     * The listener requested more messages.
+     *
+     * @return whether the writer became ready
+     */
+    final boolean request(int numMessages) {
+      if (cancelStatus.get() != null) {
+        return false;
+      }
+      requested.addAndGet(numMessages);
+      int nowCredit = credit.addAndGet(numMessages);
+      deliver();
+      return nowCredit > 0 && nowCredit - numMessages <= 0;
+    }
+
+    /**
+     * The listener's own messages may be written again.
+     */
+    final void onReady() {
+      onReadyPending.set(true);
+      deliver();
+    }
+
+    /**
+     * The writer has finished, which is told to the listener once the messages were delivered.
+     *
+     * @return false if the writer had already finished or the stream was cancelled
+     */
+    final boolean finish() {
+      if (finished || cancelStatus.get() != null) {
+        return false;
+      }
+      finished = true;
+      deliver();
+      return true;
+    }
+
+    /**
+     * Closes the listener right away, discarding the messages not yet delivered.
+     *
+     * @return false if the stream had already been cancelled
+     */
+    final boolean cancel(Status status) {
+      if (!cancelStatus.compareAndSet(null, status)) {
+        return false;
+      }
+      deliver();
+      return true;
+    }
+
+    final void deliver() {
+      if (deliveries.getAndIncrement() != 0) {
+        // The delivering thread will see what changed.
+        return;
+      }
+      int missed = 1;
+      do {
+        L currentListener = listener;
+        if (currentListener != null) {
+          deliverTo(currentListener);
+        }
+        missed = deliveries.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void deliverTo(L listener) {
+      if (closed) {
+        discardMessages();
+        return;
+      }
+      Status status = cancelStatus.get();
+      if (status != null) {
+        closed = true;
+        discardMessages();
+        cancelled(listener, status);
+        return;
+      }
+      beforeMessages(listener);
+      if (onReadyPending.getAndSet(false)) {
+        listener.onReady();
+      }
+      while (requested.get() > 0 && cancelStatus.get() == null) {
+        InputStream message = messages.poll();
+        if (message == null) {
+          break;
+        }
+        requested.decrementAndGet();
+        listener.messageRead(message);
+      }
+      if (finished && !finishDelivered && messages.isEmpty() && cancelStatus.get() == null) {
+        finishDelivered = true;
+        closed = finished(listener);
+      }
+    }
+
+    private void discardMessages() {
+      InputStream message;
+      while ((message = messages.poll()) != null) {
+        try {
+          message.close();
+        } catch (Throwable t) {
+          log.log(Level.WARNING, "Exception closing stream", t);
+        }
+      }
+    }
+
+    /**
+     * Called before delivering messages.
+     */
+    void beforeMessages(L listener) {}
+
+    /**
+     * Tells the listener that the writer finished.
+     *
+     * @return whether the listener is closed now
+     */
+    abstract boolean finished(L listener);
+
+    abstract void cancelled(L listener, Status status);
+  }
+
+  /**
+   * The server side of a stream writing to the client.
+   */
+  private static final class ToClient extends Handoff<ClientStreamListener> {
+    private volatile Metadata headers;
+    private volatile Status closeStatus;
+    private volatile Metadata closeTrailers;
+    // Only accessed by the delivering thread.
+    private boolean headersDelivered;
+
+    void writeHeaders(Metadata headers) {
+      this.headers = headers;
+      deliver();
+    }
+
+    boolean close(Status status, Metadata trailers) {
+      if (closeStatus != null) {
+        return false;
+      }
+      closeTrailers = trailers;
+      closeStatus = status;
+      return finish();
+    }
+
+    @Override
+    void beforeMessages(ClientStreamListener listener) {
+      Metadata currentHeaders = headers;
+      if (currentHeaders != null && !headersDelivered) {
+        headersDelivered = true;
+        listener.headersRead(currentHeaders);
+      }
+    }
+
+    @Override
+    boolean finished(ClientStreamListener listener) {
+      listener.closed(closeStatus, closeTrailers);
+      return true;
+    }
+
+    @Override
+    void cancelled(ClientStreamListener listener, Status status) {
+      listener.closed(status, new Metadata());
+    }
+  }
+
+  /**
+   * The client side of a stream writing to the server.
+   */
+  private static final class ToServer extends Handoff<ServerStreamListener> {
+    void halfClose() {
+      finish();
+    }
+
+    @Override
+    boolean finished(ServerStreamListener listener) {
+      listener.halfClosed();
+      return false;
+    }
+
+    @Override
+    void cancelled(ServerStreamListener listener, Status status) {
+      listener.closed(status);
+    }
+  }
 }
@@ -55,6 +55,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -94,6 +95,16 @@ public abstract class AbstractManagedChannelImplBuilder
   @Nullable
   private CompressorRegistry compressorRegistry;
 
+  private long connectionAttemptDelayNanos;
+
+  private int maxCallsPerConnection = Integer.MAX_VALUE;
+
+  private int maxConnectionsPerAddress = 1;
+
+  private boolean connectEagerly;
+
+  private long idleTimeoutNanos;
+
   protected AbstractManagedChannelImplBuilder(String target) {
     this.target = Preconditions.checkNotNull(target);
     this.directServerAddress = null;
@@ -159,6 +170,38 @@ public abstract class AbstractManagedChannelImplBuilder
     return thisT();
   }
 
+  @Override
+  @ExperimentalApi
+  public final T connectionAttemptDelay(long delay, TimeUnit unit) {
+    this.connectionAttemptDelayNanos = unit.toNanos(delay);
+    return thisT();
+  }
+
+  @Override
+  @ExperimentalApi
+  public final T maxCallsPerConnection(int maxCalls, int maxConnections) {
+    Preconditions.checkArgument(maxCalls > 0, "maxCalls must be positive");
+    Preconditions.checkArgument(maxConnections > 0, "maxConnections must be positive");
+    this.maxCallsPerConnection = maxCalls;
+    this.maxConnectionsPerAddress = maxConnections;
+    return thisT();
+  }
+
+  @Override
+  @ExperimentalApi
+  public final T connectEagerly() {
+    this.connectEagerly = true;
+    return thisT();
+  }
+
+  @Override
+  @ExperimentalApi
+  public final T idleTimeout(long value, TimeUnit unit) {
+    Preconditions.checkArgument(value > 0, "idle timeout must be positive");
+    this.idleTimeoutNanos = unit.toNanos(value);
+    return thisT();
+  }
+
   private T thisT() {
     @SuppressWarnings("unchecked")
     T thisT = (T) this;
@@ -200,7 +243,8 @@ public abstract class AbstractManagedChannelImplBuilder
         transportFactory,
         firstNonNull(decompressorRegistry, DecompressorRegistry.getDefaultInstance()),
         firstNonNull(compressorRegistry, CompressorRegistry.getDefaultInstance()),
-        executor, userAgent, interceptors);
+        executor, userAgent, interceptors, connectionAttemptDelayNanos, maxCallsPerConnection,
+        maxConnectionsPerAddress, connectEagerly, idleTimeoutNanos);
   }
 
   /**
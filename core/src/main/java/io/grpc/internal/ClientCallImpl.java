@@ -232,6 +232,9 @@ final class ClientCallImpl<ReqT, RespT> extends ClientCall<ReqT, RespT>
     if (callOptions.getAuthority() != null) {
       stream.setAuthority(callOptions.getAuthority());
     }
+    if (callOptions.getStreamWeight() != null) {
+      stream.setWeight(callOptions.getStreamWeight());
+    }
     stream.setCompressor(compressor);
     if (compressor != Codec.Identity.NONE) {
       stream.setMessageCompression(true);
@@ -330,7 +333,8 @@ final class ClientCallImpl<ReqT, RespT> extends ClientCall<ReqT, RespT>
     Preconditions.checkState(!halfCloseCalled, "call was half-closed");
     boolean failed = true;
     try {
-      InputStream messageIs = method.streamRequest(message);
+      InputStream messageIs =
+          PassThroughMessage.create(stream, method.getRequestMarshaller(), message);
       stream.writeMessage(messageIs);
       failed = false;
     } finally {
@@ -420,7 +424,8 @@ final class ClientCallImpl<ReqT, RespT> extends ClientCall<ReqT, RespT>
             }
 
             try {
-              observer.onMessage(method.parseResponse(message));
+              observer.onMessage(
+                  PassThroughMessage.parse(method.getResponseMarshaller(), message));
             } finally {
               message.close();
             }
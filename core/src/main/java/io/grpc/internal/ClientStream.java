@@ -66,6 +66,13 @@ public interface ClientStream extends Stream {
    */
   void setAuthority(String authority);
 
+  /**
+   * Sets the weight of this stream relative to the other streams sharing its connection, between
+   * 1 and 256. Transports that cannot share bandwidth between streams ignore it. May only be called
+   * before {@link #start}.
+   */
+  void setWeight(int weight);
+
   /**
    * Starts stream. This method may only be called once.  It is safe to do latent initialization of
    * the stream up until {@link #start} is called.
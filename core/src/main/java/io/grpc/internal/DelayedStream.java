@@ -64,6 +64,8 @@ class DelayedStream implements ClientStream {
   @GuardedBy("this")
   private String authority;
   @GuardedBy("this")
+  private Integer weight;
+  @GuardedBy("this")
   private ClientStreamListener listener;
   @GuardedBy("this")
   private ClientStream realStream;
@@ -105,6 +107,16 @@ class DelayedStream implements ClientStream {
     }
   }
 
+  @Override
+  public synchronized void setWeight(int weight) {
+    checkState(listener == null, "must be called before start");
+    if (realStream == null) {
+      this.weight = weight;
+    } else {
+      realStream.setWeight(weight);
+    }
+  }
+
   @Override
   public void start(ClientStreamListener listener) {
     synchronized (this) {
@@ -128,6 +140,9 @@ class DelayedStream implements ClientStream {
   private void startStream() {
     checkState(realStream != null, "realStream");
     checkState(listener != null, "listener");
+    if (weight != null) {
+      realStream.setWeight(weight);
+    }
     realStream.start(listener);
 
     if (decompressor != null) {
@@ -146,6 +146,16 @@ public final class GrpcUtil {
    */
   public static final int DEFAULT_MAX_HEADER_LIST_SIZE = 8192;
 
+  /**
+   * The value used for the keepalive time to indicate that keepalive pings are disabled.
+   */
+  public static final long KEEPALIVE_TIME_NANOS_DISABLED = Long.MAX_VALUE;
+
+  /**
+   * The default time to wait for a keepalive ping to be answered. Defaults to 20 seconds.
+   */
+  public static final long DEFAULT_KEEPALIVE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(20L);
+
   /**
    * The set of valid status codes for client cancellation.
    */
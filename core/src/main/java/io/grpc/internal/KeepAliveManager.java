@@ -0,0 +1,250 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.internal;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Manages keepalive pings for an HTTP/2 client transport. When no data has been received on the
+ * transport for {@code keepAliveTime}, a PING frame is sent; if nothing at all is received within
+ * {@code keepAliveTimeout} afterwards, the transport is considered dead and
+ * {@link KeepAlivePinger#onPingTimeout} is called so that it can be shut down.
+ *
+ * <p>By default pings are only sent while the transport has active streams. The transport is
+ * responsible for reporting its lifecycle and every inbound frame to this class.
+ */
+public class KeepAliveManager {
+  private enum State {
+    /** Transport has no active streams; no keepalive is pending. */
+    IDLE,
+    /** A ping is scheduled to be sent once the transport has been quiet long enough. */
+    PING_SCHEDULED,
+    /** A ping has been sent and we are waiting for any data to arrive. */
+    PING_SENT,
+    /**
+     * A ping has been sent, but the transport became idle in the meantime. Once data arrives the
+     * manager returns to {@link #IDLE}.
+     */
+    IDLE_AND_PING_SENT,
+    /** The transport is gone; nothing else will be scheduled. */
+    DISCONNECTED,
+  }
+
+  private final KeepAlivePinger pinger;
+  private final ScheduledExecutorService scheduler;
+  private final Ticker ticker;
+  private final long keepAliveTimeNanos;
+  private final long keepAliveTimeoutNanos;
+  private final boolean keepAliveWithoutCalls;
+
+  @GuardedBy("this")
+  private State state = State.IDLE;
+  @GuardedBy("this")
+  private long nextKeepaliveTimeNanos;
+  @GuardedBy("this")
+  private ScheduledFuture<?> pingFuture;
+  @GuardedBy("this")
+  private ScheduledFuture<?> shutdownFuture;
+
+  private final Runnable sendPing = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (KeepAliveManager.this) {
+        pingFuture = null;
+        if (state != State.PING_SCHEDULED) {
+          return;
+        }
+        long remainingNanos = nextKeepaliveTimeNanos - ticker.read();
+        if (remainingNanos > 0) {
+          // Data arrived since this task was scheduled; wait until the transport is quiet again.
+          pingFuture = scheduler.schedule(this, remainingNanos, TimeUnit.NANOSECONDS);
+          return;
+        }
+        state = State.PING_SENT;
+        shutdownFuture =
+            scheduler.schedule(shutdown, keepAliveTimeoutNanos, TimeUnit.NANOSECONDS);
+      }
+      pinger.ping();
+    }
+  };
+
+  private final Runnable shutdown = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (KeepAliveManager.this) {
+        shutdownFuture = null;
+        if (state != State.PING_SENT && state != State.IDLE_AND_PING_SENT) {
+          return;
+        }
+        state = State.DISCONNECTED;
+        if (pingFuture != null) {
+          pingFuture.cancel(false);
+          pingFuture = null;
+        }
+      }
+      pinger.onPingTimeout();
+    }
+  };
+
+  /**
+   * Creates a manager that schedules its timers on {@code scheduler}.
+   *
+   * @param keepAliveTimeNanos how long the transport may go without receiving data before a ping
+   *     is sent
+   * @param keepAliveTimeoutNanos how long to wait for data after sending a ping
+   * @param keepAliveWithoutCalls whether to send pings even when there are no active streams
+   */
+  public KeepAliveManager(KeepAlivePinger pinger, ScheduledExecutorService scheduler,
+      long keepAliveTimeNanos, long keepAliveTimeoutNanos, boolean keepAliveWithoutCalls) {
+    this(pinger, scheduler, Ticker.systemTicker(), keepAliveTimeNanos, keepAliveTimeoutNanos,
+        keepAliveWithoutCalls);
+  }
+
+  @VisibleForTesting
+  KeepAliveManager(KeepAlivePinger pinger, ScheduledExecutorService scheduler, Ticker ticker,
+      long keepAliveTimeNanos, long keepAliveTimeoutNanos, boolean keepAliveWithoutCalls) {
+    this.pinger = checkNotNull(pinger, "pinger");
+    this.scheduler = checkNotNull(scheduler, "scheduler");
+    this.ticker = checkNotNull(ticker, "ticker");
+    checkArgument(keepAliveTimeNanos > 0, "keepAliveTimeNanos must be positive");
+    checkArgument(keepAliveTimeoutNanos > 0, "keepAliveTimeoutNanos must be positive");
+    this.keepAliveTimeNanos = keepAliveTimeNanos;
+    this.keepAliveTimeoutNanos = keepAliveTimeoutNanos;
+    this.keepAliveWithoutCalls = keepAliveWithoutCalls;
+    nextKeepaliveTimeNanos = ticker.read() + keepAliveTimeNanos;
+  }
+
+  /**
+   * Transport has started. Pings begin immediately if they are allowed without calls.
+   */
+  public synchronized void onTransportStarted() {
+    if (keepAliveWithoutCalls) {
+      onTransportActive();
+    }
+  }
+
+  /**
+   * Called for every frame received on the transport. Postpones the next ping, and counts as the
+   * response to an outstanding one.
+   */
+  public synchronized void onDataReceived() {
+    nextKeepaliveTimeNanos = ticker.read() + keepAliveTimeNanos;
+    if (state == State.PING_SENT || state == State.IDLE_AND_PING_SENT) {
+      if (shutdownFuture != null) {
+        shutdownFuture.cancel(false);
+        shutdownFuture = null;
+      }
+      if (state == State.IDLE_AND_PING_SENT) {
+        state = State.IDLE;
+        return;
+      }
+      state = State.PING_SCHEDULED;
+      pingFuture = scheduler.schedule(sendPing, keepAliveTimeNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Transport has gained its first active stream.
+   */
+  public synchronized void onTransportActive() {
+    if (state == State.IDLE) {
+      state = State.PING_SCHEDULED;
+      if (pingFuture == null) {
+        long delayNanos = Math.max(0, nextKeepaliveTimeNanos - ticker.read());
+        pingFuture = scheduler.schedule(sendPing, delayNanos, TimeUnit.NANOSECONDS);
+      }
+    } else if (state == State.IDLE_AND_PING_SENT) {
+      state = State.PING_SENT;
+    }
+  }
+
+  /**
+   * Transport has lost its last active stream.
+   */
+  public synchronized void onTransportIdle() {
+    if (keepAliveWithoutCalls) {
+      return;
+    }
+    if (state == State.PING_SCHEDULED) {
+      state = State.IDLE;
+      // The scheduled task is left in place; it will notice the state change and do nothing, which
+      // is cheaper than cancelling and rescheduling for short-lived calls.
+    } else if (state == State.PING_SENT) {
+      state = State.IDLE_AND_PING_SENT;
+    }
+  }
+
+  /**
+   * Transport is shutting down. No more pings will be sent.
+   */
+  public synchronized void onTransportShutdown() {
+    if (state == State.DISCONNECTED) {
+      return;
+    }
+    state = State.DISCONNECTED;
+    if (shutdownFuture != null) {
+      shutdownFuture.cancel(false);
+      shutdownFuture = null;
+    }
+    if (pingFuture != null) {
+      pingFuture.cancel(false);
+      pingFuture = null;
+    }
+  }
+
+  /**
+   * Transport-specific operations used by {@link KeepAliveManager}.
+   */
+  public interface KeepAlivePinger {
+    /**
+     * Sends a PING frame. The ack, like any other inbound frame, must be reported through
+     * {@link KeepAliveManager#onDataReceived}.
+     */
+    void ping();
+
+    /**
+     * Called when nothing was received within the timeout after a ping. The transport should shut
+     * itself down with {@link io.grpc.Status#UNAVAILABLE}.
+     */
+    void onPingTimeout();
+  }
+}
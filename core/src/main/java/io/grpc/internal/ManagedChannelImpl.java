@@ -47,8 +47,11 @@ import io.grpc.ClientInterceptors;
 import io.grpc.CompressorRegistry;
 import io.grpc.DecompressorRegistry;
 import io.grpc.EquivalentAddressGroup;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
 import io.grpc.LoadBalancer;
 import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 import io.grpc.NameResolver;
 import io.grpc.ResolvedServerInfo;
@@ -60,13 +63,19 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
@@ -103,36 +112,138 @@ public final class ManagedChannelImpl extends ManagedChannel {
 
   private final BackoffPolicy.Provider backoffPolicyProvider;
 
+  /**
+   * The delay before racing a connection attempt to the next address of an address group, or
+   * non-positive if addresses are tried one after another.
+   */
+  private final long connectionAttemptDelayNanos;
+
+  /**
+   * The number of active calls on each connection to an address above which another connection is
+   * opened, up to {@link #maxConnectionsPerAddress}.
+   */
+  private final int maxCallsPerConnection;
+  private final int maxConnectionsPerAddress;
+
+  /**
+   * Whether transports to the address groups retained by the load balancer are created without
+   * waiting for calls. 'lock' must be held when assigning to it.
+   */
+  private volatile boolean connectEagerly;
+
+  /**
+   * The address groups that the load balancer last asked to retain transports to.
+   */
+  @GuardedBy("lock")
+  private Collection<EquivalentAddressGroup> retainedAddressGroups =
+      Collections.<EquivalentAddressGroup>emptyList();
+
   /**
    * We delegate to this channel, so that we can have interceptors as necessary. If there aren't
    * any interceptors this will just be {@link RealChannel}.
    */
   private final Channel interceptorChannel;
 
-  private final NameResolver nameResolver;
-  private final LoadBalancer<ClientTransport> loadBalancer;
+  private final String target;
+  private final NameResolver.Factory nameResolverFactory;
+  private final Attributes nameResolverParams;
+  private final LoadBalancer.Factory loadBalancerFactory;
 
   /**
-   * Maps EquivalentAddressGroups to transports for that server.
+   * Replaced when leaving idle mode. Read without the lock, but 'lock' must be held when assigning
+   * to it.
+   */
+  private volatile NameResolver nameResolver;
+  /**
+   * Whether {@link #nameResolver} has been started. It is published before being started when
+   * leaving idle mode, and must not be refreshed until then.
    */
   @GuardedBy("lock")
-  private final Map<EquivalentAddressGroup, TransportSet> transports =
-      new HashMap<EquivalentAddressGroup, TransportSet>();
+  private boolean nameResolverStarted;
+  /**
+   * Replaced when leaving idle mode. Read without the lock, but 'lock' must be held when assigning
+   * to it.
+   */
+  private volatile LoadBalancer<ClientTransport> loadBalancer;
 
+  /**
+   * How long the channel must be without calls before it enters idle mode, or 0 if it never does.
+   */
+  private final long idleTimeoutNanos;
+
+  /**
+   * The number of calls that have started but not closed. Only counted if idle mode is enabled.
+   */
+  private final AtomicInteger inUseCalls = new AtomicInteger();
+
+  /**
+   * When the last call was closed, or the channel was created if there was no call yet.
+   */
+  private volatile long lastCallClosedNanos;
+
+  /**
+   * Whether the channel is in idle mode, where the transports, the load balancer and the name
+   * resolver have been shut down. They are recreated by the next call. Read without the lock, but
+   * 'lock' must be held when assigning to it.
+   */
+  private volatile boolean idle;
+
+  /**
+   * Fires when the channel may enter idle mode. 'lock' must be held when assigning to it.
+   */
+  @Nullable
+  private volatile ScheduledFuture<?> idleTimer;
+
+  /**
+   * Transports that were shut down when entering idle mode, and have not terminated yet.
+   */
   @GuardedBy("lock")
-  private boolean shutdown;
+  private final Set<TransportSet> idleTransports = new HashSet<TransportSet>();
+
+  /**
+   * Maps EquivalentAddressGroups to transports for that server. Can be read without the lock, but
+   * 'lock' must be held when modifying it.
+   */
+  private final ConcurrentMap<EquivalentAddressGroup, TransportSet> transports =
+      new ConcurrentHashMap<EquivalentAddressGroup, TransportSet>();
+
+  /**
+   * Whether {@link #shutdown} has been called. Read without the lock on the call path, but 'lock'
+   * must be held when assigning to it.
+   */
+  private volatile boolean shutdown;
   @GuardedBy("lock")
   private boolean terminated;
 
   private final ClientTransportProvider transportProvider = new ClientTransportProvider() {
     @Override
     public ListenableFuture<ClientTransport> get(CallOptions callOptions) {
+      if (shutdown) {
+        return NULL_VALUE_TRANSPORT_FUTURE;
+      }
+      if (idle) {
+        exitIdleMode();
+      }
+      return loadBalancer.pickTransport(callOptions.getRequestKey());
+    }
+  };
+
+  private final Runnable idleTimerTask = new Runnable() {
+    @Override
+    public void run() {
       synchronized (lock) {
-        if (shutdown) {
-          return NULL_VALUE_TRANSPORT_FUTURE;
+        idleTimer = null;
+        if (shutdown || idle || inUseCalls.get() > 0) {
+          // The timer is scheduled again once all calls have closed
+          return;
+        }
+        long remainingNanos = lastCallClosedNanos + idleTimeoutNanos - System.nanoTime();
+        if (remainingNanos > 0) {
+          idleTimer = scheduledExecutor.schedule(this, remainingNanos, TimeUnit.NANOSECONDS);
+          return;
         }
       }
-      return loadBalancer.pickTransport(callOptions.getRequestKey());
+      enterIdleMode();
     }
   };
 
@@ -141,7 +252,9 @@ public final class ManagedChannelImpl extends ManagedChannel {
       LoadBalancer.Factory loadBalancerFactory, ClientTransportFactory transportFactory,
       DecompressorRegistry decompressorRegistry, CompressorRegistry compressorRegistry,
       @Nullable Executor executor, @Nullable String userAgent,
-      List<ClientInterceptor> interceptors) {
+      List<ClientInterceptor> interceptors, long connectionAttemptDelayNanos,
+      int maxCallsPerConnection, int maxConnectionsPerAddress, boolean connectEagerly,
+      long idleTimeoutNanos) {
     if (executor == null) {
       usingSharedExecutor = true;
       this.executor = SharedResourceHolder.get(GrpcUtil.SHARED_CHANNEL_EXECUTOR);
@@ -150,6 +263,15 @@ public final class ManagedChannelImpl extends ManagedChannel {
       this.executor = executor;
     }
     this.backoffPolicyProvider = backoffPolicyProvider;
+    this.connectionAttemptDelayNanos = connectionAttemptDelayNanos;
+    this.maxCallsPerConnection = maxCallsPerConnection;
+    this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+    this.connectEagerly = connectEagerly;
+    this.idleTimeoutNanos = idleTimeoutNanos;
+    this.target = target;
+    this.nameResolverFactory = nameResolverFactory;
+    this.nameResolverParams = nameResolverParams;
+    this.loadBalancerFactory = loadBalancerFactory;
     this.nameResolver = getNameResolver(target, nameResolverFactory, nameResolverParams);
     this.loadBalancer = loadBalancerFactory.newLoadBalancer(nameResolver.getServiceAuthority(), tm);
     this.transportFactory = transportFactory;
@@ -159,7 +281,22 @@ public final class ManagedChannelImpl extends ManagedChannel {
     this.decompressorRegistry = decompressorRegistry;
     this.compressorRegistry = compressorRegistry;
 
-    this.nameResolver.start(new NameResolver.Listener() {
+    startNameResolver(nameResolver, loadBalancer);
+    synchronized (lock) {
+      nameResolverStarted = true;
+    }
+    if (idleTimeoutNanos > 0) {
+      lastCallClosedNanos = System.nanoTime();
+      synchronized (lock) {
+        idleTimer = scheduledExecutor.schedule(
+            idleTimerTask, idleTimeoutNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  private static void startNameResolver(NameResolver nameResolver,
+      final LoadBalancer<ClientTransport> loadBalancer) {
+    nameResolver.start(new NameResolver.Listener() {
       @Override
       public void onUpdate(List<ResolvedServerInfo> servers, Attributes config) {
         loadBalancer.handleResolvedAddresses(servers, config);
@@ -227,14 +364,22 @@ public final class ManagedChannelImpl extends ManagedChannel {
   @Override
   public ManagedChannelImpl shutdown() {
     ArrayList<TransportSet> transportsCopy = new ArrayList<TransportSet>();
+    boolean wasIdle;
     synchronized (lock) {
       if (shutdown) {
         return this;
       }
       shutdown = true;
+      wasIdle = idle;
+      // Wake up awaitReady()
+      lock.notifyAll();
+      if (idleTimer != null) {
+        idleTimer.cancel(false);
+        idleTimer = null;
+      }
       // After shutdown there are no new calls, so no new cancellation tasks are needed
       scheduledExecutor = SharedResourceHolder.release(TIMER_SERVICE, scheduledExecutor);
-      if (transports.isEmpty()) {
+      if (transports.isEmpty() && idleTransports.isEmpty()) {
         terminated = true;
         lock.notifyAll();
         onChannelTerminated();
@@ -242,8 +387,11 @@ public final class ManagedChannelImpl extends ManagedChannel {
         transportsCopy.addAll(transports.values());
       }
     }
-    loadBalancer.shutdown();
-    nameResolver.shutdown();
+    if (!wasIdle) {
+      // Otherwise they have already been shut down
+      loadBalancer.shutdown();
+      nameResolver.shutdown();
+    }
     for (TransportSet ts : transportsCopy) {
       ts.shutdown();
     }
@@ -266,9 +414,7 @@ public final class ManagedChannelImpl extends ManagedChannel {
 
   @Override
   public boolean isShutdown() {
-    synchronized (lock) {
-      return shutdown;
-    }
+    return shutdown;
   }
 
   @Override
@@ -290,6 +436,137 @@ public final class ManagedChannelImpl extends ManagedChannel {
     }
   }
 
+  @Override
+  public void connectEagerly() {
+    synchronized (lock) {
+      connectEagerly = true;
+    }
+    // Idle mode dropped the address groups. The new load balancer retains them again once the name
+    // is resolved, and they are connected to right away.
+    exitIdleMode();
+    Collection<EquivalentAddressGroup> addressGroups;
+    synchronized (lock) {
+      addressGroups = retainedAddressGroups;
+    }
+    connect(addressGroups);
+  }
+
+  @Override
+  public boolean awaitReady(int minReadyServers, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    connectEagerly();
+    synchronized (lock) {
+      long timeoutNanos = unit.toNanos(timeout);
+      long endTimeNanos = System.nanoTime() + timeoutNanos;
+      int readyServers;
+      while ((readyServers = countReadyServers()) < minReadyServers && !shutdown
+          && (timeoutNanos = endTimeNanos - System.nanoTime()) > 0) {
+        TimeUnit.NANOSECONDS.timedWait(lock, timeoutNanos);
+      }
+      return readyServers >= minReadyServers;
+    }
+  }
+
+  @GuardedBy("lock")
+  private int countReadyServers() {
+    int readyServers = 0;
+    for (TransportSet ts : transports.values()) {
+      if (ts.isReady()) {
+        readyServers++;
+      }
+    }
+    return readyServers;
+  }
+
+  /**
+   * Shuts down the transports, the load balancer and the name resolver, if there are still no
+   * calls. A channel that connects eagerly keeps its connections, and never enters idle mode.
+   */
+  private void enterIdleMode() {
+    LoadBalancer<ClientTransport> savedLoadBalancer;
+    NameResolver savedNameResolver;
+    ArrayList<TransportSet> transportsCopy;
+    synchronized (lock) {
+      if (shutdown || idle || connectEagerly) {
+        return;
+      }
+      idle = true;
+      // A call that starts from now on sees idle, and waits for the lock in exitIdleMode(). A call
+      // that started before may not have seen it, but is counted here.
+      if (inUseCalls.get() > 0) {
+        idle = false;
+        return;
+      }
+      log.log(Level.FINE, "Channel for {0} entering idle mode", target);
+      savedLoadBalancer = loadBalancer;
+      savedNameResolver = nameResolver;
+      transportsCopy = new ArrayList<TransportSet>(transports.values());
+      idleTransports.addAll(transportsCopy);
+      transports.clear();
+      retainedAddressGroups = Collections.<EquivalentAddressGroup>emptyList();
+    }
+    savedLoadBalancer.shutdown();
+    savedNameResolver.shutdown();
+    for (TransportSet ts : transportsCopy) {
+      ts.shutdown();
+    }
+  }
+
+  /**
+   * Recreates the name resolver and the load balancer. Calls wait for the resolution and the new
+   * transports the same way as when the channel was created.
+   */
+  private void exitIdleMode() {
+    NameResolver newNameResolver;
+    LoadBalancer<ClientTransport> newLoadBalancer;
+    synchronized (lock) {
+      if (shutdown || !idle) {
+        return;
+      }
+      log.log(Level.FINE, "Channel for {0} exiting idle mode", target);
+      newNameResolver = getNameResolver(target, nameResolverFactory, nameResolverParams);
+      newLoadBalancer =
+          loadBalancerFactory.newLoadBalancer(newNameResolver.getServiceAuthority(), tm);
+      nameResolver = newNameResolver;
+      nameResolverStarted = false;
+      loadBalancer = newLoadBalancer;
+      // Assigned last, so that whoever sees that the channel isn't idle sees the new instances.
+      idle = false;
+    }
+    startNameResolver(newNameResolver, newLoadBalancer);
+    synchronized (lock) {
+      // The channel may have gone idle again, and replaced the resolver, in the meantime.
+      if (nameResolver == newNameResolver) {
+        nameResolverStarted = true;
+      }
+    }
+  }
+
+  private void callStarted() {
+    inUseCalls.incrementAndGet();
+  }
+
+  private void callClosed() {
+    lastCallClosedNanos = System.nanoTime();
+    if (inUseCalls.decrementAndGet() == 0 && idleTimer == null) {
+      synchronized (lock) {
+        if (!shutdown && !idle && idleTimer == null) {
+          idleTimer = scheduledExecutor.schedule(
+              idleTimerTask, idleTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates transports to the given address groups, if there aren't any already.
+   */
+  private void connect(Collection<EquivalentAddressGroup> addressGroups) {
+    for (EquivalentAddressGroup addressGroup : addressGroups) {
+      tm.getTransport(addressGroup);
+    }
+  }
+
   /*
    * Creates a new outgoing call on the channel.
    */
@@ -312,7 +589,7 @@ public final class ManagedChannelImpl extends ManagedChannel {
       if (executor == null) {
         executor = ManagedChannelImpl.this.executor;
       }
-      return new ClientCallImpl<ReqT, RespT>(
+      ClientCall<ReqT, RespT> call = new ClientCallImpl<ReqT, RespT>(
           method,
           executor,
           callOptions,
@@ -321,6 +598,10 @@ public final class ManagedChannelImpl extends ManagedChannel {
               .setUserAgent(userAgent)
               .setDecompressorRegistry(decompressorRegistry)
               .setCompressorRegistry(compressorRegistry);
+      if (idleTimeoutNanos > 0) {
+        call = new InUseCountingCall<ReqT, RespT>(call);
+      }
+      return call;
     }
 
     @Override
@@ -330,6 +611,40 @@ public final class ManagedChannelImpl extends ManagedChannel {
     }
   }
 
+  /**
+   * Counts the call as in use from when it is started until it is closed, which keeps the channel
+   * out of idle mode.
+   */
+  private final class InUseCountingCall<ReqT, RespT>
+      extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+    InUseCountingCall(ClientCall<ReqT, RespT> delegate) {
+      super(delegate);
+    }
+
+    @Override
+    public void start(Listener<RespT> responseListener, Metadata headers) {
+      callStarted();
+      boolean started = false;
+      try {
+        super.start(new SimpleForwardingClientCallListener<RespT>(responseListener) {
+          @Override
+          public void onClose(Status status, Metadata trailers) {
+            try {
+              super.onClose(status, trailers);
+            } finally {
+              callClosed();
+            }
+          }
+        }, headers);
+        started = true;
+      } finally {
+        if (!started) {
+          callClosed();
+        }
+      }
+    }
+  }
+
   /**
    * If we're using the shared executor, returns its reference.
    */
@@ -344,27 +659,46 @@ public final class ManagedChannelImpl extends ManagedChannel {
   private final TransportManager<ClientTransport> tm = new TransportManager<ClientTransport>() {
     @Override
     public void updateRetainedTransports(Collection<EquivalentAddressGroup> addrs) {
-      // TODO(zhangkun83): warm-up new servers and discard removed servers.
+      // TODO(zhangkun83): discard removed servers.
+      Collection<EquivalentAddressGroup> addrsCopy = new ArrayList<EquivalentAddressGroup>(addrs);
+      synchronized (lock) {
+        retainedAddressGroups = addrsCopy;
+      }
+      if (connectEagerly) {
+        connect(addrsCopy);
+      }
     }
 
     @Override
     public ListenableFuture<ClientTransport> getTransport(
         final EquivalentAddressGroup addressGroup) {
       Preconditions.checkNotNull(addressGroup, "addressGroup");
-      TransportSet ts;
+      if (shutdown || idle) {
+        return NULL_VALUE_TRANSPORT_FUTURE;
+      }
+      // Fast path for the common case of a transport set that already exists
+      TransportSet ts = transports.get(addressGroup);
+      if (ts != null) {
+        return ts.obtainActiveTransport();
+      }
       synchronized (lock) {
-        if (shutdown) {
+        if (shutdown || idle) {
           return NULL_VALUE_TRANSPORT_FUTURE;
         }
         ts = transports.get(addressGroup);
         if (ts == null) {
+          final TransportSet[] tsHolder = new TransportSet[1];
           ts = new TransportSet(addressGroup, authority(), loadBalancer, backoffPolicyProvider,
-              transportFactory, scheduledExecutor, new TransportSet.Callback() {
+              transportFactory, scheduledExecutor, connectionAttemptDelayNanos,
+              maxCallsPerConnection, maxConnectionsPerAddress,
+              new TransportSet.Callback() {
                 @Override
                 public void onTerminated() {
                   synchronized (lock) {
-                    transports.remove(addressGroup);
-                    if (shutdown && transports.isEmpty()) {
+                    // A newer TransportSet may have replaced it after an idle period
+                    transports.remove(addressGroup, tsHolder[0]);
+                    idleTransports.remove(tsHolder[0]);
+                    if (shutdown && transports.isEmpty() && idleTransports.isEmpty()) {
                       if (terminated) {
                         log.warning("transportTerminated called after already terminated");
                       }
@@ -374,7 +708,29 @@ public final class ManagedChannelImpl extends ManagedChannel {
                     }
                   }
                 }
+
+                @Override
+                public void onAllAddressesFailed() {
+                  NameResolver savedNameResolver;
+                  synchronized (lock) {
+                    if (!nameResolverStarted) {
+                      // Leaving idle mode, the new resolver is about to start and resolve anyway.
+                      return;
+                    }
+                    savedNameResolver = nameResolver;
+                  }
+                  savedNameResolver.refresh();
+                }
+
+                @Override
+                public void onReady() {
+                  synchronized (lock) {
+                    // Wake up awaitReady()
+                    lock.notifyAll();
+                  }
+                }
               });
+          tsHolder[0] = ts;
           transports.put(addressGroup, ts);
         }
       }
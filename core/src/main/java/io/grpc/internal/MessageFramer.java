@@ -185,7 +185,7 @@ public class MessageFramer {
     // Allocate the initial buffer chunk based on frame header + payload length.
     // Note that the allocator may allocate a buffer larger or smaller than this length
     if (buffer == null) {
-      buffer = bufferAllocator.allocate(header.position() + messageLength);
+      buffer = bufferAllocator.allocateKnownLength(header.position() + messageLength);
     }
     writeRaw(headerScratch, 0, header.position());
     return writeToOutputStream(message, outputStreamAdapter);
@@ -199,17 +199,16 @@ public class MessageFramer {
     header.put(compressed ? COMPRESSED : UNCOMPRESSED);
     int messageLength = bufferChain.readableBytes();
     header.putInt(messageLength);
-    WritableBuffer writeableHeader = bufferAllocator.allocate(HEADER_LENGTH);
-    writeableHeader.write(headerScratch, 0, header.position());
+    // Append the header to the current buffer, so that it is delivered after the messages already
+    // buffered and shares their frame.
+    writeRaw(headerScratch, 0, header.position());
     if (messageLength == 0) {
-      // the payload had 0 length so make the header the current buffer.
-      buffer = writeableHeader;
+      // the payload had 0 length so the header stays in the current buffer.
       return;
     }
-    // Note that we are always delivering a small message to the transport here which
-    // may incur transport framing overhead as it may be sent separately to the contents
-    // of the GRPC frame.
-    sink.deliverFrame(writeableHeader, false, false);
+    // Note that the header and the contents of the GRPC frame are delivered separately, which
+    // may incur transport framing overhead.
+    commitToSink(false, false);
     // Commit all except the last buffer to the sink
     List<WritableBuffer> bufferList = bufferChain.bufferList;
     for (int i = 0; i < bufferList.size() - 1; i++) {
@@ -46,6 +46,9 @@ public class NoopClientStream implements ClientStream {
   @Override
   public void setAuthority(String authority) {}
 
+  @Override
+  public void setWeight(int weight) {}
+
   @Override
   public void start(ClientStreamListener listener) {}
 
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.internal;
+
+import com.google.common.base.Preconditions;
+
+import io.grpc.MethodDescriptor.CopyingMarshaller;
+import io.grpc.MethodDescriptor.ImmutableMarshaller;
+import io.grpc.MethodDescriptor.Marshaller;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A message written to a {@link PassThroughStream}. It carries the message object, so that a
+ * receiver using the same marshaller can take the object instead of parsing it. The message is
+ * only serialized if the stream is read, as it is when the receiver uses another marshaller.
+ *
+ * <p>Only messages of {@link ImmutableMarshaller}s, and copies made by {@link CopyingMarshaller}s,
+ * are passed through. They can't change after being sent, so they may be serialized late and on
+ * the receiver's thread.
+ */
+final class PassThroughMessage<T> extends InputStream {
+  private final Marshaller<T> marshaller;
+  private final T value;
+  private InputStream serialized;
+
+  /**
+   * Returns {@code value} as a message for {@code stream}, which carries the object itself if the
+   * stream passes objects through and {@code marshaller} allows it, and is serialized by {@code
+   * marshaller} otherwise.
+   */
+  static <T> InputStream create(Stream stream, Marshaller<T> marshaller, T value) {
+    boolean passThrough =
+        marshaller instanceof ImmutableMarshaller || marshaller instanceof CopyingMarshaller;
+    if (!passThrough || !(stream instanceof PassThroughStream)) {
+      // The sender may change or reuse the message once sent, so it is serialized right away.
+      return marshaller.stream(value);
+    }
+    if (marshaller instanceof CopyingMarshaller) {
+      // Copied when sent, as the sender may change the message before it is received.
+      value = ((CopyingMarshaller<T>) marshaller).copy(value);
+    }
+    return new PassThroughMessage<T>(marshaller, value);
+  }
+
+  /**
+   * Returns the message object carried by {@code message} if it was sent with {@code marshaller},
+   * and otherwise parses the message with {@code marshaller}. Closing {@code message} remains the
+   * caller's responsibility.
+   */
+  static <T> T parse(Marshaller<T> marshaller, InputStream message) {
+    if (message instanceof PassThroughMessage) {
+      PassThroughMessage<?> passThrough = (PassThroughMessage<?>) message;
+      if (passThrough.marshaller == marshaller && passThrough.serialized == null) {
+        // The same marshaller instance, so the same message type.
+        @SuppressWarnings("unchecked")
+        T value = (T) passThrough.value;
+        return value;
+      }
+      // Parse the marshaller's own stream, which the marshaller may recognize.
+      message = passThrough.serialized();
+    }
+    return marshaller.parse(message);
+  }
+
+  private PassThroughMessage(Marshaller<T> marshaller, T value) {
+    this.marshaller = Preconditions.checkNotNull(marshaller, "marshaller");
+    this.value = value;
+  }
+
+  private InputStream serialized() {
+    if (serialized == null) {
+      serialized = marshaller.stream(value);
+    }
+    return serialized;
+  }
+
+  @Override
+  public int read() throws IOException {
+    return serialized().read();
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    return serialized().read(b, off, len);
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    return serialized().skip(n);
+  }
+
+  @Override
+  public int available() throws IOException {
+    return serialized().available();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (serialized != null) {
+      serialized.close();
+    }
+  }
+}
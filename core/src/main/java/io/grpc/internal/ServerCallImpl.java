@@ -154,7 +154,8 @@ final class ServerCallImpl<ReqT, RespT> extends ServerCall<RespT> {
     checkState(sendHeadersCalled, "sendHeaders has not been called");
     checkState(!closeCalled, "call is closed");
     try {
-      InputStream resp = method.streamResponse(message);
+      InputStream resp =
+          PassThroughMessage.create(stream, method.getResponseMarshaller(), message);
       stream.writeMessage(resp);
       stream.flush();
     } catch (Throwable t) {
@@ -236,7 +237,8 @@ final class ServerCallImpl<ReqT, RespT> extends ServerCall<RespT> {
         }
         messageReceived = true;
 
-        listener.onMessage(call.method.parseRequest(message));
+        listener.onMessage(
+            PassThroughMessage.parse(call.method.getRequestMarshaller(), message));
       } finally {
         try {
           message.close();
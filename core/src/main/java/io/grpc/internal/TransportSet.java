@@ -37,17 +37,26 @@ import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import io.grpc.Compressor;
+import io.grpc.Decompressor;
 import io.grpc.EquivalentAddressGroup;
 import io.grpc.LoadBalancer;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
 import io.grpc.Status;
 
+import java.io.InputStream;
 import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -56,7 +65,18 @@ import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
- * Transports for a single {@link SocketAddress}.
+ * Transports for a single {@link EquivalentAddressGroup}.
+ *
+ * <p>By default the addresses of the group are tried one at a time, moving to the next address
+ * only after a connection attempt fails. If a positive connection attempt delay is configured,
+ * attempts are raced instead, in the spirit of RFC 8305 ("Happy Eyeballs"): if an attempt hasn't
+ * become ready within the delay, an attempt to the next address is started without abandoning the
+ * previous ones. The first transport to become ready is used, and the others are shut down.
+ *
+ * <p>If more than one connection is allowed, extra connections to the address of the active
+ * transport are opened once every connection has reached the configured number of active streams.
+ * New streams go to the connection with the fewest active streams, and extra connections are shut
+ * down when they become idle while the others have plenty of spare capacity.
  */
 @ThreadSafe
 final class TransportSet {
@@ -69,6 +89,9 @@ final class TransportSet {
   private final Callback callback;
   private final ClientTransportFactory transportFactory;
   private final ScheduledExecutorService scheduledExecutor;
+  private final long connectionAttemptDelayNanos;
+  private final int maxStreamsPerConnection;
+  private final int maxConnections;
 
   @GuardedBy("lock")
   private int nextAddressIndex;
@@ -90,6 +113,27 @@ final class TransportSet {
   @Nullable
   private ScheduledFuture<?> reconnectTask;
 
+  /**
+   * Transports of the current race that have neither become ready nor failed. Only used if
+   * connection attempts are raced.
+   */
+  @GuardedBy("lock")
+  private final Collection<ManagedClientTransport> racingTransports =
+      new HashSet<ManagedClientTransport>();
+
+  /**
+   * The number of addresses that have not been tried in the current race.
+   */
+  @GuardedBy("lock")
+  private int racingAttemptsLeft;
+
+  /**
+   * Starts the next attempt of the current race, if the previous one is still pending.
+   */
+  @GuardedBy("lock")
+  @Nullable
+  private ScheduledFuture<?> connectionAttemptDelayTask;
+
   /**
    * All transports that are not terminated. At the very least the value of {@link activeTransport}
    * will be present, but previously used transports that still have streams or are stopping may
@@ -117,6 +161,43 @@ final class TransportSet {
   @Nullable
   private volatile ManagedClientTransport activeTransport;
 
+  /**
+   * An immediate future of {@link #activeTransport}, created once per transport so that
+   * {@link #obtainActiveTransport} doesn't allocate when there is an active transport. Always
+   * assigned together with activeTransport, by {@link #setActiveTransport}.
+   */
+  @Nullable
+  private volatile ListenableFuture<ClientTransport> activeTransportFuture;
+
+  /**
+   * Counts the streams of {@link #activeTransport}, if more than one connection is allowed. Always
+   * assigned together with activeTransport, by {@link #setActiveTransport}.
+   */
+  @Nullable
+  private volatile StreamCountingTransport countedActiveTransport;
+
+  /**
+   * The address that {@link #activeTransport} is connected to, once it is ready. Extra connections
+   * are only opened to this address.
+   */
+  @GuardedBy("lock")
+  @Nullable
+  private SocketAddress readyAddress;
+
+  /**
+   * Ready connections in addition to {@link #activeTransport}. The list is immutable and replaced
+   * on change, so that streams can be assigned without the lock. 'lock' must be held when
+   * assigning to it.
+   */
+  private volatile List<StreamCountingTransport> extraTransports = Collections.emptyList();
+
+  /**
+   * An extra connection that is not ready yet. At most one is opened at a time. 'lock' must be
+   * held when assigning to it.
+   */
+  @Nullable
+  private volatile ManagedClientTransport pendingExtraTransport;
+
   @GuardedBy("lock")
   @Nullable
   private DelayedClientTransport delayedTransport;
@@ -124,15 +205,18 @@ final class TransportSet {
   TransportSet(EquivalentAddressGroup addressGroup, String authority,
       LoadBalancer<ClientTransport> loadBalancer, BackoffPolicy.Provider backoffPolicyProvider,
       ClientTransportFactory transportFactory, ScheduledExecutorService scheduledExecutor,
+      long connectionAttemptDelayNanos, int maxStreamsPerConnection, int maxConnections,
       Callback callback) {
     this(addressGroup, authority, loadBalancer, backoffPolicyProvider, transportFactory,
-        scheduledExecutor, callback, Stopwatch.createUnstarted());
+        scheduledExecutor, connectionAttemptDelayNanos, maxStreamsPerConnection, maxConnections,
+        callback, Stopwatch.createUnstarted());
   }
 
   @VisibleForTesting
   TransportSet(EquivalentAddressGroup addressGroup, String authority,
       LoadBalancer<ClientTransport> loadBalancer, BackoffPolicy.Provider backoffPolicyProvider,
       ClientTransportFactory transportFactory, ScheduledExecutorService scheduledExecutor,
+      long connectionAttemptDelayNanos, int maxStreamsPerConnection, int maxConnections,
       Callback callback, Stopwatch backoffWatch) {
     this.addressGroup = Preconditions.checkNotNull(addressGroup, "addressGroup");
     this.authority = authority;
@@ -140,6 +224,12 @@ final class TransportSet {
     this.backoffPolicyProvider = backoffPolicyProvider;
     this.transportFactory = transportFactory;
     this.scheduledExecutor = scheduledExecutor;
+    this.connectionAttemptDelayNanos = connectionAttemptDelayNanos;
+    Preconditions.checkArgument(maxStreamsPerConnection > 0,
+        "maxStreamsPerConnection must be positive");
+    Preconditions.checkArgument(maxConnections > 0, "maxConnections must be positive");
+    this.maxStreamsPerConnection = maxStreamsPerConnection;
+    this.maxConnections = maxConnections;
     this.callback = callback;
     this.backoffWatch = backoffWatch;
   }
@@ -152,9 +242,13 @@ final class TransportSet {
    */
   // TODO(zhangkun83): change it to return a ClientTransport directly
   final ListenableFuture<ClientTransport> obtainActiveTransport() {
-    ClientTransport savedTransport = activeTransport;
-    if (savedTransport != null) {
-      return Futures.<ClientTransport>immediateFuture(savedTransport);
+    ListenableFuture<ClientTransport> savedTransportFuture = activeTransportFuture;
+    if (savedTransportFuture != null) {
+      StreamCountingTransport savedCountedTransport = countedActiveTransport;
+      if (savedCountedTransport == null) {
+        return savedTransportFuture;
+      }
+      return pickLeastLoadedTransport(savedCountedTransport);
     }
     synchronized (lock) {
       // Check again, since it could have changed before acquiring the lock
@@ -162,11 +256,104 @@ final class TransportSet {
         delayedTransport = new DelayedClientTransport();
         transports.add(delayedTransport);
         delayedTransport.start(new BaseTransportListener(delayedTransport));
-        activeTransport = delayedTransport;
+        setActiveTransport(delayedTransport);
         scheduleConnection();
       }
-      return Futures.<ClientTransport>immediateFuture(activeTransport);
+      if (activeTransportFuture == null) {
+        return Futures.<ClientTransport>immediateFuture(null);
+      }
+      return activeTransportFuture;
+    }
+  }
+
+  @GuardedBy("lock")
+  private void setActiveTransport(@Nullable ManagedClientTransport transport) {
+    activeTransport = transport;
+    readyAddress = null;
+    if (transport == null) {
+      activeTransportFuture = null;
+      countedActiveTransport = null;
+    } else if (maxConnections > 1) {
+      StreamCountingTransport countedTransport = new StreamCountingTransport(transport, false);
+      activeTransportFuture = countedTransport.future;
+      countedActiveTransport = countedTransport;
+    } else {
+      activeTransportFuture = Futures.<ClientTransport>immediateFuture(transport);
+    }
+  }
+
+  /**
+   * Returns the connection with the fewest active streams, and opens another connection if even
+   * that one has reached the limit.
+   */
+  private ListenableFuture<ClientTransport> pickLeastLoadedTransport(
+      StreamCountingTransport activeCountedTransport) {
+    StreamCountingTransport leastLoaded = activeCountedTransport;
+    List<StreamCountingTransport> savedExtraTransports = extraTransports;
+    // Not using an iterator, so that picking doesn't allocate
+    for (int i = 0; i < savedExtraTransports.size(); i++) {
+      StreamCountingTransport extraTransport = savedExtraTransports.get(i);
+      if (extraTransport.activeStreams() < leastLoaded.activeStreams()) {
+        leastLoaded = extraTransport;
+      }
+    }
+    if (leastLoaded.activeStreams() >= maxStreamsPerConnection
+        && savedExtraTransports.size() + 1 < maxConnections && pendingExtraTransport == null) {
+      startExtraTransport();
+    }
+    return leastLoaded.future;
+  }
+
+  private void startExtraTransport() {
+    synchronized (lock) {
+      // Check again, since it could have changed before acquiring the lock
+      if (shutdown || readyAddress == null || pendingExtraTransport != null
+          || extraTransports.size() + 1 >= maxConnections) {
+        return;
+      }
+      ManagedClientTransport transport =
+          transportFactory.newClientTransport(readyAddress, authority);
+      log.log(Level.INFO, "Created extra transport {0} for {1}",
+          new Object[] {transport, readyAddress});
+      transports.add(transport);
+      pendingExtraTransport = transport;
+      transport.start(new ExtraTransportListener(transport, readyAddress));
+    }
+  }
+
+  /**
+   * Shuts down an extra connection that has no streams, unless the remaining connections would be
+   * more than half full.
+   */
+  private void maybeShutdownIdleExtraTransport(StreamCountingTransport idleTransport) {
+    synchronized (lock) {
+      StreamCountingTransport activeCountedTransport = countedActiveTransport;
+      if (activeCountedTransport == null || !extraTransports.contains(idleTransport)) {
+        return;
+      }
+      long totalStreams = activeCountedTransport.activeStreams();
+      for (StreamCountingTransport extraTransport : extraTransports) {
+        totalStreams += extraTransport.activeStreams();
+      }
+      long remainingCapacity = (long) extraTransports.size() * maxStreamsPerConnection;
+      if (totalStreams * 2 > remainingCapacity || !idleTransport.retire()) {
+        return;
+      }
+      removeExtraTransport(idleTransport.delegate);
+    }
+    idleTransport.delegate.shutdown();
+  }
+
+  @GuardedBy("lock")
+  private void removeExtraTransport(ManagedClientTransport transport) {
+    List<StreamCountingTransport> newExtraTransports =
+        new ArrayList<StreamCountingTransport>(extraTransports.size());
+    for (StreamCountingTransport extraTransport : extraTransports) {
+      if (extraTransport.delegate != transport) {
+        newExtraTransports.add(extraTransport);
+      }
     }
+    extraTransports = Collections.unmodifiableList(newExtraTransports);
   }
 
   @GuardedBy("lock")
@@ -185,6 +372,16 @@ final class TransportSet {
     Runnable createTransportRunnable = new Runnable() {
       @Override
       public void run() {
+        if (isRacing()) {
+          synchronized (lock) {
+            if (currentAddressIndex == headIndex) {
+              backoffWatch.reset().start();
+            }
+            racingAttemptsLeft = addressGroup.getAddresses().size();
+            startRacingAttempt(address);
+          }
+          return;
+        }
         DelayedClientTransport savedDelayedTransport;
         ManagedClientTransport newActiveTransport;
         boolean savedShutdown;
@@ -207,7 +404,7 @@ final class TransportSet {
             Preconditions.checkState(activeTransport == null,
                 "Unexpected non-null activeTransport");
           } else {
-            activeTransport = newActiveTransport;
+            setActiveTransport(newActiveTransport);
           }
           savedDelayedTransport = delayedTransport;
           delayedTransport = null;
@@ -245,6 +442,64 @@ final class TransportSet {
     }
   }
 
+  private boolean isRacing() {
+    return connectionAttemptDelayNanos > 0 && addressGroup.getAddresses().size() > 1;
+  }
+
+  /**
+   * Starts a connection attempt that races with the other pending attempts. Unlike in sequential
+   * mode, the new transport doesn't replace {@link #delayedTransport} until it becomes ready.
+   */
+  @GuardedBy("lock")
+  private void startRacingAttempt(SocketAddress address) {
+    racingAttemptsLeft--;
+    ManagedClientTransport transport = transportFactory.newClientTransport(address, authority);
+    log.log(Level.INFO, "Created transport {0} for {1}", new Object[] {transport, address});
+    transports.add(transport);
+    racingTransports.add(transport);
+    transport.start(new TransportListener(transport, address));
+    // If the transport failed right away, the next attempt has been started already.
+    if (racingAttemptsLeft > 0 && connectionAttemptDelayTask == null) {
+      connectionAttemptDelayTask = scheduledExecutor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (lock) {
+            connectionAttemptDelayTask = null;
+            startNextRacingAttempt();
+          }
+        }
+      }, connectionAttemptDelayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @GuardedBy("lock")
+  private void startNextRacingAttempt() {
+    List<SocketAddress> addrs = addressGroup.getAddresses();
+    SocketAddress address = addrs.get(nextAddressIndex);
+    nextAddressIndex++;
+    if (nextAddressIndex >= addrs.size()) {
+      nextAddressIndex = 0;
+    }
+    startRacingAttempt(address);
+  }
+
+  @GuardedBy("lock")
+  private void cancelConnectionAttemptDelayTask() {
+    if (connectionAttemptDelayTask != null) {
+      connectionAttemptDelayTask.cancel(false);
+      connectionAttemptDelayTask = null;
+    }
+  }
+
+  /**
+   * Returns whether the active transport is ready.
+   */
+  final boolean isReady() {
+    synchronized (lock) {
+      return readyAddress != null;
+    }
+  }
+
   /**
    * Shut down all transports, stop creating new streams, but existing streams will continue.
    *
@@ -252,6 +507,8 @@ final class TransportSet {
    */
   final void shutdown() {
     ManagedClientTransport savedActiveTransport;
+    List<StreamCountingTransport> savedExtraTransports;
+    ManagedClientTransport savedPendingExtraTransport;
     boolean runCallback = false;
     synchronized (lock) {
       if (shutdown) {
@@ -259,7 +516,11 @@ final class TransportSet {
       }
       shutdown = true;
       savedActiveTransport = activeTransport;
-      activeTransport = null;
+      setActiveTransport(null);
+      savedExtraTransports = extraTransports;
+      extraTransports = Collections.emptyList();
+      savedPendingExtraTransport = pendingExtraTransport;
+      pendingExtraTransport = null;
       if (transports.isEmpty()) {
         runCallback = true;
         Preconditions.checkState(reconnectTask == null, "Should have no reconnectTask scheduled");
@@ -269,6 +530,12 @@ final class TransportSet {
     if (savedActiveTransport != null) {
       savedActiveTransport.shutdown();
     }
+    for (StreamCountingTransport extraTransport : savedExtraTransports) {
+      extraTransport.delegate.shutdown();
+    }
+    if (savedPendingExtraTransport != null) {
+      savedPendingExtraTransport.shutdown();
+    }
     if (runCallback) {
       callback.onTerminated();
     }
@@ -304,6 +571,7 @@ final class TransportSet {
         if (shutdown && transports.isEmpty()) {
           runCallback = true;
           cancelReconnectTask();
+          cancelConnectionAttemptDelayTask();
         }
       }
       if (runCallback) {
@@ -329,11 +597,48 @@ final class TransportSet {
     public void transportReady() {
       log.log(Level.INFO, "Transport {0} for {1} is ready", new Object[] {transport, address});
       super.transportReady();
+      boolean wonRace = false;
+      boolean savedShutdown;
+      DelayedClientTransport savedDelayedTransport = null;
+      Collection<ManagedClientTransport> losers = null;
       synchronized (lock) {
-        if (isAttachedToActiveTransport()) {
+        savedShutdown = shutdown;
+        if (racingTransports.remove(transport)) {
+          wonRace = true;
+          losers = new ArrayList<ManagedClientTransport>(racingTransports);
+          racingTransports.clear();
+          racingAttemptsLeft = 0;
+          cancelConnectionAttemptDelayTask();
+          headIndex = -1;
+          // Start the next series of attempts with the address that worked.
+          nextAddressIndex = addressGroup.getAddresses().indexOf(address);
+          if (!shutdown) {
+            setActiveTransport(transport);
+          }
+          savedDelayedTransport = delayedTransport;
+          delayedTransport = null;
+          readyAddress = address;
+        } else if (isAttachedToActiveTransport()) {
           headIndex = -1;
+          readyAddress = address;
+        } else if (isRacing()) {
+          // Lost the race, and is being shut down.
+          return;
         }
       }
+      if (wonRace) {
+        savedDelayedTransport.setTransport(transport);
+        // This delayed transport will terminate and be removed from transports.
+        savedDelayedTransport.shutdown();
+        if (savedShutdown) {
+          // Only needed to take care of the pending streams in the delayed transport.
+          transport.shutdown();
+        }
+        for (ManagedClientTransport loser : losers) {
+          loser.shutdown();
+        }
+      }
+      callback.onReady();
       loadBalancer.transportReady(addressGroup, transport);
     }
 
@@ -342,11 +647,39 @@ final class TransportSet {
       log.log(Level.INFO, "Transport {0} for {1} is being shutdown",
           new Object[] {transport, address});
       super.transportShutdown(s);
+      boolean allAddressesFailed = false;
+      DelayedClientTransport lostRaceDelayedTransport = null;
       synchronized (lock) {
         if (isAttachedToActiveTransport()) {
-          activeTransport = null;
+          setActiveTransport(null);
+          // headIndex is reset once a transport becomes ready, so if the next attempt would go
+          // back to the head, every address in the group has failed in this series.
+          allAddressesFailed = headIndex != -1 && nextAddressIndex == headIndex;
+        } else if (racingTransports.remove(transport)) {
+          if (racingAttemptsLeft > 0) {
+            // Don't wait for the delay to replace a failed attempt, even if others are pending.
+            cancelConnectionAttemptDelayTask();
+            startNextRacingAttempt();
+          } else if (racingTransports.isEmpty()) {
+            // Every attempt of the race has failed.
+            lostRaceDelayedTransport = delayedTransport;
+            delayedTransport = null;
+            if (activeTransport == lostRaceDelayedTransport) {
+              setActiveTransport(null);
+            }
+            allAddressesFailed = headIndex != -1 && nextAddressIndex == headIndex;
+          }
         }
       }
+      if (lostRaceDelayedTransport != null) {
+        // This delayed transport will terminate and be removed from transports.
+        lostRaceDelayedTransport.shutdownNow(
+            Status.UNAVAILABLE.withDescription("Failed to connect to " + addressGroup)
+                .withCause(s.getCause()));
+      }
+      if (allAddressesFailed) {
+        callback.onAllAddressesFailed();
+      }
       // TODO(zhangkun83): if loadBalancer was given delayedTransport earlier, it will get the real
       // transport's shutdown event, and loadBalancer won't be able to match the two. This beats the
       // purpose of passing the transport. We may just remove the second argument.
@@ -364,7 +697,220 @@ final class TransportSet {
     }
   }
 
+  /** Listener for extra connections, which are not reported to the load balancer. */
+  private class ExtraTransportListener extends BaseTransportListener {
+    private final SocketAddress address;
+
+    public ExtraTransportListener(ManagedClientTransport transport, SocketAddress address) {
+      super(transport);
+      this.address = address;
+    }
+
+    @Override
+    public void transportReady() {
+      log.log(Level.INFO, "Extra transport {0} for {1} is ready",
+          new Object[] {transport, address});
+      boolean savedShutdown;
+      synchronized (lock) {
+        if (pendingExtraTransport == transport) {
+          pendingExtraTransport = null;
+        }
+        savedShutdown = shutdown;
+        if (!shutdown) {
+          List<StreamCountingTransport> newExtraTransports =
+              new ArrayList<StreamCountingTransport>(extraTransports);
+          newExtraTransports.add(new StreamCountingTransport(transport, true));
+          extraTransports = Collections.unmodifiableList(newExtraTransports);
+        }
+      }
+      if (savedShutdown) {
+        transport.shutdown();
+      }
+    }
+
+    @Override
+    public void transportShutdown(Status s) {
+      log.log(Level.INFO, "Extra transport {0} for {1} is being shutdown",
+          new Object[] {transport, address});
+      synchronized (lock) {
+        if (pendingExtraTransport == transport) {
+          pendingExtraTransport = null;
+        }
+        removeExtraTransport(transport);
+      }
+    }
+  }
+
+  /**
+   * Counts the active streams of a transport. New streams are routed to the active transport once
+   * the transport has been retired.
+   */
+  private final class StreamCountingTransport implements ClientTransport {
+    final ManagedClientTransport delegate;
+    final ListenableFuture<ClientTransport> future =
+        Futures.<ClientTransport>immediateFuture(this);
+    private final boolean extra;
+    /** The number of active streams, or -1 if retired. */
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    StreamCountingTransport(ManagedClientTransport delegate, boolean extra) {
+      this.delegate = delegate;
+      this.extra = extra;
+    }
+
+    int activeStreams() {
+      return activeStreams.get();
+    }
+
+    /**
+     * Stops accepting new streams if there are none. Returns {@code true} if retired.
+     */
+    boolean retire() {
+      return activeStreams.compareAndSet(0, -1);
+    }
+
+    @Override
+    public ClientStream newStream(MethodDescriptor<?, ?> method, Metadata headers) {
+      while (true) {
+        int streams = activeStreams.get();
+        if (streams < 0) {
+          StreamCountingTransport savedCountedTransport = countedActiveTransport;
+          if (savedCountedTransport == null) {
+            // Shut down, which the delegate will report.
+            return delegate.newStream(method, headers);
+          }
+          return savedCountedTransport.newStream(method, headers);
+        }
+        if (activeStreams.compareAndSet(streams, streams + 1)) {
+          break;
+        }
+      }
+      return new StreamCountingStream(delegate.newStream(method, headers), this);
+    }
+
+    @Override
+    public void ping(PingCallback callback, Executor executor) {
+      delegate.ping(callback, executor);
+    }
+
+    void streamClosed() {
+      if (activeStreams.decrementAndGet() == 0 && extra) {
+        maybeShutdownIdleExtraTransport(this);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return delegate.toString();
+    }
+  }
+
+  private static final class StreamCountingStream implements ClientStream {
+    private final ClientStream delegate;
+    private final StreamCountingTransport transport;
+
+    StreamCountingStream(ClientStream delegate, StreamCountingTransport transport) {
+      this.delegate = delegate;
+      this.transport = transport;
+    }
+
+    @Override
+    public void start(final ClientStreamListener listener) {
+      delegate.start(new ClientStreamListener() {
+        @Override
+        public void headersRead(Metadata headers) {
+          listener.headersRead(headers);
+        }
+
+        @Override
+        public void closed(Status status, Metadata trailers) {
+          transport.streamClosed();
+          listener.closed(status, trailers);
+        }
+
+        @Override
+        public void messageRead(InputStream message) {
+          listener.messageRead(message);
+        }
+
+        @Override
+        public void onReady() {
+          listener.onReady();
+        }
+      });
+    }
+
+    @Override
+    public void cancel(Status reason) {
+      delegate.cancel(reason);
+    }
+
+    @Override
+    public void halfClose() {
+      delegate.halfClose();
+    }
+
+    @Override
+    public void setAuthority(String authority) {
+      delegate.setAuthority(authority);
+    }
+
+    @Override
+    public void setWeight(int weight) {
+      delegate.setWeight(weight);
+    }
+
+    @Override
+    public void request(int numMessages) {
+      delegate.request(numMessages);
+    }
+
+    @Override
+    public void writeMessage(InputStream message) {
+      delegate.writeMessage(message);
+    }
+
+    @Override
+    public void flush() {
+      delegate.flush();
+    }
+
+    @Override
+    public boolean isReady() {
+      return delegate.isReady();
+    }
+
+    @Override
+    public void setCompressor(Compressor compressor) {
+      delegate.setCompressor(compressor);
+    }
+
+    @Override
+    public void setDecompressor(Decompressor decompressor) {
+      delegate.setDecompressor(decompressor);
+    }
+
+    @Override
+    public void setMessageCompression(boolean enable) {
+      delegate.setMessageCompression(enable);
+    }
+  }
+
   interface Callback {
+    /**
+     * Called when the TransportSet has been shut down and all of its transports have terminated.
+     */
     void onTerminated();
+
+    /**
+     * Called when a connection attempt has failed for every address in the group, with no
+     * transport becoming ready in between. The addresses may be stale.
+     */
+    void onAllAddressesFailed();
+
+    /**
+     * Called when the active transport has become ready.
+     */
+    void onReady();
   }
 }
@@ -42,4 +42,12 @@ public interface WritableBufferAllocator {
    * free to return a buffer with a greater or lesser capacity.
    */
   WritableBuffer allocate(int capacityHint);
+
+  /**
+   * Request a new {@link WritableBuffer} for a frame whose total {@code length} is known up front.
+   * Unlike {@link #allocate}, the hint is exact: the allocator may return a buffer that fits the
+   * frame without room for more data. The allocator is free to return a buffer with a greater or
+   * lesser capacity.
+   */
+  WritableBuffer allocateKnownLength(int length);
 }
@@ -52,10 +52,12 @@ public class CallOptionsTest {
   private String sampleAuthority = "authority";
   private Long sampleDeadlineNanoTime = 1L;
   private RequestKey sampleRequestKey = new RequestKey();
+  private Integer sampleStreamWeight = 32;
   private CallOptions allSet = CallOptions.DEFAULT
       .withAuthority(sampleAuthority)
       .withDeadlineNanoTime(sampleDeadlineNanoTime)
-      .withRequestKey(sampleRequestKey);
+      .withRequestKey(sampleRequestKey)
+      .withStreamWeight(sampleStreamWeight);
 
   @Test
   public void defaultsAreAllNull() {
@@ -63,6 +65,7 @@ public class CallOptionsTest {
     assertNull(CallOptions.DEFAULT.getAuthority());
     assertNull(CallOptions.DEFAULT.getRequestKey());
     assertNull(CallOptions.DEFAULT.getExecutor());
+    assertNull(CallOptions.DEFAULT.getStreamWeight());
   }
 
   @Test
@@ -70,6 +73,7 @@ public class CallOptionsTest {
     assertSame(sampleAuthority, allSet.getAuthority());
     assertSame(sampleDeadlineNanoTime, allSet.getDeadlineNanoTime());
     assertSame(sampleRequestKey, allSet.getRequestKey());
+    assertSame(sampleStreamWeight, allSet.getStreamWeight());
   }
 
   @Test
@@ -80,6 +84,8 @@ public class CallOptionsTest {
           allSet.withDeadlineNanoTime(314L).withDeadlineNanoTime(sampleDeadlineNanoTime)));
     assertTrue(equal(allSet,
           allSet.withRequestKey(new RequestKey()).withRequestKey(sampleRequestKey)));
+    assertTrue(equal(allSet,
+          allSet.withStreamWeight(1).withStreamWeight(sampleStreamWeight)));
   }
 
   @Test
@@ -103,6 +109,11 @@ public class CallOptionsTest {
     assertNull(options2.getExecutor());
   }
 
+  @Test(expected = IllegalArgumentException.class)
+  public void streamWeightOutOfRange() {
+    CallOptions.DEFAULT.withStreamWeight(257);
+  }
+
   @Test
   public void testWithDeadlineAfter() {
     long deadline = CallOptions.DEFAULT
@@ -127,6 +138,7 @@ public class CallOptionsTest {
   private static boolean equal(CallOptions o1, CallOptions o2) {
     return Objects.equal(o1.getDeadlineNanoTime(), o2.getDeadlineNanoTime())
         && Objects.equal(o1.getAuthority(), o2.getAuthority())
-        && Objects.equal(o1.getRequestKey(), o2.getRequestKey());
+        && Objects.equal(o1.getRequestKey(), o2.getRequestKey())
+        && Objects.equal(o1.getStreamWeight(), o2.getStreamWeight());
   }
 }
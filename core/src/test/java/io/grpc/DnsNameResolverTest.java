@@ -33,13 +33,42 @@ package io.grpc;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.grpc.internal.SharedResourceHolder.Resource;
+
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /** Unit tests for {@link DnsNameResolver}. */
 @RunWith(JUnit4.class)
@@ -51,6 +80,50 @@ public class DnsNameResolverTest {
   private static final Attributes NAME_RESOLVER_PARAMS =
       Attributes.newBuilder().set(NameResolver.Factory.PARAMS_DEFAULT_PORT, DEFAULT_PORT).build();
 
+  private static final long CACHE_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  private final Resource<ExecutorService> fakeExecutorResource =
+      new Resource<ExecutorService>() {
+        @Override
+        public ExecutorService create() {
+          return MoreExecutors.newDirectExecutorService();
+        }
+
+        @Override
+        public void close(ExecutorService instance) {
+        }
+      };
+
+  private final Resource<ScheduledExecutorService> fakeTimerServiceResource =
+      new Resource<ScheduledExecutorService>() {
+        @Override
+        public ScheduledExecutorService create() {
+          return mockTimerService;
+        }
+
+        @Override
+        public void close(ScheduledExecutorService instance) {
+        }
+      };
+
+  private final FakeTicker fakeTicker = new FakeTicker();
+  private final MockAddressResolver mockResolver = new MockAddressResolver();
+
+  @Mock private ScheduledExecutorService mockTimerService;
+  @Mock private ScheduledFuture<?> mockScheduledFuture;
+  @Mock private NameResolver.Listener mockListener;
+  @Captor private ArgumentCaptor<List<ResolvedServerInfo>> resultCaptor;
+  @Captor private ArgumentCaptor<Runnable> runnableCaptor;
+  @Captor private ArgumentCaptor<Status> statusCaptor;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(mockTimerService.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+        .thenReturn((ScheduledFuture) mockScheduledFuture);
+  }
+
   @Test
   public void invalidDnsName() throws Exception {
     testInvalidUri(new URI("dns", null, "/[invalid]", null));
@@ -73,6 +146,154 @@ public class DnsNameResolverTest {
         "foo.googleapis.com:456", 456);
   }
 
+  @Test
+  public void resolve() throws Exception {
+    InetAddress[] answer1 = createAddressList(2);
+    InetAddress[] answer2 = createAddressList(1);
+    DnsNameResolver resolver = newResolver("foo.googleapis.com", 456, 0);
+    mockResolver.addAnswer(answer1).addAnswer(answer2);
+
+    resolver.start(mockListener);
+    assertEquals("foo.googleapis.com", mockResolver.invocations.poll());
+    verify(mockListener).onUpdate(resultCaptor.capture(), eq(Attributes.EMPTY));
+    assertAnswerMatches(answer1, 456, resultCaptor.getValue());
+
+    fakeTicker.forwardNanos(CACHE_TTL_NANOS);
+    resolver.refresh();
+    assertEquals("foo.googleapis.com", mockResolver.invocations.poll());
+    verify(mockListener, times(2)).onUpdate(resultCaptor.capture(), eq(Attributes.EMPTY));
+    assertAnswerMatches(answer2, 456, resultCaptor.getValue());
+
+    resolver.shutdown();
+  }
+
+  @Test
+  public void refreshWithSameAddressesDoesNotNotify() throws Exception {
+    InetAddress[] answer = createAddressList(2);
+    InetAddress[] reordered = new InetAddress[] {answer[1], answer[0]};
+    DnsNameResolver resolver = newResolver("foo.googleapis.com", 456, 0);
+    mockResolver.addAnswer(answer).addAnswer(reordered);
+
+    resolver.start(mockListener);
+    fakeTicker.forwardNanos(CACHE_TTL_NANOS);
+    resolver.refresh();
+    assertEquals(2, mockResolver.invocations.size());
+    verify(mockListener, times(1)).onUpdate(
+        anyListOf(ResolvedServerInfo.class), any(Attributes.class));
+
+    resolver.shutdown();
+  }
+
+  @Test
+  public void refreshWithinCacheTtlIsDeferred() throws Exception {
+    DnsNameResolver resolver = newResolver("foo.googleapis.com", 456, 0);
+    mockResolver.addAnswer(createAddressList(1)).addAnswer(createAddressList(2));
+
+    resolver.start(mockListener);
+    assertEquals(1, mockResolver.invocations.size());
+
+    fakeTicker.forwardNanos(CACHE_TTL_NANOS - 10);
+    resolver.refresh();
+    assertEquals(1, mockResolver.invocations.size());
+    verify(mockTimerService).schedule(runnableCaptor.capture(), eq(10L), eq(TimeUnit.NANOSECONDS));
+
+    fakeTicker.forwardNanos(10);
+    runnableCaptor.getValue().run();
+    assertEquals(2, mockResolver.invocations.size());
+    verify(mockListener, times(2)).onUpdate(
+        anyListOf(ResolvedServerInfo.class), any(Attributes.class));
+
+    resolver.shutdown();
+  }
+
+  @Test
+  public void periodicRefresh() throws Exception {
+    long refreshIntervalNanos = TimeUnit.MINUTES.toNanos(5);
+    DnsNameResolver resolver = newResolver("foo.googleapis.com", 456, refreshIntervalNanos);
+    mockResolver.addAnswer(createAddressList(1)).addAnswer(createAddressList(2));
+
+    resolver.start(mockListener);
+    verify(mockTimerService).schedule(
+        runnableCaptor.capture(), eq(refreshIntervalNanos), eq(TimeUnit.NANOSECONDS));
+
+    fakeTicker.forwardNanos(refreshIntervalNanos);
+    runnableCaptor.getValue().run();
+    assertEquals(2, mockResolver.invocations.size());
+    verify(mockListener, times(2)).onUpdate(
+        anyListOf(ResolvedServerInfo.class), any(Attributes.class));
+    // The next refresh has been scheduled
+    verify(mockTimerService, times(2)).schedule(
+        any(Runnable.class), eq(refreshIntervalNanos), eq(TimeUnit.NANOSECONDS));
+
+    resolver.shutdown();
+    verify(mockScheduledFuture).cancel(false);
+  }
+
+  @Test
+  public void resolutionFailure() throws Exception {
+    InetAddress[] answer = createAddressList(1);
+    UnknownHostException error = new UnknownHostException("foo.googleapis.com");
+    DnsNameResolver resolver = newResolver("foo.googleapis.com", 456, 0);
+    mockResolver.addAnswer(answer).addError(error).addAnswer(answer);
+
+    resolver.start(mockListener);
+    verify(mockListener).onUpdate(anyListOf(ResolvedServerInfo.class), any(Attributes.class));
+
+    fakeTicker.forwardNanos(CACHE_TTL_NANOS);
+    resolver.refresh();
+    verify(mockListener).onError(statusCaptor.capture());
+    assertEquals(Status.Code.UNAVAILABLE, statusCaptor.getValue().getCode());
+    assertSame(error, statusCaptor.getValue().getCause());
+
+    // The same addresses are reported again after a failure.
+    fakeTicker.forwardNanos(CACHE_TTL_NANOS);
+    resolver.refresh();
+    verify(mockListener, times(2)).onUpdate(
+        anyListOf(ResolvedServerInfo.class), any(Attributes.class));
+
+    resolver.shutdown();
+  }
+
+  @Test
+  public void noResolutionAfterShutdown() throws Exception {
+    DnsNameResolver resolver = newResolver("foo.googleapis.com", 456, 0);
+    mockResolver.addAnswer(createAddressList(1));
+
+    resolver.start(mockListener);
+    resolver.shutdown();
+    fakeTicker.forwardNanos(CACHE_TTL_NANOS);
+    resolver.refresh();
+    assertEquals(1, mockResolver.invocations.size());
+    verify(mockListener, never()).onError(any(Status.class));
+  }
+
+  private DnsNameResolver newResolver(String name, int port, long refreshIntervalNanos) {
+    DnsNameResolver resolver = new DnsNameResolver(null, name,
+        Attributes.newBuilder().set(NameResolver.Factory.PARAMS_DEFAULT_PORT, port).build(),
+        refreshIntervalNanos, CACHE_TTL_NANOS, fakeExecutorResource, fakeTimerServiceResource,
+        Stopwatch.createUnstarted(fakeTicker));
+    resolver.setAddressResolver(mockResolver);
+    return resolver;
+  }
+
+  private static InetAddress[] createAddressList(int n) throws UnknownHostException {
+    InetAddress[] list = new InetAddress[n];
+    for (int i = 0; i < n; i++) {
+      list[i] = InetAddress.getByAddress(new byte[] {127, 0, 0, (byte) (i + 1)});
+    }
+    return list;
+  }
+
+  private static void assertAnswerMatches(
+      InetAddress[] addrs, int port, List<ResolvedServerInfo> result) {
+    assertEquals(addrs.length, result.size());
+    for (int i = 0; i < addrs.length; i++) {
+      InetSocketAddress socketAddr = (InetSocketAddress) result.get(i).getAddress();
+      assertEquals("Addr " + i, port, socketAddr.getPort());
+      assertEquals("Addr " + i, addrs[i], socketAddr.getAddress());
+    }
+  }
+
   private void testInvalidUri(URI uri) {
     try {
       factory.newNameResolver(uri, NAME_RESOLVER_PARAMS);
@@ -88,4 +309,42 @@ public class DnsNameResolverTest {
     assertEquals(expectedPort, resolver.getPort());
     assertEquals(exportedAuthority, resolver.getServiceAuthority());
   }
+
+  private static class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void forwardNanos(long delta) {
+      nanos += delta;
+    }
+  }
+
+  private static class MockAddressResolver implements DnsNameResolver.AddressResolver {
+    private final LinkedList<Object> answers = new LinkedList<Object>();
+    private final LinkedList<String> invocations = new LinkedList<String>();
+
+    MockAddressResolver addAnswer(InetAddress[] addresses) {
+      answers.add(addresses);
+      return this;
+    }
+
+    MockAddressResolver addError(Exception e) {
+      answers.add(e);
+      return this;
+    }
+
+    @Override
+    public InetAddress[] resolveAddress(String host) throws Exception {
+      invocations.add(host);
+      Object answer = answers.poll();
+      if (answer instanceof Exception) {
+        throw (Exception) answer;
+      }
+      return (InetAddress[]) answer;
+    }
+  }
 }
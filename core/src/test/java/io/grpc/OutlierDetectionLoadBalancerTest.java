@@ -0,0 +1,421 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import io.grpc.internal.ClientStream;
+import io.grpc.internal.ClientStreamListener;
+import io.grpc.internal.ClientTransport;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link OutlierDetectionLoadBalancerFactory}. */
+@RunWith(JUnit4.class)
+public class OutlierDetectionLoadBalancerTest {
+  private static final int BACKENDS = 10;
+
+  @Mock private TransportManager<ClientTransport> mockTransportManager;
+
+  private final MethodDescriptor<String, Integer> method = MethodDescriptor.create(
+      MethodDescriptor.MethodType.UNKNOWN, "/service/method",
+      new StringMarshaller(), new IntegerMarshaller());
+  private final FakeTicker ticker = new FakeTicker();
+  private final List<EquivalentAddressGroup> groups = new ArrayList<EquivalentAddressGroup>();
+  private OutlierDetectionLoadBalancerFactory.Builder builder;
+  private EquivalentAddressGroup lastRequestedGroup;
+  private ClientStreamListener lastStreamListener;
+  private ClientTransport pickedTransport;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    for (int i = 0; i < BACKENDS; i++) {
+      final EquivalentAddressGroup group =
+          new EquivalentAddressGroup(new InetSocketAddress("10.0.0." + i, 443));
+      final ClientTransport transport = newMockTransport();
+      when(mockTransportManager.getTransport(group)).thenAnswer(
+          new Answer<ListenableFuture<ClientTransport>>() {
+            @Override
+            public ListenableFuture<ClientTransport> answer(InvocationOnMock invocation) {
+              lastRequestedGroup = group;
+              return Futures.immediateFuture(transport);
+            }
+          });
+      groups.add(group);
+    }
+    builder = OutlierDetectionLoadBalancerFactory.newBuilder(new RoundRobinFactory())
+        .ticker(ticker);
+  }
+
+  @Test
+  public void passesThroughWhenHealthy() throws Exception {
+    LoadBalancer<ClientTransport> lb = newLoadBalancer(builder.consecutiveFailures(1));
+    for (int i = 0; i < 3 * BACKENDS; i++) {
+      assertSame(groups.get(i % BACKENDS), call(lb, Status.OK));
+    }
+  }
+
+  @Test
+  public void ejectsAfterConsecutiveFailures() throws Exception {
+    LoadBalancer<ClientTransport> lb = newLoadBalancer(builder.consecutiveFailures(3));
+    EquivalentAddressGroup bad = groups.get(0);
+    for (int i = 0; i < 3 * BACKENDS; i++) {
+      complete(pick(lb) == bad ? Status.UNAVAILABLE : Status.OK);
+    }
+    for (int i = 0; i < 3 * BACKENDS; i++) {
+      assertNotSame(bad, call(lb, Status.OK));
+    }
+
+    // Picked again once the ejection time has passed
+    ticker.advance(30, TimeUnit.SECONDS);
+    assertTrue(picksOf(lb, bad, BACKENDS) > 0);
+  }
+
+  @Test
+  public void successesResetConsecutiveFailures() throws Exception {
+    LoadBalancer<ClientTransport> lb = newLoadBalancer(builder.consecutiveFailures(2));
+    EquivalentAddressGroup flaky = groups.get(0);
+    boolean fail = true;
+    for (int i = 0; i < 4 * BACKENDS; i++) {
+      if (pick(lb) == flaky) {
+        complete(fail ? Status.UNAVAILABLE : Status.OK);
+        fail = !fail;
+      } else {
+        complete(Status.OK);
+      }
+    }
+    assertTrue(picksOf(lb, flaky, BACKENDS) > 0);
+  }
+
+  @Test
+  public void clientSideStatusesAreNotFailures() throws Exception {
+    LoadBalancer<ClientTransport> lb = newLoadBalancer(builder.consecutiveFailures(1));
+    warmUp(lb);
+    for (int i = 0; i < 3 * BACKENDS; i++) {
+      call(lb, Status.CANCELLED);
+      call(lb, Status.NOT_FOUND);
+      call(lb, Status.DEADLINE_EXCEEDED);
+    }
+    assertEquals(BACKENDS, countDistinctPicks(lb, BACKENDS));
+  }
+
+  @Test
+  public void ejectionTimeDoublesForRepeatOffenders() throws Exception {
+    LoadBalancer<ClientTransport> lb = newLoadBalancer(builder.consecutiveFailures(1));
+    warmUp(lb);
+    EquivalentAddressGroup bad = groups.get(0);
+    failOnce(lb, bad);
+    assertEquals(0, picksOf(lb, bad, BACKENDS));
+    ticker.advance(30, TimeUnit.SECONDS);
+
+    failOnce(lb, bad);
+    ticker.advance(30, TimeUnit.SECONDS);
+    assertEquals(0, picksOf(lb, bad, BACKENDS));
+    ticker.advance(30, TimeUnit.SECONDS);
+    assertTrue(picksOf(lb, bad, BACKENDS) > 0);
+  }
+
+  @Test
+  public void ejectionTimeIsCapped() throws Exception {
+    LoadBalancer<ClientTransport> lb = newLoadBalancer(builder.consecutiveFailures(1)
+        .baseEjectionTime(30, TimeUnit.SECONDS).maxEjectionTime(40, TimeUnit.SECONDS));
+    warmUp(lb);
+    EquivalentAddressGroup bad = groups.get(0);
+    failOnce(lb, bad);
+    ticker.advance(30, TimeUnit.SECONDS);
+    failOnce(lb, bad);
+    ticker.advance(40, TimeUnit.SECONDS);
+    assertTrue(picksOf(lb, bad, BACKENDS) > 0);
+  }
+
+  @Test
+  public void maxEjectionPercentIsHonored() throws Exception {
+    LoadBalancer<ClientTransport> lb =
+        newLoadBalancer(builder.consecutiveFailures(1).maxEjectionPercent(20));
+    warmUp(lb);
+    for (int i = 0; i < 3 * BACKENDS; i++) {
+      call(lb, Status.UNAVAILABLE);
+    }
+    assertEquals(BACKENDS - 2, countDistinctPicks(lb, 3 * BACKENDS));
+  }
+
+  @Test
+  public void oneOfFewBackendsCanBeEjected() throws Exception {
+    // The default 10% of 3 backends rounds down to none
+    groups.subList(3, BACKENDS).clear();
+    LoadBalancer<ClientTransport> lb = newLoadBalancer(builder);
+    EquivalentAddressGroup bad = groups.get(0);
+    for (int i = 0; i < 6 * groups.size(); i++) {
+      complete(pick(lb) == bad ? Status.UNAVAILABLE : Status.OK);
+    }
+    for (int i = 0; i < 3 * groups.size(); i++) {
+      assertNotSame(bad, call(lb, Status.OK));
+    }
+  }
+
+  @Test
+  public void onlyOneOfFewBackendsIsEjected() throws Exception {
+    groups.subList(3, BACKENDS).clear();
+    LoadBalancer<ClientTransport> lb = newLoadBalancer(builder);
+    for (int i = 0; i < 6 * groups.size(); i++) {
+      complete(pick(lb) != groups.get(2) ? Status.UNAVAILABLE : Status.OK);
+    }
+    assertEquals(2, countDistinctPicks(lb, 2 * groups.size()));
+  }
+
+  @Test
+  public void singleBackendIsNeverEjected() throws Exception {
+    LoadBalancer<ClientTransport> lb = OutlierDetectionLoadBalancerFactory
+        .newBuilder(SimpleLoadBalancerFactory.getInstance()).consecutiveFailures(1).ticker(ticker)
+        .build().newLoadBalancer("test", mockTransportManager);
+    lb.handleResolvedAddresses(
+        Collections.singletonList(new ResolvedServerInfo(
+            groups.get(0).getAddresses().get(0), Attributes.EMPTY)),
+        Attributes.EMPTY);
+    for (int i = 0; i < 10; i++) {
+      assertSame(groups.get(0), call(lb, Status.UNAVAILABLE));
+    }
+  }
+
+  @Test
+  public void ejectsSuccessRateOutliers() throws Exception {
+    LoadBalancer<ClientTransport> lb = newLoadBalancer(builder
+        .successRateMinimumRequestVolume(10).consecutiveFailures(Integer.MAX_VALUE));
+    EquivalentAddressGroup bad = failHalfOfTheTime(lb, groups.get(3));
+    assertTrue(picksOf(lb, bad, BACKENDS) > 0);
+
+    ticker.advance(10, TimeUnit.SECONDS);
+    assertEquals(0, picksOf(lb, bad, 3 * BACKENDS));
+  }
+
+  @Test
+  public void successRateNeedsEnoughHosts() throws Exception {
+    LoadBalancer<ClientTransport> lb = newLoadBalancer(builder
+        .successRateMinimumRequestVolume(10).successRateMinimumHosts(BACKENDS + 1)
+        .consecutiveFailures(Integer.MAX_VALUE));
+    EquivalentAddressGroup bad = failHalfOfTheTime(lb, groups.get(3));
+
+    ticker.advance(10, TimeUnit.SECONDS);
+    assertTrue(picksOf(lb, bad, BACKENDS) > 0);
+  }
+
+  @Test
+  public void successRateNeedsEnoughRequests() throws Exception {
+    LoadBalancer<ClientTransport> lb = newLoadBalancer(builder
+        .successRateMinimumRequestVolume(21).consecutiveFailures(Integer.MAX_VALUE));
+    EquivalentAddressGroup bad = failHalfOfTheTime(lb, groups.get(3));
+
+    ticker.advance(10, TimeUnit.SECONDS);
+    assertTrue(picksOf(lb, bad, BACKENDS) > 0);
+  }
+
+  @Test
+  public void forwardsOtherMethods() {
+    LoadBalancer.Factory delegateFactory = mock(LoadBalancer.Factory.class);
+    @SuppressWarnings("unchecked")
+    LoadBalancer<ClientTransport> delegate = mock(LoadBalancer.class);
+    when(delegateFactory.newLoadBalancer(any(String.class), any(TransportManager.class)))
+        .thenReturn(delegate);
+    LoadBalancer<ClientTransport> lb = OutlierDetectionLoadBalancerFactory
+        .newBuilder(delegateFactory).build().newLoadBalancer("test", mockTransportManager);
+
+    List<ResolvedServerInfo> servers = new ArrayList<ResolvedServerInfo>();
+    lb.handleResolvedAddresses(servers, Attributes.EMPTY);
+    verify(delegate).handleResolvedAddresses(servers, Attributes.EMPTY);
+    lb.handleNameResolutionError(Status.UNAVAILABLE);
+    verify(delegate).handleNameResolutionError(Status.UNAVAILABLE);
+    ClientTransport transport = mock(ClientTransport.class);
+    lb.transportReady(groups.get(0), transport);
+    verify(delegate).transportReady(groups.get(0), transport);
+    lb.transportShutdown(groups.get(0), transport, Status.INTERNAL);
+    verify(delegate).transportShutdown(groups.get(0), transport, Status.INTERNAL);
+    lb.shutdown();
+    verify(delegate).shutdown();
+  }
+
+  private LoadBalancer<ClientTransport> newLoadBalancer(
+      OutlierDetectionLoadBalancerFactory.Builder builder) {
+    return builder.build().newLoadBalancer("test", mockTransportManager);
+  }
+
+  /** Makes a successful call to every backend, so that all of them are known. */
+  private void warmUp(LoadBalancer<ClientTransport> lb) throws Exception {
+    for (int i = 0; i < BACKENDS; i++) {
+      call(lb, Status.OK);
+    }
+  }
+
+  /** Makes 20 calls to every backend, where every other call to {@code bad} fails. */
+  private EquivalentAddressGroup failHalfOfTheTime(LoadBalancer<ClientTransport> lb,
+      EquivalentAddressGroup bad) throws Exception {
+    boolean fail = true;
+    for (int i = 0; i < 20 * BACKENDS; i++) {
+      if (pick(lb) == bad) {
+        complete(fail ? Status.UNAVAILABLE : Status.OK);
+        fail = !fail;
+      } else {
+        complete(Status.OK);
+      }
+    }
+    return bad;
+  }
+
+  private void failOnce(LoadBalancer<ClientTransport> lb, EquivalentAddressGroup group)
+      throws Exception {
+    for (int i = 0; i < BACKENDS; i++) {
+      if (pick(lb) == group) {
+        complete(Status.UNAVAILABLE);
+        return;
+      }
+      complete(Status.OK);
+    }
+    throw new AssertionError("Never picked " + group);
+  }
+
+  private int picksOf(LoadBalancer<ClientTransport> lb, EquivalentAddressGroup group, int calls)
+      throws Exception {
+    int count = 0;
+    for (int i = 0; i < calls; i++) {
+      if (call(lb, Status.OK) == group) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private int countDistinctPicks(LoadBalancer<ClientTransport> lb, int picks) throws Exception {
+    Set<EquivalentAddressGroup> picked = new HashSet<EquivalentAddressGroup>();
+    for (int i = 0; i < picks; i++) {
+      picked.add(pick(lb));
+    }
+    return picked.size();
+  }
+
+  private EquivalentAddressGroup call(LoadBalancer<ClientTransport> lb, Status status)
+      throws Exception {
+    EquivalentAddressGroup group = pick(lb);
+    complete(status);
+    return group;
+  }
+
+  /** Picks a transport for the next {@link #complete} and returns its address group. */
+  private EquivalentAddressGroup pick(LoadBalancer<ClientTransport> lb) throws Exception {
+    pickedTransport = lb.pickTransport(null).get();
+    return lastRequestedGroup;
+  }
+
+  /** Makes a call on the last picked transport, that the server closes with {@code status}. */
+  private void complete(Status status) {
+    ClientStream stream = pickedTransport.newStream(method, new Metadata());
+    ClientStreamListener listener = mock(ClientStreamListener.class);
+    stream.start(listener);
+    Metadata trailers = new Metadata();
+    lastStreamListener.closed(status, trailers);
+    verify(listener).closed(status, trailers);
+  }
+
+  private ClientTransport newMockTransport() {
+    ClientTransport transport = mock(ClientTransport.class);
+    when(transport.newStream(any(MethodDescriptor.class), any(Metadata.class))).thenAnswer(
+        new Answer<ClientStream>() {
+          @Override
+          public ClientStream answer(InvocationOnMock invocation) {
+            ClientStream stream = mock(ClientStream.class);
+            doAnswer(new Answer<Void>() {
+              @Override
+              public Void answer(InvocationOnMock invocation) {
+                lastStreamListener = (ClientStreamListener) invocation.getArguments()[0];
+                return null;
+              }
+            }).when(stream).start(any(ClientStreamListener.class));
+            return stream;
+          }
+        });
+    return transport;
+  }
+
+  /** Round-robins over all the test backends. */
+  private class RoundRobinFactory extends LoadBalancer.Factory {
+    @Override
+    public <T> LoadBalancer<T> newLoadBalancer(String serviceName, final TransportManager<T> tm) {
+      return new LoadBalancer<T>() {
+        private int next;
+
+        @Override
+        public ListenableFuture<T> pickTransport(RequestKey requestKey) {
+          return tm.getTransport(groups.get(next++ % groups.size()));
+        }
+      };
+    }
+  }
+
+  private static class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long duration, TimeUnit unit) {
+      nanos += unit.toNanos(duration);
+    }
+  }
+}
@@ -55,6 +55,7 @@ import org.mockito.MockitoAnnotations;
 
 import java.net.SocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 
 /** Unit test for {@link SimpleLoadBalancerFactory}. */
 @RunWith(JUnit4.class)
@@ -105,6 +106,7 @@ public class SimpleLoadBalancerTest {
     sourceFuture.set(mockTransport);
     assertSame(mockTransport, f1.get());
     assertSame(mockTransport, f2.get());
+    verify(mockTransportManager).updateRetainedTransports(Collections.singletonList(addressGroup));
     verifyNoMoreInteractions(mockTransportManager);
   }
 
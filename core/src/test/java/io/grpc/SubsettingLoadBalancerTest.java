@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/** Unit tests for {@link SubsettingLoadBalancerFactory}. */
+@RunWith(JUnit4.class)
+public class SubsettingLoadBalancerTest {
+  private static final int SUBSET_SIZE = 10;
+
+  @Mock private LoadBalancer.Factory mockDelegateFactory;
+  @Mock private LoadBalancer<Object> mockDelegate;
+  @Mock private TransportManager<Object> mockTransportManager;
+  @Captor private ArgumentCaptor<List<ResolvedServerInfo>> serversCaptor;
+
+  private final List<ResolvedServerInfo> servers = createServers(100);
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(mockDelegateFactory.newLoadBalancer(any(String.class), same(mockTransportManager)))
+        .thenReturn(mockDelegate);
+  }
+
+  @Test
+  public void passesSubsetToDelegate() {
+    LoadBalancer<Object> loadBalancer = newFactory("client").newLoadBalancer(
+        "fakeservice", mockTransportManager);
+
+    loadBalancer.handleResolvedAddresses(servers, Attributes.EMPTY);
+    verify(mockDelegate).handleResolvedAddresses(serversCaptor.capture(), same(Attributes.EMPTY));
+    List<ResolvedServerInfo> subset = serversCaptor.getValue();
+    assertEquals(SUBSET_SIZE, subset.size());
+    // The resolved order is preserved
+    int lastIndex = -1;
+    for (ResolvedServerInfo server : subset) {
+      int index = servers.indexOf(server);
+      assertTrue(index > lastIndex);
+      lastIndex = index;
+    }
+
+    Status error = Status.UNAVAILABLE;
+    loadBalancer.handleNameResolutionError(error);
+    verify(mockDelegate).handleNameResolutionError(same(error));
+    loadBalancer.pickTransport(null);
+    verify(mockDelegate).pickTransport(null);
+    loadBalancer.shutdown();
+    verify(mockDelegate).shutdown();
+  }
+
+  @Test
+  public void fewerServersThanSubsetSize() {
+    List<ResolvedServerInfo> fewServers = servers.subList(0, SUBSET_SIZE - 1);
+    assertSame(fewServers, newFactory("client").selectSubset(fewServers));
+  }
+
+  @Test
+  public void deterministic() {
+    List<ResolvedServerInfo> subset = newFactory("client").selectSubset(servers);
+    assertEquals(subset, newFactory("client").selectSubset(servers));
+
+    List<ResolvedServerInfo> shuffled = new ArrayList<ResolvedServerInfo>(servers);
+    Collections.reverse(shuffled);
+    assertEquals(new HashSet<ResolvedServerInfo>(subset),
+        new HashSet<ResolvedServerInfo>(newFactory("client").selectSubset(shuffled)));
+
+    assertNotEquals(subset, newFactory("another client").selectSubset(servers));
+  }
+
+  @Test
+  public void evenlyDistributed() {
+    int numClients = 1000;
+    int[] selections = new int[servers.size()];
+    for (int i = 0; i < numClients; i++) {
+      for (ResolvedServerInfo server : newFactory("client-" + i).selectSubset(servers)) {
+        selections[servers.indexOf(server)]++;
+      }
+    }
+    // Each server is expected to be picked by 100 clients
+    int expected = numClients * SUBSET_SIZE / servers.size();
+    for (int count : selections) {
+      assertTrue("count: " + count, count > expected / 2 && count < expected * 2);
+    }
+  }
+
+  @Test
+  public void minimalChurn() {
+    SubsettingLoadBalancerFactory factory = newFactory("client");
+    List<ResolvedServerInfo> subset = factory.selectSubset(servers);
+
+    // Removing a server that is not in the subset doesn't change the subset
+    List<ResolvedServerInfo> updated = new ArrayList<ResolvedServerInfo>(servers);
+    for (ResolvedServerInfo server : servers) {
+      if (!subset.contains(server)) {
+        updated.remove(server);
+        break;
+      }
+    }
+    assertEquals(subset, factory.selectSubset(updated));
+
+    // Removing a server in the subset only replaces that server
+    ResolvedServerInfo removed = subset.get(0);
+    updated.remove(removed);
+    List<ResolvedServerInfo> newSubset = factory.selectSubset(updated);
+    assertEquals(SUBSET_SIZE, newSubset.size());
+    assertFalse(newSubset.contains(removed));
+    HashSet<ResolvedServerInfo> kept = new HashSet<ResolvedServerInfo>(newSubset);
+    kept.retainAll(subset);
+    assertEquals(SUBSET_SIZE - 1, kept.size());
+
+    // Adding a server replaces at most one server
+    updated.addAll(createServers(101).subList(100, 101));
+    kept = new HashSet<ResolvedServerInfo>(factory.selectSubset(updated));
+    kept.retainAll(newSubset);
+    assertTrue(kept.size() >= SUBSET_SIZE - 1);
+  }
+
+  private SubsettingLoadBalancerFactory newFactory(String clientId) {
+    return SubsettingLoadBalancerFactory.newInstance(mockDelegateFactory, clientId, SUBSET_SIZE);
+  }
+
+  private static List<ResolvedServerInfo> createServers(int n) {
+    ArrayList<ResolvedServerInfo> list = new ArrayList<ResolvedServerInfo>(n);
+    try {
+      for (int i = 0; i < n; i++) {
+        InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, (byte) (i / 256),
+            (byte) (i % 256)});
+        list.add(new ResolvedServerInfo(new InetSocketAddress(address, 443), Attributes.EMPTY));
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    return list;
+  }
+}
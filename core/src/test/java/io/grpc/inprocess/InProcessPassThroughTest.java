@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package io.grpc.inprocess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.MethodDescriptor.CopyingMarshaller;
+import io.grpc.MethodDescriptor.ImmutableMarshaller;
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StringMarshaller;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that the in-process transport passes message objects through {@code ClientCallImpl} and
+ * {@code ServerCallImpl} without serializing them.
+ */
+@RunWith(JUnit4.class)
+public class InProcessPassThroughTest {
+  private static final String NAME = "in-process-pass-through-test";
+
+  private final BlockingQueue<Object> serverReceived = new LinkedBlockingQueue<Object>();
+  private final BlockingQueue<Object> clientReceived = new LinkedBlockingQueue<Object>();
+  private Server server;
+  private ManagedChannel channel;
+
+  @After
+  public void tearDown() {
+    if (channel != null) {
+      channel.shutdownNow();
+    }
+    if (server != null) {
+      server.shutdownNow();
+    }
+  }
+
+  @Test
+  public void sameMarshallerPassesObjects() throws Exception {
+    ImmutableStringMarshaller marshaller = new ImmutableStringMarshaller();
+    String request = new String("request");
+    Object response = call(marshaller, marshaller, request);
+
+    // The server echoes the object it received
+    assertSame(request, serverReceived.poll());
+    assertSame(request, response);
+  }
+
+  @Test
+  public void otherMarshallerParses() throws Exception {
+    String request = new String("request");
+    Object response =
+        call(new ImmutableStringMarshaller(), new ImmutableStringMarshaller(), request);
+
+    Object received = serverReceived.poll();
+    assertEquals(request, received);
+    assertNotSame(request, received);
+    assertEquals(request, response);
+    assertNotSame(received, response);
+  }
+
+  @Test
+  public void mutableMessagesAreSerialized() throws Exception {
+    StringBuilderMarshaller marshaller = new StringBuilderMarshaller();
+    StringBuilder request = new StringBuilder("request");
+    Object response = call(marshaller, marshaller, request);
+
+    Object received = serverReceived.poll();
+    assertNotSame(request, received);
+    assertEquals("request", received.toString());
+    assertNotSame(received, response);
+    assertEquals("request", response.toString());
+  }
+
+  @Test
+  public void copyingMarshallerPassesCopies() throws Exception {
+    CopyingStringBuilderMarshaller marshaller = new CopyingStringBuilderMarshaller();
+    StringBuilder request = new StringBuilder("request");
+    Object response = call(marshaller, marshaller, request);
+
+    Object received = serverReceived.poll();
+    assertNotSame(request, received);
+    assertEquals("request", received.toString());
+    assertNotSame(received, response);
+    assertEquals("request", response.toString());
+  }
+
+  /**
+   * Makes a unary call to a server that echoes the request, with the client using {@code
+   * clientMarshaller} and the server {@code serverMarshaller}, and returns the response.
+   */
+  private <T> Object call(Marshaller<T> clientMarshaller, Marshaller<T> serverMarshaller,
+      T request) throws Exception {
+    final MethodDescriptor<T, T> serverMethod = MethodDescriptor.create(
+        MethodDescriptor.MethodType.UNARY, "service/method", serverMarshaller, serverMarshaller);
+    server = InProcessServerBuilder.forName(NAME).directExecutor()
+        .addService(ServerServiceDefinition.builder("service")
+            .addMethod(serverMethod, new ServerCallHandler<T, T>() {
+              @Override
+              public ServerCall.Listener<T> startCall(MethodDescriptor<T, T> method,
+                  final ServerCall<T> call, Metadata headers) {
+                call.request(1);
+                return new ServerCall.Listener<T>() {
+                  @Override
+                  public void onMessage(T message) {
+                    serverReceived.add(message);
+                    call.sendHeaders(new Metadata());
+                    call.sendMessage(message);
+                    call.close(Status.OK, new Metadata());
+                  }
+                };
+              }
+            }).build())
+        .build().start();
+    channel = InProcessChannelBuilder.forName(NAME).directExecutor().build();
+
+    MethodDescriptor<T, T> clientMethod = MethodDescriptor.create(
+        MethodDescriptor.MethodType.UNARY, "service/method", clientMarshaller, clientMarshaller);
+    final BlockingQueue<Status> closed = new LinkedBlockingQueue<Status>();
+    ClientCall<T, T> call = channel.newCall(clientMethod, CallOptions.DEFAULT);
+    call.start(new ClientCall.Listener<T>() {
+      @Override
+      public void onMessage(T message) {
+        clientReceived.add(message);
+      }
+
+      @Override
+      public void onClose(Status status, Metadata trailers) {
+        closed.add(status);
+      }
+    }, new Metadata());
+    call.request(1);
+    call.sendMessage(request);
+    call.halfClose();
+
+    Status status = closed.poll(5, TimeUnit.SECONDS);
+    assertTrue(status != null && status.isOk());
+    assertEquals(1, serverReceived.size());
+    return clientReceived.poll();
+  }
+
+  private static class ImmutableStringMarshaller implements ImmutableMarshaller<String> {
+    private final StringMarshaller delegate = new StringMarshaller();
+
+    @Override
+    public InputStream stream(String value) {
+      return delegate.stream(value);
+    }
+
+    @Override
+    public String parse(InputStream stream) {
+      return delegate.parse(stream);
+    }
+  }
+
+  private static class StringBuilderMarshaller implements Marshaller<StringBuilder> {
+    private final StringMarshaller delegate = new StringMarshaller();
+
+    @Override
+    public InputStream stream(StringBuilder value) {
+      return delegate.stream(value.toString());
+    }
+
+    @Override
+    public StringBuilder parse(InputStream stream) {
+      return new StringBuilder(delegate.parse(stream));
+    }
+  }
+
+  private static class CopyingStringBuilderMarshaller extends StringBuilderMarshaller
+      implements CopyingMarshaller<StringBuilder> {
+    @Override
+    public StringBuilder copy(StringBuilder value) {
+      return new StringBuilder(value);
+    }
+  }
+}
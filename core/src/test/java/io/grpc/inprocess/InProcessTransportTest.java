@@ -0,0 +1,476 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package io.grpc.inprocess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.StringMarshaller;
+import io.grpc.internal.ClientStream;
+import io.grpc.internal.ClientStreamListener;
+import io.grpc.internal.ManagedClientTransport;
+import io.grpc.internal.ServerListener;
+import io.grpc.internal.ServerStream;
+import io.grpc.internal.ServerStreamListener;
+import io.grpc.internal.ServerTransport;
+import io.grpc.internal.ServerTransportListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for {@link InProcessTransport}.
+ */
+@RunWith(JUnit4.class)
+public class InProcessTransportTest {
+  private static final String NAME = "in-process-transport-test";
+  private static final int RACE_ITERATIONS = 200;
+
+  @Mock private ManagedClientTransport.Listener clientTransportListener;
+  @Mock private ServerTransportListener serverTransportListener;
+  @Mock private ClientStreamListener clientStreamListener;
+  @Mock private ServerStreamListener serverStreamListener;
+  @Captor private ArgumentCaptor<Status> statusCaptor;
+
+  private final MethodDescriptor<String, String> method = MethodDescriptor.create(
+      MethodDescriptor.MethodType.UNKNOWN, "service/method",
+      new StringMarshaller(), new StringMarshaller());
+  /** Every stream created on the server, in order. */
+  private final List<ServerStream> serverStreams =
+      Collections.synchronizedList(new ArrayList<ServerStream>());
+  private InProcessServer server;
+  private InProcessTransport transport;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    when(serverTransportListener.streamCreated(
+        any(ServerStream.class), anyString(), any(Metadata.class)))
+        .thenAnswer(new Answer<ServerStreamListener>() {
+          @Override
+          public ServerStreamListener answer(InvocationOnMock invocation) {
+            serverStreams.add((ServerStream) invocation.getArguments()[0]);
+            return serverStreamListener;
+          }
+        });
+    server = new InProcessServer(NAME);
+    server.start(new ServerListener() {
+      @Override
+      public ServerTransportListener transportCreated(ServerTransport transport) {
+        return serverTransportListener;
+      }
+
+      @Override
+      public void serverShutdown() {}
+    });
+    transport = new InProcessTransport(NAME);
+    transport.start(clientTransportListener);
+  }
+
+  @After
+  public void tearDown() {
+    transport.shutdown();
+    server.shutdown();
+  }
+
+  @Test
+  public void shutdownBeforeStreamStartClosesStream() {
+    ClientStream clientStream = transport.newStream(method, new Metadata());
+    transport.shutdown();
+    clientStream.start(clientStreamListener);
+
+    verify(clientStreamListener).closed(statusCaptor.capture(), any(Metadata.class));
+    assertEquals(Status.Code.UNAVAILABLE, statusCaptor.getValue().getCode());
+    verify(serverTransportListener, never())
+        .streamCreated(any(ServerStream.class), anyString(), any(Metadata.class));
+    verify(clientTransportListener).transportTerminated();
+  }
+
+  @Test
+  public void shutdownTerminatesOnceStreamsHaveClosed() {
+    startStream();
+    ServerStream serverStream = serverStream();
+    verify(serverTransportListener)
+        .streamCreated(same(serverStream), eq(method.getFullMethodName()), any(Metadata.class));
+    transport.shutdown();
+    verify(clientTransportListener).transportShutdown(any(Status.class));
+    verify(clientTransportListener, never()).transportTerminated();
+
+    serverStream.close(Status.OK, new Metadata());
+    verify(clientTransportListener).transportTerminated();
+    verify(serverTransportListener).transportTerminated();
+  }
+
+  @Test
+  public void shutdownRacingStreamStartTerminates() throws Exception {
+    for (int i = 0; i < RACE_ITERATIONS; i++) {
+      ManagedClientTransport.Listener listener = mock(ManagedClientTransport.Listener.class);
+      final InProcessTransport racingTransport = new InProcessTransport(NAME);
+      racingTransport.start(listener);
+      final ClientStreamListener streamListener = mock(ClientStreamListener.class);
+      final ClientStream clientStream = racingTransport.newStream(method, new Metadata());
+      int streamsBefore = serverStreams.size();
+      runConcurrently(new Runnable() {
+        @Override
+        public void run() {
+          clientStream.start(streamListener);
+        }
+      }, new Runnable() {
+        @Override
+        public void run() {
+          racingTransport.shutdown();
+        }
+      });
+      // Either the stream was started on the server, or the shutdown closed it
+      if (serverStreams.size() > streamsBefore) {
+        verify(listener, never()).transportTerminated();
+        serverStream().close(Status.OK, new Metadata());
+      }
+      verify(streamListener).closed(any(Status.class), any(Metadata.class));
+      verify(listener).transportTerminated();
+    }
+  }
+
+  @Test
+  public void clientCancelAfterServerCloseClosesClient() {
+    ClientStream clientStream = startStream();
+    ServerStream serverStream = serverStream();
+    serverStream.writeMessage(message());
+    serverStream.close(Status.OK, new Metadata());
+    // The close waits for the client to request the message
+    verify(clientStreamListener, never()).closed(any(Status.class), any(Metadata.class));
+
+    clientStream.cancel(Status.CANCELLED);
+    verify(clientStreamListener).closed(same(Status.CANCELLED), any(Metadata.class));
+    verify(serverStreamListener).closed(Status.OK);
+    verify(serverStreamListener, never()).messageRead(any(InputStream.class));
+  }
+
+  @Test
+  public void clientCancelRacingServerCloseClosesBothOnce() throws Exception {
+    for (int i = 0; i < RACE_ITERATIONS; i++) {
+      clientStreamListener = mock(ClientStreamListener.class);
+      serverStreamListener = mock(ServerStreamListener.class);
+      final ClientStream clientStream = startStream();
+      final ServerStream serverStream = serverStream();
+      serverStream.writeMessage(message());
+      runConcurrently(new Runnable() {
+        @Override
+        public void run() {
+          clientStream.cancel(Status.CANCELLED);
+        }
+      }, new Runnable() {
+        @Override
+        public void run() {
+          serverStream.close(Status.OK, new Metadata());
+        }
+      });
+      verify(clientStreamListener).closed(any(Status.class), any(Metadata.class));
+      verify(serverStreamListener).closed(any(Status.class));
+    }
+    // No stream is left open
+    transport.shutdown();
+    verify(clientTransportListener).transportTerminated();
+  }
+
+  @Test
+  public void closeIsQueuedUntilMessagesAreRequested() {
+    ClientStream clientStream = startStream();
+    ServerStream serverStream = serverStream();
+    Metadata headers = new Metadata();
+    Metadata trailers = new Metadata();
+    InputStream message1 = message();
+    InputStream message2 = message();
+    serverStream.writeHeaders(headers);
+    serverStream.writeMessage(message1);
+    serverStream.writeMessage(message2);
+    serverStream.close(Status.OK, trailers);
+    verify(clientStreamListener).headersRead(same(headers));
+    verify(clientStreamListener, never()).messageRead(any(InputStream.class));
+    verify(clientStreamListener, never()).closed(any(Status.class), any(Metadata.class));
+
+    clientStream.request(1);
+    verify(clientStreamListener).messageRead(same(message1));
+    verify(clientStreamListener, never()).closed(any(Status.class), any(Metadata.class));
+
+    clientStream.request(1);
+    InOrder inOrder = inOrder(clientStreamListener);
+    inOrder.verify(clientStreamListener).messageRead(same(message2));
+    inOrder.verify(clientStreamListener).closed(same(Status.OK), same(trailers));
+  }
+
+  @Test
+  public void requestMakesWriterReadyOnlyOnTheEdge() {
+    ClientStream clientStream = startStream();
+    ServerStream serverStream = serverStream();
+    assertFalse(clientStream.isReady());
+
+    serverStream.request(1);
+    assertTrue(clientStream.isReady());
+    verify(clientStreamListener).onReady();
+
+    // Still ready, so no new onReady()
+    serverStream.request(1);
+    verify(clientStreamListener, times(1)).onReady();
+
+    clientStream.writeMessage(message());
+    clientStream.writeMessage(message());
+    assertFalse(clientStream.isReady());
+    verify(serverStreamListener, times(2)).messageRead(any(InputStream.class));
+
+    serverStream.request(1);
+    assertTrue(clientStream.isReady());
+    verify(clientStreamListener, times(2)).onReady();
+  }
+
+  @Test
+  public void listenerMayCallBackIntoStream() {
+    final AtomicReference<ServerStream> serverStreamRef = new AtomicReference<ServerStream>();
+    final AtomicBoolean inCallback = new AtomicBoolean();
+    final AtomicInteger reentered = new AtomicInteger();
+    final List<InputStream> received = new ArrayList<InputStream>();
+    serverStreamListener = new NoopServerStreamListener() {
+          @Override
+          public void messageRead(InputStream message) {
+            if (!inCallback.compareAndSet(false, true)) {
+              reentered.incrementAndGet();
+            }
+            received.add(message);
+            // Delivered once this callback has returned
+            serverStreamRef.get().request(1);
+            inCallback.set(false);
+          }
+
+          @Override
+          public void halfClosed() {
+            serverStreamRef.get().close(Status.OK, new Metadata());
+          }
+        };
+    ClientStream clientStream = startStream();
+    serverStreamRef.set(serverStream());
+    InputStream message1 = message();
+    InputStream message2 = message();
+    InputStream message3 = message();
+    clientStream.writeMessage(message1);
+    clientStream.writeMessage(message2);
+    clientStream.writeMessage(message3);
+    clientStream.halfClose();
+
+    serverStreamRef.get().request(1);
+    assertEquals(0, reentered.get());
+    assertEquals(3, received.size());
+    assertTrue(received.get(0) == message1);
+    assertTrue(received.get(1) == message2);
+    assertTrue(received.get(2) == message3);
+    verify(clientStreamListener).closed(same(Status.OK), any(Metadata.class));
+  }
+
+  @Test
+  public void concurrentWritersAndRequestsDeliverInOrderOneAtATime() throws Exception {
+    final int writers = 4;
+    final int messagesPerWriter = 2000;
+    final AtomicBoolean inCallback = new AtomicBoolean();
+    final AtomicInteger overlapping = new AtomicInteger();
+    final AtomicInteger outOfOrder = new AtomicInteger();
+    final AtomicInteger received = new AtomicInteger();
+    final int[] lastIndex = new int[writers];
+    final CountDownLatch halfClosed = new CountDownLatch(1);
+    serverStreamListener = new NoopServerStreamListener() {
+          @Override
+          public void messageRead(InputStream message) {
+            enter();
+            TestMessage testMessage = (TestMessage) message;
+            if (testMessage.index != lastIndex[testMessage.writer] + 1) {
+              outOfOrder.incrementAndGet();
+            }
+            lastIndex[testMessage.writer] = testMessage.index;
+            received.incrementAndGet();
+            exit();
+          }
+
+          @Override
+          public void halfClosed() {
+            enter();
+            halfClosed.countDown();
+            exit();
+          }
+
+          private void enter() {
+            if (!inCallback.compareAndSet(false, true)) {
+              overlapping.incrementAndGet();
+            }
+          }
+
+          private void exit() {
+            inCallback.set(false);
+          }
+        };
+    final ClientStream clientStream = startStream();
+    final ServerStream serverStream = serverStream();
+    Runnable[] tasks = new Runnable[writers + 1];
+    for (int w = 0; w < writers; w++) {
+      final int writer = w;
+      tasks[w] = new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 1; i <= messagesPerWriter; i++) {
+            clientStream.writeMessage(new TestMessage(writer, i));
+          }
+        }
+      };
+    }
+    tasks[writers] = new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < writers * messagesPerWriter; i++) {
+          serverStream.request(1);
+        }
+      }
+    };
+    runConcurrently(tasks);
+    clientStream.halfClose();
+
+    assertTrue(halfClosed.await(5, TimeUnit.SECONDS));
+    assertEquals(writers * messagesPerWriter, received.get());
+    assertEquals(0, overlapping.get());
+    assertEquals(0, outOfOrder.get());
+  }
+
+  private ClientStream startStream() {
+    ClientStream clientStream = transport.newStream(method, new Metadata());
+    clientStream.start(clientStreamListener);
+    return clientStream;
+  }
+
+  /** Returns the stream most recently created on the server. */
+  private ServerStream serverStream() {
+    assertFalse(serverStreams.isEmpty());
+    return serverStreams.get(serverStreams.size() - 1);
+  }
+
+  private static InputStream message() {
+    return new ByteArrayInputStream(new byte[] {1});
+  }
+
+  /**
+   * Runs the tasks on threads of their own, starting them at the same time, and waits for them to
+   * finish.
+   */
+  private static void runConcurrently(Runnable... tasks) throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(tasks.length);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (final Runnable task : tasks) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            barrier.await();
+            task.run();
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join(TimeUnit.SECONDS.toMillis(10));
+      assertFalse(thread.isAlive());
+    }
+    assertNull(failure.get());
+  }
+
+  private static class TestMessage extends ByteArrayInputStream {
+    final int writer;
+    final int index;
+
+    TestMessage(int writer, int index) {
+      super(new byte[0]);
+      this.writer = writer;
+      this.index = index;
+    }
+  }
+
+  private static class NoopServerStreamListener implements ServerStreamListener {
+    @Override
+    public void messageRead(InputStream message) {}
+
+    @Override
+    public void onReady() {}
+
+    @Override
+    public void halfClosed() {}
+
+    @Override
+    public void closed(Status status) {}
+  }
+}
@@ -80,6 +80,11 @@ public class AbstractClientStreamTest {
     public WritableBuffer allocate(int capacityHint) {
       return new ByteWritableBuffer(capacityHint);
     }
+
+    @Override
+    public WritableBuffer allocateKnownLength(int length) {
+      return allocate(length);
+    }
   };
 
   @Test
@@ -266,6 +271,9 @@ public class AbstractClientStreamTest {
     @Override
     public void setAuthority(String authority) {}
 
+    @Override
+    public void setWeight(int weight) {}
+
     @Override
     public void request(int numMessages) {}
 
@@ -72,6 +72,11 @@ public class AbstractServerStreamTest {
     public WritableBuffer allocate(int capacityHint) {
       return new ByteWritableBuffer(capacityHint);
     }
+
+    @Override
+    public WritableBuffer allocateKnownLength(int length) {
+      return allocate(length);
+    }
   };
 
   private final AbstractServerStreamBase defaultStream =
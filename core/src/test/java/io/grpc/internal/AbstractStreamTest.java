@@ -65,6 +65,11 @@ public class AbstractStreamTest {
     public WritableBuffer allocate(int capacityHint) {
       return new ByteWritableBuffer(capacityHint);
     }
+
+    @Override
+    public WritableBuffer allocateKnownLength(int length) {
+      return allocate(length);
+    }
   };
 
   @Before
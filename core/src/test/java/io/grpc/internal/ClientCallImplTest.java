@@ -210,6 +210,26 @@ public class ClientCallImplTest {
     verify(stream, never()).setAuthority(any(String.class));
   }
 
+  @Test
+  public void streamWeightPropagatedToStream() {
+    final ClientTransport transport = mock(ClientTransport.class);
+    final ClientStream stream = mock(ClientStream.class);
+    when(provider.get(any(CallOptions.class))).thenReturn(Futures.immediateFuture(transport));
+
+    when(transport.newStream(any(MethodDescriptor.class), any(Metadata.class))).thenReturn(stream);
+
+    ClientCallImpl<Void, Void> call = new ClientCallImpl<Void, Void>(
+        method,
+        MoreExecutors.directExecutor(),
+        CallOptions.DEFAULT.withStreamWeight(64),
+        provider,
+        deadlineCancellationExecutor)
+            .setDecompressorRegistry(decompressorRegistry);
+
+    call.start(callListener, new Metadata());
+    verify(stream).setWeight(64);
+  }
+
   @Test
   public void prepareHeaders_userAgentAdded() {
     Metadata m = new Metadata();
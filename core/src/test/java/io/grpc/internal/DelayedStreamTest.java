@@ -33,6 +33,7 @@ package io.grpc.internal;
 
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -48,6 +49,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -116,6 +118,17 @@ public class DelayedStreamTest {
     verify(realStream).flush();
   }
 
+  @Test
+  public void setStream_weight() {
+    stream.setWeight(64);
+    stream.start(listener);
+    stream.setStream(realStream);
+
+    InOrder inOrder = inOrder(realStream);
+    inOrder.verify(realStream).setWeight(64);
+    inOrder.verify(realStream).start(listener);
+  }
+
   @Test
   public void setStream_flowControl() {
     stream.start(listener);
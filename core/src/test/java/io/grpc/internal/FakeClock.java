@@ -52,7 +52,7 @@ final class FakeClock {
   final ScheduledExecutorService scheduledExecutorService = new ScheduledExecutorImpl();
   final Ticker ticker = new Ticker() {
       @Override public long read() {
-        return TimeUnit.MILLISECONDS.toNanos(currentTimeNanos);
+        return currentTimeNanos;
       }
     };
 
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.internal;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.grpc.internal.KeepAliveManager.KeepAlivePinger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link KeepAliveManager}.
+ */
+@RunWith(JUnit4.class)
+public class KeepAliveManagerTest {
+  private static final long KEEPALIVE_TIME_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final long KEEPALIVE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  private final FakeClock fakeClock = new FakeClock();
+  @Mock private KeepAlivePinger pinger;
+  private KeepAliveManager keepAliveManager;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    keepAliveManager = newKeepAliveManager(false);
+  }
+
+  @Test
+  public void pingSentAfterKeepAliveTimeWhileActive() {
+    keepAliveManager.onTransportStarted();
+    keepAliveManager.onTransportActive();
+
+    forwardNanos(KEEPALIVE_TIME_NANOS - 1);
+    verify(pinger, never()).ping();
+    forwardNanos(1);
+    verify(pinger).ping();
+  }
+
+  @Test
+  public void dataReceivedPostponesPing() {
+    keepAliveManager.onTransportStarted();
+    keepAliveManager.onTransportActive();
+
+    forwardNanos(KEEPALIVE_TIME_NANOS / 2);
+    keepAliveManager.onDataReceived();
+    forwardNanos(KEEPALIVE_TIME_NANOS / 2);
+    verify(pinger, never()).ping();
+
+    forwardNanos(KEEPALIVE_TIME_NANOS / 2);
+    verify(pinger).ping();
+  }
+
+  @Test
+  public void pingTimeout() {
+    keepAliveManager.onTransportStarted();
+    keepAliveManager.onTransportActive();
+    forwardNanos(KEEPALIVE_TIME_NANOS);
+    verify(pinger).ping();
+
+    forwardNanos(KEEPALIVE_TIMEOUT_NANOS - 1);
+    verify(pinger, never()).onPingTimeout();
+    forwardNanos(1);
+    verify(pinger).onPingTimeout();
+
+    // Nothing more is scheduled once the transport has been declared dead.
+    forwardNanos(KEEPALIVE_TIME_NANOS * 10);
+    verify(pinger).ping();
+    verify(pinger).onPingTimeout();
+  }
+
+  @Test
+  public void pingAckCancelsTimeoutAndSchedulesNextPing() {
+    keepAliveManager.onTransportStarted();
+    keepAliveManager.onTransportActive();
+    forwardNanos(KEEPALIVE_TIME_NANOS);
+    verify(pinger).ping();
+
+    forwardNanos(KEEPALIVE_TIMEOUT_NANOS - 1);
+    keepAliveManager.onDataReceived();
+    forwardNanos(KEEPALIVE_TIMEOUT_NANOS);
+    verify(pinger, never()).onPingTimeout();
+
+    forwardNanos(KEEPALIVE_TIME_NANOS - KEEPALIVE_TIMEOUT_NANOS);
+    verify(pinger, times(2)).ping();
+  }
+
+  @Test
+  public void noPingWhileIdle() {
+    keepAliveManager.onTransportStarted();
+    forwardNanos(KEEPALIVE_TIME_NANOS * 3);
+    verify(pinger, never()).ping();
+
+    keepAliveManager.onTransportActive();
+    keepAliveManager.onTransportIdle();
+    forwardNanos(KEEPALIVE_TIME_NANOS * 3);
+    verify(pinger, never()).ping();
+  }
+
+  @Test
+  public void transportGoesIdleWhilePingOutstanding() {
+    keepAliveManager.onTransportStarted();
+    keepAliveManager.onTransportActive();
+    forwardNanos(KEEPALIVE_TIME_NANOS);
+    verify(pinger).ping();
+
+    // The outstanding ping is still checked even though there are no calls any more.
+    keepAliveManager.onTransportIdle();
+    keepAliveManager.onDataReceived();
+    forwardNanos(KEEPALIVE_TIME_NANOS * 3);
+    verify(pinger).ping();
+    verify(pinger, never()).onPingTimeout();
+  }
+
+  @Test
+  public void keepAliveWithoutCalls() {
+    keepAliveManager = newKeepAliveManager(true);
+    keepAliveManager.onTransportStarted();
+
+    forwardNanos(KEEPALIVE_TIME_NANOS);
+    verify(pinger).ping();
+
+    keepAliveManager.onTransportIdle();
+    keepAliveManager.onDataReceived();
+    forwardNanos(KEEPALIVE_TIME_NANOS);
+    verify(pinger, times(2)).ping();
+  }
+
+  @Test
+  public void transportShutdownCancelsTimers() {
+    keepAliveManager.onTransportStarted();
+    keepAliveManager.onTransportActive();
+    forwardNanos(KEEPALIVE_TIME_NANOS);
+    verify(pinger).ping();
+
+    keepAliveManager.onTransportShutdown();
+    forwardNanos(KEEPALIVE_TIME_NANOS * 3);
+    verify(pinger).ping();
+    verify(pinger, never()).onPingTimeout();
+  }
+
+  private KeepAliveManager newKeepAliveManager(boolean keepAliveWithoutCalls) {
+    return new KeepAliveManager(pinger, fakeClock.scheduledExecutorService, fakeClock.ticker,
+        KEEPALIVE_TIME_NANOS, KEEPALIVE_TIMEOUT_NANOS, keepAliveWithoutCalls);
+  }
+
+  private void forwardNanos(long nanos) {
+    fakeClock.forwardTime(nanos, TimeUnit.NANOSECONDS);
+  }
+}
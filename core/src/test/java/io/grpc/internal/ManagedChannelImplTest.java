@@ -88,10 +88,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /** Unit tests for {@link ManagedChannelImpl}. */
@@ -134,10 +136,27 @@ public class ManagedChannelImplTest {
 
   private ManagedChannel createChannel(
       NameResolver.Factory nameResolverFactory, List<ClientInterceptor> interceptors) {
+    return createChannel(nameResolverFactory, interceptors, false);
+  }
+
+  private ManagedChannel createChannel(NameResolver.Factory nameResolverFactory,
+      List<ClientInterceptor> interceptors, boolean connectEagerly) {
+    return createChannel(nameResolverFactory, interceptors, connectEagerly, 0);
+  }
+
+  private ManagedChannel createChannel(NameResolver.Factory nameResolverFactory,
+      List<ClientInterceptor> interceptors, boolean connectEagerly, long idleTimeoutNanos) {
+    return createChannel(nameResolverFactory, interceptors, connectEagerly, idleTimeoutNanos, 0);
+  }
+
+  private ManagedChannel createChannel(NameResolver.Factory nameResolverFactory,
+      List<ClientInterceptor> interceptors, boolean connectEagerly, long idleTimeoutNanos,
+      long connectionAttemptDelayNanos) {
     return new ManagedChannelImpl(target, new FakeBackoffPolicyProvider(),
         nameResolverFactory, NAME_RESOLVER_PARAMS, loadBalancerFactory,
         mockTransportFactory, DecompressorRegistry.getDefaultInstance(),
-        CompressorRegistry.getDefaultInstance(), executor, null, interceptors);
+        CompressorRegistry.getDefaultInstance(), executor, null, interceptors,
+        connectionAttemptDelayNanos, Integer.MAX_VALUE, 1, connectEagerly, idleTimeoutNanos);
   }
 
   @Before
@@ -245,6 +264,190 @@ public class ManagedChannelImplTest {
     verifyNoMoreInteractions(mockStream);
   }
 
+  @Test
+  public void connectEagerlyBeforeResolution() {
+    when(mockTransportFactory.newClientTransport(any(SocketAddress.class), any(String.class)))
+        .thenReturn(mockTransport);
+    FakeNameResolverFactory nameResolverFactory = new FakeNameResolverFactory(false);
+    createChannel(nameResolverFactory, NO_INTERCEPTOR, true);
+    verifyNoMoreInteractions(mockTransportFactory);
+
+    // Connects as soon as the address is known, without any call
+    nameResolverFactory.allResolved();
+    verify(mockTransportFactory, timeout(1000))
+        .newClientTransport(same(socketAddress), eq(authority));
+    verify(mockTransport, timeout(1000)).start(any(ManagedClientTransport.Listener.class));
+  }
+
+  @Test
+  public void awaitReady() throws Exception {
+    when(mockTransportFactory.newClientTransport(any(SocketAddress.class), any(String.class)))
+        .thenReturn(mockTransport);
+    ManagedChannel channel = createChannel(new FakeNameResolverFactory(true), NO_INTERCEPTOR);
+    verifyNoMoreInteractions(mockTransportFactory);
+
+    assertFalse(channel.awaitReady(1, 10, TimeUnit.MILLISECONDS));
+    verify(mockTransportFactory).newClientTransport(same(socketAddress), eq(authority));
+    verify(mockTransport).start(transportListenerCaptor.capture());
+    transportListenerCaptor.getValue().transportReady();
+    assertTrue(channel.awaitReady(1, 1, TimeUnit.SECONDS));
+    assertFalse(channel.awaitReady(2, 10, TimeUnit.MILLISECONDS));
+    // Doesn't connect again
+    verify(mockTransportFactory).newClientTransport(same(socketAddress), eq(authority));
+
+    channel.shutdown();
+    assertFalse(channel.awaitReady(2, 1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void connectEagerlyLeavesIdleMode() throws Exception {
+    FakeNameResolverFactory nameResolverFactory = new FakeNameResolverFactory(true);
+    ManagedChannel channel = createChannel(
+        nameResolverFactory, NO_INTERCEPTOR, false, TimeUnit.MILLISECONDS.toNanos(100));
+    awaitIdle(nameResolverFactory);
+
+    channel.connectEagerly();
+    assertEquals(2, nameResolverFactory.resolvers.size());
+    verify(mockTransportFactory, timeout(1000))
+        .newClientTransport(same(socketAddress), eq(authority));
+    verify(mockTransport, timeout(1000)).start(any(ManagedClientTransport.Listener.class));
+
+    // Stays out of idle mode to keep the connection
+    Thread.sleep(300);
+    verify(mockTransport, never()).shutdown();
+    assertFalse(nameResolverFactory.resolvers.get(1).shutdown);
+    channel.shutdown();
+  }
+
+  @Test
+  public void awaitReadyLeavesIdleMode() throws Exception {
+    FakeNameResolverFactory nameResolverFactory = new FakeNameResolverFactory(true);
+    ManagedChannel channel = createChannel(
+        nameResolverFactory, NO_INTERCEPTOR, false, TimeUnit.MILLISECONDS.toNanos(100));
+    awaitIdle(nameResolverFactory);
+
+    assertFalse(channel.awaitReady(1, 10, TimeUnit.MILLISECONDS));
+    verify(mockTransport, timeout(1000)).start(transportListenerCaptor.capture());
+    transportListenerCaptor.getValue().transportReady();
+    assertTrue(channel.awaitReady(1, 1, TimeUnit.SECONDS));
+    channel.shutdown();
+  }
+
+  @Test
+  public void eagerChannelDoesNotEnterIdleMode() throws Exception {
+    FakeNameResolverFactory nameResolverFactory = new FakeNameResolverFactory(true);
+    ManagedChannel channel = createChannel(
+        nameResolverFactory, NO_INTERCEPTOR, true, TimeUnit.MILLISECONDS.toNanos(100));
+    verify(mockTransport, timeout(1000)).start(any(ManagedClientTransport.Listener.class));
+
+    Thread.sleep(300);
+    verify(mockTransport, never()).shutdown();
+    assertFalse(nameResolverFactory.resolvers.get(0).shutdown);
+    channel.shutdown();
+  }
+
+  @Test
+  public void idleModeAfterCallsClose() throws Exception {
+    FakeNameResolverFactory nameResolverFactory = new FakeNameResolverFactory(true);
+    ManagedChannel channel = createChannel(
+        nameResolverFactory, NO_INTERCEPTOR, false, TimeUnit.MILLISECONDS.toNanos(100));
+    ClientStream mockStream = mock(ClientStream.class);
+    Metadata headers = new Metadata();
+    when(mockTransportFactory.newClientTransport(any(SocketAddress.class), any(String.class)))
+        .thenReturn(mockTransport);
+    when(mockTransport.newStream(same(method), same(headers))).thenReturn(mockStream);
+    channel.newCall(method, CallOptions.DEFAULT).start(mockCallListener, headers);
+    verify(mockTransport, timeout(1000)).start(transportListenerCaptor.capture());
+    ManagedClientTransport.Listener transportListener = transportListenerCaptor.getValue();
+    verify(mockTransport, timeout(1000)).newStream(same(method), same(headers));
+    verify(mockStream).start(streamListenerCaptor.capture());
+
+    // Not idle while a call is open
+    Thread.sleep(300);
+    verify(mockTransport, never()).shutdown();
+    assertFalse(nameResolverFactory.resolvers.get(0).shutdown);
+
+    streamListenerCaptor.getValue().closed(Status.CANCELLED, new Metadata());
+    verify(mockCallListener, timeout(1000)).onClose(same(Status.CANCELLED), any(Metadata.class));
+    verify(mockTransport, timeout(1000)).shutdown();
+    assertTrue(nameResolverFactory.resolvers.get(0).shutdown);
+    assertFalse(channel.isShutdown());
+
+    // The next call brings everything back
+    ManagedClientTransport mockTransport2 = mock(ManagedClientTransport.class);
+    ClientStream mockStream2 = mock(ClientStream.class);
+    when(mockTransportFactory.newClientTransport(any(SocketAddress.class), any(String.class)))
+        .thenReturn(mockTransport2);
+    when(mockTransport2.newStream(same(method), same(headers))).thenReturn(mockStream2);
+    channel.newCall(method, CallOptions.DEFAULT).start(mockCallListener2, headers);
+    assertEquals(2, nameResolverFactory.resolvers.size());
+    verify(mockTransport2, timeout(1000)).start(transportListenerCaptor.capture());
+    ManagedClientTransport.Listener transportListener2 = transportListenerCaptor.getValue();
+    verify(mockTransport2, timeout(1000)).newStream(same(method), same(headers));
+
+    // Not terminated until the transport shut down by idle mode has terminated, too
+    channel.shutdown();
+    verify(mockTransport2).shutdown();
+    assertTrue(nameResolverFactory.resolvers.get(1).shutdown);
+    transportListener2.transportShutdown(Status.UNAVAILABLE);
+    transportListener2.transportTerminated();
+    assertFalse(channel.isTerminated());
+    transportListener.transportShutdown(Status.UNAVAILABLE);
+    transportListener.transportTerminated();
+    assertTrue(channel.isTerminated());
+  }
+
+  @Test
+  public void addressesFailingWhileLeavingIdleModeDoNotRefreshUnstartedResolver()
+      throws Exception {
+    SocketAddress address1 = new SocketAddress() {};
+    SocketAddress address2 = new SocketAddress() {};
+    ManagedClientTransport transport1 = mock(ManagedClientTransport.class);
+    ManagedClientTransport transport2 = mock(ManagedClientTransport.class);
+    when(mockTransportFactory.newClientTransport(same(address1), any(String.class)))
+        .thenReturn(transport1);
+    when(mockTransportFactory.newClientTransport(same(address2), any(String.class)))
+        .thenReturn(transport2);
+    FakeNameResolverFactory nameResolverFactory = new FakeNameResolverFactory(Arrays.asList(
+        new ResolvedServerInfo(address1, Attributes.EMPTY),
+        new ResolvedServerInfo(address2, Attributes.EMPTY)));
+    // The addresses race, but the second attempt only starts once the first has failed.
+    final ManagedChannel channel = createChannel(nameResolverFactory, NO_INTERCEPTOR, false,
+        TimeUnit.MILLISECONDS.toNanos(100), TimeUnit.HOURS.toNanos(1));
+    ClientCall<String, Integer> call = channel.newCall(method, CallOptions.DEFAULT);
+    call.start(mockCallListener, new Metadata());
+    verify(transport1, timeout(1000)).start(transportListenerCaptor.capture());
+    transportListenerCaptor.getValue().transportShutdown(Status.UNAVAILABLE);
+    verify(transport2, timeout(1000)).start(transportListenerCaptor.capture());
+    ManagedClientTransport.Listener transportListener2 = transportListenerCaptor.getValue();
+
+    // Without calls the channel goes idle, while the last attempt is still connecting
+    call.cancel();
+    verify(mockCallListener, timeout(1000)).onClose(any(Status.class), any(Metadata.class));
+    awaitIdle(nameResolverFactory);
+
+    // The next call publishes a new resolver, which blocks before it has been started
+    nameResolverFactory.startEntered = new CountDownLatch(1);
+    nameResolverFactory.startLatch = new CountDownLatch(1);
+    Thread caller = new Thread() {
+      @Override
+      public void run() {
+        channel.newCall(method, CallOptions.DEFAULT).start(mockCallListener2, new Metadata());
+      }
+    };
+    caller.start();
+    assertTrue(nameResolverFactory.startEntered.await(5, TimeUnit.SECONDS));
+
+    // The last attempt of the race fails in the meantime
+    transportListener2.transportShutdown(Status.UNAVAILABLE);
+    assertEquals(0, nameResolverFactory.resolvers.get(1).refreshes);
+
+    nameResolverFactory.startLatch.countDown();
+    caller.join(5000);
+    assertFalse(caller.isAlive());
+    channel.shutdown();
+  }
+
   @Test
   public void interceptor() throws Exception {
     final AtomicLong atomic = new AtomicLong();
@@ -424,6 +627,14 @@ public class ManagedChannelImplTest {
     verify(goodTransport, timeout(1000)).newStream(same(method), same(headers));
   }
 
+  private static void awaitIdle(FakeNameResolverFactory nameResolverFactory) throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!nameResolverFactory.resolvers.get(0).shutdown && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(nameResolverFactory.resolvers.get(0).shutdown);
+  }
+
   private static class FakeBackoffPolicyProvider implements BackoffPolicy.Provider {
     @Override
     public BackoffPolicy get() {
@@ -439,7 +650,12 @@ public class ManagedChannelImplTest {
   private class FakeNameResolverFactory extends NameResolver.Factory {
     final List<ResolvedServerInfo> servers;
     final boolean resolvedAtStart;
-    final ArrayList<FakeNameResolver> resolvers = new ArrayList<FakeNameResolver>();
+    final List<FakeNameResolver> resolvers =
+        Collections.synchronizedList(new ArrayList<FakeNameResolver>());
+    // If set, start() counts down startEntered and waits for startLatch before accepting the
+    // listener.
+    volatile CountDownLatch startEntered;
+    volatile CountDownLatch startLatch;
 
     FakeNameResolverFactory(boolean resolvedAtStart) {
       this.resolvedAtStart = resolvedAtStart;
@@ -474,14 +690,24 @@ public class ManagedChannelImplTest {
     }
 
     private class FakeNameResolver extends NameResolver {
-      Listener listener;
-      boolean shutdown;
+      volatile Listener listener;
+      volatile boolean shutdown;
+      int refreshes;
 
       @Override public String getServiceAuthority() {
         return expectedUri.getAuthority();
       }
 
       @Override public void start(final Listener listener) {
+        CountDownLatch latch = startLatch;
+        if (latch != null) {
+          startEntered.countDown();
+          try {
+            latch.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
         this.listener = listener;
         if (resolvedAtStart) {
           resolved();
@@ -492,6 +718,11 @@ public class ManagedChannelImplTest {
         listener.onUpdate(servers, Attributes.EMPTY);
       }
 
+      @Override public void refresh() {
+        assertNotNull("not started", listener);
+        refreshes++;
+      }
+
       @Override public void shutdown() {
         shutdown = true;
       }
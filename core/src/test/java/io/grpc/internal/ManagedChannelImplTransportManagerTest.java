@@ -133,7 +133,7 @@ public class ManagedChannelImplTransportManagerTest {
         nameResolverFactory, Attributes.EMPTY, mockLoadBalancerFactory,
         mockTransportFactory, DecompressorRegistry.getDefaultInstance(),
         CompressorRegistry.getDefaultInstance(), executor, null,
-        Collections.<ClientInterceptor>emptyList());
+        Collections.<ClientInterceptor>emptyList(), 0, Integer.MAX_VALUE, 1, false, 0);
 
     ArgumentCaptor<TransportManager<ClientTransport>> tmCaptor
         = ArgumentCaptor.forClass(null);
@@ -112,6 +112,40 @@ public class MessageFramerTest {
     assertEquals(1, allocator.allocCount);
   }
 
+  @Test
+  public void streamedSmallPayloadsShouldBeBatched() {
+    // Like the transports' allocators, fit known-length frames exactly and make other buffers 4k.
+    allocator = new ExactKnownLengthAllocator(4096);
+    framer = new MessageFramer(sink, allocator);
+    for (int i = 0; i < 10; i++) {
+      writeKnownLength(framer, new byte[]{3, 14, (byte) i});
+    }
+    framer.flush();
+    // The first message fills its own buffer, the others share the next one.
+    verify(sink).deliverFrame(frameCaptor.capture(), eq(false), eq(false));
+    verify(sink).deliverFrame(frameCaptor.capture(), eq(false), eq(true));
+    verifyNoMoreInteractions(sink);
+    assertEquals(8, frameCaptor.getAllValues().get(0).size());
+    assertEquals(72, frameCaptor.getAllValues().get(1).size());
+    assertEquals(2, allocator.allocCount);
+  }
+
+  @Test
+  public void streamedUnknownLengthPayloadsShouldKeepOrder() {
+    allocator = new ExactKnownLengthAllocator(4096);
+    framer = new MessageFramer(sink, allocator);
+    writeUnknownLength(framer, new byte[]{3, 14});
+    writeUnknownLength(framer, new byte[]{1, 5});
+    writeUnknownLength(framer, new byte[]{9});
+    framer.flush();
+    // Each header shares a frame with the payload before it.
+    verify(sink).deliverFrame(toWriteBuffer(new byte[] {0, 0, 0, 0, 2}), false, false);
+    verify(sink).deliverFrame(toWriteBuffer(new byte[] {3, 14, 0, 0, 0, 0, 2}), false, false);
+    verify(sink).deliverFrame(toWriteBuffer(new byte[] {1, 5, 0, 0, 0, 0, 1}), false, false);
+    verify(sink).deliverFrame(toWriteBuffer(new byte[] {9}), false, true);
+    verifyNoMoreInteractions(sink);
+  }
+
   @Test
   public void closeCombinedWithFullSink() {
     writeKnownLength(framer, new byte[]{3, 14, 1, 5, 9, 2, 6});
@@ -423,5 +457,23 @@ public class MessageFramerTest {
       allocCount++;
       return new ByteWritableBuffer(Math.min(maxSize, Math.max(capacityHint, minSize)));
     }
+
+    @Override
+    public WritableBuffer allocateKnownLength(int length) {
+      return allocate(length);
+    }
+  }
+
+  /** Allocates buffers of at least {@code minSize} unless the length of the frame is known. */
+  static class ExactKnownLengthAllocator extends BytesWritableBufferAllocator {
+    ExactKnownLengthAllocator(int minSize) {
+      super(minSize, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public WritableBuffer allocateKnownLength(int length) {
+      allocCount++;
+      return new ByteWritableBuffer(length);
+    }
   }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.internal;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.io.ByteStreams;
+
+import io.grpc.MethodDescriptor.CopyingMarshaller;
+import io.grpc.MethodDescriptor.ImmutableMarshaller;
+import io.grpc.MethodDescriptor.Marshaller;
+import io.grpc.StringMarshaller;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.InputStream;
+
+/** Unit tests for {@link PassThroughMessage}. */
+@RunWith(JUnit4.class)
+public class PassThroughMessageTest {
+  private final PassThroughStream passThroughStream = mock(PassThroughStream.class);
+  private final ImmutableStringMarshaller marshaller = new ImmutableStringMarshaller();
+
+  @Test
+  public void serializedForOtherStreams() throws Exception {
+    InputStream message = PassThroughMessage.create(mock(Stream.class), marshaller, "hello");
+
+    assertFalse(message instanceof PassThroughMessage);
+    assertArrayEquals("hello".getBytes(UTF_8), ByteStreams.toByteArray(message));
+  }
+
+  @Test
+  public void otherMarshallersSerializeWhenSent() throws Exception {
+    StringBuilder value = new StringBuilder("hello");
+    Marshaller<StringBuilder> mutableMarshaller = new StringBuilderMarshaller();
+    InputStream message = PassThroughMessage.create(passThroughStream, mutableMarshaller, value);
+    value.append(" world");
+
+    assertFalse(message instanceof PassThroughMessage);
+    assertArrayEquals("hello".getBytes(UTF_8), ByteStreams.toByteArray(message));
+  }
+
+  @Test
+  public void sameMarshallerTakesObject() {
+    String value = new String("hello");
+    InputStream message = PassThroughMessage.create(passThroughStream, marshaller, value);
+
+    assertTrue(message instanceof PassThroughMessage);
+    assertSame(value, PassThroughMessage.parse(marshaller, message));
+  }
+
+  @Test
+  public void otherMarshallerParses() {
+    String value = new String("hello");
+    InputStream message = PassThroughMessage.create(passThroughStream, marshaller, value);
+
+    String parsed = PassThroughMessage.parse(new StringMarshaller(), message);
+    assertEquals(value, parsed);
+    assertNotSame(value, parsed);
+  }
+
+  @Test
+  public void readsSerializedMessage() throws Exception {
+    InputStream message = PassThroughMessage.create(passThroughStream, marshaller, "hello");
+
+    assertEquals(5, message.available());
+    assertArrayEquals("hello".getBytes(UTF_8), ByteStreams.toByteArray(message));
+    message.close();
+  }
+
+  @Test
+  public void copyingMarshallerCopiesWhenSent() {
+    StringBuilder value = new StringBuilder("hello");
+    CopyingMarshaller<StringBuilder> copyingMarshaller = new CopyingStringBuilderMarshaller();
+    InputStream message = PassThroughMessage.create(passThroughStream, copyingMarshaller, value);
+    value.append(" world");
+
+    StringBuilder received = PassThroughMessage.parse(copyingMarshaller, message);
+    assertNotSame(value, received);
+    assertEquals("hello", received.toString());
+  }
+
+  private static class ImmutableStringMarshaller implements ImmutableMarshaller<String> {
+    private final StringMarshaller delegate = new StringMarshaller();
+
+    @Override
+    public InputStream stream(String value) {
+      return delegate.stream(value);
+    }
+
+    @Override
+    public String parse(InputStream stream) {
+      return delegate.parse(stream);
+    }
+  }
+
+  private static class StringBuilderMarshaller implements Marshaller<StringBuilder> {
+    private final StringMarshaller delegate = new StringMarshaller();
+
+    @Override
+    public InputStream stream(StringBuilder value) {
+      return delegate.stream(value.toString());
+    }
+
+    @Override
+    public StringBuilder parse(InputStream stream) {
+      return new StringBuilder(delegate.parse(stream));
+    }
+  }
+
+  private static class CopyingStringBuilderMarshaller extends StringBuilderMarshaller
+      implements CopyingMarshaller<StringBuilder> {
+    @Override
+    public StringBuilder copy(StringBuilder value) {
+      return new StringBuilder(value);
+    }
+  }
+}
@@ -34,7 +34,10 @@ package io.grpc.internal;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.same;
@@ -59,12 +62,16 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.net.SocketAddress;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Unit tests for {@link TransportSet}.
@@ -86,6 +93,7 @@ public class TransportSetTest {
   @Mock private ClientTransportFactory mockTransportFactory;
   @Mock private TransportSet.Callback mockTransportSetCallback;
   @Mock private ClientStreamListener mockStreamListener;
+  @Captor private ArgumentCaptor<Status> statusCaptor;
 
   private final MethodDescriptor<String, Integer> method = MethodDescriptor.create(
       MethodDescriptor.MethodType.UNKNOWN, "/service/method",
@@ -261,6 +269,177 @@ public class TransportSetTest {
     verify(mockBackoffPolicy3, times(backoff3Consulted)).nextBackoffMillis();
   }
 
+  @Test
+  public void allAddressesFailedNotifiesCallback() {
+    SocketAddress addr1 = mock(SocketAddress.class);
+    SocketAddress addr2 = mock(SocketAddress.class);
+    createTransortSet(addr1, addr2);
+
+    // The first address fails, but the second one has not been tried yet
+    transportSet.obtainActiveTransport();
+    transports.poll().listener.transportShutdown(Status.UNAVAILABLE);
+    verify(mockTransportSetCallback, never()).onAllAddressesFailed();
+
+    // Both addresses have failed
+    transportSet.obtainActiveTransport();
+    verify(mockTransportFactory).newClientTransport(addr2, authority);
+    transports.poll().listener.transportShutdown(Status.UNAVAILABLE);
+    verify(mockTransportSetCallback, times(1)).onAllAddressesFailed();
+
+    // A connection that has become ready doesn't count as a failure
+    transportSet.obtainActiveTransport();
+    fakeClock.forwardMillis(10);
+    verify(mockTransportFactory, times(2)).newClientTransport(addr1, authority);
+    transports.peek().listener.transportReady();
+    transports.poll().listener.transportShutdown(Status.UNAVAILABLE);
+    verify(mockTransportSetCallback, times(1)).onAllAddressesFailed();
+  }
+
+  @Test
+  public void activeTransportFutureIsReused() throws Exception {
+    SocketAddress addr = mock(SocketAddress.class);
+    createTransortSet(addr);
+
+    ListenableFuture<ClientTransport> delayedTransportFuture =
+        transportSet.obtainActiveTransport();
+    assertSame(delayedTransportFuture, transportSet.obtainActiveTransport());
+
+    MockClientTransportInfo transportInfo = transports.poll();
+    transportInfo.listener.transportReady();
+    ListenableFuture<ClientTransport> transportFuture = transportSet.obtainActiveTransport();
+    assertSame(transportInfo.transport, transportFuture.get());
+    assertSame(transportFuture, transportSet.obtainActiveTransport());
+  }
+
+  @Test
+  public void scaleOutWhenStreamsReachLimit() throws Exception {
+    SocketAddress addr = mock(SocketAddress.class);
+    createTransportSet(0, 2, 3, addr);
+
+    transportSet.obtainActiveTransport();
+    MockClientTransportInfo transportInfo1 = transports.poll();
+    ClientStream realStream1 = mock(ClientStream.class);
+    when(transportInfo1.transport.newStream(same(method), same(headers))).thenReturn(realStream1);
+    transportInfo1.listener.transportReady();
+
+    startStream(realStream1);
+    startStream(realStream1);
+    verify(mockTransportFactory).newClientTransport(addr, authority);
+
+    // The first connection is full, so another one is opened. Until it is ready, streams still go
+    // to the first connection.
+    startStream(realStream1);
+    verify(mockTransportFactory, times(2)).newClientTransport(addr, authority);
+    startStream(realStream1);
+    verify(mockTransportFactory, times(2)).newClientTransport(addr, authority);
+
+    MockClientTransportInfo transportInfo2 = transports.poll();
+    ClientStream realStream2 = mock(ClientStream.class);
+    when(transportInfo2.transport.newStream(same(method), same(headers))).thenReturn(realStream2);
+    transportInfo2.listener.transportReady();
+    verify(mockLoadBalancer, never()).transportReady(addressGroup, transportInfo2.transport);
+
+    // New streams go to the least loaded connection
+    startStream(realStream2);
+    startStream(realStream2);
+    verify(transportInfo2.transport, times(2)).newStream(same(method), same(headers));
+    verify(transportInfo1.transport, times(4)).newStream(same(method), same(headers));
+  }
+
+  @Test
+  public void scaleOutIsCappedByMaxConnections() throws Exception {
+    SocketAddress addr = mock(SocketAddress.class);
+    createTransportSet(0, 1, 2, addr);
+
+    transportSet.obtainActiveTransport();
+    MockClientTransportInfo transportInfo1 = transports.poll();
+    ClientStream realStream1 = mock(ClientStream.class);
+    when(transportInfo1.transport.newStream(same(method), same(headers))).thenReturn(realStream1);
+    transportInfo1.listener.transportReady();
+    startStream(realStream1);
+    transportSet.obtainActiveTransport();
+    MockClientTransportInfo transportInfo2 = transports.poll();
+    ClientStream realStream2 = mock(ClientStream.class);
+    when(transportInfo2.transport.newStream(same(method), same(headers))).thenReturn(realStream2);
+    transportInfo2.listener.transportReady();
+    startStream(realStream2);
+
+    for (int i = 0; i < 5; i++) {
+      transportSet.obtainActiveTransport();
+    }
+    verify(mockTransportFactory, times(2)).newClientTransport(addr, authority);
+  }
+
+  @Test
+  public void idleExtraConnectionIsShutDown() throws Exception {
+    SocketAddress addr = mock(SocketAddress.class);
+    createTransportSet(0, 2, 3, addr);
+
+    transportSet.obtainActiveTransport();
+    MockClientTransportInfo transportInfo1 = transports.poll();
+    ClientStream realStream1 = mock(ClientStream.class);
+    when(transportInfo1.transport.newStream(same(method), same(headers))).thenReturn(realStream1);
+    transportInfo1.listener.transportReady();
+    ClientStreamListener listener1 = startStream(realStream1);
+    ClientStreamListener listener2 = startStream(realStream1);
+    ClientStreamListener listener3 = startStream(realStream1);
+    MockClientTransportInfo transportInfo2 = transports.poll();
+    ClientStream realStream2 = mock(ClientStream.class);
+    when(transportInfo2.transport.newStream(same(method), same(headers))).thenReturn(realStream2);
+    transportInfo2.listener.transportReady();
+    ClientStreamListener listener4 = startStream(realStream2);
+
+    // The first connection would be over half full by itself, so the extra one is kept
+    listener4.closed(Status.OK, new Metadata());
+    verify(mockStreamListener).closed(same(Status.OK), any(Metadata.class));
+    verify(transportInfo2.transport, never()).shutdown();
+
+    ClientStreamListener listener5 = startStream(realStream2);
+    listener1.closed(Status.OK, new Metadata());
+    listener2.closed(Status.OK, new Metadata());
+    listener3.closed(Status.OK, new Metadata());
+    listener5.closed(Status.OK, new Metadata());
+    verify(transportInfo2.transport).shutdown();
+    verify(transportInfo1.transport, never()).shutdown();
+
+    // Streams go to the first connection again
+    startStream(realStream1);
+    verify(transportInfo1.transport, times(4)).newStream(same(method), same(headers));
+  }
+
+  @Test
+  public void shutdownShutsDownExtraConnections() throws Exception {
+    SocketAddress addr = mock(SocketAddress.class);
+    createTransportSet(0, 1, 3, addr);
+
+    transportSet.obtainActiveTransport();
+    MockClientTransportInfo transportInfo1 = transports.poll();
+    ClientStream realStream1 = mock(ClientStream.class);
+    when(transportInfo1.transport.newStream(same(method), same(headers))).thenReturn(realStream1);
+    transportInfo1.listener.transportReady();
+    startStream(realStream1);
+    transportSet.obtainActiveTransport();
+    MockClientTransportInfo transportInfo2 = transports.poll();
+    ClientStream realStream2 = mock(ClientStream.class);
+    when(transportInfo2.transport.newStream(same(method), same(headers))).thenReturn(realStream2);
+    transportInfo2.listener.transportReady();
+    startStream(realStream2);
+    // A third connection is pending
+    transportSet.obtainActiveTransport();
+    MockClientTransportInfo transportInfo3 = transports.poll();
+
+    transportSet.shutdown();
+    verify(transportInfo1.transport).shutdown();
+    verify(transportInfo2.transport).shutdown();
+    verify(transportInfo3.transport).shutdown();
+
+    transportInfo1.listener.transportTerminated();
+    transportInfo2.listener.transportTerminated();
+    verify(mockTransportSetCallback, never()).onTerminated();
+    transportInfo3.listener.transportTerminated();
+    verify(mockTransportSetCallback).onTerminated();
+  }
+
   @Test
   public void connectIsLazy() {
     SocketAddress addr = mock(SocketAddress.class);
@@ -417,10 +596,171 @@ public class TransportSetTest {
     assertTrue(future2.get() instanceof DelayedClientTransport);
   }
 
+  @Test
+  public void racingStartsNextAttemptAfterDelay() throws Exception {
+    SocketAddress addr1 = mock(SocketAddress.class);
+    SocketAddress addr2 = mock(SocketAddress.class);
+    SocketAddress addr3 = mock(SocketAddress.class);
+    createRacingTransportSet(250, addr1, addr2, addr3);
+
+    // Streams wait in the delayed transport until an attempt wins the race
+    ListenableFuture<ClientTransport> pick = transportSet.obtainActiveTransport();
+    assertTrue(pick.get() instanceof DelayedClientTransport);
+    ClientStream pendingStream = pick.get().newStream(method, headers);
+    pendingStream.start(mockStreamListener);
+    verify(mockTransportFactory).newClientTransport(addr1, authority);
+    MockClientTransportInfo transportInfo1 = transports.poll();
+
+    // The first attempt is still pending when the delay expires
+    fakeClock.forwardMillis(249);
+    verify(mockTransportFactory, never()).newClientTransport(addr2, authority);
+    fakeClock.forwardMillis(1);
+    verify(mockTransportFactory).newClientTransport(addr2, authority);
+    MockClientTransportInfo transportInfo2 = transports.poll();
+    assertTrue(transportSet.obtainActiveTransport().get() instanceof DelayedClientTransport);
+
+    // The second attempt wins
+    transportInfo2.listener.transportReady();
+    verify(transportInfo2.transport).newStream(same(method), same(headers));
+    verify(transportInfo1.transport).shutdown();
+    verify(transportInfo2.transport, never()).shutdown();
+    assertSame(transportInfo2.transport, transportSet.obtainActiveTransport().get());
+    verify(mockLoadBalancer).transportReady(addressGroup, transportInfo2.transport);
+
+    // No more attempts are made, and the loser doesn't reach the load balancer
+    fakeClock.forwardMillis(10000);
+    verify(mockTransportFactory, never()).newClientTransport(addr3, authority);
+    transportInfo1.listener.transportReady();
+    verify(mockLoadBalancer, never()).transportReady(addressGroup, transportInfo1.transport);
+    verify(mockTransportSetCallback, never()).onAllAddressesFailed();
+  }
+
+  @Test
+  public void racingFailureStartsNextAttemptImmediately() throws Exception {
+    SocketAddress addr1 = mock(SocketAddress.class);
+    SocketAddress addr2 = mock(SocketAddress.class);
+    createRacingTransportSet(250, addr1, addr2);
+
+    transportSet.obtainActiveTransport();
+    verify(mockTransportFactory).newClientTransport(addr1, authority);
+    transports.poll().listener.transportShutdown(Status.UNAVAILABLE);
+    verify(mockTransportFactory).newClientTransport(addr2, authority);
+
+    // The delay timer has been cancelled
+    fakeClock.forwardMillis(10000);
+    verify(mockTransportFactory, times(2))
+        .newClientTransport(any(SocketAddress.class), any(String.class));
+  }
+
+  @Test
+  public void racingFailureStartsNextAttemptWhileOthersArePending() throws Exception {
+    SocketAddress addr1 = mock(SocketAddress.class);
+    SocketAddress addr2 = mock(SocketAddress.class);
+    SocketAddress addr3 = mock(SocketAddress.class);
+    createRacingTransportSet(250, addr1, addr2, addr3);
+
+    transportSet.obtainActiveTransport();
+    fakeClock.forwardMillis(250);
+    verify(mockTransportFactory).newClientTransport(addr2, authority);
+    MockClientTransportInfo transportInfo1 = transports.poll();
+    MockClientTransportInfo transportInfo2 = transports.poll();
+
+    // The second attempt is still pending
+    transportInfo1.listener.transportShutdown(Status.UNAVAILABLE);
+    verify(mockTransportFactory).newClientTransport(addr3, authority);
+    MockClientTransportInfo transportInfo3 = transports.poll();
+
+    transportInfo3.listener.transportReady();
+    verify(transportInfo2.transport).shutdown();
+    assertSame(transportInfo3.transport, transportSet.obtainActiveTransport().get());
+    verify(mockTransportSetCallback, never()).onAllAddressesFailed();
+  }
+
+  @Test
+  public void racingAllAttemptsFail() throws Exception {
+    SocketAddress addr1 = mock(SocketAddress.class);
+    SocketAddress addr2 = mock(SocketAddress.class);
+    createRacingTransportSet(250, addr1, addr2);
+
+    ListenableFuture<ClientTransport> pick = transportSet.obtainActiveTransport();
+    ClientStream pendingStream = pick.get().newStream(method, headers);
+    pendingStream.start(mockStreamListener);
+    fakeClock.forwardMillis(250);
+    MockClientTransportInfo transportInfo1 = transports.poll();
+    MockClientTransportInfo transportInfo2 = transports.poll();
+    transportInfo2.listener.transportShutdown(Status.UNAVAILABLE);
+    verify(mockTransportSetCallback, never()).onAllAddressesFailed();
+    transportInfo1.listener.transportShutdown(Status.UNAVAILABLE);
+
+    // The pending stream fails, and the name may need to be re-resolved
+    verify(mockStreamListener).closed(statusCaptor.capture(), any(Metadata.class));
+    assertEquals(Status.Code.UNAVAILABLE, statusCaptor.getValue().getCode());
+    verify(mockTransportSetCallback).onAllAddressesFailed();
+    verify(transportInfo1.transport, never()).newStream(same(method), same(headers));
+    verify(transportInfo2.transport, never()).newStream(same(method), same(headers));
+
+    // The next race is subject to back-off, which is counted from the start of the previous
+    // race, and has already passed.
+    transportSet.obtainActiveTransport();
+    verify(mockBackoffPolicy1).nextBackoffMillis();
+    verify(mockTransportFactory, times(2)).newClientTransport(addr1, authority);
+  }
+
+  @Test
+  public void racingShutdownWithPendingStream() throws Exception {
+    SocketAddress addr1 = mock(SocketAddress.class);
+    SocketAddress addr2 = mock(SocketAddress.class);
+    createRacingTransportSet(250, addr1, addr2);
+
+    ListenableFuture<ClientTransport> pick = transportSet.obtainActiveTransport();
+    ClientStream pendingStream = pick.get().newStream(method, headers);
+    pendingStream.start(mockStreamListener);
+    transportSet.shutdown();
+    assertNull(transportSet.obtainActiveTransport().get());
+
+    // The race goes on for the sake of the pending stream, whose transport is promptly shut down
+    fakeClock.forwardMillis(250);
+    MockClientTransportInfo transportInfo1 = transports.poll();
+    MockClientTransportInfo transportInfo2 = transports.poll();
+    transportInfo1.listener.transportReady();
+    verify(transportInfo1.transport).newStream(same(method), same(headers));
+    verify(transportInfo1.transport).shutdown();
+    verify(transportInfo2.transport).shutdown();
+
+    transportInfo1.listener.transportShutdown(Status.OK);
+    transportInfo2.listener.transportShutdown(Status.OK);
+    transportInfo1.listener.transportTerminated();
+    verify(mockTransportSetCallback, never()).onTerminated();
+    transportInfo2.listener.transportTerminated();
+    verify(mockTransportSetCallback).onTerminated();
+  }
+
   private void createTransortSet(SocketAddress ... addrs) {
+    createRacingTransportSet(0, addrs);
+  }
+
+  private void createRacingTransportSet(long connectionAttemptDelayMillis,
+      SocketAddress ... addrs) {
+    createTransportSet(connectionAttemptDelayMillis, Integer.MAX_VALUE, 1, addrs);
+  }
+
+  private void createTransportSet(long connectionAttemptDelayMillis, int maxStreamsPerConnection,
+      int maxConnections, SocketAddress ... addrs) {
     addressGroup = new EquivalentAddressGroup(Arrays.asList(addrs));
     transportSet = new TransportSet(addressGroup, authority, mockLoadBalancer,
         mockBackoffPolicyProvider, mockTransportFactory, fakeClock.scheduledExecutorService,
-        mockTransportSetCallback, Stopwatch.createUnstarted(fakeClock.ticker));
+        TimeUnit.MILLISECONDS.toNanos(connectionAttemptDelayMillis), maxStreamsPerConnection,
+        maxConnections, mockTransportSetCallback, Stopwatch.createUnstarted(fakeClock.ticker));
+  }
+
+  /** Starts a stream on the active transport, and returns the listener given to the real stream. */
+  private ClientStreamListener startStream(ClientStream realStream) throws Exception {
+    ClientStream stream = transportSet.obtainActiveTransport().get().newStream(method, headers);
+    stream.start(mockStreamListener);
+    ArgumentCaptor<ClientStreamListener> listenerCaptor =
+        ArgumentCaptor.forClass(ClientStreamListener.class);
+    verify(realStream, atLeastOnce()).start(listenerCaptor.capture());
+    List<ClientStreamListener> listeners = listenerCaptor.getAllValues();
+    return listeners.get(listeners.size() - 1);
   }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.testing.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.EmptyProtos.Empty;
+
+import io.grpc.Attributes;
+import io.grpc.ManagedChannel;
+import io.grpc.NameResolver;
+import io.grpc.ResolvedServerInfo;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.netty.NegotiationType;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.testing.TestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for racing connection attempts to the addresses of a target, with local sockets that
+ * complete the TCP handshake but never speak HTTP/2, thus never becoming ready.
+ */
+@RunWith(JUnit4.class)
+public class ConnectionRacingTest {
+  private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+  private final List<Socket> blackholedSockets = new ArrayList<Socket>();
+
+  private int serverPort;
+  private Server server;
+  private ServerSocket blackhole;
+  private Thread blackholeAcceptor;
+  private ManagedChannel channel;
+
+  @Before
+  public void setUp() throws Exception {
+    serverPort = TestUtils.pickUnusedPort();
+    server = ServerBuilder.forPort(serverPort)
+        .addService(TestServiceGrpc.bindService(new TestServiceImpl(executor)))
+        .build()
+        .start();
+    blackhole = new ServerSocket(0);
+    blackholeAcceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            Socket socket = blackhole.accept();
+            synchronized (blackholedSockets) {
+              blackholedSockets.add(socket);
+            }
+          }
+        } catch (IOException e) {
+          // The blackhole has been closed.
+        }
+      }
+    });
+    blackholeAcceptor.setDaemon(true);
+    blackholeAcceptor.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (channel != null) {
+      channel.shutdownNow();
+    }
+    server.shutdownNow();
+    blackhole.close();
+    blackholeAcceptor.join();
+    synchronized (blackholedSockets) {
+      for (Socket socket : blackholedSockets) {
+        socket.close();
+      }
+    }
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void racingSkipsUnresponsiveAddress() throws Exception {
+    channel = newChannel(100, blackhole.getLocalPort(), serverPort);
+    TestServiceGrpc.TestServiceBlockingStub stub = TestServiceGrpc.newBlockingStub(channel)
+        .withDeadlineAfter(5, TimeUnit.SECONDS);
+
+    assertEquals(Empty.getDefaultInstance(), stub.emptyCall(Empty.getDefaultInstance()));
+    // The unresponsive address was tried first.
+    synchronized (blackholedSockets) {
+      assertEquals(1, blackholedSockets.size());
+    }
+  }
+
+  @Test
+  public void racingUsesFirstAddressIfResponsive() throws Exception {
+    channel = newChannel(1000, serverPort, blackhole.getLocalPort());
+    TestServiceGrpc.TestServiceBlockingStub stub = TestServiceGrpc.newBlockingStub(channel)
+        .withDeadlineAfter(5, TimeUnit.SECONDS);
+
+    assertEquals(Empty.getDefaultInstance(), stub.emptyCall(Empty.getDefaultInstance()));
+    assertEquals(Empty.getDefaultInstance(), stub.emptyCall(Empty.getDefaultInstance()));
+    synchronized (blackholedSockets) {
+      assertTrue(blackholedSockets.isEmpty());
+    }
+  }
+
+  @Test
+  public void sequentialStallsOnUnresponsiveAddress() throws Exception {
+    channel = newChannel(0, blackhole.getLocalPort(), serverPort);
+    TestServiceGrpc.TestServiceBlockingStub stub = TestServiceGrpc.newBlockingStub(channel)
+        .withDeadlineAfter(500, TimeUnit.MILLISECONDS);
+
+    try {
+      stub.emptyCall(Empty.getDefaultInstance());
+      fail("Should have timed out on the unresponsive address");
+    } catch (StatusRuntimeException e) {
+      assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+    }
+  }
+
+  private ManagedChannel newChannel(long connectionAttemptDelayMillis, int... ports) {
+    final List<ResolvedServerInfo> servers = new ArrayList<ResolvedServerInfo>();
+    for (int port : ports) {
+      servers.add(new ResolvedServerInfo(TestUtils.testServerAddress(port), Attributes.EMPTY));
+    }
+    return NettyChannelBuilder.forTarget("racing:///localhost")
+        .nameResolverFactory(new StaticNameResolverFactory(servers))
+        .negotiationType(NegotiationType.PLAINTEXT)
+        .connectionAttemptDelay(connectionAttemptDelayMillis, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  private static class StaticNameResolverFactory extends NameResolver.Factory {
+    private final List<ResolvedServerInfo> servers;
+
+    StaticNameResolverFactory(List<ResolvedServerInfo> servers) {
+      this.servers = servers;
+    }
+
+    @Override
+    public NameResolver newNameResolver(URI targetUri, Attributes params) {
+      return new NameResolver() {
+        @Override
+        public String getServiceAuthority() {
+          return "localhost";
+        }
+
+        @Override
+        public void start(Listener listener) {
+          listener.onUpdate(servers, Attributes.EMPTY);
+        }
+
+        @Override
+        public void shutdown() {}
+      };
+    }
+
+    @Override
+    public String getDefaultScheme() {
+      return "racing";
+    }
+  }
+}
@@ -35,27 +35,52 @@ import static io.netty.handler.codec.http2.Http2CodecUtil.getEmbeddedHttp2Except
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.google.common.annotations.VisibleForTesting;
+
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http2.Http2ConnectionDecoder;
 import io.netty.handler.codec.http2.Http2ConnectionEncoder;
 import io.netty.handler.codec.http2.Http2ConnectionHandler;
 import io.netty.handler.codec.http2.Http2Error;
 import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2LocalFlowController;
 import io.netty.handler.codec.http2.Http2Settings;
 import io.netty.handler.codec.http2.Http2Stream;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Base class for all Netty gRPC handlers. This class standardizes exception handling (always
- * shutdown the connection) as well as sending the initial connection window at startup.
+ * shutdown the connection) as well as sending the initial connection window at startup. It also
+ * grows the flow control windows to match the measured bandwidth-delay product when enabled,
+ * and batches the bytes returned to inbound flow control until the end of each read.
  */
 abstract class AbstractNettyHandler extends Http2ConnectionHandler {
   private static long GRACEFUL_SHUTDOWN_TIMEOUT = MILLISECONDS.convert(5, SECONDS);
+
+  /**
+   * Payload of the PING frames used to measure the bandwidth-delay product. Acks carrying it must
+   * be passed to {@link FlowControlPinger#updateWindow} rather than treated as application pings.
+   */
+  static final long BDP_MEASUREMENT_PING = 1234;
+
   private int initialConnectionWindow;
   private ChannelHandlerContext ctx;
+  private final FlowControlPinger flowControlPing;
+  private final Map<Http2Stream, Integer> pendingProcessedBytes =
+      new LinkedHashMap<Http2Stream, Integer>();
+  private boolean reading;
 
+  /**
+   * Creates the handler. If {@code maxFlowControlWindow} is larger than the initial window from
+   * {@code initialSettings}, windows are tuned automatically up to that size.
+   */
   AbstractNettyHandler(Http2ConnectionDecoder decoder,
                        Http2ConnectionEncoder encoder,
-                       Http2Settings initialSettings) {
+                       Http2Settings initialSettings,
+                       int maxFlowControlWindow) {
     super(decoder, encoder, initialSettings);
 
     // Set the timeout for graceful shutdown.
@@ -64,6 +89,8 @@ abstract class AbstractNettyHandler extends Http2ConnectionHandler {
     // Extract the connection window from the settings if it was set.
     this.initialConnectionWindow = initialSettings.initialWindowSize() == null ? -1 :
             initialSettings.initialWindowSize();
+    this.flowControlPing = new FlowControlPinger(
+        maxFlowControlWindow > initialConnectionWindow ? maxFlowControlWindow : 0);
   }
 
   @Override
@@ -81,6 +108,26 @@ abstract class AbstractNettyHandler extends Http2ConnectionHandler {
     sendInitialConnectionWindow();
   }
 
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    reading = true;
+    super.channelRead(ctx, msg);
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+    reading = false;
+    // Return the bytes processed during the read before the flush done by our superclass.
+    returnPendingProcessedBytes();
+    super.channelReadComplete(ctx);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    pendingProcessedBytes.clear();
+    super.channelInactive(ctx);
+  }
+
   @Override
   public final void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
     Http2Exception embedded = getEmbeddedHttp2Exception(cause);
@@ -97,6 +144,73 @@ abstract class AbstractNettyHandler extends Http2ConnectionHandler {
     return ctx;
   }
 
+  protected final FlowControlPinger flowControlPing() {
+    return flowControlPing;
+  }
+
+  /**
+   * Returns whether {@code msg} may be written with the channel's void promise. A failed void
+   * promise fails the whole connection, so only a DATA frame for a stream that is still open for
+   * writing goes without a promise of its own. The frame ending the stream still needs one, as
+   * closing the stream listens for its write to complete.
+   */
+  final boolean canWriteWithVoidPromise(Object msg) {
+    if (!(msg instanceof SendGrpcFrameCommand)) {
+      return false;
+    }
+    SendGrpcFrameCommand cmd = (SendGrpcFrameCommand) msg;
+    if (cmd.endStream()) {
+      return false;
+    }
+    Http2Stream stream = connection().stream(cmd.streamId());
+    if (stream == null) {
+      return false;
+    }
+    switch (stream.state()) {
+      case OPEN:
+      case HALF_CLOSED_REMOTE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Returns the given processed bytes back to inbound flow control. Bytes processed while reading
+   * from the channel are accumulated per stream and returned together when the read completes, so
+   * that many small messages result in a single flow control update. Must be called from the
+   * event loop.
+   *
+   * @return {@code true} if a WINDOW_UPDATE may have been written and the channel needs a flush
+   */
+  boolean returnProcessedBytes(Http2Stream stream, int bytes) {
+    if (reading) {
+      Integer pending = pendingProcessedBytes.get(stream);
+      pendingProcessedBytes.put(stream, pending == null ? bytes : pending + bytes);
+      return false;
+    }
+    return consumeBytes(stream, bytes);
+  }
+
+  private void returnPendingProcessedBytes() {
+    if (pendingProcessedBytes.isEmpty()) {
+      return;
+    }
+    for (Map.Entry<Http2Stream, Integer> entry : pendingProcessedBytes.entrySet()) {
+      consumeBytes(entry.getKey(), entry.getValue());
+    }
+    pendingProcessedBytes.clear();
+  }
+
+  private boolean consumeBytes(Http2Stream stream, int bytes) {
+    InboundFlowControlStats.recordBytesReturned(bytes);
+    try {
+      return decoder().flowController().consumeBytes(stream, bytes);
+    } catch (Http2Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   /**
    * Sends initial connection window to the remote endpoint if necessary.
    */
@@ -110,4 +224,85 @@ abstract class AbstractNettyHandler extends Http2ConnectionHandler {
       ctx.flush();
     }
   }
+
+  /**
+   * Estimates the bandwidth-delay product of the connection and grows the flow control windows to
+   * match it. A PING is sent when DATA starts arriving and the bytes received until its ack are
+   * counted. That count approximates what the peer could send in one round trip, so windows
+   * smaller than twice that amount are limiting throughput. They are then raised, at most to the
+   * configured maximum, provided the measured bandwidth is still increasing.
+   */
+  final class FlowControlPinger {
+    private final int maxWindow;
+    private boolean pinging;
+    private int dataSizeSincePing;
+    private long lastPingTimeNanos;
+    private long lastBandwidth;
+    private int pingCount;
+    private int pingReturn;
+
+    FlowControlPinger(int maxWindow) {
+      this.maxWindow = maxWindow;
+    }
+
+    boolean isEnabled() {
+      return maxWindow > 0;
+    }
+
+    /**
+     * Called for each DATA frame received. Starts a measurement if none is in progress.
+     */
+    void onDataRead(int dataLength, int paddingLength) {
+      if (!isEnabled()) {
+        return;
+      }
+      if (!pinging) {
+        pinging = true;
+        dataSizeSincePing = 0;
+        lastPingTimeNanos = System.nanoTime();
+        pingCount++;
+        ByteBuf payload = ctx().alloc().buffer(8);
+        payload.writeLong(BDP_MEASUREMENT_PING);
+        // The frame is flushed when the current read completes.
+        encoder().writePing(ctx(), false, payload, ctx().newPromise());
+      }
+      dataSizeSincePing += dataLength + paddingLength;
+    }
+
+    /**
+     * Called when the ack for a measurement PING arrives.
+     */
+    void updateWindow() throws Http2Exception {
+      if (!isEnabled() || !pinging) {
+        return;
+      }
+      pinging = false;
+      pingReturn++;
+      long elapsedNanos = Math.max(1, System.nanoTime() - lastPingTimeNanos);
+      long bandwidth = dataSizeSincePing * SECONDS.toNanos(1) / elapsedNanos;
+      Http2LocalFlowController fc = decoder().flowController();
+      int targetWindow = (int) Math.min(dataSizeSincePing * 2L, maxWindow);
+      int currentWindow = fc.initialWindowSize(connection().connectionStream());
+      if (targetWindow <= currentWindow || bandwidth <= lastBandwidth) {
+        return;
+      }
+      lastBandwidth = bandwidth;
+      fc.incrementWindowSize(connection().connectionStream(), targetWindow - currentWindow);
+      // New stream windows take effect once the peer acknowledges the settings.
+      Http2Settings settings = new Http2Settings();
+      settings.initialWindowSize(targetWindow);
+      encoder().writeSettings(ctx(), settings, ctx().newPromise());
+      ctx().flush();
+    }
+
+    @VisibleForTesting
+    int getPingCount() {
+      return pingCount;
+    }
+
+    @VisibleForTesting
+    int getPingReturn() {
+      return pingReturn;
+    }
+  }
 }
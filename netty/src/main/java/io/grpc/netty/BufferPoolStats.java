@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.netty;
+
+import io.grpc.ExperimentalApi;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PoolChunkListMetric;
+import io.netty.buffer.PoolChunkMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide metrics of the buffer pool shared by the Netty transports. They allow measuring how
+ * much memory the transports hold in buffers, for instance per number of concurrent streams, and
+ * how well the pool's thread-local caches work for the application's threads.
+ */
+@ExperimentalApi("Intended for benchmarks; may be replaced by a general stats mechanism")
+public final class BufferPoolStats {
+  private static final AtomicLong allocations = new AtomicLong();
+
+  private BufferPoolStats() {
+  }
+
+  /**
+   * Returns the number of arenas of the pool, heap and direct.
+   */
+  public static int arenas() {
+    PooledByteBufAllocator allocator = Utils.BYTE_BUF_ALLOCATOR;
+    return allocator.heapArenas().size() + allocator.directArenas().size();
+  }
+
+  /**
+   * Returns the number of thread-local caches of the pool, roughly the number of threads that
+   * have allocated buffers.
+   */
+  public static int threadLocalCaches() {
+    return Utils.BYTE_BUF_ALLOCATOR.numThreadLocalCaches();
+  }
+
+  /**
+   * Returns the number of bytes of the chunks the pool has allocated from the system.
+   */
+  public static long allocatedBytes() {
+    return allocatedBytes(Utils.BYTE_BUF_ALLOCATOR);
+  }
+
+  /**
+   * Returns the number of bytes of the pool's chunks that are in use by buffers.
+   */
+  public static long usedBytes() {
+    return usedBytes(Utils.BYTE_BUF_ALLOCATOR);
+  }
+
+  /**
+   * Returns the number of buffers allocated from the pool.
+   */
+  public static long allocations() {
+    return allocations.get();
+  }
+
+  /**
+   * Returns an estimate of the fraction of buffer allocations that were served by a thread-local
+   * cache rather than by an arena, or {@code 0} if no buffers were allocated yet.
+   *
+   * <p>It is computed as {@code 1 - arena allocations / allocations}, from counters that are read
+   * one after the other while buffers are being allocated. The arenas also count allocations too
+   * large to be cached, so it underestimates the hit rate of the cacheable sizes.
+   */
+  public static double estimatedThreadCacheHitRate() {
+    long total = allocations.get();
+    if (total == 0) {
+      return 0;
+    }
+    long arenaAllocations = 0;
+    PooledByteBufAllocator allocator = Utils.BYTE_BUF_ALLOCATOR;
+    for (PoolArenaMetric arena : allocator.heapArenas()) {
+      arenaAllocations += arena.numAllocations();
+    }
+    for (PoolArenaMetric arena : allocator.directArenas()) {
+      arenaAllocations += arena.numAllocations();
+    }
+    return Math.max(0, 1 - (double) arenaAllocations / total);
+  }
+
+  static void recordAllocation() {
+    allocations.incrementAndGet();
+  }
+
+  static long allocatedBytes(PooledByteBufAllocator allocator) {
+    return chunkBytes(allocator.heapArenas(), false) + chunkBytes(allocator.directArenas(), false);
+  }
+
+  static long usedBytes(PooledByteBufAllocator allocator) {
+    return chunkBytes(allocator.heapArenas(), true) + chunkBytes(allocator.directArenas(), true);
+  }
+
+  private static long chunkBytes(List<PoolArenaMetric> arenas, boolean used) {
+    long bytes = 0;
+    for (PoolArenaMetric arena : arenas) {
+      for (PoolChunkListMetric chunkList : arena.chunkLists()) {
+        for (PoolChunkMetric chunk : chunkList) {
+          bytes += used ? chunk.chunkSize() - chunk.freeBytes() : chunk.chunkSize();
+        }
+      }
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.netty;
+
+import io.grpc.ExperimentalApi;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http2.DecoratingHttp2FrameWriter;
+import io.netty.handler.codec.http2.Http2FrameWriter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide counters for inbound flow control of the Netty transports. They allow comparing
+ * how many WINDOW_UPDATE frames are sent for the amount of data received, for instance while
+ * tuning {@link NettyChannelBuilder#windowUpdateThreshold} and
+ * {@link NettyServerBuilder#windowUpdateThreshold}.
+ */
+@ExperimentalApi("Intended for benchmarks; may be replaced by a general stats mechanism")
+public final class InboundFlowControlStats {
+  private static final AtomicLong windowUpdateFrames = new AtomicLong();
+  private static final AtomicLong bytesReturned = new AtomicLong();
+
+  private InboundFlowControlStats() {
+  }
+
+  /**
+   * Returns the number of WINDOW_UPDATE frames written, for streams or connections.
+   */
+  public static long windowUpdateFrames() {
+    return windowUpdateFrames.get();
+  }
+
+  /**
+   * Returns the number of bytes the application has processed and returned to flow control.
+   */
+  public static long bytesReturned() {
+    return bytesReturned.get();
+  }
+
+  /**
+   * Returns the number of WINDOW_UPDATE frames written per MiB returned to flow control, or
+   * {@code 0} if no bytes were returned yet.
+   */
+  public static double windowUpdatesPerMegabyte() {
+    long bytes = bytesReturned.get();
+    if (bytes == 0) {
+      return 0;
+    }
+    return windowUpdateFrames.get() * 1048576d / bytes;
+  }
+
+  /**
+   * Resets all counters to zero.
+   */
+  public static void reset() {
+    windowUpdateFrames.set(0);
+    bytesReturned.set(0);
+  }
+
+  static void recordBytesReturned(int bytes) {
+    bytesReturned.addAndGet(bytes);
+  }
+
+  /**
+   * Decorates {@code frameWriter} to count the WINDOW_UPDATE frames written through it.
+   */
+  static Http2FrameWriter countWindowUpdates(Http2FrameWriter frameWriter) {
+    return new DecoratingHttp2FrameWriter(frameWriter) {
+      @Override
+      public ChannelFuture writeWindowUpdate(ChannelHandlerContext ctx, int streamId,
+          int windowSizeIncrement, ChannelPromise promise) {
+        windowUpdateFrames.incrementAndGet();
+        return super.writeWindowUpdate(ctx, streamId, windowSizeIncrement, promise);
+      }
+    };
+  }
+}
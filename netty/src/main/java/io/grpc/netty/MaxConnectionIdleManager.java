@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.netty;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monitors connection idleness on the server. Once a connection has had no active streams for
+ * {@code maxConnectionIdle}, the close task is run so that the connection can be shut down
+ * gracefully. All methods must be called from the same thread, normally the channel's event loop.
+ */
+class MaxConnectionIdleManager {
+  private final long maxConnectionIdleInNanos;
+  private final Ticker ticker;
+
+  private ScheduledFuture<?> shutdownFuture;
+  private Runnable shutdownTask;
+  private ScheduledExecutorService scheduler;
+  private long nextIdleMonitorTime;
+  private boolean isActive;
+
+  MaxConnectionIdleManager(long maxConnectionIdleInNanos) {
+    this(maxConnectionIdleInNanos, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  MaxConnectionIdleManager(long maxConnectionIdleInNanos, Ticker ticker) {
+    Preconditions.checkArgument(maxConnectionIdleInNanos > 0,
+        "maxConnectionIdleInNanos must be positive");
+    this.maxConnectionIdleInNanos = maxConnectionIdleInNanos;
+    this.ticker = Preconditions.checkNotNull(ticker, "ticker");
+  }
+
+  /**
+   * Starts the idle timer. The connection starts out idle, so {@code closeJob} runs after
+   * {@code maxConnectionIdle} unless a stream is started first.
+   */
+  void start(final Runnable closeJob, final ScheduledExecutorService scheduler) {
+    this.scheduler = Preconditions.checkNotNull(scheduler, "scheduler");
+    Preconditions.checkNotNull(closeJob, "closeJob");
+    nextIdleMonitorTime = ticker.read() + maxConnectionIdleInNanos;
+
+    shutdownTask = new Runnable() {
+      @Override
+      public void run() {
+        shutdownFuture = null;
+        if (isActive) {
+          // Streams are active again; onTransportIdle() will restart the timer.
+          return;
+        }
+        long remainingNanos = nextIdleMonitorTime - ticker.read();
+        if (remainingNanos > 0) {
+          // The connection went active and then idle again while the task was pending.
+          shutdownFuture = scheduler.schedule(this, remainingNanos, TimeUnit.NANOSECONDS);
+          return;
+        }
+        closeJob.run();
+      }
+    };
+    shutdownFuture = scheduler.schedule(shutdownTask, maxConnectionIdleInNanos,
+        TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * The connection has gained its first active stream.
+   */
+  void onTransportActive() {
+    // The pending task is left in place and notices the change when it runs, which avoids a
+    // cancel/reschedule for each short-lived call.
+    isActive = true;
+  }
+
+  /**
+   * The connection has lost its last active stream.
+   */
+  void onTransportIdle() {
+    isActive = false;
+    if (shutdownTask == null) {
+      return;
+    }
+    nextIdleMonitorTime = ticker.read() + maxConnectionIdleInNanos;
+    if (shutdownFuture == null) {
+      shutdownFuture = scheduler.schedule(shutdownTask, maxConnectionIdleInNanos,
+          TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * The connection has terminated; no more close tasks will run.
+   */
+  void onTransportTermination() {
+    if (shutdownFuture != null) {
+      shutdownFuture.cancel(false);
+      shutdownFuture = null;
+    }
+    shutdownTask = null;
+  }
+}
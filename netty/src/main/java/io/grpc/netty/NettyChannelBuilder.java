@@ -41,12 +41,14 @@ import io.grpc.Attributes;
 import io.grpc.ExperimentalApi;
 import io.grpc.Internal;
 import io.grpc.NameResolver;
+import io.grpc.NameResolverRegistry;
 import io.grpc.internal.AbstractManagedChannelImplBuilder;
 import io.grpc.internal.AbstractReferenceCounted;
 import io.grpc.internal.ClientTransportFactory;
 import io.grpc.internal.GrpcUtil;
 import io.grpc.internal.ManagedClientTransport;
 import io.grpc.internal.SharedResourceHolder;
+import io.grpc.internal.SharedResourceHolder.Resource;
 import io.netty.channel.Channel;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
@@ -54,6 +56,7 @@ import io.netty.handler.ssl.SslContext;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 import javax.net.ssl.SSLException;
@@ -64,16 +67,28 @@ import javax.net.ssl.SSLException;
 @ExperimentalApi("There is no plan to make this API stable, given transport API instability")
 public class NettyChannelBuilder extends AbstractManagedChannelImplBuilder<NettyChannelBuilder> {
   public static final int DEFAULT_FLOW_CONTROL_WINDOW = 1048576; // 1MiB
+  public static final float DEFAULT_WINDOW_UPDATE_THRESHOLD = 0.5f;
+
+  static {
+    // Lets channels of any builder target unix:///path once Netty is in use.
+    NameResolverRegistry.getDefaultRegistry().register(UnixNameResolverFactory.getInstance());
+  }
 
   private NegotiationType negotiationType = NegotiationType.TLS;
   private ProtocolNegotiator protocolNegotiator;
-  private Class<? extends Channel> channelType = NioSocketChannel.class;
+  @Nullable
+  private Class<? extends Channel> channelType;
   @Nullable
   private EventLoopGroup eventLoopGroup;
   private SslContext sslContext;
   private int flowControlWindow = DEFAULT_FLOW_CONTROL_WINDOW;
+  private int maxFlowControlWindow;
+  private float windowUpdateThreshold = DEFAULT_WINDOW_UPDATE_THRESHOLD;
   private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
   private int maxHeaderListSize = GrpcUtil.DEFAULT_MAX_HEADER_LIST_SIZE;
+  private long keepAliveTimeNanos = GrpcUtil.KEEPALIVE_TIME_NANOS_DISABLED;
+  private long keepAliveTimeoutNanos = GrpcUtil.DEFAULT_KEEPALIVE_TIMEOUT_NANOS;
+  private boolean keepAliveWithoutCalls;
 
   /**
    * Creates a new builder with the given server address. This factory method is primarily intended
@@ -116,13 +131,20 @@ public class NettyChannelBuilder extends AbstractManagedChannelImplBuilder<Netty
     if (address instanceof InetSocketAddress) {
       InetSocketAddress inetAddress = (InetSocketAddress) address;
       return GrpcUtil.authorityFromHostAndPort(inetAddress.getHostString(), inetAddress.getPort());
+    } else if (Utils.isDomainSocketAddress(address)) {
+      // The path is not a valid authority.
+      return UnixNameResolverFactory.AUTHORITY;
     } else {
       return address.toString();
     }
   }
 
   /**
-   * Specify the channel type to use, by default we use {@link NioSocketChannel}.
+   * Specify the channel type to use. By default we use Netty's native {@code EpollSocketChannel}
+   * if it is available and no non-epoll {@link #eventLoopGroup} was given, and
+   * {@link NioSocketChannel} otherwise. Unix domain socket addresses, given directly or resolved
+   * from a {@code unix:} target (see {@link UnixNameResolverFactory}), use
+   * {@code EpollDomainSocketChannel} by default.
    */
   public final NettyChannelBuilder channelType(Class<? extends Channel> channelType) {
     this.channelType = Preconditions.checkNotNull(channelType);
@@ -185,6 +207,32 @@ public class NettyChannelBuilder extends AbstractManagedChannelImplBuilder<Netty
     return this;
   }
 
+  /**
+   * Enables automatic flow control window tuning. The bandwidth-delay product of each connection
+   * is estimated from PING round trips and the DATA received meanwhile, and the connection and
+   * stream windows grow from the {@linkplain #flowControlWindow initial window} as needed, up to
+   * {@code maxFlowControlWindow}. This lets high-latency links reach full throughput without
+   * paying for large windows on every connection. Disabled by default.
+   */
+  public final NettyChannelBuilder maxFlowControlWindow(int maxFlowControlWindow) {
+    checkArgument(maxFlowControlWindow > 0, "maxFlowControlWindow must be positive");
+    this.maxFlowControlWindow = maxFlowControlWindow;
+    return this;
+  }
+
+  /**
+   * Sets the fraction of a flow control window that must be consumed before a WINDOW_UPDATE is
+   * sent for it. Higher values send fewer, larger updates at the cost of the peer stalling
+   * longer on a full window. If not called, the default value is
+   * {@link #DEFAULT_WINDOW_UPDATE_THRESHOLD}.
+   */
+  public final NettyChannelBuilder windowUpdateThreshold(float windowUpdateThreshold) {
+    checkArgument(windowUpdateThreshold > 0 && windowUpdateThreshold < 1,
+        "windowUpdateThreshold must be between 0 and 1 exclusive");
+    this.windowUpdateThreshold = windowUpdateThreshold;
+    return this;
+  }
+
   /**
    * Sets the maximum message size allowed to be received on the channel. If not called,
    * defaults to {@link GrpcUtil#DEFAULT_MAX_MESSAGE_SIZE}.
@@ -205,6 +253,38 @@ public class NettyChannelBuilder extends AbstractManagedChannelImplBuilder<Netty
     return this;
   }
 
+  /**
+   * Enables keepalive: if no data is received on a connection for the given time, a PING frame is
+   * sent to check that the peer is still there. If the ping is not answered within the
+   * {@linkplain #keepAliveTimeout keepalive timeout} the connection is closed, failing its calls
+   * with {@link io.grpc.Status.Code#UNAVAILABLE UNAVAILABLE}, and a new connection is made when
+   * needed. Keepalive is disabled by default.
+   */
+  public final NettyChannelBuilder keepAliveTime(long keepAliveTime, TimeUnit timeUnit) {
+    checkArgument(keepAliveTime > 0L, "keepalive time must be positive");
+    keepAliveTimeNanos = timeUnit.toNanos(keepAliveTime);
+    return this;
+  }
+
+  /**
+   * Sets how long to wait for a keepalive ping to be answered before closing the connection. If
+   * not called, defaults to 20 seconds. Has no effect unless {@link #keepAliveTime} is set.
+   */
+  public final NettyChannelBuilder keepAliveTimeout(long keepAliveTimeout, TimeUnit timeUnit) {
+    checkArgument(keepAliveTimeout > 0L, "keepalive timeout must be positive");
+    keepAliveTimeoutNanos = timeUnit.toNanos(keepAliveTimeout);
+    return this;
+  }
+
+  /**
+   * Sets whether keepalive pings are sent while the connection has no outstanding calls. Defaults
+   * to {@code false}, so idle connections do not generate traffic.
+   */
+  public final NettyChannelBuilder keepAliveWithoutCalls(boolean enable) {
+    keepAliveWithoutCalls = enable;
+    return this;
+  }
+
   /**
    * Equivalent to using {@link #negotiationType(NegotiationType)} with {@code PLAINTEXT} or
    * {@code PLAINTEXT_UPGRADE}.
@@ -222,7 +302,9 @@ public class NettyChannelBuilder extends AbstractManagedChannelImplBuilder<Netty
   @Override
   protected ClientTransportFactory buildTransportFactory() {
     return new NettyTransportFactory(channelType, negotiationType, protocolNegotiator, sslContext,
-        eventLoopGroup, flowControlWindow, maxMessageSize, maxHeaderListSize);
+        eventLoopGroup, flowControlWindow, maxFlowControlWindow, windowUpdateThreshold,
+        maxMessageSize, maxHeaderListSize, keepAliveTimeNanos, keepAliveTimeoutNanos,
+        keepAliveWithoutCalls);
   }
 
   @Override
@@ -270,35 +352,54 @@ public class NettyChannelBuilder extends AbstractManagedChannelImplBuilder<Netty
   private static class NettyTransportFactory extends AbstractReferenceCounted
           implements ClientTransportFactory {
     private final Class<? extends Channel> channelType;
+    private final boolean channelTypeSpecified;
     private final NegotiationType negotiationType;
     private final ProtocolNegotiator protocolNegotiator;
     private final SslContext sslContext;
     private final EventLoopGroup group;
-    private final boolean usingSharedGroup;
+    private final Resource<EventLoopGroup> sharedGroup;
     private final int flowControlWindow;
+    private final int maxFlowControlWindow;
+    private final float windowUpdateThreshold;
     private final int maxMessageSize;
     private final int maxHeaderListSize;
+    private final long keepAliveTimeNanos;
+    private final long keepAliveTimeoutNanos;
+    private final boolean keepAliveWithoutCalls;
 
-    private NettyTransportFactory(Class<? extends Channel> channelType,
+    private NettyTransportFactory(@Nullable Class<? extends Channel> channelType,
                                   NegotiationType negotiationType,
                                   ProtocolNegotiator protocolNegotiator,
                                   SslContext sslContext,
                                   EventLoopGroup group,
                                   int flowControlWindow,
+                                  int maxFlowControlWindow,
+                                  float windowUpdateThreshold,
                                   int maxMessageSize,
-                                  int maxHeaderListSize) {
-      this.channelType = channelType;
+                                  int maxHeaderListSize,
+                                  long keepAliveTimeNanos,
+                                  long keepAliveTimeoutNanos,
+                                  boolean keepAliveWithoutCalls) {
+      this.channelType = channelType != null
+          ? channelType : Utils.defaultClientChannelType(group);
+      channelTypeSpecified = channelType != null;
       this.negotiationType = negotiationType;
       this.protocolNegotiator = protocolNegotiator;
       this.sslContext = sslContext;
       this.flowControlWindow = flowControlWindow;
+      this.maxFlowControlWindow = maxFlowControlWindow;
+      this.windowUpdateThreshold = windowUpdateThreshold;
       this.maxMessageSize = maxMessageSize;
       this.maxHeaderListSize = maxHeaderListSize;
-      usingSharedGroup = group == null;
-      if (usingSharedGroup) {
-        // The group was unspecified, using the shared group.
-        this.group = SharedResourceHolder.get(Utils.DEFAULT_WORKER_EVENT_LOOP_GROUP);
+      this.keepAliveTimeNanos = keepAliveTimeNanos;
+      this.keepAliveTimeoutNanos = keepAliveTimeoutNanos;
+      this.keepAliveWithoutCalls = keepAliveWithoutCalls;
+      if (group == null) {
+        // The group was unspecified, using the shared group matching the channel type.
+        sharedGroup = Utils.workerEventLoopGroup(this.channelType);
+        this.group = SharedResourceHolder.get(sharedGroup);
       } else {
+        sharedGroup = null;
         this.group = group;
       }
     }
@@ -308,14 +409,19 @@ public class NettyChannelBuilder extends AbstractManagedChannelImplBuilder<Netty
         SocketAddress serverAddress, String authority) {
       ProtocolNegotiator negotiator = protocolNegotiator != null ? protocolNegotiator :
           createProtocolNegotiator(authority, negotiationType, sslContext);
+      // Unix domain sockets need their own channel type, which is only known once resolved.
+      Class<? extends Channel> channelType = channelTypeSpecified ? this.channelType
+          : Utils.clientChannelType(serverAddress, group, this.channelType);
       return new NettyClientTransport(serverAddress, channelType, group, negotiator,
-          flowControlWindow, maxMessageSize, maxHeaderListSize, authority);
+          flowControlWindow, maxFlowControlWindow, windowUpdateThreshold, maxMessageSize,
+          maxHeaderListSize, keepAliveTimeNanos, keepAliveTimeoutNanos, keepAliveWithoutCalls,
+          authority);
     }
 
     @Override
     protected void deallocate() {
-      if (usingSharedGroup) {
-        SharedResourceHolder.release(Utils.DEFAULT_WORKER_EVENT_LOOP_GROUP, group);
+      if (sharedGroup != null) {
+        SharedResourceHolder.release(sharedGroup, group);
       }
     }
   }
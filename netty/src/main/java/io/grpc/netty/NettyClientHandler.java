@@ -31,13 +31,13 @@
 
 package io.grpc.netty;
 
-import static io.netty.handler.codec.http2.DefaultHttp2LocalFlowController.DEFAULT_WINDOW_UPDATE_RATIO;
 import static io.netty.util.CharsetUtil.UTF_8;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import io.grpc.Metadata;
 import io.grpc.Status;
@@ -45,6 +45,8 @@ import io.grpc.StatusException;
 import io.grpc.internal.ClientTransport.PingCallback;
 import io.grpc.internal.GrpcUtil;
 import io.grpc.internal.Http2Ping;
+import io.grpc.internal.KeepAliveManager;
+import io.grpc.internal.KeepAliveManager.KeepAlivePinger;
 import io.grpc.internal.ManagedClientTransport;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
@@ -106,9 +108,26 @@ class NettyClientHandler extends AbstractNettyHandler {
   private static final Status EXHAUSTED_STREAMS_STATUS =
           Status.UNAVAILABLE.withDescription("Stream IDs have been exhausted");
 
+  /**
+   * Callback for keepalive pings. The ack is observed through {@link #channelRead}, so there is
+   * nothing left to do when it completes.
+   */
+  private static final PingCallback KEEPALIVE_PING_CALLBACK = new PingCallback() {
+    @Override
+    public void onSuccess(long roundTripTimeNanos) {}
+
+    @Override
+    public void onFailure(Throwable cause) {}
+  };
+
   private final Http2Connection.PropertyKey streamKey;
   private final Ticker ticker;
   private final Random random = new Random();
+  private final long keepAliveTimeNanos;
+  private final long keepAliveTimeoutNanos;
+  private final boolean keepAliveWithoutCalls;
+  @Nullable
+  private KeepAliveManager keepAliveManager;
   private WriteQueue clientWriteQueue;
   private Http2Ping ping;
   private Status goAwayStatus;
@@ -116,15 +135,20 @@ class NettyClientHandler extends AbstractNettyHandler {
   private int nextStreamId;
 
   static NettyClientHandler newHandler(ManagedClientTransport.Listener listener,
-                                       int flowControlWindow, int maxHeaderListSize,
-                                       Ticker ticker) {
+                                       int flowControlWindow, int maxFlowControlWindow,
+                                       float windowUpdateThreshold, int maxHeaderListSize,
+                                       Ticker ticker,
+                                       long keepAliveTimeNanos,
+                                       long keepAliveTimeoutNanos, boolean keepAliveWithoutCalls) {
     Preconditions.checkArgument(maxHeaderListSize > 0, "maxHeaderListSize must be positive");
     Http2HeadersDecoder headersDecoder = new DefaultHttp2HeadersDecoder(
         maxHeaderListSize, Http2CodecUtil.DEFAULT_HEADER_TABLE_SIZE, true);
     Http2FrameReader frameReader = new DefaultHttp2FrameReader(headersDecoder);
     Http2FrameWriter frameWriter = new DefaultHttp2FrameWriter();
     Http2Connection connection = new DefaultHttp2Connection(false);
-    return newHandler(connection, frameReader, frameWriter, listener, flowControlWindow, ticker);
+    return newHandler(connection, frameReader, frameWriter, listener, flowControlWindow,
+        maxFlowControlWindow, windowUpdateThreshold, ticker, keepAliveTimeNanos,
+        keepAliveTimeoutNanos, keepAliveWithoutCalls);
   }
 
   @VisibleForTesting
@@ -133,7 +157,12 @@ class NettyClientHandler extends AbstractNettyHandler {
                                        Http2FrameWriter frameWriter,
                                        final ManagedClientTransport.Listener listener,
                                        int flowControlWindow,
-                                       Ticker ticker) {
+                                       int maxFlowControlWindow,
+                                       float windowUpdateThreshold,
+                                       Ticker ticker,
+                                       long keepAliveTimeNanos,
+                                       long keepAliveTimeoutNanos,
+                                       boolean keepAliveWithoutCalls) {
     Preconditions.checkNotNull(connection, "connection");
     Preconditions.checkNotNull(frameReader, "frameReader");
     Preconditions.checkNotNull(listener, "listener");
@@ -142,7 +171,8 @@ class NettyClientHandler extends AbstractNettyHandler {
 
     Http2FrameLogger frameLogger = new Http2FrameLogger(LogLevel.DEBUG, NettyClientHandler.class);
     frameReader = new Http2InboundFrameLogger(frameReader, frameLogger);
-    frameWriter = new Http2OutboundFrameLogger(frameWriter, frameLogger);
+    frameWriter = InboundFlowControlStats.countWindowUpdates(
+        new Http2OutboundFrameLogger(frameWriter, frameLogger));
 
     BufferingHttp2ConnectionEncoder encoder = new BufferingHttp2ConnectionEncoder(
         new DefaultHttp2ConnectionEncoder(connection, frameWriter)) {
@@ -158,9 +188,10 @@ class NettyClientHandler extends AbstractNettyHandler {
       }
     };
 
-    // Create the local flow controller configured to auto-refill the connection window.
+    // Create the local flow controller configured to auto-refill the connection window. Netty's
+    // ratio is the fraction of the window remaining, rather than consumed, when updates are sent.
     connection.local().flowController(new DefaultHttp2LocalFlowController(connection,
-            DEFAULT_WINDOW_UPDATE_RATIO, true));
+            1 - windowUpdateThreshold, true));
 
     Http2ConnectionDecoder decoder = new DefaultHttp2ConnectionDecoder(connection, encoder,
         frameReader);
@@ -170,14 +201,19 @@ class NettyClientHandler extends AbstractNettyHandler {
     settings.initialWindowSize(flowControlWindow);
     settings.maxConcurrentStreams(0);
 
-    return new NettyClientHandler(decoder, encoder, settings, ticker);
+    return new NettyClientHandler(decoder, encoder, settings, maxFlowControlWindow, ticker,
+        keepAliveTimeNanos, keepAliveTimeoutNanos, keepAliveWithoutCalls);
   }
 
   private NettyClientHandler(Http2ConnectionDecoder decoder,
                              BufferingHttp2ConnectionEncoder encoder, Http2Settings settings,
-                             Ticker ticker) {
-    super(decoder, encoder, settings);
+                             int maxFlowControlWindow, Ticker ticker, long keepAliveTimeNanos,
+                             long keepAliveTimeoutNanos, boolean keepAliveWithoutCalls) {
+    super(decoder, encoder, settings, maxFlowControlWindow);
     this.ticker = ticker;
+    this.keepAliveTimeNanos = keepAliveTimeNanos;
+    this.keepAliveTimeoutNanos = keepAliveTimeoutNanos;
+    this.keepAliveWithoutCalls = keepAliveWithoutCalls;
 
     // Set the frame listener on the decoder.
     decoder().frameListener(new FrameListener());
@@ -191,9 +227,54 @@ class NettyClientHandler extends AbstractNettyHandler {
         goAwayStatus(statusFromGoAway(errorCode, ByteBufUtil.getBytes(debugData)));
         goingAway();
       }
+
+      @Override
+      public void onStreamActive(Http2Stream stream) {
+        if (keepAliveManager != null && connection().numActiveStreams() == 1) {
+          keepAliveManager.onTransportActive();
+        }
+      }
+
+      @Override
+      public void onStreamClosed(Http2Stream stream) {
+        if (keepAliveManager != null && connection().numActiveStreams() == 0) {
+          keepAliveManager.onTransportIdle();
+        }
+      }
     });
   }
 
+  @Override
+  public void handlerAdded(final ChannelHandlerContext ctx) throws Exception {
+    super.handlerAdded(ctx);
+    if (keepAliveTimeNanos != GrpcUtil.KEEPALIVE_TIME_NANOS_DISABLED) {
+      // All keepalive timers run on the event loop, so pings are written from the channel thread.
+      keepAliveManager = new KeepAliveManager(new KeepAlivePinger() {
+        @Override
+        public void ping() {
+          sendPingFrame(ctx, new SendPingCommand(KEEPALIVE_PING_CALLBACK,
+              MoreExecutors.directExecutor()), ctx.newPromise());
+        }
+
+        @Override
+        public void onPingTimeout() {
+          goAwayStatus(Status.UNAVAILABLE.withDescription(
+              "Keepalive failed. The connection is likely gone"));
+          ctx.close();
+        }
+      }, ctx.executor(), keepAliveTimeNanos, keepAliveTimeoutNanos, keepAliveWithoutCalls);
+      keepAliveManager.onTransportStarted();
+    }
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (keepAliveManager != null) {
+      keepAliveManager.onDataReceived();
+    }
+    super.channelRead(ctx, msg);
+  }
+
   @Nullable
   public Status errorStatus() {
     return goAwayStatus;
@@ -205,6 +286,14 @@ class NettyClientHandler extends AbstractNettyHandler {
   @Override
   public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
           throws Exception {
+    if (promise.isVoid() && !(msg instanceof RequestMessagesCommand)
+        && !canWriteWithVoidPromise(msg)) {
+      // Commands enqueued without a listener carry the void promise, which would turn a failed
+      // write (e.g. to a stream that was just reset) into a connection error. DATA frames for an
+      // open stream are the common case and keep it: should the stream be reset while they wait
+      // for flow control, they fail with a stream error that leaves the connection alone.
+      promise = ctx.newPromise();
+    }
     if (msg instanceof CreateStreamCommand) {
       createStream((CreateStreamCommand) msg, promise);
     } else if (msg instanceof SendGrpcFrameCommand) {
@@ -230,17 +319,6 @@ class NettyClientHandler extends AbstractNettyHandler {
     return clientWriteQueue;
   }
 
-  /**
-   * Returns the given processed bytes back to inbound flow control.
-   */
-  void returnProcessedBytes(Http2Stream stream, int bytes) {
-    try {
-      decoder().flowController().consumeBytes(stream, bytes);
-    } catch (Http2Exception e) {
-      throw new RuntimeException(e);
-    }
-  }
-
   private void onHeadersRead(int streamId, Http2Headers headers, boolean endStream)
       throws Http2Exception {
     NettyClientStream stream = clientStream(requireHttp2Stream(streamId));
@@ -281,6 +359,9 @@ class NettyClientHandler extends AbstractNettyHandler {
       logger.fine("Network channel is closed");
       goAwayStatus(goAwayStatus().augmentDescription("Network channel closed"));
       cancelPing();
+      if (keepAliveManager != null) {
+        keepAliveManager.onTransportShutdown();
+      }
       // Report status to the application layer for any open streams
       connection().forEachActiveStream(new Http2StreamVisitor() {
         @Override
@@ -293,11 +374,24 @@ class NettyClientHandler extends AbstractNettyHandler {
         }
       });
     } finally {
+      if (clientWriteQueue != null) {
+        // Commands held back by the write queue fail now that the channel is closed.
+        clientWriteQueue.scheduleFlush();
+      }
       // Close any open streams
       super.channelInactive(ctx);
     }
   }
 
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    if (clientWriteQueue != null && ctx.channel().isWritable()) {
+      // Resume writing the commands the write queue held back.
+      clientWriteQueue.scheduleFlush();
+    }
+    super.channelWritabilityChanged(ctx);
+  }
+
   @Override
   protected void onConnectionError(ChannelHandlerContext ctx, Throwable cause,
       Http2Exception http2Ex) {
@@ -362,39 +456,46 @@ class NettyClientHandler extends AbstractNettyHandler {
     // Create an intermediate promise so that we can intercept the failure reported back to the
     // application.
     ChannelPromise tempPromise = ctx().newPromise();
-    encoder().writeHeaders(ctx(), streamId, headers, 0, false, tempPromise)
-            .addListener(new ChannelFutureListener() {
-              @Override
-              public void operationComplete(ChannelFuture future) throws Exception {
-                if (future.isSuccess()) {
-                  // The http2Stream will be null in case a stream buffered in the encoder
-                  // was canceled via RST_STREAM.
-                  Http2Stream http2Stream = connection().stream(streamId);
-                  if (http2Stream != null) {
-                    http2Stream.setProperty(streamKey, stream);
-
-                    // Attach the client stream to the HTTP/2 stream object as user data.
-                    stream.setHttp2Stream(http2Stream);
-                  }
-                  // Otherwise, the stream has been cancelled and Netty is sending a
-                  // RST_STREAM frame which causes it to purge pending writes from the
-                  // flow-controller and delete the http2Stream. The stream listener has already
-                  // been notified of cancellation so there is nothing to do.
-
-                  // Just forward on the success status to the original promise.
-                  promise.setSuccess();
-                } else {
-                  final Throwable cause = future.cause();
-                  if (cause instanceof GoAwayClosedStreamException) {
-                    GoAwayClosedStreamException e = (GoAwayClosedStreamException) cause;
-                    goAwayStatus(statusFromGoAway(e.errorCode(), e.debugData()));
-                    promise.setFailure(goAwayStatusThrowable);
-                  } else {
-                    promise.setFailure(cause);
-                  }
-                }
-              }
-            });
+    ChannelFuture headersFuture;
+    if (stream.weight() == Http2CodecUtil.DEFAULT_PRIORITY_WEIGHT) {
+      headersFuture = encoder().writeHeaders(ctx(), streamId, headers, 0, false, tempPromise);
+    } else {
+      // Let the server's flow controller weight its responses the same way.
+      headersFuture = encoder().writeHeaders(ctx(), streamId, headers, 0,
+          (short) stream.weight(), false, 0, false, tempPromise);
+    }
+    headersFuture.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) throws Exception {
+        if (future.isSuccess()) {
+          // The http2Stream will be null in case a stream buffered in the encoder
+          // was canceled via RST_STREAM.
+          Http2Stream http2Stream = connection().stream(streamId);
+          if (http2Stream != null) {
+            http2Stream.setProperty(streamKey, stream);
+
+            // Attach the client stream to the HTTP/2 stream object as user data.
+            stream.setHttp2Stream(http2Stream);
+          }
+          // Otherwise, the stream has been cancelled and Netty is sending a
+          // RST_STREAM frame which causes it to purge pending writes from the
+          // flow-controller and delete the http2Stream. The stream listener has already
+          // been notified of cancellation so there is nothing to do.
+
+          // Just forward on the success status to the original promise.
+          promise.setSuccess();
+        } else {
+          final Throwable cause = future.cause();
+          if (cause instanceof GoAwayClosedStreamException) {
+            GoAwayClosedStreamException e = (GoAwayClosedStreamException) cause;
+            goAwayStatus(statusFromGoAway(e.errorCode(), e.debugData()));
+            promise.setFailure(goAwayStatusThrowable);
+          } else {
+            promise.setFailure(cause);
+          }
+        }
+      }
+    });
   }
 
   /**
@@ -554,6 +655,7 @@ class NettyClientHandler extends AbstractNettyHandler {
     @Override
     public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
         boolean endOfStream) throws Http2Exception {
+      flowControlPing().onDataRead(data.readableBytes(), padding);
       NettyClientHandler.this.onDataRead(streamId, data, endOfStream);
       return padding;
     }
@@ -578,9 +680,13 @@ class NettyClientHandler extends AbstractNettyHandler {
 
     @Override public void onPingAckRead(ChannelHandlerContext ctx, ByteBuf data)
         throws Http2Exception {
+      long ackPayload = data.readLong();
+      if (ackPayload == BDP_MEASUREMENT_PING && flowControlPing().isEnabled()) {
+        flowControlPing().updateWindow();
+        return;
+      }
       Http2Ping p = ping;
       if (p != null) {
-        long ackPayload = data.readLong();
         if (p.payload() == ackPayload) {
           p.complete();
           ping = null;
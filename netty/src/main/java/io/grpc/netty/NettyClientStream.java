@@ -31,9 +31,13 @@
 
 package io.grpc.netty;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static io.netty.buffer.Unpooled.EMPTY_BUFFER;
+import static io.netty.handler.codec.http2.Http2CodecUtil.DEFAULT_PRIORITY_WEIGHT;
+import static io.netty.handler.codec.http2.Http2CodecUtil.MAX_WEIGHT;
+import static io.netty.handler.codec.http2.Http2CodecUtil.MIN_WEIGHT;
 
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
@@ -65,6 +69,7 @@ class NettyClientStream extends Http2ClientStream {
   private Http2Stream http2Stream;
   private Integer id;
   private WriteQueue writeQueue;
+  private int weight = DEFAULT_PRIORITY_WEIGHT;
 
   NettyClientStream(MethodDescriptor<?, ?> method, Metadata headers, Channel channel,
       NettyClientHandler handler, int maxMessageSize, AsciiString authority, AsciiString scheme) {
@@ -84,6 +89,20 @@ class NettyClientStream extends Http2ClientStream {
     this.authority = AsciiString.of(checkNotNull(authority, "authority"));
   }
 
+  @Override
+  public void setWeight(int weight) {
+    checkState(listener() == null, "must be call before start");
+    checkArgument(weight >= MIN_WEIGHT && weight <= MAX_WEIGHT, "weight out of range");
+    this.weight = weight;
+  }
+
+  /**
+   * Returns the weight used to share the connection's bandwidth with other streams.
+   */
+  int weight() {
+    return weight;
+  }
+
   @Override
   public void start(ClientStreamListener listener) {
     super.start(listener);
@@ -105,7 +124,7 @@ class NettyClientStream extends Http2ClientStream {
     };
 
     // Write the command requesting the creation of the stream.
-    writeQueue.enqueue(new CreateStreamCommand(http2Headers, this),
+    writeQueue.enqueue(new CreateStreamCommand(http2Headers, this), channel.newPromise(),
         !method.getType().clientSendsOneMessage()).addListener(failureListener);
   }
 
@@ -193,7 +212,8 @@ class NettyClientStream extends Http2ClientStream {
 
   @Override
   protected void returnProcessedBytes(int processedBytes) {
-    handler.returnProcessedBytes(http2Stream, processedBytes);
-    writeQueue.scheduleFlush();
+    if (handler.returnProcessedBytes(http2Stream, processedBytes)) {
+      writeQueue.scheduleFlush();
+    }
   }
 }
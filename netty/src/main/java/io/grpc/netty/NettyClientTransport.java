@@ -31,6 +31,7 @@
 
 package io.grpc.netty;
 
+import static io.netty.channel.ChannelOption.ALLOCATOR;
 import static io.netty.channel.ChannelOption.SO_KEEPALIVE;
 
 import com.google.common.base.Preconditions;
@@ -47,7 +48,6 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.AsciiString;
 
 import java.net.SocketAddress;
@@ -65,8 +65,13 @@ class NettyClientTransport implements ManagedClientTransport {
   private final ProtocolNegotiator negotiator;
   private final AsciiString authority;
   private final int flowControlWindow;
+  private final int maxFlowControlWindow;
+  private final float windowUpdateThreshold;
   private final int maxMessageSize;
   private final int maxHeaderListSize;
+  private final long keepAliveTimeNanos;
+  private final long keepAliveTimeoutNanos;
+  private final boolean keepAliveWithoutCalls;
   private ProtocolNegotiator.Handler negotiationHandler;
   private NettyClientHandler handler;
   // We should not send on the channel until negotiation completes. This is a hard requirement
@@ -82,15 +87,22 @@ class NettyClientTransport implements ManagedClientTransport {
 
   NettyClientTransport(SocketAddress address, Class<? extends Channel> channelType,
                        EventLoopGroup group, ProtocolNegotiator negotiator,
-                       int flowControlWindow, int maxMessageSize, int maxHeaderListSize,
-                       String authority) {
+                       int flowControlWindow, int maxFlowControlWindow,
+                       float windowUpdateThreshold, int maxMessageSize, int maxHeaderListSize,
+                       long keepAliveTimeNanos, long keepAliveTimeoutNanos,
+                       boolean keepAliveWithoutCalls, String authority) {
     this.negotiator = Preconditions.checkNotNull(negotiator, "negotiator");
     this.address = Preconditions.checkNotNull(address, "address");
     this.group = Preconditions.checkNotNull(group, "group");
     this.channelType = Preconditions.checkNotNull(channelType, "channelType");
     this.flowControlWindow = flowControlWindow;
+    this.maxFlowControlWindow = maxFlowControlWindow;
+    this.windowUpdateThreshold = windowUpdateThreshold;
     this.maxMessageSize = maxMessageSize;
     this.maxHeaderListSize = maxHeaderListSize;
+    this.keepAliveTimeNanos = keepAliveTimeNanos;
+    this.keepAliveTimeoutNanos = keepAliveTimeoutNanos;
+    this.keepAliveWithoutCalls = keepAliveWithoutCalls;
     this.authority = new AsciiString(authority);
   }
 
@@ -118,7 +130,8 @@ class NettyClientTransport implements ManagedClientTransport {
     Bootstrap b = new Bootstrap();
     b.group(group);
     b.channel(channelType);
-    if (NioSocketChannel.class.isAssignableFrom(channelType)) {
+    b.option(ALLOCATOR, Utils.BYTE_BUF_ALLOCATOR);
+    if (Utils.isTcp(channelType)) {
       b.option(SO_KEEPALIVE, true);
     }
     /**
@@ -211,7 +224,8 @@ class NettyClientTransport implements ManagedClientTransport {
   }
 
   private NettyClientHandler newHandler() {
-    return NettyClientHandler.newHandler(listener, flowControlWindow, maxHeaderListSize,
-        Ticker.systemTicker());
+    return NettyClientHandler.newHandler(listener, flowControlWindow, maxFlowControlWindow,
+        windowUpdateThreshold, maxHeaderListSize,
+        Ticker.systemTicker(), keepAliveTimeNanos, keepAliveTimeoutNanos, keepAliveWithoutCalls);
   }
 }
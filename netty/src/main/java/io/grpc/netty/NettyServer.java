@@ -32,6 +32,7 @@
 package io.grpc.netty;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static io.netty.channel.ChannelOption.ALLOCATOR;
 import static io.netty.channel.ChannelOption.SO_BACKLOG;
 import static io.netty.channel.ChannelOption.SO_KEEPALIVE;
 
@@ -45,12 +46,15 @@ import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.ServerChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.util.AbstractReferenceCounted;
 import io.netty.util.ReferenceCounted;
 
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -66,21 +70,35 @@ class NettyServer implements Server {
   private final Class<? extends ServerChannel> channelType;
   private final ProtocolNegotiator protocolNegotiator;
   private final int maxStreamsPerConnection;
+  private final int reusePortListeners;
   private final boolean usingSharedBossGroup;
   private final boolean usingSharedWorkerGroup;
   private EventLoopGroup bossGroup;
   private EventLoopGroup workerGroup;
   private ServerListener listener;
-  private Channel channel;
+  private final List<Channel> channels = new ArrayList<Channel>();
   private final int flowControlWindow;
+  private final int maxFlowControlWindow;
+  private final float windowUpdateThreshold;
   private final int maxMessageSize;
   private final int maxHeaderListSize;
+  private final long keepAliveTimeInNanos;
+  private final long keepAliveTimeoutInNanos;
+  private final long maxConnectionIdleInNanos;
+  private final long maxConnectionAgeInNanos;
+  private final long maxConnectionAgeGraceInNanos;
+  private final Map<String, Integer> methodStreamWeights;
   private final ReferenceCounted eventLoopReferenceCounter = new EventLoopReferenceCounter();
 
   NettyServer(SocketAddress address, Class<? extends ServerChannel> channelType,
               @Nullable EventLoopGroup bossGroup, @Nullable EventLoopGroup workerGroup,
-              ProtocolNegotiator protocolNegotiator, int maxStreamsPerConnection,
-              int flowControlWindow, int maxMessageSize, int maxHeaderListSize) {
+              int reusePortListeners, ProtocolNegotiator protocolNegotiator,
+              int maxStreamsPerConnection,
+              int flowControlWindow, int maxFlowControlWindow, float windowUpdateThreshold,
+              int maxMessageSize, int maxHeaderListSize,
+              long keepAliveTimeInNanos, long keepAliveTimeoutInNanos,
+              long maxConnectionIdleInNanos, long maxConnectionAgeInNanos,
+              long maxConnectionAgeGraceInNanos, Map<String, Integer> methodStreamWeights) {
     this.address = address;
     this.channelType = checkNotNull(channelType, "channelType");
     this.bossGroup = bossGroup;
@@ -88,10 +106,19 @@ class NettyServer implements Server {
     this.protocolNegotiator = checkNotNull(protocolNegotiator, "protocolNegotiator");
     this.usingSharedBossGroup = bossGroup == null;
     this.usingSharedWorkerGroup = workerGroup == null;
+    this.reusePortListeners = reusePortListeners;
     this.maxStreamsPerConnection = maxStreamsPerConnection;
     this.flowControlWindow = flowControlWindow;
+    this.maxFlowControlWindow = maxFlowControlWindow;
+    this.windowUpdateThreshold = windowUpdateThreshold;
     this.maxMessageSize = maxMessageSize;
     this.maxHeaderListSize = maxHeaderListSize;
+    this.keepAliveTimeInNanos = keepAliveTimeInNanos;
+    this.keepAliveTimeoutInNanos = keepAliveTimeoutInNanos;
+    this.maxConnectionIdleInNanos = maxConnectionIdleInNanos;
+    this.maxConnectionAgeInNanos = maxConnectionAgeInNanos;
+    this.maxConnectionAgeGraceInNanos = maxConnectionAgeGraceInNanos;
+    this.methodStreamWeights = checkNotNull(methodStreamWeights, "methodStreamWeights");
   }
 
   @Override
@@ -102,12 +129,21 @@ class NettyServer implements Server {
     allocateSharedGroups();
 
     ServerBootstrap b = new ServerBootstrap();
-    b.group(bossGroup, workerGroup);
+    if (listenersUseWorkerGroup()) {
+      b.group(workerGroup, workerGroup);
+    } else {
+      b.group(bossGroup, workerGroup);
+    }
     b.channel(channelType);
-    if (NioServerSocketChannel.class.isAssignableFrom(channelType)) {
+    b.option(ALLOCATOR, Utils.BYTE_BUF_ALLOCATOR);
+    b.childOption(ALLOCATOR, Utils.BYTE_BUF_ALLOCATOR);
+    if (Utils.isTcp(channelType)) {
       b.option(SO_BACKLOG, 128);
       b.childOption(SO_KEEPALIVE, true);
     }
+    if (reusePortListeners > 1) {
+      b.option(Utils.reusePortOption(), true);
+    }
     b.childHandler(new ChannelInitializer<Channel>() {
       @Override
       public void initChannel(Channel ch) throws Exception {
@@ -119,49 +155,79 @@ class NettyServer implements Server {
           }
         });
         NettyServerTransport transport = new NettyServerTransport(ch, protocolNegotiator,
-            maxStreamsPerConnection, flowControlWindow, maxMessageSize, maxHeaderListSize);
+            maxStreamsPerConnection, flowControlWindow, maxFlowControlWindow, windowUpdateThreshold,
+            maxMessageSize, maxHeaderListSize, keepAliveTimeInNanos, keepAliveTimeoutInNanos,
+            maxConnectionIdleInNanos, maxConnectionAgeInNanos, maxConnectionAgeGraceInNanos,
+            methodStreamWeights);
         transport.start(listener.transportCreated(transport));
       }
     });
 
-    // Bind and start to accept incoming connections.
-    ChannelFuture future = b.bind(address);
-    try {
-      future.await();
-    } catch (InterruptedException ex) {
-      Thread.currentThread().interrupt();
-      throw new RuntimeException("Interrupted waiting for bind");
-    }
-    if (!future.isSuccess()) {
-      throw new IOException("Failed to bind", future.cause());
+    // Bind and start to accept incoming connections. Any further SO_REUSEPORT listeners bind to
+    // the address of the first, so that they share its port even if it was chosen by the system.
+    SocketAddress bindAddress = address;
+    for (int i = 0; i < reusePortListeners; i++) {
+      ChannelFuture future = b.bind(bindAddress);
+      try {
+        future.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        closeChannels();
+        throw new RuntimeException("Interrupted waiting for bind");
+      }
+      if (!future.isSuccess()) {
+        closeChannels();
+        throw new IOException("Failed to bind", future.cause());
+      }
+      channels.add(future.channel());
+      bindAddress = future.channel().localAddress();
     }
-    channel = future.channel();
   }
 
   @Override
   public void shutdown() {
-    if (channel == null || !channel.isOpen()) {
+    if (channels.isEmpty() || !channels.get(0).isOpen()) {
       // Already closed.
       return;
     }
-    channel.close().addListener(new ChannelFutureListener() {
-      @Override
-      public void operationComplete(ChannelFuture future) throws Exception {
-        if (!future.isSuccess()) {
-          log.log(Level.WARNING, "Error shutting down server", future.cause());
+    final AtomicInteger remaining = new AtomicInteger(channels.size());
+    for (Channel channel : channels) {
+      channel.close().addListener(new ChannelFutureListener() {
+        @Override
+        public void operationComplete(ChannelFuture future) throws Exception {
+          if (!future.isSuccess()) {
+            log.log(Level.WARNING, "Error shutting down server", future.cause());
+          }
+          if (remaining.decrementAndGet() == 0) {
+            listener.serverShutdown();
+            eventLoopReferenceCounter.release();
+          }
         }
-        listener.serverShutdown();
-        eventLoopReferenceCounter.release();
-      }
-    });
+      });
+    }
+  }
+
+  private void closeChannels() {
+    for (Channel channel : channels) {
+      channel.close();
+    }
+    channels.clear();
+  }
+
+  /**
+   * Whether the listeners are served by the worker event loops. The single shared boss thread
+   * would serialize accepting on all SO_REUSEPORT listeners, so it isn't used for them.
+   */
+  private boolean listenersUseWorkerGroup() {
+    return reusePortListeners > 1 && usingSharedBossGroup;
   }
 
   private void allocateSharedGroups() {
-    if (bossGroup == null) {
-      bossGroup = SharedResourceHolder.get(Utils.DEFAULT_BOSS_EVENT_LOOP_GROUP);
+    if (bossGroup == null && !listenersUseWorkerGroup()) {
+      bossGroup = SharedResourceHolder.get(Utils.bossEventLoopGroup(channelType));
     }
     if (workerGroup == null) {
-      workerGroup = SharedResourceHolder.get(Utils.DEFAULT_WORKER_EVENT_LOOP_GROUP);
+      workerGroup = SharedResourceHolder.get(Utils.workerEventLoopGroup(channelType));
     }
   }
 
@@ -169,14 +235,14 @@ class NettyServer implements Server {
     @Override
     protected void deallocate() {
       try {
-        if (usingSharedBossGroup && bossGroup != null) {
-          SharedResourceHolder.release(Utils.DEFAULT_BOSS_EVENT_LOOP_GROUP, bossGroup);
+        if (usingSharedBossGroup && !listenersUseWorkerGroup() && bossGroup != null) {
+          SharedResourceHolder.release(Utils.bossEventLoopGroup(channelType), bossGroup);
         }
       } finally {
         bossGroup = null;
         try {
           if (usingSharedWorkerGroup && workerGroup != null) {
-            SharedResourceHolder.release(Utils.DEFAULT_WORKER_EVENT_LOOP_GROUP, workerGroup);
+            SharedResourceHolder.release(Utils.workerEventLoopGroup(channelType), workerGroup);
           }
         } finally {
           workerGroup = null;
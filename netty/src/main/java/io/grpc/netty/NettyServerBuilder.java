@@ -35,6 +35,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static io.grpc.internal.GrpcUtil.DEFAULT_MAX_MESSAGE_SIZE;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 
 import io.grpc.ExperimentalApi;
 import io.grpc.HandlerRegistry;
@@ -49,6 +50,9 @@ import io.netty.handler.ssl.SslContext;
 import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 import javax.net.ssl.SSLException;
@@ -59,9 +63,16 @@ import javax.net.ssl.SSLException;
 @ExperimentalApi("There is no plan to make this API stable, given transport API instability")
 public final class NettyServerBuilder extends AbstractServerImplBuilder<NettyServerBuilder> {
   public static final int DEFAULT_FLOW_CONTROL_WINDOW = 1048576; // 1MiB
+  public static final float DEFAULT_WINDOW_UPDATE_THRESHOLD = 0.5f;
+
+  static final long MAX_CONNECTION_IDLE_NANOS_DISABLED = Long.MAX_VALUE;
+  static final long MAX_CONNECTION_AGE_NANOS_DISABLED = Long.MAX_VALUE;
+  static final long MAX_CONNECTION_AGE_GRACE_NANOS_INFINITE = Long.MAX_VALUE;
 
   private final SocketAddress address;
-  private Class<? extends ServerChannel> channelType = NioServerSocketChannel.class;
+  @Nullable
+  private Class<? extends ServerChannel> channelType;
+  private int reusePortListeners = 1;
   @Nullable
   private EventLoopGroup bossEventLoopGroup;
   @Nullable
@@ -70,8 +81,16 @@ public final class NettyServerBuilder extends AbstractServerImplBuilder<NettySer
   private ProtocolNegotiator protocolNegotiator;
   private int maxConcurrentCallsPerConnection = Integer.MAX_VALUE;
   private int flowControlWindow = DEFAULT_FLOW_CONTROL_WINDOW;
+  private int maxFlowControlWindow;
+  private float windowUpdateThreshold = DEFAULT_WINDOW_UPDATE_THRESHOLD;
   private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
   private int maxHeaderListSize = GrpcUtil.DEFAULT_MAX_HEADER_LIST_SIZE;
+  private long keepAliveTimeInNanos = GrpcUtil.KEEPALIVE_TIME_NANOS_DISABLED;
+  private long keepAliveTimeoutInNanos = GrpcUtil.DEFAULT_KEEPALIVE_TIMEOUT_NANOS;
+  private long maxConnectionIdleInNanos = MAX_CONNECTION_IDLE_NANOS_DISABLED;
+  private long maxConnectionAgeInNanos = MAX_CONNECTION_AGE_NANOS_DISABLED;
+  private long maxConnectionAgeGraceInNanos = MAX_CONNECTION_AGE_GRACE_NANOS_INFINITE;
+  private final Map<String, Integer> methodStreamWeights = new HashMap<String, Integer>();
 
   /**
    * Creates a server builder that will bind to the given port.
@@ -119,7 +138,10 @@ public final class NettyServerBuilder extends AbstractServerImplBuilder<NettySer
   }
 
   /**
-   * Specify the channel type to use, by default we use {@link NioServerSocketChannel}.
+   * Specify the channel type to use. By default we use Netty's native
+   * {@code EpollServerSocketChannel} if it is available and no non-epoll event loop group was
+   * given, and {@link NioServerSocketChannel} otherwise. A server bound to a Unix domain socket
+   * address uses {@code EpollServerDomainSocketChannel} by default.
    */
   public NettyServerBuilder channelType(Class<? extends ServerChannel> channelType) {
     this.channelType = Preconditions.checkNotNull(channelType);
@@ -214,6 +236,46 @@ public final class NettyServerBuilder extends AbstractServerImplBuilder<NettySer
     return this;
   }
 
+  /**
+   * Enables automatic flow control window tuning. The bandwidth-delay product of each connection
+   * is estimated from PING round trips and the DATA received meanwhile, and the connection and
+   * stream windows grow from the {@linkplain #flowControlWindow initial window} as needed, up to
+   * {@code maxFlowControlWindow}. This lets high-latency links reach full throughput without
+   * paying for large windows on every connection. Disabled by default.
+   */
+  public NettyServerBuilder maxFlowControlWindow(int maxFlowControlWindow) {
+    checkArgument(maxFlowControlWindow > 0, "maxFlowControlWindow must be positive");
+    this.maxFlowControlWindow = maxFlowControlWindow;
+    return this;
+  }
+
+  /**
+   * Sets the fraction of a flow control window that must be consumed before a WINDOW_UPDATE is
+   * sent for it. Higher values send fewer, larger updates at the cost of the peer stalling
+   * longer on a full window. If not called, the default value is
+   * {@link #DEFAULT_WINDOW_UPDATE_THRESHOLD}.
+   */
+  public NettyServerBuilder windowUpdateThreshold(float windowUpdateThreshold) {
+    checkArgument(windowUpdateThreshold > 0 && windowUpdateThreshold < 1,
+        "windowUpdateThreshold must be between 0 and 1 exclusive");
+    this.windowUpdateThreshold = windowUpdateThreshold;
+    return this;
+  }
+
+  /**
+   * Sets the number of listening sockets bound to the server's address with {@code SO_REUSEPORT}.
+   * The kernel spreads incoming connections across them, and each is served by its own event
+   * loop, so that accepting connections scales across cores. Unless a
+   * {@linkplain #bossEventLoopGroup boss event loop group} is given, the listeners are served by
+   * the worker event loops. Requires Netty's native epoll transport. Defaults to a single
+   * listener.
+   */
+  public NettyServerBuilder reusePortListeners(int reusePortListeners) {
+    checkArgument(reusePortListeners > 0, "reusePortListeners must be positive");
+    this.reusePortListeners = reusePortListeners;
+    return this;
+  }
+
   /**
    * Sets the maximum message size allowed to be received on the server. If not called,
    * defaults to 100 MiB.
@@ -234,6 +296,82 @@ public final class NettyServerBuilder extends AbstractServerImplBuilder<NettySer
     return this;
   }
 
+  /**
+   * Sets how long a connection may go without receiving data before the server sends a keepalive
+   * PING to check that the client is still there. Connections whose pings are not answered within
+   * the {@linkplain #keepAliveTimeout keepalive timeout} are closed, releasing their resources
+   * long before TCP would notice a vanished peer. Keepalive is disabled unless this is set;
+   * {@code Long.MAX_VALUE} disables it again.
+   */
+  public NettyServerBuilder keepAliveTime(long keepAliveTime, TimeUnit timeUnit) {
+    checkArgument(keepAliveTime > 0L, "keepalive time must be positive");
+    keepAliveTimeInNanos = timeUnit.toNanos(keepAliveTime);
+    if (keepAliveTimeInNanos == Long.MAX_VALUE) {
+      keepAliveTimeInNanos = GrpcUtil.KEEPALIVE_TIME_NANOS_DISABLED;
+    }
+    return this;
+  }
+
+  /**
+   * Sets how long to wait for a keepalive ping to be answered before closing the connection.
+   * Defaults to 20 seconds.
+   */
+  public NettyServerBuilder keepAliveTimeout(long keepAliveTimeout, TimeUnit timeUnit) {
+    checkArgument(keepAliveTimeout > 0L, "keepalive timeout must be positive");
+    keepAliveTimeoutInNanos = timeUnit.toNanos(keepAliveTimeout);
+    return this;
+  }
+
+  /**
+   * Sets how long a connection may have no outstanding calls before it is closed with a GOAWAY.
+   * Clients transparently reconnect when they next need the connection. Disabled by default.
+   */
+  public NettyServerBuilder maxConnectionIdle(long maxConnectionIdle, TimeUnit timeUnit) {
+    checkArgument(maxConnectionIdle > 0L, "max connection idle must be positive");
+    maxConnectionIdleInNanos = timeUnit.toNanos(maxConnectionIdle);
+    return this;
+  }
+
+  /**
+   * Sets the maximum age of a connection. Once reached, the server sends a GOAWAY so that clients
+   * open new connections, which are then spread over all current servers. Existing calls are
+   * given the {@linkplain #maxConnectionAgeGrace grace period} to complete. Each connection's age
+   * is randomly varied by up to 10% so that connections opened together are not drained together.
+   * Disabled by default.
+   */
+  public NettyServerBuilder maxConnectionAge(long maxConnectionAge, TimeUnit timeUnit) {
+    checkArgument(maxConnectionAge > 0L, "max connection age must be positive");
+    maxConnectionAgeInNanos = timeUnit.toNanos(maxConnectionAge);
+    return this;
+  }
+
+  /**
+   * Sets how long calls may continue after the {@linkplain #maxConnectionAge max connection age}
+   * is reached before the connection is forcibly closed. Defaults to waiting for all calls.
+   */
+  public NettyServerBuilder maxConnectionAgeGrace(long maxConnectionAgeGrace, TimeUnit timeUnit) {
+    checkArgument(maxConnectionAgeGrace >= 0L, "max connection age grace must be non-negative");
+    maxConnectionAgeGraceInNanos = timeUnit.toNanos(maxConnectionAgeGrace);
+    return this;
+  }
+
+  /**
+   * Sets the weight of the responses of a method relative to the other calls on the same
+   * connection, between 1 and 256. Each connection shares its outbound bandwidth between calls in
+   * proportion to their weights, so small responses of a heavily weighted method are not held up
+   * behind large responses of other methods. Methods without a weight use the HTTP/2 default of
+   * 16.
+   *
+   * @param fullMethodName the full method name, as returned by
+   *     {@link io.grpc.MethodDescriptor#getFullMethodName}.
+   */
+  public NettyServerBuilder streamWeight(String fullMethodName, int weight) {
+    Preconditions.checkNotNull(fullMethodName, "fullMethodName");
+    checkArgument(weight >= 1 && weight <= 256, "weight must be between 1 and 256");
+    methodStreamWeights.put(fullMethodName, weight);
+    return this;
+  }
+
   @Override
   protected NettyServer buildTransportServer() {
     ProtocolNegotiator negotiator = protocolNegotiator;
@@ -241,9 +379,20 @@ public final class NettyServerBuilder extends AbstractServerImplBuilder<NettySer
       negotiator = sslContext != null ? ProtocolNegotiators.serverTls(sslContext) :
               ProtocolNegotiators.serverPlaintext();
     }
+    Class<? extends ServerChannel> channelType = this.channelType;
+    if (channelType == null) {
+      channelType = Utils.defaultServerChannelType(address,
+          bossEventLoopGroup != null ? bossEventLoopGroup : workerEventLoopGroup);
+    }
+    Preconditions.checkState(reusePortListeners == 1 || Utils.supportsReusePort(channelType),
+        "reusePortListeners requires the native epoll transport, but the channel type is %s",
+        channelType.getName());
     return new NettyServer(address, channelType, bossEventLoopGroup, workerEventLoopGroup,
-        negotiator, maxConcurrentCallsPerConnection, flowControlWindow, maxMessageSize,
-        maxHeaderListSize);
+        reusePortListeners, negotiator, maxConcurrentCallsPerConnection, flowControlWindow,
+        maxFlowControlWindow, windowUpdateThreshold, maxMessageSize, maxHeaderListSize,
+        keepAliveTimeInNanos, keepAliveTimeoutInNanos, maxConnectionIdleInNanos,
+        maxConnectionAgeInNanos, maxConnectionAgeGraceInNanos,
+        ImmutableMap.copyOf(methodStreamWeights));
   }
 
   @Override
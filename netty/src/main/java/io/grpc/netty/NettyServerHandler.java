@@ -38,7 +38,6 @@ import static io.grpc.netty.Utils.CONTENT_TYPE_HEADER;
 import static io.grpc.netty.Utils.HTTP_METHOD;
 import static io.grpc.netty.Utils.TE_HEADER;
 import static io.grpc.netty.Utils.TE_TRAILERS;
-import static io.netty.handler.codec.http2.DefaultHttp2LocalFlowController.DEFAULT_WINDOW_UPDATE_RATIO;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
@@ -46,6 +45,8 @@ import com.google.common.base.Preconditions;
 import io.grpc.Metadata;
 import io.grpc.Status;
 import io.grpc.internal.GrpcUtil;
+import io.grpc.internal.KeepAliveManager;
+import io.grpc.internal.KeepAliveManager.KeepAlivePinger;
 import io.grpc.internal.ServerStreamListener;
 import io.grpc.internal.ServerTransportListener;
 import io.netty.buffer.ByteBuf;
@@ -62,6 +63,7 @@ import io.netty.handler.codec.http2.DefaultHttp2HeadersDecoder;
 import io.netty.handler.codec.http2.DefaultHttp2LocalFlowController;
 import io.netty.handler.codec.http2.Http2CodecUtil;
 import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
 import io.netty.handler.codec.http2.Http2ConnectionDecoder;
 import io.netty.handler.codec.http2.Http2ConnectionEncoder;
 import io.netty.handler.codec.http2.Http2Error;
@@ -81,6 +83,10 @@ import io.netty.handler.codec.http2.Http2StreamVisitor;
 import io.netty.handler.logging.LogLevel;
 import io.netty.util.ReferenceCountUtil;
 
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -95,18 +101,54 @@ class NettyServerHandler extends AbstractNettyHandler {
 
   private static final Status GOAWAY_STATUS = Status.UNAVAILABLE;
 
+  /**
+   * Payload of keepalive pings. Acks are not matched against it; any inbound frame proves that
+   * the client is alive.
+   */
+  private static final long KEEPALIVE_PING_PAYLOAD = 0xC0FFEEL;
+
+  /** Fraction of the max connection age by which each connection's age is randomly varied. */
+  private static final double MAX_CONNECTION_AGE_JITTER = 0.1;
+
+  /**
+   * Netty always schedules a forced close after graceful shutdown starts, so an unbounded grace
+   * period is approximated by this very long one.
+   */
+  private static final long MAX_GRACEFUL_SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.DAYS.toMillis(1000);
+
   private final Http2Connection.PropertyKey streamKey;
   private final ServerTransportListener transportListener;
   private final int maxMessageSize;
+  private final Random random = new Random();
   private Throwable connectionError;
   private boolean teWarningLogged;
   private WriteQueue serverWriteQueue;
+  private final long keepAliveTimeInNanos;
+  private final long keepAliveTimeoutInNanos;
+  private final long maxConnectionIdleInNanos;
+  private final long maxConnectionAgeInNanos;
+  private final long maxConnectionAgeGraceInNanos;
+  private final Map<String, Integer> methodStreamWeights;
+  @Nullable
+  private KeepAliveManager keepAliveManager;
+  @Nullable
+  private MaxConnectionIdleManager maxConnectionIdleManager;
+  @Nullable
+  private ScheduledFuture<?> maxConnectionAgeMonitor;
 
   static NettyServerHandler newHandler(ServerTransportListener transportListener,
                                        int maxStreams,
                                        int flowControlWindow,
+                                       int maxFlowControlWindow,
+                                       float windowUpdateThreshold,
                                        int maxHeaderListSize,
-                                       int maxMessageSize) {
+                                       int maxMessageSize,
+                                       long keepAliveTimeInNanos,
+                                       long keepAliveTimeoutInNanos,
+                                       long maxConnectionIdleInNanos,
+                                       long maxConnectionAgeInNanos,
+                                       long maxConnectionAgeGraceInNanos,
+                                       Map<String, Integer> methodStreamWeights) {
     Preconditions.checkArgument(maxHeaderListSize > 0, "maxHeaderListSize must be positive");
     Http2FrameLogger frameLogger = new Http2FrameLogger(LogLevel.DEBUG, NettyServerHandler.class);
     Http2HeadersDecoder headersDecoder = new DefaultHttp2HeadersDecoder(
@@ -116,7 +158,9 @@ class NettyServerHandler extends AbstractNettyHandler {
     Http2FrameWriter frameWriter =
         new Http2OutboundFrameLogger(new DefaultHttp2FrameWriter(), frameLogger);
     return newHandler(frameReader, frameWriter, transportListener, maxStreams, flowControlWindow,
-        maxMessageSize);
+        maxFlowControlWindow, windowUpdateThreshold, maxMessageSize, keepAliveTimeInNanos,
+        keepAliveTimeoutInNanos, maxConnectionIdleInNanos, maxConnectionAgeInNanos,
+        maxConnectionAgeGraceInNanos, methodStreamWeights);
   }
 
   @VisibleForTesting
@@ -124,18 +168,28 @@ class NettyServerHandler extends AbstractNettyHandler {
                                        ServerTransportListener transportListener,
                                        int maxStreams,
                                        int flowControlWindow,
-                                       int maxMessageSize) {
+                                       int maxFlowControlWindow,
+                                       float windowUpdateThreshold,
+                                       int maxMessageSize,
+                                       long keepAliveTimeInNanos,
+                                       long keepAliveTimeoutInNanos,
+                                       long maxConnectionIdleInNanos,
+                                       long maxConnectionAgeInNanos,
+                                       long maxConnectionAgeGraceInNanos,
+                                       Map<String, Integer> methodStreamWeights) {
     Preconditions.checkArgument(maxStreams > 0, "maxStreams must be positive");
     Preconditions.checkArgument(flowControlWindow > 0, "flowControlWindow must be positive");
     Preconditions.checkArgument(maxMessageSize > 0, "maxMessageSize must be positive");
 
     Http2Connection connection = new DefaultHttp2Connection(true);
 
-    // Create the local flow controller configured to auto-refill the connection window.
+    // Create the local flow controller configured to auto-refill the connection window. Netty's
+    // ratio is the fraction of the window remaining, rather than consumed, when updates are sent.
     connection.local().flowController(new DefaultHttp2LocalFlowController(connection,
-            DEFAULT_WINDOW_UPDATE_RATIO, true));
+            1 - windowUpdateThreshold, true));
 
-    Http2ConnectionEncoder encoder = new DefaultHttp2ConnectionEncoder(connection, frameWriter);
+    Http2ConnectionEncoder encoder = new DefaultHttp2ConnectionEncoder(connection,
+        InboundFlowControlStats.countWindowUpdates(frameWriter));
     Http2ConnectionDecoder decoder = new DefaultHttp2ConnectionDecoder(connection, encoder,
         frameReader);
 
@@ -143,22 +197,54 @@ class NettyServerHandler extends AbstractNettyHandler {
     settings.initialWindowSize(flowControlWindow);
     settings.maxConcurrentStreams(maxStreams);
 
-    return new NettyServerHandler(transportListener, decoder, encoder, settings, maxMessageSize);
+    return new NettyServerHandler(transportListener, decoder, encoder, settings,
+        maxFlowControlWindow, maxMessageSize, keepAliveTimeInNanos, keepAliveTimeoutInNanos,
+        maxConnectionIdleInNanos, maxConnectionAgeInNanos, maxConnectionAgeGraceInNanos,
+        methodStreamWeights);
   }
 
   private NettyServerHandler(ServerTransportListener transportListener,
                              Http2ConnectionDecoder decoder,
                              Http2ConnectionEncoder encoder, Http2Settings settings,
-                             int maxMessageSize) {
-    super(decoder, encoder, settings);
+                             int maxFlowControlWindow,
+                             int maxMessageSize,
+                             long keepAliveTimeInNanos,
+                             long keepAliveTimeoutInNanos,
+                             long maxConnectionIdleInNanos,
+                             long maxConnectionAgeInNanos,
+                             long maxConnectionAgeGraceInNanos,
+                             Map<String, Integer> methodStreamWeights) {
+    super(decoder, encoder, settings, maxFlowControlWindow);
     checkArgument(maxMessageSize >= 0, "maxMessageSize must be >= 0");
     this.maxMessageSize = maxMessageSize;
+    this.keepAliveTimeInNanos = keepAliveTimeInNanos;
+    this.keepAliveTimeoutInNanos = keepAliveTimeoutInNanos;
+    this.maxConnectionIdleInNanos = maxConnectionIdleInNanos;
+    this.maxConnectionAgeInNanos = maxConnectionAgeInNanos;
+    this.maxConnectionAgeGraceInNanos = maxConnectionAgeGraceInNanos;
+    this.methodStreamWeights = checkNotNull(methodStreamWeights, "methodStreamWeights");
 
     streamKey = encoder.connection().newKey();
     this.transportListener = checkNotNull(transportListener, "transportListener");
 
     // Set the frame listener on the decoder.
     decoder().frameListener(new FrameListener());
+
+    encoder.connection().addListener(new Http2ConnectionAdapter() {
+      @Override
+      public void onStreamActive(Http2Stream stream) {
+        if (maxConnectionIdleManager != null && connection().numActiveStreams() == 1) {
+          maxConnectionIdleManager.onTransportActive();
+        }
+      }
+
+      @Override
+      public void onStreamClosed(Http2Stream stream) {
+        if (maxConnectionIdleManager != null && connection().numActiveStreams() == 0) {
+          maxConnectionIdleManager.onTransportIdle();
+        }
+      }
+    });
   }
 
   @Nullable
@@ -167,9 +253,76 @@ class NettyServerHandler extends AbstractNettyHandler {
   }
 
   @Override
-  public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+  public void handlerAdded(final ChannelHandlerContext ctx) throws Exception {
     serverWriteQueue = new WriteQueue(ctx.channel());
     super.handlerAdded(ctx);
+
+    // All of the connection management timers run on the event loop.
+    if (keepAliveTimeInNanos != GrpcUtil.KEEPALIVE_TIME_NANOS_DISABLED) {
+      keepAliveManager = new KeepAliveManager(new KeepAlivePinger() {
+        @Override
+        public void ping() {
+          ByteBuf payload = ctx.alloc().buffer(8);
+          payload.writeLong(KEEPALIVE_PING_PAYLOAD);
+          encoder().writePing(ctx, false, payload, ctx.newPromise());
+          ctx.flush();
+        }
+
+        @Override
+        public void onPingTimeout() {
+          logger.fine("Keepalive ping was not acknowledged. Closing the connection");
+          ctx.close();
+        }
+      }, ctx.executor(), keepAliveTimeInNanos, keepAliveTimeoutInNanos, true);
+      keepAliveManager.onTransportStarted();
+    }
+
+    if (maxConnectionIdleInNanos != NettyServerBuilder.MAX_CONNECTION_IDLE_NANOS_DISABLED) {
+      maxConnectionIdleManager = new MaxConnectionIdleManager(maxConnectionIdleInNanos);
+      maxConnectionIdleManager.start(new Runnable() {
+        @Override
+        public void run() {
+          closeGracefully(ctx, gracefulShutdownTimeoutMillis());
+        }
+      }, ctx.executor());
+    }
+
+    if (maxConnectionAgeInNanos != NettyServerBuilder.MAX_CONNECTION_AGE_NANOS_DISABLED) {
+      // Spread the drains of connections that were opened together, e.g. right after a restart.
+      long jitteredAgeInNanos = (long) ((1 - MAX_CONNECTION_AGE_JITTER
+          + random.nextDouble() * 2 * MAX_CONNECTION_AGE_JITTER) * maxConnectionAgeInNanos);
+      maxConnectionAgeMonitor = ctx.executor().schedule(new Runnable() {
+        @Override
+        public void run() {
+          closeGracefully(ctx, Math.min(MAX_GRACEFUL_SHUTDOWN_TIMEOUT_MILLIS,
+              TimeUnit.NANOSECONDS.toMillis(maxConnectionAgeGraceInNanos)));
+        }
+      }, jitteredAgeInNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (keepAliveManager != null) {
+      keepAliveManager.onDataReceived();
+    }
+    super.channelRead(ctx, msg);
+  }
+
+  /**
+   * Sends GOAWAY and closes the connection once the active streams complete, or once
+   * {@code graceMillis} has passed.
+   */
+  private void closeGracefully(ChannelHandlerContext ctx, long graceMillis) {
+    if (!ctx.channel().isActive() || connection().goAwaySent()) {
+      return;
+    }
+    gracefulShutdownTimeoutMillis(graceMillis);
+    try {
+      close(ctx, ctx.newPromise());
+    } catch (Exception e) {
+      onError(ctx, e);
+    }
   }
 
   private void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers)
@@ -192,6 +345,10 @@ class NettyServerHandler extends AbstractNettyHandler {
 
       NettyServerStream stream = new NettyServerStream(ctx.channel(), http2Stream, this,
               maxMessageSize);
+      Integer weight = methodStreamWeights.get(method);
+      if (weight != null) {
+        stream.setWeight(weight);
+      }
 
       Metadata metadata = Utils.convertHeaders(headers);
       stream.inboundHeadersReceived(metadata);
@@ -263,6 +420,16 @@ class NettyServerHandler extends AbstractNettyHandler {
   @Override
   public void channelInactive(ChannelHandlerContext ctx) throws Exception {
     try {
+      if (keepAliveManager != null) {
+        keepAliveManager.onTransportShutdown();
+      }
+      if (maxConnectionIdleManager != null) {
+        maxConnectionIdleManager.onTransportTermination();
+      }
+      if (maxConnectionAgeMonitor != null) {
+        maxConnectionAgeMonitor.cancel(false);
+        maxConnectionAgeMonitor = null;
+      }
       // Any streams that are still active must be closed
       connection().forEachActiveStream(new Http2StreamVisitor() {
         @Override
@@ -275,10 +442,21 @@ class NettyServerHandler extends AbstractNettyHandler {
         }
       });
     } finally {
+      // Commands held back by the write queue fail now that the channel is closed.
+      serverWriteQueue.scheduleFlush();
       super.channelInactive(ctx);
     }
   }
 
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    if (ctx.channel().isWritable()) {
+      // Resume writing the commands the write queue held back.
+      serverWriteQueue.scheduleFlush();
+    }
+    super.channelWritabilityChanged(ctx);
+  }
+
   WriteQueue getWriteQueue() {
     return serverWriteQueue;
   }
@@ -289,6 +467,14 @@ class NettyServerHandler extends AbstractNettyHandler {
   @Override
   public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
       throws Http2Exception {
+    if (promise.isVoid() && !(msg instanceof RequestMessagesCommand)
+        && !canWriteWithVoidPromise(msg)) {
+      // Commands enqueued without a listener carry the void promise, which would turn a failed
+      // write (e.g. to a stream that was just reset) into a connection error. DATA frames for an
+      // open stream are the common case and keep it: should the stream be reset while they wait
+      // for flow control, they fail with a stream error that leaves the connection alone.
+      promise = ctx.newPromise();
+    }
     if (msg instanceof SendGrpcFrameCommand) {
       sendGrpcFrame(ctx, (SendGrpcFrameCommand) msg, promise);
     } else if (msg instanceof SendResponseHeadersCommand) {
@@ -306,17 +492,6 @@ class NettyServerHandler extends AbstractNettyHandler {
     }
   }
 
-  /**
-   * Returns the given processed bytes back to inbound flow control.
-   */
-  void returnProcessedBytes(Http2Stream http2Stream, int bytes) {
-    try {
-      decoder().flowController().consumeBytes(http2Stream, bytes);
-    } catch (Http2Exception e) {
-      throw new RuntimeException(e);
-    }
-  }
-
   private void closeStreamWhenDone(ChannelPromise promise, int streamId) throws Http2Exception {
     final NettyServerStream stream = serverStream(requireHttp2Stream(streamId));
     promise.addListener(new ChannelFutureListener() {
@@ -422,6 +597,7 @@ class NettyServerHandler extends AbstractNettyHandler {
     @Override
     public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
         boolean endOfStream) throws Http2Exception {
+      flowControlPing().onDataRead(data.readableBytes(), padding);
       NettyServerHandler.this.onDataRead(streamId, data, endOfStream);
       return padding;
     }
@@ -443,5 +619,12 @@ class NettyServerHandler extends AbstractNettyHandler {
         throws Http2Exception {
       NettyServerHandler.this.onRstStreamRead(streamId);
     }
+
+    @Override
+    public void onPingAckRead(ChannelHandlerContext ctx, ByteBuf data) throws Http2Exception {
+      if (data.readLong() == BDP_MEASUREMENT_PING) {
+        flowControlPing().updateWindow();
+      }
+    }
   }
 }
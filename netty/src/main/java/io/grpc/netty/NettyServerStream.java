@@ -31,7 +31,11 @@
 
 package io.grpc.netty;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static io.netty.handler.codec.http2.Http2CodecUtil.DEFAULT_PRIORITY_WEIGHT;
+import static io.netty.handler.codec.http2.Http2CodecUtil.MAX_WEIGHT;
+import static io.netty.handler.codec.http2.Http2CodecUtil.MIN_WEIGHT;
 
 import io.grpc.Metadata;
 import io.grpc.Status;
@@ -53,6 +57,7 @@ class NettyServerStream extends AbstractServerStream<Integer> {
   private final NettyServerHandler handler;
   private final Http2Stream http2Stream;
   private final WriteQueue writeQueue;
+  private int weight = DEFAULT_PRIORITY_WEIGHT;
 
   NettyServerStream(Channel channel, Http2Stream http2Stream, NettyServerHandler handler,
                     int maxMessageSize) {
@@ -68,6 +73,22 @@ class NettyServerStream extends AbstractServerStream<Integer> {
     return http2Stream.id();
   }
 
+  /**
+   * Sets the weight used to share the connection's bandwidth with other streams. Must be called
+   * before anything is written to the stream.
+   */
+  void setWeight(int weight) {
+    checkArgument(weight >= MIN_WEIGHT && weight <= MAX_WEIGHT, "weight out of range");
+    this.weight = weight;
+  }
+
+  /**
+   * Returns the weight used to share the connection's bandwidth with other streams.
+   */
+  int weight() {
+    return weight;
+  }
+
   @Override
   protected void inboundHeadersReceived(Metadata headers) {
     super.inboundHeadersReceived(headers);
@@ -94,7 +115,7 @@ class NettyServerStream extends AbstractServerStream<Integer> {
 
   @Override
   protected void internalSendHeaders(Metadata headers) {
-    writeQueue.enqueue(new SendResponseHeadersCommand(id(),
+    writeQueue.enqueue(new SendResponseHeadersCommand(this,
         Utils.convertServerHeaders(headers), false),
         true);
   }
@@ -120,13 +141,14 @@ class NettyServerStream extends AbstractServerStream<Integer> {
   @Override
   protected void sendTrailers(Metadata trailers, boolean headersSent) {
     Http2Headers http2Trailers = Utils.convertTrailers(trailers, headersSent);
-    writeQueue.enqueue(new SendResponseHeadersCommand(id(), http2Trailers, true), true);
+    writeQueue.enqueue(new SendResponseHeadersCommand(this, http2Trailers, true), true);
   }
 
   @Override
   protected void returnProcessedBytes(int processedBytes) {
-    handler.returnProcessedBytes(http2Stream, processedBytes);
-    writeQueue.scheduleFlush();
+    if (handler.returnProcessedBytes(http2Stream, processedBytes)) {
+      writeQueue.scheduleFlush();
+    }
   }
 
   @Override
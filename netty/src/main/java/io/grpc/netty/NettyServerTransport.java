@@ -40,6 +40,7 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,17 +56,37 @@ class NettyServerTransport implements ServerTransport {
   private ServerTransportListener listener;
   private boolean terminated;
   private final int flowControlWindow;
+  private final int maxFlowControlWindow;
+  private final float windowUpdateThreshold;
   private final int maxMessageSize;
   private final int maxHeaderListSize;
+  private final long keepAliveTimeInNanos;
+  private final long keepAliveTimeoutInNanos;
+  private final long maxConnectionIdleInNanos;
+  private final long maxConnectionAgeInNanos;
+  private final long maxConnectionAgeGraceInNanos;
+  private final Map<String, Integer> methodStreamWeights;
 
   NettyServerTransport(Channel channel, ProtocolNegotiator protocolNegotiator, int maxStreams,
-      int flowControlWindow, int maxMessageSize, int maxHeaderListSize) {
+      int flowControlWindow, int maxFlowControlWindow, float windowUpdateThreshold,
+      int maxMessageSize, int maxHeaderListSize, long keepAliveTimeInNanos,
+      long keepAliveTimeoutInNanos, long maxConnectionIdleInNanos, long maxConnectionAgeInNanos,
+      long maxConnectionAgeGraceInNanos, Map<String, Integer> methodStreamWeights) {
     this.channel = Preconditions.checkNotNull(channel, "channel");
     this.protocolNegotiator = Preconditions.checkNotNull(protocolNegotiator, "protocolNegotiator");
     this.maxStreams = maxStreams;
     this.flowControlWindow = flowControlWindow;
+    this.maxFlowControlWindow = maxFlowControlWindow;
+    this.windowUpdateThreshold = windowUpdateThreshold;
     this.maxMessageSize = maxMessageSize;
     this.maxHeaderListSize = maxHeaderListSize;
+    this.keepAliveTimeInNanos = keepAliveTimeInNanos;
+    this.keepAliveTimeoutInNanos = keepAliveTimeoutInNanos;
+    this.maxConnectionIdleInNanos = maxConnectionIdleInNanos;
+    this.maxConnectionAgeInNanos = maxConnectionAgeInNanos;
+    this.maxConnectionAgeGraceInNanos = maxConnectionAgeGraceInNanos;
+    this.methodStreamWeights = Preconditions.checkNotNull(methodStreamWeights,
+        "methodStreamWeights");
   }
 
   public void start(ServerTransportListener listener) {
@@ -116,6 +137,9 @@ class NettyServerTransport implements ServerTransport {
    */
   private NettyServerHandler createHandler(ServerTransportListener transportListener) {
     return NettyServerHandler.newHandler(transportListener, maxStreams, flowControlWindow,
-        maxHeaderListSize, maxMessageSize);
+        maxFlowControlWindow, windowUpdateThreshold, maxHeaderListSize, maxMessageSize,
+        keepAliveTimeInNanos,
+        keepAliveTimeoutInNanos, maxConnectionIdleInNanos, maxConnectionAgeInNanos,
+        maxConnectionAgeGraceInNanos, methodStreamWeights);
   }
 }
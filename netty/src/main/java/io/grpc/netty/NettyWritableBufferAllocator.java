@@ -31,24 +31,34 @@
 
 package io.grpc.netty;
 
+import com.google.common.annotations.VisibleForTesting;
+
 import io.grpc.internal.WritableBuffer;
 import io.grpc.internal.WritableBufferAllocator;
 import io.netty.buffer.ByteBufAllocator;
 
 /**
- * The default allocator for {@link NettyWritableBuffer}s used by the Netty transport. We set a
- * minimum bound to avoid unnecessary re-allocation for small follow-on writes and to facilitate
- * Netty's caching of buffer objects for small writes. We set an upper-bound to avoid allocations
- * outside of the arena-pool which are orders of magnitude slower. The Netty transport can receive
- * buffers of arbitrary size and will chunk them based on flow-control so there is no transport
- * requirement for an upper bound.
+ * The default allocator for {@link NettyWritableBuffer}s used by the Netty transport. Requests are
+ * rounded up to the size classes of Netty's buffer pool: the pool reserves a block of that size
+ * anyway, so this makes all of it usable without holding more memory than needed. A frame of known
+ * length therefore gets a buffer that fits it. Any other buffer is at least 4 KiB, so that the
+ * framer can batch small writes and consecutive small messages into a single frame. We set an
+ * upper-bound to avoid allocations outside of the arena-pool which are orders of magnitude slower.
+ * The Netty transport can receive buffers of arbitrary size and will chunk them based on
+ * flow-control so there is no transport requirement for an upper bound.
  *
  * <p>Note: It is assumed that most applications will be using Netty's direct buffer pools for
  * maximum performance.
  */
 class NettyWritableBufferAllocator implements WritableBufferAllocator {
 
-  // Use 4k as our minimum buffer size.
+  // The smallest size class of the pool. Smaller classes are spaced this far apart.
+  private static final int TINY_BUFFER = 16;
+
+  // Starting at this size, the size classes of the pool are powers of two.
+  private static final int SMALL_BUFFER = 512;
+
+  // Use 4k as our minimum buffer size, unless the length of the frame is known.
   private static final int MIN_BUFFER = 4096;
 
   // Set the maximum buffer size to 1MB
@@ -62,7 +72,30 @@ class NettyWritableBufferAllocator implements WritableBufferAllocator {
 
   @Override
   public WritableBuffer allocate(int capacityHint) {
-    capacityHint = Math.min(MAX_BUFFER, Math.max(MIN_BUFFER, capacityHint));
-    return new NettyWritableBuffer(allocator.buffer(capacityHint, capacityHint));
+    return newBuffer(Math.max(MIN_BUFFER, capacityHint));
+  }
+
+  @Override
+  public WritableBuffer allocateKnownLength(int length) {
+    return newBuffer(length);
+  }
+
+  private WritableBuffer newBuffer(int capacityHint) {
+    int capacity = sizeClass(Math.min(MAX_BUFFER, capacityHint));
+    return new NettyWritableBuffer(allocator.buffer(capacity, capacity));
+  }
+
+  /**
+   * Returns the size of the pooled block that holds a buffer of the given capacity.
+   */
+  @VisibleForTesting
+  static int sizeClass(int capacity) {
+    if (capacity <= TINY_BUFFER) {
+      return TINY_BUFFER;
+    }
+    if (capacity < SMALL_BUFFER) {
+      return (capacity + TINY_BUFFER - 1) & -TINY_BUFFER;
+    }
+    return Integer.highestOneBit(capacity - 1) << 1;
   }
 }
@@ -50,6 +50,10 @@ class SendGrpcFrameCommand extends DefaultByteBufHolder {
     this.endStream = endStream;
   }
 
+  AbstractStream<Integer> stream() {
+    return stream;
+  }
+
   int streamId() {
     return stream.id();
   }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.netty;
+
+import com.google.common.base.Preconditions;
+
+import io.grpc.Attributes;
+import io.grpc.ExperimentalApi;
+import io.grpc.NameResolver;
+import io.grpc.ResolvedServerInfo;
+import io.grpc.Status;
+
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.Collections;
+
+/**
+ * A factory for resolvers of Unix domain socket targets, whose scheme is {@code "unix"}. The path
+ * of the target URI is the path of the socket, for example {@code "unix:///var/run/app.sock"} or
+ * {@code "unix:/var/run/app.sock"}.
+ *
+ * <p>The factory is registered in the {@linkplain io.grpc.NameResolverRegistry#getDefaultRegistry
+ * default registry} when {@link NettyChannelBuilder} is loaded. Channels connect to the resolved
+ * addresses with epoll's domain socket channel, which requires Netty's native epoll transport.
+ */
+@ExperimentalApi
+public final class UnixNameResolverFactory extends NameResolver.Factory {
+  private static final String SCHEME = "unix";
+
+  /** The authority of the calls, since a path is not a valid one. */
+  static final String AUTHORITY = "localhost";
+
+  private static final UnixNameResolverFactory instance = new UnixNameResolverFactory();
+
+  public static UnixNameResolverFactory getInstance() {
+    return instance;
+  }
+
+  private UnixNameResolverFactory() {}
+
+  @Override
+  public NameResolver newNameResolver(URI targetUri, Attributes params) {
+    if (!SCHEME.equals(targetUri.getScheme())) {
+      return null;
+    }
+    String path = Preconditions.checkNotNull(targetUri.getPath(), "targetPath");
+    Preconditions.checkArgument(path.startsWith("/") && targetUri.getAuthority() == null,
+        "the target (%s) must be an absolute path, such as unix:///path", targetUri);
+    return new UnixNameResolver(path);
+  }
+
+  @Override
+  public String getDefaultScheme() {
+    return SCHEME;
+  }
+
+  private static final class UnixNameResolver extends NameResolver {
+    private final String path;
+
+    UnixNameResolver(String path) {
+      this.path = path;
+    }
+
+    @Override
+    public String getServiceAuthority() {
+      return AUTHORITY;
+    }
+
+    @Override
+    public void start(Listener listener) {
+      SocketAddress address;
+      try {
+        address = Utils.newDomainSocketAddress(path);
+      } catch (IllegalStateException e) {
+        listener.onError(Status.UNAVAILABLE.withDescription(e.getMessage()).withCause(e));
+        return;
+      }
+      listener.onUpdate(
+          Collections.singletonList(new ResolvedServerInfo(address, Attributes.EMPTY)),
+          Attributes.EMPTY);
+    }
+
+    @Override
+    public void shutdown() {}
+  }
+}
@@ -43,8 +43,15 @@ import io.grpc.Status;
 import io.grpc.internal.GrpcUtil;
 import io.grpc.internal.SharedResourceHolder.Resource;
 import io.grpc.internal.TransportFrameUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http2.DefaultHttp2Headers;
 import io.netty.handler.codec.http2.Http2Exception;
 import io.netty.handler.codec.http2.Http2Headers;
@@ -53,11 +60,17 @@ import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 
 import java.io.IOException;
+import java.net.SocketAddress;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
 
 /**
  * Common utility methods.
@@ -80,6 +93,181 @@ class Utils {
   public static final Resource<EventLoopGroup> DEFAULT_WORKER_EVENT_LOOP_GROUP =
       new DefaultEventLoopGroupResource(0, "grpc-default-worker-ELG");
 
+  /**
+   * The buffer pool of the Netty transports, with thread-local caches. Using our own pool rather
+   * than whatever Netty's default allocator is configured to be keeps buffers pooled and lets
+   * {@link BufferPoolStats} report on them. Like the default allocator, it prefers direct buffers
+   * unless they aren't well supported on the platform.
+   */
+  static final PooledByteBufAllocator BYTE_BUF_ALLOCATOR =
+      new CountingPooledByteBufAllocator(defaultAllocatorPrefersDirect());
+
+  private static final Logger logger = Logger.getLogger(Utils.class.getName());
+
+  private static final String EPOLL_PACKAGE = "io.netty.channel.epoll.";
+  private static final String DOMAIN_SOCKET_ADDRESS = "io.netty.channel.unix.DomainSocketAddress";
+
+  /**
+   * Whether Netty's native epoll transport is on the classpath and supported by this platform.
+   * It is loaded reflectively, as it is an optional dependency that only exists for Linux.
+   */
+  static final boolean EPOLL_AVAILABLE = isEpollAvailable();
+
+  public static final Resource<EventLoopGroup> EPOLL_BOSS_EVENT_LOOP_GROUP =
+      new DefaultEventLoopGroupResource(1, "grpc-epoll-boss-ELG", true);
+
+  public static final Resource<EventLoopGroup> EPOLL_WORKER_EVENT_LOOP_GROUP =
+      new DefaultEventLoopGroupResource(0, "grpc-epoll-worker-ELG", true);
+
+  /**
+   * Returns the channel type to use when none was specified: epoll if the event loop group uses
+   * epoll, or if there is no group and epoll is available, and NIO otherwise.
+   */
+  static Class<? extends Channel> defaultClientChannelType(@Nullable EventLoopGroup group) {
+    if (usesEpoll(group)) {
+      return epollClass("EpollSocketChannel").asSubclass(Channel.class);
+    }
+    return NioSocketChannel.class;
+  }
+
+  /**
+   * Returns the server channel type to use when none was specified, following the same rules as
+   * {@link #defaultClientChannelType}.
+   */
+  static Class<? extends ServerChannel> defaultServerChannelType(@Nullable EventLoopGroup group) {
+    if (usesEpoll(group)) {
+      return epollClass("EpollServerSocketChannel").asSubclass(ServerChannel.class);
+    }
+    return NioServerSocketChannel.class;
+  }
+
+  /**
+   * Returns the channel type to use for a connection to {@code address} when none was specified:
+   * {@code EpollDomainSocketChannel} for a Unix domain socket if {@code group} uses epoll, and
+   * {@code defaultType} otherwise. Connecting to a domain socket with another channel type fails.
+   */
+  static Class<? extends Channel> clientChannelType(SocketAddress address, EventLoopGroup group,
+      Class<? extends Channel> defaultType) {
+    if (isDomainSocketAddress(address) && usesEpoll(group)) {
+      return epollClass("EpollDomainSocketChannel").asSubclass(Channel.class);
+    }
+    return defaultType;
+  }
+
+  /**
+   * Returns the server channel type to use when none was specified for a server bound to
+   * {@code address}: {@code EpollServerDomainSocketChannel} for a Unix domain socket, and the
+   * type given by {@link #defaultServerChannelType(EventLoopGroup)} otherwise.
+   *
+   * @throws IllegalStateException if {@code address} is a Unix domain socket but epoll is not
+   *     available, or {@code group} doesn't use it
+   */
+  static Class<? extends ServerChannel> defaultServerChannelType(SocketAddress address,
+      @Nullable EventLoopGroup group) {
+    if (isDomainSocketAddress(address)) {
+      Preconditions.checkState(usesEpoll(group),
+          "Unix domain sockets require the native epoll transport");
+      return epollClass("EpollServerDomainSocketChannel").asSubclass(ServerChannel.class);
+    }
+    return defaultServerChannelType(group);
+  }
+
+  /**
+   * Returns whether the address is a Unix domain socket, served by epoll's domain socket channels.
+   */
+  static boolean isDomainSocketAddress(SocketAddress address) {
+    return address.getClass().getName().equals(DOMAIN_SOCKET_ADDRESS);
+  }
+
+  /**
+   * Returns the address of the Unix domain socket at {@code path}.
+   *
+   * @throws IllegalStateException if the native epoll transport is not on the classpath
+   */
+  static SocketAddress newDomainSocketAddress(String path) {
+    try {
+      return (SocketAddress) Class.forName(DOMAIN_SOCKET_ADDRESS).getConstructor(String.class)
+          .newInstance(path);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException("Unix domain sockets require the native epoll transport", e);
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to create a Unix domain socket address", e);
+    }
+  }
+
+  /**
+   * Returns the shared boss event loop group able to serve channels of the given type.
+   */
+  static Resource<EventLoopGroup> bossEventLoopGroup(Class<? extends Channel> channelType) {
+    return isEpoll(channelType) ? EPOLL_BOSS_EVENT_LOOP_GROUP : DEFAULT_BOSS_EVENT_LOOP_GROUP;
+  }
+
+  /**
+   * Returns the shared worker event loop group able to serve channels of the given type.
+   */
+  static Resource<EventLoopGroup> workerEventLoopGroup(Class<? extends Channel> channelType) {
+    return isEpoll(channelType) ? EPOLL_WORKER_EVENT_LOOP_GROUP : DEFAULT_WORKER_EVENT_LOOP_GROUP;
+  }
+
+  /**
+   * Returns whether the channel type is a TCP socket, which supports options such as
+   * {@code SO_KEEPALIVE} and {@code SO_BACKLOG}.
+   */
+  static boolean isTcp(Class<? extends Channel> channelType) {
+    return NioSocketChannel.class.isAssignableFrom(channelType)
+        || NioServerSocketChannel.class.isAssignableFrom(channelType)
+        || channelType.getName().equals(EPOLL_PACKAGE + "EpollSocketChannel")
+        || channelType.getName().equals(EPOLL_PACKAGE + "EpollServerSocketChannel");
+  }
+
+  /**
+   * Returns whether the channel type supports {@code SO_REUSEPORT}.
+   */
+  static boolean supportsReusePort(Class<? extends ServerChannel> channelType) {
+    return channelType.getName().equals(EPOLL_PACKAGE + "EpollServerSocketChannel");
+  }
+
+  /**
+   * Returns epoll's {@code SO_REUSEPORT} channel option.
+   */
+  @SuppressWarnings("unchecked")
+  static ChannelOption<Boolean> reusePortOption() {
+    try {
+      return (ChannelOption<Boolean>) epollClass("EpollChannelOption")
+          .getField("SO_REUSEPORT").get(null);
+    } catch (Exception e) {
+      throw new IllegalStateException("SO_REUSEPORT is not available", e);
+    }
+  }
+
+  private static boolean isEpoll(Class<? extends Channel> channelType) {
+    return channelType.getName().startsWith(EPOLL_PACKAGE);
+  }
+
+  private static boolean usesEpoll(@Nullable EventLoopGroup group) {
+    return group == null ? EPOLL_AVAILABLE : group.getClass().getName().startsWith(EPOLL_PACKAGE);
+  }
+
+  private static boolean isEpollAvailable() {
+    try {
+      return (Boolean) Class.forName(EPOLL_PACKAGE + "Epoll").getMethod("isAvailable")
+          .invoke(null);
+    } catch (ClassNotFoundException e) {
+      return false;
+    } catch (Exception e) {
+      logger.log(Level.FINE, "Unable to load the native epoll transport", e);
+      return false;
+    }
+  }
+
+  private static Class<?> epollClass(String simpleName) {
+    try {
+      return Class.forName(EPOLL_PACKAGE + simpleName);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException("The native epoll transport is not available", e);
+    }
+  }
+
   public static Metadata convertHeaders(Http2Headers http2Headers) {
     return new Metadata(convertHeadersToArray(http2Headers));
   }
@@ -179,10 +367,16 @@ class Utils {
   private static class DefaultEventLoopGroupResource implements Resource<EventLoopGroup> {
     private final String name;
     private final int numEventLoops;
+    private final boolean epoll;
 
     DefaultEventLoopGroupResource(int numEventLoops, String name) {
+      this(numEventLoops, name, false);
+    }
+
+    DefaultEventLoopGroupResource(int numEventLoops, String name, boolean epoll) {
       this.name = name;
       this.numEventLoops = numEventLoops;
+      this.epoll = epoll;
     }
 
     @Override
@@ -195,15 +389,27 @@ class Utils {
       int parallelism = numEventLoops == 0
           ? Runtime.getRuntime().availableProcessors() * 2 : numEventLoops;
       final ExecutorService executor = Executors.newFixedThreadPool(parallelism, threadFactory);
-      NioEventLoopGroup nioEventLoopGroup = new NioEventLoopGroup(parallelism, executor);
-      nioEventLoopGroup.terminationFuture().addListener(
+      EventLoopGroup eventLoopGroup = epoll
+          ? newEpollEventLoopGroup(parallelism, executor)
+          : new NioEventLoopGroup(parallelism, executor);
+      eventLoopGroup.terminationFuture().addListener(
           new GenericFutureListener<Future<Object>>() {
             @Override
             public void operationComplete(Future<Object> future) throws Exception {
               executor.shutdown();
             }
           });
-      return nioEventLoopGroup;
+      return eventLoopGroup;
+    }
+
+    private static EventLoopGroup newEpollEventLoopGroup(int parallelism, Executor executor) {
+      try {
+        return (EventLoopGroup) epollClass("EpollEventLoopGroup")
+            .getConstructor(int.class, Executor.class)
+            .newInstance(parallelism, executor);
+      } catch (Exception e) {
+        throw new IllegalStateException("Unable to create epoll event loop group", e);
+      }
     }
 
     @Override
@@ -220,4 +426,35 @@ class Utils {
   private Utils() {
     // Prevents instantiation
   }
+
+  private static boolean defaultAllocatorPrefersDirect() {
+    // Netty doesn't expose the preference, only the buffers allocated with it.
+    ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer(1);
+    try {
+      return buf.isDirect();
+    } finally {
+      buf.release();
+    }
+  }
+
+  /**
+   * Pooled allocator counting its allocations for {@link BufferPoolStats}.
+   */
+  private static final class CountingPooledByteBufAllocator extends PooledByteBufAllocator {
+    CountingPooledByteBufAllocator(boolean preferDirect) {
+      super(preferDirect);
+    }
+
+    @Override
+    protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+      BufferPoolStats.recordAllocation();
+      return super.newHeapBuffer(initialCapacity, maxCapacity);
+    }
+
+    @Override
+    protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+      BufferPoolStats.recordAllocation();
+      return super.newDirectBuffer(initialCapacity, maxCapacity);
+    }
+  }
 }
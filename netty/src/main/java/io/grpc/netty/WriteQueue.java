@@ -31,6 +31,9 @@
 
 package io.grpc.netty;
 
+import static io.netty.handler.codec.http2.Http2CodecUtil.DEFAULT_PRIORITY_WEIGHT;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
 import io.netty.channel.Channel;
@@ -38,16 +41,36 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelPromise;
 
 import java.util.ArrayDeque;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
 
 /**
  * A queue of pending writes to a {@link Channel} that is flushed as a single unit.
+ *
+ * <p>Any number of threads may enqueue commands without locking. The queue is drained by the
+ * channel's event loop, which writes the commands that were queued when the drain started and
+ * then flushes the channel once. Commands enqueued without a promise are written with the
+ * channel's void promise, so they need neither a promise nor a wrapper object.
+ *
+ * <p>So that one stream sending a large amount of data does not hold up the others, DATA is
+ * scheduled across streams with deficit round robin, each stream receiving a share proportional
+ * to its weight. Every drain writes at most a high water mark's worth of DATA, and none at all
+ * while the channel is not writable; the remainder is held back per stream, along with any
+ * later commands for the same stream, until the next drain.
  */
 class WriteQueue {
 
-  private static final int DEQUE_CHUNK_SIZE = 128;
+  /**
+   * DATA bytes a stream with the default weight may write per scheduling round. This is the
+   * default HTTP/2 max frame size.
+   */
+  private static final int QUANTUM_BYTES = 16 * 1024;
 
   /**
    * {@link Runnable} used to schedule work onto the tail of the event loop.
@@ -60,18 +83,21 @@ class WriteQueue {
   };
 
   private final Channel channel;
-  private final BlockingQueue<Runnable> queue;
+  private final Queue<Object> queue = new ConcurrentLinkedQueue<Object>();
+  private final AtomicInteger queueDepth = new AtomicInteger();
   private final AtomicBoolean scheduled = new AtomicBoolean();
 
-  /**
-   * ArrayDeque to copy queue into when flushing in event loop.
-   */
-  private final ArrayDeque<Runnable> writeChunk =
-      new ArrayDeque<Runnable>(DEQUE_CHUNK_SIZE);
+  // Only accessed from the event loop.
+  private final Map<Object, StreamQueue> streamQueues = new IdentityHashMap<Object, StreamQueue>();
+  private final ArrayDeque<StreamQueue> activeStreams = new ArrayDeque<StreamQueue>();
+
+  // Only written from the event loop.
+  private volatile long drainCount;
+  private volatile long drainedCommands;
+  private volatile int maxDrainBatchSize;
 
   public WriteQueue(Channel channel) {
     this.channel = Preconditions.checkNotNull(channel, "channel");
-    queue = new LinkedBlockingQueue<Runnable>();
   }
 
   /**
@@ -87,14 +113,15 @@ class WriteQueue {
   }
 
   /**
-   * Enqueue a write command on the channel.
+   * Enqueue a write command on the channel. Nobody is notified of the outcome of the write; use
+   * {@link #enqueue(Object, ChannelPromise, boolean)} to observe it.
    *
    * @param command a write to be executed on the channel.
    * @param flush true if a flush of the write should be schedule, false if a later call to
    *              enqueue will schedule the flush.
    */
-  ChannelFuture enqueue(Object command, boolean flush) {
-    return enqueue(command, channel.newPromise(), flush);
+  void enqueue(Object command, boolean flush) {
+    add(command, flush);
   }
 
   /**
@@ -106,11 +133,16 @@ class WriteQueue {
    *              enqueue will schedule the flush.
    */
   ChannelFuture enqueue(Object command, ChannelPromise promise, boolean flush) {
-    queue.add(new QueuedCommand(command, promise));
+    add(promise.isVoid() ? command : new QueuedCommand(command, promise), flush);
+    return promise;
+  }
+
+  private void add(Object item, boolean flush) {
+    queue.add(item);
+    queueDepth.incrementAndGet();
     if (flush) {
       scheduleFlush();
     }
-    return promise;
   }
 
   /**
@@ -119,34 +151,182 @@ class WriteQueue {
    */
   private void flush() {
     try {
-      boolean flushed = false;
-      while (queue.drainTo(writeChunk, DEQUE_CHUNK_SIZE) > 0) {
-        while (writeChunk.size() > 0) {
-          writeChunk.poll().run();
-        }
-        // Flush each chunk so we are releasing buffers periodically. In theory this loop
-        // might never end as new events are continuously added to the queue, if we never
-        // flushed in that case we would be guaranteed to OOM.
-        flushed = true;
-        channel.flush();
+      // Only drain the commands queued so far. In theory the drain might otherwise never end as
+      // new commands are continuously added, holding up the flush and other event loop tasks.
+      int batchSize = queueDepth.get();
+      for (int i = 0; i < batchSize; i++) {
+        schedule(queue.poll());
       }
-      if (!flushed) {
-        // Must flush at least once
-        channel.flush();
+      queueDepth.addAndGet(-batchSize);
+      writeScheduledData();
+      if (batchSize > maxDrainBatchSize) {
+        maxDrainBatchSize = batchSize;
       }
+      drainedCommands += batchSize;
+      drainCount++;
+      channel.flush();
     } finally {
       // Mark the write as done, if the queue is non-empty after marking trigger a new write.
       scheduled.set(false);
-      if (!queue.isEmpty()) {
+      if (queueDepth.get() > 0 || (!activeStreams.isEmpty() && channel.isWritable())) {
         scheduleFlush();
       }
+      // Otherwise held back DATA is written once the channel becomes writable again.
+    }
+  }
+
+  /**
+   * Writes a command right away, unless it is DATA or has to wait for held back DATA of the same
+   * stream.
+   */
+  private void schedule(Object item) {
+    Object command = item instanceof QueuedCommand ? ((QueuedCommand) item).command : item;
+    Object stream = streamOf(command);
+    StreamQueue streamQueue = stream == null ? null : streamQueues.get(stream);
+    if (streamQueue == null) {
+      if (!(command instanceof SendGrpcFrameCommand)) {
+        write(item);
+        return;
+      }
+      streamQueue = new StreamQueue(stream, weightOf(stream));
+      streamQueues.put(stream, streamQueue);
+      activeStreams.add(streamQueue);
+    } else if (command instanceof CancelClientStreamCommand
+        || command instanceof CancelServerStreamCommand) {
+      // Don't hold a cancellation back behind the DATA it discards.
+      streamQueues.remove(stream);
+      activeStreams.remove(streamQueue);
+      for (Object heldBack : streamQueue.items) {
+        write(heldBack);
+      }
+      write(item);
+      return;
+    }
+    streamQueue.items.add(item);
+  }
+
+  /**
+   * Writes held back commands, sharing the DATA written in this drain between the streams in
+   * proportion to their weights. Everything is written if the channel is closed, which fails the
+   * commands.
+   */
+  private void writeScheduledData() {
+    boolean active = channel.isActive();
+    int maxBytes = channel.config().getWriteBufferHighWaterMark();
+    long writtenBytes = 0;
+    while (!activeStreams.isEmpty()
+        && (!active || (writtenBytes < maxBytes && channel.isWritable()))) {
+      StreamQueue streamQueue = activeStreams.poll();
+      streamQueue.deficit += QUANTUM_BYTES * streamQueue.weight / DEFAULT_PRIORITY_WEIGHT;
+      Object item;
+      while ((item = streamQueue.items.peek()) != null) {
+        int size = dataSize(item);
+        if (active && size > streamQueue.deficit) {
+          break;
+        }
+        streamQueue.items.poll();
+        streamQueue.deficit -= size;
+        writtenBytes += size;
+        write(item);
+      }
+      if (streamQueue.items.isEmpty()) {
+        streamQueues.remove(streamQueue.stream);
+      } else {
+        activeStreams.add(streamQueue);
+      }
+    }
+  }
+
+  private void write(Object item) {
+    if (item instanceof QueuedCommand) {
+      QueuedCommand queued = (QueuedCommand) item;
+      channel.write(queued.command, queued.promise);
+    } else {
+      channel.write(item, channel.voidPromise());
+    }
+  }
+
+  @Nullable
+  private static Object streamOf(Object command) {
+    if (command instanceof SendGrpcFrameCommand) {
+      return ((SendGrpcFrameCommand) command).stream();
+    } else if (command instanceof SendResponseHeadersCommand) {
+      return ((SendResponseHeadersCommand) command).stream();
+    } else if (command instanceof CancelClientStreamCommand) {
+      return ((CancelClientStreamCommand) command).stream();
+    } else if (command instanceof CancelServerStreamCommand) {
+      return ((CancelServerStreamCommand) command).stream();
+    }
+    return null;
+  }
+
+  private static int weightOf(Object stream) {
+    if (stream instanceof NettyClientStream) {
+      return ((NettyClientStream) stream).weight();
+    } else if (stream instanceof NettyServerStream) {
+      return ((NettyServerStream) stream).weight();
+    }
+    return DEFAULT_PRIORITY_WEIGHT;
+  }
+
+  private static int dataSize(Object item) {
+    Object command = item instanceof QueuedCommand ? ((QueuedCommand) item).command : item;
+    if (command instanceof SendGrpcFrameCommand) {
+      return ((SendGrpcFrameCommand) command).content().readableBytes();
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the number of commands waiting to be written.
+   */
+  int queueDepth() {
+    return queueDepth.get();
+  }
+
+  /**
+   * Returns the number of times the queue has been drained and the channel flushed.
+   */
+  long drainCount() {
+    return drainCount;
+  }
+
+  /**
+   * Returns the average number of commands written per drain.
+   */
+  double averageDrainBatchSize() {
+    long drains = drainCount;
+    return drains == 0 ? 0 : (double) drainedCommands / drains;
+  }
+
+  /**
+   * Returns the largest number of commands written in a single drain.
+   */
+  @VisibleForTesting
+  int maxDrainBatchSize() {
+    return maxDrainBatchSize;
+  }
+
+  /**
+   * Commands of a stream that are held back, and the DATA bytes the stream may still write in the
+   * current scheduling round.
+   */
+  private static final class StreamQueue {
+    private final Object stream;
+    private final int weight;
+    private final ArrayDeque<Object> items = new ArrayDeque<Object>();
+    private long deficit;
+
+    private StreamQueue(Object stream, int weight) {
+      this.stream = stream;
+      this.weight = weight;
     }
   }
 
   /**
-   * Simple wrapper type around a command and its optional completion listener.
+   * Simple wrapper type around a command and its completion listener.
    */
-  private final class QueuedCommand implements Runnable {
+  private static final class QueuedCommand {
     private final Object command;
     private final ChannelPromise promise;
 
@@ -154,11 +334,5 @@ class WriteQueue {
       this.command = command;
       this.promise = promise;
     }
-
-    @Override
-    public void run() {
-      channel.write(command, promise);
-    }
   }
 }
-
@@ -32,6 +32,7 @@
 package io.grpc.netty;
 
 import static com.google.common.base.Charsets.UTF_8;
+import static io.grpc.netty.AbstractNettyHandler.BDP_MEASUREMENT_PING;
 import static io.grpc.netty.Utils.CONTENT_TYPE_GRPC;
 import static io.grpc.netty.Utils.CONTENT_TYPE_HEADER;
 import static io.grpc.netty.Utils.HTTPS;
@@ -45,11 +46,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.calls;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -102,6 +109,7 @@ public class NettyClientHandlerTest extends NettyHandlerTestBase<NettyClientHand
   private Http2Headers grpcHeaders;
   private long nanoTime; // backs a ticker, for testing ping round-trip time measurement
   private int flowControlWindow = DEFAULT_WINDOW_SIZE;
+  private int maxFlowControlWindow;
   private int streamId = 3;
 
   @Mock
@@ -113,6 +121,7 @@ public class NettyClientHandlerTest extends NettyHandlerTestBase<NettyClientHand
   @Before
   public void setUp() throws Exception {
     MockitoAnnotations.initMocks(this);
+    when(stream.weight()).thenReturn((int) DEFAULT_PRIORITY_WEIGHT);
 
     initChannel();
 
@@ -153,6 +162,14 @@ public class NettyClientHandlerTest extends NettyHandlerTestBase<NettyClientHand
         eq(DEFAULT_PRIORITY_WEIGHT), eq(false), eq(0), eq(false), any(ChannelPromise.class));
   }
 
+  @Test
+  public void createStreamShouldSendWeight() throws Exception {
+    when(stream.weight()).thenReturn(64);
+    createStream();
+    verifyWrite().writeHeaders(eq(ctx()), eq(3), eq(grpcHeaders), eq(0),
+        eq((short) 64), eq(false), eq(0), eq(false), any(ChannelPromise.class));
+  }
+
   @Test
   public void cancelShouldSucceed() throws Exception {
     createStream();
@@ -227,6 +244,33 @@ public class NettyClientHandlerTest extends NettyHandlerTestBase<NettyClientHand
         any(ChannelPromise.class));
   }
 
+  @Test
+  public void sendFrameWithVoidPromiseShouldNotAllocatePromise() throws Exception {
+    createStream();
+    ChannelHandlerContext ctx = mock(ChannelHandlerContext.class, delegatesTo(ctx()));
+
+    handler().write(ctx, new SendGrpcFrameCommand(stream, content(), false),
+        channel().voidPromise());
+    channel().flush();
+
+    verify(ctx, never()).newPromise();
+    verifyWrite().writeData(any(ChannelHandlerContext.class), eq(3), eq(content()), eq(0),
+        eq(false), any(ChannelPromise.class));
+  }
+
+  @Test
+  public void sendFrameWithVoidPromiseForClosedStreamShouldNotCloseConnection() throws Exception {
+    createStream();
+    cancelStream(Status.CANCELLED);
+
+    channel().write(new SendGrpcFrameCommand(stream, content(), false), channel().voidPromise());
+    channel().flush();
+
+    assertTrue(channel().isOpen());
+    verifyWrite(never()).writeGoAway(any(ChannelHandlerContext.class), anyInt(), anyLong(),
+        any(ByteBuf.class), any(ChannelPromise.class));
+  }
+
   @Test
   public void sendForUnknownStreamShouldFail() throws Exception {
     when(stream.id()).thenReturn(3);
@@ -456,6 +500,42 @@ public class NettyClientHandlerTest extends NettyHandlerTestBase<NettyClientHand
     assertFalse(channel().isOpen());
   }
 
+  @Test
+  public void bdpPingShouldGrowWindows() throws Exception {
+    maxFlowControlWindow = 8 * flowControlWindow;
+    setUp();
+    createStream();
+
+    for (int i = 0; i < 3; i++) {
+      ByteBuf data = Unpooled.wrappedBuffer(new byte[16000]);
+      channelRead(dataFrame(3, false, data));
+    }
+    // Only one measurement is in flight at a time.
+    verifyWrite().writePing(eq(ctx()), eq(false), eq(Unpooled.copyLong(BDP_MEASUREMENT_PING)),
+        any(ChannelPromise.class));
+    assertEquals(1, handler().flowControlPing().getPingCount());
+
+    channelRead(pingFrame(true, Unpooled.copyLong(BDP_MEASUREMENT_PING)));
+    assertEquals(1, handler().flowControlPing().getPingReturn());
+    ArgumentCaptor<Http2Settings> captor = ArgumentCaptor.forClass(Http2Settings.class);
+    verifyWrite(atLeastOnce()).writeSettings(eq(ctx()), captor.capture(),
+        any(ChannelPromise.class));
+    assertEquals(96000, captor.getValue().initialWindowSize().intValue());
+    assertEquals(96000, connection().local().flowController()
+        .initialWindowSize(connection().connectionStream()));
+  }
+
+  @Test
+  public void bdpPingAckShouldNotCompleteApplicationPing() throws Exception {
+    maxFlowControlWindow = 8 * flowControlWindow;
+    setUp();
+    PingCallbackImpl callback = new PingCallbackImpl();
+    sendPing(callback);
+
+    channelRead(pingFrame(true, Unpooled.copyLong(BDP_MEASUREMENT_PING)));
+    assertEquals(0, callback.invocationCount);
+  }
+
   private ChannelFuture sendPing(PingCallback callback) {
     return enqueue(new SendPingCommand(callback, MoreExecutors.directExecutor()));
   }
@@ -495,7 +575,10 @@ public class NettyClientHandlerTest extends NettyHandlerTestBase<NettyClientHand
     };
 
     return NettyClientHandler.newHandler(connection, frameReader(), frameWriter(),
-        listener, flowControlWindow,ticker);
+        listener, flowControlWindow, maxFlowControlWindow,
+        NettyChannelBuilder.DEFAULT_WINDOW_UPDATE_THRESHOLD, ticker,
+        GrpcUtil.KEEPALIVE_TIME_NANOS_DISABLED,
+        GrpcUtil.DEFAULT_KEEPALIVE_TIMEOUT_NANOS, false);
   }
 
   @Override
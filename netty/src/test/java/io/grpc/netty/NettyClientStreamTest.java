@@ -372,13 +372,13 @@ public class NettyClientStreamTest extends NettyStreamTestBase<NettyClientStream
     doAnswer(new Answer<Object>() {
       @Override
       public Object answer(InvocationOnMock invocation) throws Throwable {
+        ChannelPromise promise = (ChannelPromise) invocation.getArguments()[1];
         if (future.isDone()) {
-          ((ChannelPromise) invocation.getArguments()[1]).trySuccess();
+          promise.trySuccess();
         }
-        return null;
+        return promise;
       }
     }).when(writeQueue).enqueue(any(), any(ChannelPromise.class), anyBoolean());
-    when(writeQueue.enqueue(any(), anyBoolean())).thenReturn(future);
     NettyClientStream stream = new NettyClientStream(methodDescriptor, new Metadata(), channel,
         handler, DEFAULT_MAX_MESSAGE_SIZE, AsciiString.of("localhost"), AsciiString.of("http"));
     stream.start(listener);
@@ -304,7 +304,10 @@ public class NettyClientTransportTest {
   private NettyClientTransport newTransport(ProtocolNegotiator negotiator,
       int maxMsgSize, int maxHeaderListSize) {
     NettyClientTransport transport = new NettyClientTransport(address, NioSocketChannel.class,
-            group, negotiator, DEFAULT_WINDOW_SIZE, maxMsgSize, maxHeaderListSize, authority);
+            group, negotiator, DEFAULT_WINDOW_SIZE, 0,
+            NettyChannelBuilder.DEFAULT_WINDOW_UPDATE_THRESHOLD, maxMsgSize, maxHeaderListSize,
+            GrpcUtil.KEEPALIVE_TIME_NANOS_DISABLED, GrpcUtil.DEFAULT_KEEPALIVE_TIMEOUT_NANOS, false,
+            authority);
     transports.add(transport);
     return transport;
   }
@@ -319,8 +322,15 @@ public class NettyClientTransportTest {
     SslContext serverContext = GrpcSslContexts.forServer(serverCert, key)
         .ciphers(TestUtils.preferredTestCiphers(), SupportedCipherSuiteFilter.INSTANCE).build();
     ProtocolNegotiator negotiator = ProtocolNegotiators.serverTls(serverContext);
-    server = new NettyServer(address, NioServerSocketChannel.class, group, group, negotiator,
-        maxStreamsPerConnection, DEFAULT_WINDOW_SIZE, DEFAULT_MAX_MESSAGE_SIZE, maxHeaderListSize);
+    server = new NettyServer(address, NioServerSocketChannel.class, group, group, 1, negotiator,
+        maxStreamsPerConnection, DEFAULT_WINDOW_SIZE, 0,
+        NettyServerBuilder.DEFAULT_WINDOW_UPDATE_THRESHOLD, DEFAULT_MAX_MESSAGE_SIZE,
+        maxHeaderListSize,
+        GrpcUtil.KEEPALIVE_TIME_NANOS_DISABLED, GrpcUtil.DEFAULT_KEEPALIVE_TIMEOUT_NANOS,
+        NettyServerBuilder.MAX_CONNECTION_IDLE_NANOS_DISABLED,
+        NettyServerBuilder.MAX_CONNECTION_AGE_NANOS_DISABLED,
+        NettyServerBuilder.MAX_CONNECTION_AGE_GRACE_NANOS_INFINITE,
+        Collections.<String, Integer>emptyMap());
     server.start(serverListener);
   }
 
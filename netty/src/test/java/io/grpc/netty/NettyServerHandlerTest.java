@@ -33,6 +33,7 @@ package io.grpc.netty;
 
 import static com.google.common.base.Charsets.UTF_8;
 import static io.grpc.internal.GrpcUtil.DEFAULT_MAX_MESSAGE_SIZE;
+import static io.grpc.netty.AbstractNettyHandler.BDP_MEASUREMENT_PING;
 import static io.grpc.netty.Utils.CONTENT_TYPE_GRPC;
 import static io.grpc.netty.Utils.CONTENT_TYPE_HEADER;
 import static io.grpc.netty.Utils.HTTP_METHOD;
@@ -43,11 +44,16 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -57,6 +63,7 @@ import com.google.common.io.ByteStreams;
 import io.grpc.Metadata;
 import io.grpc.Status;
 import io.grpc.Status.Code;
+import io.grpc.internal.GrpcUtil;
 import io.grpc.internal.MessageFramer;
 import io.grpc.internal.ServerStream;
 import io.grpc.internal.ServerStreamListener;
@@ -90,6 +97,8 @@ import org.mockito.MockitoAnnotations;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Unit tests for {@link NettyServerHandler}.
@@ -109,6 +118,14 @@ public class NettyServerHandlerTest extends NettyHandlerTestBase<NettyServerHand
 
   private int flowControlWindow = DEFAULT_WINDOW_SIZE;
   private int maxConcurrentStreams = Integer.MAX_VALUE;
+  private int maxFlowControlWindow;
+  private float windowUpdateThreshold = NettyServerBuilder.DEFAULT_WINDOW_UPDATE_THRESHOLD;
+  private long keepAliveTimeInNanos = GrpcUtil.KEEPALIVE_TIME_NANOS_DISABLED;
+  private long keepAliveTimeoutInNanos = GrpcUtil.DEFAULT_KEEPALIVE_TIMEOUT_NANOS;
+  private long maxConnectionIdleInNanos = NettyServerBuilder.MAX_CONNECTION_IDLE_NANOS_DISABLED;
+  private long maxConnectionAgeInNanos = NettyServerBuilder.MAX_CONNECTION_AGE_NANOS_DISABLED;
+  private long maxConnectionAgeGraceInNanos =
+      NettyServerBuilder.MAX_CONNECTION_AGE_GRACE_NANOS_INFINITE;
 
   @Before
   public void setUp() throws Exception {
@@ -119,6 +136,14 @@ public class NettyServerHandlerTest extends NettyHandlerTestBase<NettyServerHand
         any(Metadata.class)))
         .thenReturn(streamListener);
 
+    manualSetUp();
+  }
+
+  /**
+   * Creates the channel and handler using the current settings. Tests that change the settings
+   * call this again to replace the channel created in {@link #setUp}.
+   */
+  private void manualSetUp() throws Exception {
     initChannel();
 
     // Simulate receipt of the connection preface
@@ -139,6 +164,33 @@ public class NettyServerHandlerTest extends NettyHandlerTestBase<NettyServerHand
         any(ChannelPromise.class));
   }
 
+  @Test
+  public void sendFrameWithVoidPromiseShouldNotAllocatePromise() throws Exception {
+    createStream();
+    ChannelHandlerContext ctx = mock(ChannelHandlerContext.class, delegatesTo(ctx()));
+
+    handler().write(ctx, new SendGrpcFrameCommand(stream, content(), false),
+        channel().voidPromise());
+    channel().flush();
+
+    verify(ctx, never()).newPromise();
+    verifyWrite().writeData(any(ChannelHandlerContext.class), eq(STREAM_ID), eq(content()), eq(0),
+        eq(false), any(ChannelPromise.class));
+  }
+
+  @Test
+  public void sendFrameWithVoidPromiseForClosedStreamShouldNotCloseConnection() throws Exception {
+    createStream();
+    enqueue(new CancelServerStreamCommand(stream, Status.CANCELLED));
+
+    channel().write(new SendGrpcFrameCommand(stream, content(), false), channel().voidPromise());
+    channel().flush();
+
+    assertTrue(channel().isOpen());
+    verifyWrite(never()).writeGoAway(any(ChannelHandlerContext.class), anyInt(), anyLong(),
+        any(ByteBuf.class), any(ChannelPromise.class));
+  }
+
   @Test
   public void inboundDataWithEndStreamShouldForwardToStreamListener() throws Exception {
     inboundDataShouldForwardToStreamListener(true);
@@ -293,6 +345,130 @@ public class NettyServerHandlerTest extends NettyHandlerTestBase<NettyServerHand
         any(ChannelPromise.class));
   }
 
+  @Test
+  public void keepAliveShouldSendPing() throws Exception {
+    keepAliveTimeInNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    manualSetUp();
+
+    runScheduledTasksAfter(10);
+    verifyWrite().writePing(eq(ctx()), eq(false), any(ByteBuf.class), any(ChannelPromise.class));
+    assertTrue(channel().isOpen());
+  }
+
+  @Test
+  public void keepAliveShouldCloseConnectionWhenPingNotAcked() throws Exception {
+    keepAliveTimeInNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    keepAliveTimeoutInNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    manualSetUp();
+
+    runScheduledTasksAfter(10);
+    verifyWrite().writePing(eq(ctx()), eq(false), any(ByteBuf.class), any(ChannelPromise.class));
+    runScheduledTasksAfter(10);
+    assertFalse(channel().isOpen());
+  }
+
+  @Test
+  public void maxConnectionIdleShouldCloseIdleConnection() throws Exception {
+    maxConnectionIdleInNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    manualSetUp();
+
+    runScheduledTasksAfter(10);
+    verifyWrite().writeGoAway(eq(ctx()), eq(0), eq(Http2Error.NO_ERROR.code()),
+        any(ByteBuf.class), any(ChannelPromise.class));
+    assertFalse(channel().isOpen());
+  }
+
+  @Test
+  public void maxConnectionIdleShouldNotCloseConnectionWithActiveStreams() throws Exception {
+    maxConnectionIdleInNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    manualSetUp();
+    createStream();
+
+    runScheduledTasksAfter(10);
+    verifyWrite(never()).writeGoAway(any(ChannelHandlerContext.class), anyInt(), anyLong(),
+        any(ByteBuf.class), any(ChannelPromise.class));
+    assertTrue(channel().isOpen());
+  }
+
+  @Test
+  public void maxConnectionAgeShouldDrainConnection() throws Exception {
+    maxConnectionAgeInNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    manualSetUp();
+    createStream();
+
+    runScheduledTasksAfter(10);
+    verifyWrite().writeGoAway(eq(ctx()), eq(STREAM_ID), eq(Http2Error.NO_ERROR.code()),
+        any(ByteBuf.class), any(ChannelPromise.class));
+    // The active stream is allowed to complete during the grace period.
+    assertTrue(channel().isOpen());
+  }
+
+  @Test
+  public void maxConnectionAgeGraceShouldCloseConnection() throws Exception {
+    maxConnectionAgeInNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    maxConnectionAgeGraceInNanos = 0;
+    manualSetUp();
+    createStream();
+
+    runScheduledTasksAfter(10);
+    runScheduledTasksAfter(10);
+    assertFalse(channel().isOpen());
+  }
+
+  @Test
+  public void bdpPingShouldGrowWindows() throws Exception {
+    maxFlowControlWindow = 8 * flowControlWindow;
+    manualSetUp();
+    createStream();
+
+    for (int i = 0; i < 3; i++) {
+      ByteBuf data = Unpooled.wrappedBuffer(new byte[16000]);
+      channelRead(dataFrame(STREAM_ID, false, data));
+    }
+    // Only one measurement is in flight at a time.
+    verifyWrite().writePing(eq(ctx()), eq(false), eq(Unpooled.copyLong(BDP_MEASUREMENT_PING)),
+        any(ChannelPromise.class));
+    assertEquals(1, handler().flowControlPing().getPingCount());
+
+    channelRead(pingFrame(true, Unpooled.copyLong(BDP_MEASUREMENT_PING)));
+    assertEquals(1, handler().flowControlPing().getPingReturn());
+    ArgumentCaptor<Http2Settings> captor = ArgumentCaptor.forClass(Http2Settings.class);
+    verifyWrite(atLeastOnce()).writeSettings(eq(ctx()), captor.capture(),
+        any(ChannelPromise.class));
+    assertEquals(96000, captor.getValue().initialWindowSize().intValue());
+    assertEquals(96000, connection().local().flowController()
+        .initialWindowSize(connection().connectionStream()));
+  }
+
+  @Test
+  public void processedBytesShouldBeReturnedWhenReadCompletes() throws Exception {
+    // Any consumed bytes would warrant a WINDOW_UPDATE.
+    windowUpdateThreshold = 0.0001f;
+    manualSetUp();
+    createStream();
+    stream.request(3);
+    InboundFlowControlStats.reset();
+
+    for (int i = 0; i < 3; i++) {
+      channelRead(dataFrame(STREAM_ID, false));
+    }
+    verify(streamListener, times(3)).messageRead(any(InputStream.class));
+    verifyWrite(never()).writeWindowUpdate(eq(ctx()), eq(STREAM_ID), anyInt(),
+        any(ChannelPromise.class));
+
+    handler().channelReadComplete(ctx());
+    int frameLength = contentAsArray().length + 5;
+    verifyWrite().writeWindowUpdate(eq(ctx()), eq(STREAM_ID), eq(3 * frameLength),
+        any(ChannelPromise.class));
+    assertEquals(3 * frameLength, InboundFlowControlStats.bytesReturned());
+    assertTrue(InboundFlowControlStats.windowUpdateFrames() > 0);
+  }
+
+  private void runScheduledTasksAfter(long millis) throws InterruptedException {
+    Thread.sleep(millis);
+    channel().runScheduledPendingTasks();
+  }
+
   private void createStream() throws Exception {
     Http2Headers headers = new DefaultHttp2Headers()
         .method(HTTP_METHOD)
@@ -345,7 +521,10 @@ public class NettyServerHandlerTest extends NettyHandlerTestBase<NettyServerHand
   @Override
   protected NettyServerHandler newHandler() {
     return NettyServerHandler.newHandler(frameReader(), frameWriter(), transportListener,
-        maxConcurrentStreams, flowControlWindow, DEFAULT_MAX_MESSAGE_SIZE);
+        maxConcurrentStreams, flowControlWindow, maxFlowControlWindow, windowUpdateThreshold,
+        DEFAULT_MAX_MESSAGE_SIZE, keepAliveTimeInNanos, keepAliveTimeoutInNanos,
+        maxConnectionIdleInNanos, maxConnectionAgeInNanos, maxConnectionAgeGraceInNanos,
+        Collections.<String, Integer>emptyMap());
   }
 
   @Override
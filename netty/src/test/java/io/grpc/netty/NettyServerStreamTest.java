@@ -95,7 +95,7 @@ public class NettyServerStreamTest extends NettyStreamTestBase<NettyServerStream
     Http2Headers headers = new DefaultHttp2Headers()
         .status(Utils.STATUS_OK)
         .set(Utils.CONTENT_TYPE_HEADER, Utils.CONTENT_TYPE_GRPC);
-    verify(writeQueue).enqueue(new SendResponseHeadersCommand(STREAM_ID, headers, false), true);
+    verify(writeQueue).enqueue(new SendResponseHeadersCommand(stream(), headers, false), true);
     byte[] msg = smallMessage();
     stream.writeMessage(new ByteArrayInputStream(msg));
     stream.flush();
@@ -108,7 +108,7 @@ public class NettyServerStreamTest extends NettyStreamTestBase<NettyServerStream
   public void writeHeadersShouldSendHeaders() throws Exception {
     Metadata headers = new Metadata();
     stream().writeHeaders(headers);
-    verify(writeQueue).enqueue(new SendResponseHeadersCommand(STREAM_ID,
+    verify(writeQueue).enqueue(new SendResponseHeadersCommand(stream(),
         Utils.convertServerHeaders(headers), false), true);
   }
 
@@ -116,7 +116,7 @@ public class NettyServerStreamTest extends NettyStreamTestBase<NettyServerStream
   public void duplicateWriteHeadersShouldFail() throws Exception {
     Metadata headers = new Metadata();
     stream().writeHeaders(headers);
-    verify(writeQueue).enqueue(new SendResponseHeadersCommand(STREAM_ID,
+    verify(writeQueue).enqueue(new SendResponseHeadersCommand(stream(),
         Utils.convertServerHeaders(headers), false), true);
     try {
       stream().writeHeaders(headers);
@@ -130,7 +130,7 @@ public class NettyServerStreamTest extends NettyStreamTestBase<NettyServerStream
   public void closeBeforeClientHalfCloseShouldSucceed() throws Exception {
     stream().close(Status.OK, new Metadata());
     verify(writeQueue).enqueue(
-        new SendResponseHeadersCommand(STREAM_ID, new DefaultHttp2Headers()
+        new SendResponseHeadersCommand(stream(), new DefaultHttp2Headers()
             .status(new AsciiString("200"))
             .set(new AsciiString("content-type"), new AsciiString("application/grpc"))
             .set(new AsciiString("grpc-status"), new AsciiString("0")), true),
@@ -148,7 +148,7 @@ public class NettyServerStreamTest extends NettyStreamTestBase<NettyServerStream
     // Error is sent on wire and ends the stream
     stream().close(Status.CANCELLED, trailers);
     verify(writeQueue).enqueue(
-        new SendResponseHeadersCommand(STREAM_ID, new DefaultHttp2Headers()
+        new SendResponseHeadersCommand(stream(), new DefaultHttp2Headers()
             .status(new AsciiString("200"))
             .set(new AsciiString("content-type"), new AsciiString("application/grpc"))
             .set(new AsciiString("grpc-status"), new AsciiString("1")), true),
@@ -172,7 +172,7 @@ public class NettyServerStreamTest extends NettyStreamTestBase<NettyServerStream
     assertTrue(stream().isClosed());
     verifyNoMoreInteractions(serverListener);
     verify(writeQueue).enqueue(
-        new SendResponseHeadersCommand(STREAM_ID, new DefaultHttp2Headers()
+        new SendResponseHeadersCommand(stream(), new DefaultHttp2Headers()
             .status(new AsciiString("200"))
             .set(new AsciiString("content-type"), new AsciiString("application/grpc"))
             .set(new AsciiString("grpc-status"), new AsciiString("0")), true),
@@ -222,7 +222,7 @@ public class NettyServerStreamTest extends NettyStreamTestBase<NettyServerStream
   public void emptyFramerShouldSendNoPayload() throws Exception {
     stream().close(Status.OK, new Metadata());
     verify(writeQueue).enqueue(
-        new SendResponseHeadersCommand(STREAM_ID, new DefaultHttp2Headers()
+        new SendResponseHeadersCommand(stream(), new DefaultHttp2Headers()
             .status(new AsciiString("200"))
             .set(new AsciiString("content-type"), new AsciiString("application/grpc"))
             .set(new AsciiString("grpc-status"), new AsciiString("0")), true),
@@ -249,7 +249,6 @@ public class NettyServerStreamTest extends NettyStreamTestBase<NettyServerStream
         return null;
       }
     }).when(writeQueue).enqueue(any(), any(ChannelPromise.class), anyBoolean());
-    when(writeQueue.enqueue(any(), anyBoolean())).thenReturn(future);
     NettyServerStream stream = new NettyServerStream(channel, http2Stream, handler,
             DEFAULT_MAX_MESSAGE_SIZE);
     stream.setListener(serverListener);
@@ -112,7 +112,12 @@ public abstract class NettyStreamTestBase<T extends AbstractStream<Integer>> {
     when(channel.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
     when(channel.pipeline()).thenReturn(pipeline);
     when(channel.eventLoop()).thenReturn(eventLoop);
-    when(channel.newPromise()).thenReturn(new DefaultChannelPromise(channel));
+    when(channel.newPromise()).thenAnswer(new Answer<ChannelPromise>() {
+      @Override
+      public ChannelPromise answer(InvocationOnMock invocation) {
+        return new DefaultChannelPromise(channel);
+      }
+    });
     when(channel.voidPromise()).thenReturn(new DefaultChannelPromise(channel));
     when(pipeline.firstContext()).thenReturn(ctx);
     when(eventLoop.inEventLoop()).thenReturn(true);
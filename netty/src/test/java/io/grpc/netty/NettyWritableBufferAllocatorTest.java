@@ -32,16 +32,21 @@
 package io.grpc.netty;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import io.grpc.internal.WritableBuffer;
 import io.grpc.internal.WritableBufferAllocator;
 import io.grpc.internal.WritableBufferAllocatorTestBase;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Tests for {@link NettyWritableBufferAllocator}.
  */
@@ -64,10 +69,27 @@ public class NettyWritableBufferAllocatorTest extends WritableBufferAllocatorTes
   }
 
   @Test
-  public void testCapacityIsExactAboveMinimum() {
+  public void testKnownLengthHasNoMinimum() {
+    WritableBuffer buffer = allocator().allocateKnownLength(0);
+    assertEquals(0, buffer.readableBytes());
+    assertEquals(16, buffer.writableBytes());
+  }
+
+  @Test
+  public void testSmallKnownLengthIsRoundedToMultipleOf16() {
+    WritableBuffer buffer = allocator().allocateKnownLength(100);
+    assertEquals(0, buffer.readableBytes());
+    assertEquals(112, buffer.writableBytes());
+    assertEquals(496, allocator().allocateKnownLength(496).writableBytes());
+  }
+
+  @Test
+  public void testLargerCapacityIsRoundedToPowerOfTwo() {
     WritableBuffer buffer = allocator().allocate(9000);
     assertEquals(0, buffer.readableBytes());
-    assertEquals(9000, buffer.writableBytes());
+    assertEquals(16384, buffer.writableBytes());
+    assertEquals(512, allocator().allocateKnownLength(497).writableBytes());
+    assertEquals(8192, allocator().allocate(4097).writableBytes());
   }
 
   @Test
@@ -77,4 +99,22 @@ public class NettyWritableBufferAllocatorTest extends WritableBufferAllocatorTes
     assertEquals(0, buffer.readableBytes());
     assertEquals(1024 * 1024, buffer.writableBytes());
   }
+
+  @Test
+  public void smallMessagesHoldLittlePooledMemory() {
+    // A single heap arena, so that all buffers come from the same chunks.
+    PooledByteBufAllocator pool = new PooledByteBufAllocator(false, 1, 0, 8192, 11);
+    NettyWritableBufferAllocator allocator = new NettyWritableBufferAllocator(pool);
+    List<WritableBuffer> buffers = new ArrayList<WritableBuffer>();
+    // A 40 byte message and its 5 byte gRPC header for each of 10,000 streams. With a 4 KiB
+    // minimum they held about 40 MiB.
+    for (int i = 0; i < 10000; i++) {
+      buffers.add(allocator.allocateKnownLength(45));
+    }
+    long usedBytes = BufferPoolStats.usedBytes(pool);
+    assertTrue("used " + usedBytes, usedBytes <= 1024 * 1024);
+    for (WritableBuffer buffer : buffers) {
+      buffer.release();
+    }
+  }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import io.grpc.Attributes;
+import io.grpc.NameResolver;
+import io.grpc.NameResolverRegistry;
+import io.grpc.ResolvedServerInfo;
+import io.grpc.Status;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+import java.net.URI;
+import java.util.List;
+
+/** Unit tests for {@link UnixNameResolverFactory}. */
+@RunWith(JUnit4.class)
+public class UnixNameResolverFactoryTest {
+  @Rule public final ExpectedException thrown = ExpectedException.none();
+
+  private final UnixNameResolverFactory factory = UnixNameResolverFactory.getInstance();
+
+  @Test
+  public void otherSchemesNotHandled() {
+    assertNull(factory.newNameResolver(URI.create("dns:///localhost:443"), Attributes.EMPTY));
+  }
+
+  @Test
+  public void relativePathRejected() {
+    thrown.expect(IllegalArgumentException.class);
+    factory.newNameResolver(URI.create("unix://var/run/app.sock"), Attributes.EMPTY);
+  }
+
+  @Test
+  public void registeredByChannelBuilder() {
+    NettyChannelBuilder.forTarget("unix:///var/run/app.sock");
+
+    NameResolver resolver = NameResolverRegistry.getDefaultRegistry().newNameResolver(
+        URI.create("unix:///var/run/app.sock"), Attributes.EMPTY);
+    assertEquals(UnixNameResolverFactory.AUTHORITY, resolver.getServiceAuthority());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void resolvesToDomainSocketAddress() {
+    NameResolver resolver =
+        factory.newNameResolver(URI.create("unix:/var/run/app.sock"), Attributes.EMPTY);
+    NameResolver.Listener listener = mock(NameResolver.Listener.class);
+
+    resolver.start(listener);
+
+    if (domainSocketAddressAvailable()) {
+      ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+      verify(listener).onUpdate(captor.capture(), eq(Attributes.EMPTY));
+      ResolvedServerInfo server = (ResolvedServerInfo) captor.getValue().get(0);
+      assertTrue(Utils.isDomainSocketAddress(server.getAddress()));
+    } else {
+      ArgumentCaptor<Status> captor = ArgumentCaptor.forClass(Status.class);
+      verify(listener).onError(captor.capture());
+      assertEquals(Status.Code.UNAVAILABLE, captor.getValue().getCode());
+    }
+  }
+
+  private static boolean domainSocketAddressAvailable() {
+    try {
+      Class.forName("io.netty.channel.unix.DomainSocketAddress");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+}
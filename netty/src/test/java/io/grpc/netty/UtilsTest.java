@@ -32,10 +32,15 @@
 package io.grpc.netty;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import io.grpc.Status;
 import io.netty.channel.ConnectTimeoutException;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http2.Http2Error;
 import io.netty.handler.codec.http2.Http2Exception;
 
@@ -43,6 +48,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.net.InetSocketAddress;
+
 /** Unit tests for {@link Utils}. */
 @RunWith(JUnit4.class)
 public class UtilsTest {
@@ -59,6 +66,49 @@ public class UtilsTest {
     assertStatusEquals(Status.UNKNOWN.withCause(t), Utils.statusFromThrowable(t));
   }
 
+  @Test
+  public void defaultChannelTypeFollowsEventLoopGroup() {
+    NioEventLoopGroup group = new NioEventLoopGroup(1);
+    try {
+      assertEquals(NioSocketChannel.class, Utils.defaultClientChannelType(group));
+      assertEquals(NioServerSocketChannel.class, Utils.defaultServerChannelType(group));
+    } finally {
+      group.shutdownGracefully();
+    }
+  }
+
+  @Test
+  public void socketAddressesKeepDefaultChannelType() {
+    NioEventLoopGroup group = new NioEventLoopGroup(1);
+    InetSocketAddress address = new InetSocketAddress("localhost", 443);
+    try {
+      assertFalse(Utils.isDomainSocketAddress(address));
+      assertEquals(NioSocketChannel.class,
+          Utils.clientChannelType(address, group, NioSocketChannel.class));
+      assertEquals(NioServerSocketChannel.class, Utils.defaultServerChannelType(address, group));
+    } finally {
+      group.shutdownGracefully();
+    }
+  }
+
+  @Test
+  public void sharedEventLoopGroupMatchesChannelType() {
+    assertSame(Utils.DEFAULT_BOSS_EVENT_LOOP_GROUP,
+        Utils.bossEventLoopGroup(NioServerSocketChannel.class));
+    assertSame(Utils.DEFAULT_WORKER_EVENT_LOOP_GROUP,
+        Utils.workerEventLoopGroup(NioSocketChannel.class));
+    assertSame(Utils.EPOLL_AVAILABLE ? Utils.EPOLL_WORKER_EVENT_LOOP_GROUP
+        : Utils.DEFAULT_WORKER_EVENT_LOOP_GROUP,
+        Utils.workerEventLoopGroup(Utils.defaultClientChannelType(null)));
+  }
+
+  @Test
+  public void nioSupportsTcpOptionsButNotReusePort() {
+    assertTrue(Utils.isTcp(NioSocketChannel.class));
+    assertTrue(Utils.isTcp(NioServerSocketChannel.class));
+    assertFalse(Utils.supportsReusePort(NioServerSocketChannel.class));
+  }
+
   private static void assertStatusEquals(Status expected, Status actual) {
     assertEquals(expected.getCode(), actual.getCode());
     assertEquals(expected.getDescription(), actual.getDescription());
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.grpc.Status;
+import io.netty.buffer.Unpooled;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for {@link WriteQueue}.
+ */
+@RunWith(JUnit4.class)
+public class WriteQueueTest {
+
+  private final List<Object> writes = new ArrayList<Object>();
+  private final List<ChannelPromise> promises = new ArrayList<ChannelPromise>();
+  private int flushes;
+  private EmbeddedChannel channel;
+  private WriteQueue queue;
+
+  @Before
+  public void setUp() {
+    channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+      @Override
+      public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        writes.add(msg);
+        promises.add(promise);
+        promise.trySuccess();
+      }
+
+      @Override
+      public void flush(ChannelHandlerContext ctx) {
+        flushes++;
+      }
+    });
+    queue = new WriteQueue(channel);
+  }
+
+  @Test
+  public void drainShouldWriteInOrderAndFlushOnce() {
+    queue.enqueue("a", false);
+    queue.enqueue("b", channel.newPromise(), false);
+    queue.enqueue("c", true);
+    assertEquals(3, queue.queueDepth());
+    assertTrue(writes.isEmpty());
+
+    channel.runPendingTasks();
+    assertEquals(3, writes.size());
+    assertEquals("a", writes.get(0));
+    assertEquals("b", writes.get(1));
+    assertEquals("c", writes.get(2));
+    assertEquals(1, flushes);
+    assertEquals(0, queue.queueDepth());
+    assertEquals(1, queue.drainCount());
+    assertEquals(3, queue.maxDrainBatchSize());
+    assertEquals(3.0, queue.averageDrainBatchSize(), 0);
+  }
+
+  @Test
+  public void commandsWithoutPromiseShouldUseVoidPromise() {
+    queue.enqueue("a", true);
+    ChannelFuture future = queue.enqueue("b", channel.newPromise(), true);
+    channel.runPendingTasks();
+
+    assertTrue(promises.get(0).isVoid());
+    assertFalse(promises.get(1).isVoid());
+    assertTrue(future.isSuccess());
+  }
+
+  @Test
+  public void enqueueWithoutFlushShouldNotScheduleDrain() {
+    queue.enqueue("a", false);
+    channel.runPendingTasks();
+    assertTrue(writes.isEmpty());
+
+    queue.scheduleFlush();
+    channel.runPendingTasks();
+    assertEquals(1, writes.size());
+    assertEquals(1, flushes);
+  }
+
+  @Test
+  public void concurrentEnqueueShouldWriteAllCommands() throws Exception {
+    final int threads = 8;
+    final int commandsPerThread = 1000;
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> writers = new ArrayList<Thread>();
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      Thread writer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          for (int i = 0; i < commandsPerThread; i++) {
+            queue.enqueue(new int[] {id, i}, i % 10 == 0);
+          }
+        }
+      });
+      writer.start();
+      writers.add(writer);
+    }
+    start.countDown();
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    queue.scheduleFlush();
+    channel.runPendingTasks();
+
+    assertEquals(threads * commandsPerThread, writes.size());
+    assertEquals(0, queue.queueDepth());
+    // Commands from each thread are written in the order they were enqueued.
+    int[] next = new int[threads];
+    for (Object write : writes) {
+      int[] command = (int[]) write;
+      assertEquals(next[command[0]]++, command[1]);
+    }
+  }
+
+  @Test
+  public void dataShouldBeInterleavedBetweenStreams() {
+    NettyServerStream bulk = stream(16);
+    NettyServerStream small = stream(16);
+    for (int i = 0; i < 8; i++) {
+      queue.enqueue(frame(bulk, 16 * 1024), false);
+    }
+    SendGrpcFrameCommand smallFrame = frame(small, 1024);
+    queue.enqueue(smallFrame, true);
+    channel.runPendingTasks();
+
+    assertEquals(9, writes.size());
+    // The small frame is written after the first quantum of the bulk stream, not after all of it.
+    assertSame(smallFrame, writes.get(1));
+    // Each drain writes about a high water mark's worth of DATA.
+    assertEquals(2, flushes);
+  }
+
+  @Test
+  public void dataShouldBeSharedInProportionToWeight() {
+    NettyServerStream light = stream(16);
+    NettyServerStream heavy = stream(64);
+    for (int i = 0; i < 8; i++) {
+      queue.enqueue(frame(light, 16 * 1024), false);
+      queue.enqueue(frame(heavy, 16 * 1024), false);
+    }
+    queue.scheduleFlush();
+    channel.runPendingTasks();
+
+    assertEquals(16, writes.size());
+    assertSame(light, ((SendGrpcFrameCommand) writes.get(0)).stream());
+    for (int i = 1; i < 5; i++) {
+      assertSame(heavy, ((SendGrpcFrameCommand) writes.get(i)).stream());
+    }
+  }
+
+  @Test
+  public void commandsShouldNotOvertakeHeldBackData() {
+    NettyServerStream bulk = stream(16);
+    for (int i = 0; i < 8; i++) {
+      queue.enqueue(frame(bulk, 16 * 1024), false);
+    }
+    SendResponseHeadersCommand trailers =
+        new SendResponseHeadersCommand(bulk, new DefaultHttp2Headers(), true);
+    queue.enqueue(trailers, true);
+    channel.runPendingTasks();
+
+    assertEquals(9, writes.size());
+    assertSame(trailers, writes.get(8));
+  }
+
+  @Test
+  public void cancelShouldNotWaitForHeldBackData() {
+    NettyServerStream bulk = stream(16);
+    for (int i = 0; i < 8; i++) {
+      queue.enqueue(frame(bulk, 16 * 1024), false);
+    }
+    CancelServerStreamCommand cancel = new CancelServerStreamCommand(bulk, Status.CANCELLED);
+    queue.enqueue(cancel, true);
+    channel.runPendingTasks();
+
+    assertEquals(9, writes.size());
+    assertSame(cancel, writes.get(8));
+    assertEquals(1, flushes);
+  }
+
+  private static NettyServerStream stream(int weight) {
+    NettyServerStream stream = mock(NettyServerStream.class);
+    when(stream.weight()).thenReturn(weight);
+    return stream;
+  }
+
+  private static SendGrpcFrameCommand frame(NettyServerStream stream, int size) {
+    return new SendGrpcFrameCommand(stream, Unpooled.wrappedBuffer(new byte[size]), false);
+  }
+}
@@ -40,23 +40,60 @@ import io.grpc.okhttp.internal.framed.Header;
 import io.grpc.okhttp.internal.framed.Settings;
 
 import okio.Buffer;
+import okio.BufferedSink;
 
 import java.io.IOException;
 import java.net.Socket;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
+/**
+ * A {@link FrameWriter} that can be called from any thread. Frames are queued without locking and
+ * written in batches: one task on the executor writes all frames queued so far, and flushes the
+ * socket at most once.
+ */
 class AsyncFrameWriter implements FrameWriter {
   private static final Logger log = Logger.getLogger(OkHttpClientTransport.class.getName());
+
+  /**
+   * The transport, notified when a write fails.
+   */
+  interface TransportExceptionHandler {
+    void onException(Throwable failureCause);
+  }
+
   private FrameWriter frameWriter;
   private Socket socket;
+  /**
+   * If non-null, {@link #frameWriter} writes into this buffer, which is moved to {@link #sink} at
+   * the end of each batch.
+   */
+  @Nullable
+  private Buffer buffer;
+  @Nullable
+  private BufferedSink sink;
+  /** Whether the current batch needs to be flushed. Only accessed by the executor. */
+  private boolean flushRequested;
   // Although writes are thread-safe, we serialize them to prevent consuming many Threads that are
   // just waiting on each other.
   private final SerializingExecutor executor;
-  private final OkHttpClientTransport transport;
+  private final TransportExceptionHandler transport;
+  private final Queue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private final Runnable writeBatch = new Runnable() {
+    @Override
+    public void run() {
+      writeBatch();
+    }
+  };
 
-  public AsyncFrameWriter(OkHttpClientTransport transport, SerializingExecutor executor) {
+  public AsyncFrameWriter(TransportExceptionHandler transport, SerializingExecutor executor) {
     this.transport = transport;
     this.executor = executor;
   }
@@ -74,22 +111,37 @@ class AsyncFrameWriter implements FrameWriter {
     this.socket = Preconditions.checkNotNull(socket);
   }
 
+  /**
+   * Set the real frameWriter, writing into {@code buffer}, and the socket's sink. Flushes the
+   * frameWriter does on its own only take effect at the end of the batch, as does
+   * {@link #flush()}.
+   *
+   * <p>should only be called by thread of executor.
+   */
+  void becomeConnected(FrameWriter frameWriter, Buffer buffer, BufferedSink sink, Socket socket) {
+    becomeConnected(frameWriter, socket);
+    this.buffer = Preconditions.checkNotNull(buffer);
+    this.sink = Preconditions.checkNotNull(sink);
+  }
+
   @Override
   public void connectionPreface() {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
         frameWriter.connectionPreface();
+        frameFlushed();
       }
     });
   }
 
   @Override
   public void ackSettings(final Settings peerSettings) {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
         frameWriter.ackSettings(peerSettings);
+        frameFlushed();
       }
     });
   }
@@ -97,7 +149,7 @@ class AsyncFrameWriter implements FrameWriter {
   @Override
   public void pushPromise(final int streamId, final int promisedStreamId,
       final List<Header> requestHeaders) {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
         frameWriter.pushPromise(streamId, promisedStreamId, requestHeaders);
@@ -107,10 +159,10 @@ class AsyncFrameWriter implements FrameWriter {
 
   @Override
   public void flush() {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
-        frameWriter.flush();
+        flushRequested = true;
       }
     });
   }
@@ -118,7 +170,7 @@ class AsyncFrameWriter implements FrameWriter {
   @Override
   public void synStream(final boolean outFinished, final boolean inFinished, final int streamId,
       final int associatedStreamId, final List<Header> headerBlock) {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
         frameWriter.synStream(outFinished, inFinished, streamId, associatedStreamId, headerBlock);
@@ -129,7 +181,7 @@ class AsyncFrameWriter implements FrameWriter {
   @Override
   public void synReply(final boolean outFinished, final int streamId,
       final List<Header> headerBlock) {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
         frameWriter.synReply(outFinished, streamId, headerBlock);
@@ -139,7 +191,7 @@ class AsyncFrameWriter implements FrameWriter {
 
   @Override
   public void headers(final int streamId, final List<Header> headerBlock) {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
         frameWriter.headers(streamId, headerBlock);
@@ -149,10 +201,11 @@ class AsyncFrameWriter implements FrameWriter {
 
   @Override
   public void rstStream(final int streamId, final ErrorCode errorCode) {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
         frameWriter.rstStream(streamId, errorCode);
+        frameFlushed();
       }
     });
   }
@@ -160,7 +213,7 @@ class AsyncFrameWriter implements FrameWriter {
   @Override
   public void data(final boolean outFinished, final int streamId, final Buffer source,
       final int byteCount) {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
         frameWriter.data(outFinished, streamId, source, byteCount);
@@ -170,20 +223,22 @@ class AsyncFrameWriter implements FrameWriter {
 
   @Override
   public void settings(final Settings okHttpSettings) {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
         frameWriter.settings(okHttpSettings);
+        frameFlushed();
       }
     });
   }
 
   @Override
   public void ping(final boolean ack, final int payload1, final int payload2) {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
         frameWriter.ping(ack, payload1, payload2);
+        frameFlushed();
       }
     });
   }
@@ -191,34 +246,41 @@ class AsyncFrameWriter implements FrameWriter {
   @Override
   public void goAway(final int lastGoodStreamId, final ErrorCode errorCode,
       final byte[] debugData) {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
         frameWriter.goAway(lastGoodStreamId, errorCode, debugData);
         // Flush it since after goAway, we are likely to close this writer.
-        frameWriter.flush();
+        flushRequested = true;
       }
     });
   }
 
   @Override
   public void windowUpdate(final int streamId, final long windowSizeIncrement) {
-    executor.execute(new WriteRunnable() {
+    enqueue(new WriteRunnable() {
       @Override
       public void doRun() throws IOException {
         frameWriter.windowUpdate(streamId, windowSizeIncrement);
+        frameFlushed();
       }
     });
   }
 
   @Override
   public void close() {
-    executor.execute(new Runnable() {
+    enqueue(new Runnable() {
       @Override
       public void run() {
         if (frameWriter != null) {
           try {
+            // Send what was queued before, like a GOAWAY.
+            writeBuffered();
             frameWriter.close();
+            if (sink != null) {
+              // Lets a non-blocking sink write what it still holds and notice the close.
+              sink.close();
+            }
             socket.close();
           } catch (IOException e) {
             log.log(Level.WARNING, "Failed closing connection", e);
@@ -228,6 +290,64 @@ class AsyncFrameWriter implements FrameWriter {
     });
   }
 
+  private void enqueue(Runnable command) {
+    queue.add(command);
+    if (scheduled.compareAndSet(false, true)) {
+      executor.execute(writeBatch);
+    }
+  }
+
+  /**
+   * Writes all queued frames, then hands them to the socket and flushes it once if any of them
+   * needed a flush.
+   */
+  private void writeBatch() {
+    try {
+      Runnable command;
+      while ((command = queue.poll()) != null) {
+        command.run();
+      }
+      if (frameWriter != null) {
+        try {
+          writeBuffered();
+        } catch (IOException e) {
+          transport.onException(e);
+          throw new RuntimeException(e);
+        }
+      }
+    } finally {
+      scheduled.set(false);
+      if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+        executor.execute(writeBatch);
+      }
+    }
+  }
+
+  private void writeBuffered() throws IOException {
+    if (buffer != null) {
+      if (buffer.size() > 0) {
+        // Moves the buffer's segments; the sink writes complete segments to the socket.
+        sink.write(buffer, buffer.size());
+      }
+      if (flushRequested) {
+        sink.flush();
+      }
+    } else if (flushRequested) {
+      frameWriter.flush();
+    }
+    flushRequested = false;
+  }
+
+  /**
+   * Called after writing a frame after which {@link #frameWriter} flushes. When it writes into
+   * {@link #buffer} that has no effect, so the batch is flushed instead.
+   */
+  private void frameFlushed() {
+    if (buffer != null) {
+      flushRequested = true;
+    }
+  }
+
   private abstract class WriteRunnable implements Runnable {
     @Override
     public final void run() {
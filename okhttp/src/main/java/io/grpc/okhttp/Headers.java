@@ -56,6 +56,7 @@ public class Headers {
   public static final Header CONTENT_TYPE_HEADER =
       new Header(CONTENT_TYPE_KEY.name(), GrpcUtil.CONTENT_TYPE_GRPC);
   public static final Header TE_HEADER = new Header("te", GrpcUtil.TE_TRAILERS);
+  public static final Header STATUS_OK_HEADER = new Header(Header.RESPONSE_STATUS, "200");
 
   /**
    * Serializes the given headers and creates a list of OkHttp {@link Header}s to be used when
@@ -86,6 +87,42 @@ public class Headers {
     okhttpHeaders.add(TE_HEADER);
 
     // Now add any application-provided headers.
+    addApplicationHeaders(okhttpHeaders, headers);
+
+    return okhttpHeaders;
+  }
+
+  /**
+   * Serializes the given headers and creates a list of OkHttp {@link Header}s to be used when
+   * responding to a stream.
+   */
+  static List<Header> createResponseHeaders(Metadata headers) {
+    Preconditions.checkNotNull(headers, "headers");
+
+    List<Header> okhttpHeaders = new ArrayList<Header>(2);
+    okhttpHeaders.add(STATUS_OK_HEADER);
+    okhttpHeaders.add(CONTENT_TYPE_HEADER);
+    addApplicationHeaders(okhttpHeaders, headers);
+    return okhttpHeaders;
+  }
+
+  /**
+   * Serializes the given trailers, which include the status, and creates a list of OkHttp
+   * {@link Header}s ending a stream. If no headers were sent, the trailers stand in for them.
+   */
+  static List<Header> createResponseTrailers(Metadata trailers, boolean headersSent) {
+    Preconditions.checkNotNull(trailers, "trailers");
+
+    List<Header> okhttpHeaders = new ArrayList<Header>(4);
+    if (!headersSent) {
+      okhttpHeaders.add(STATUS_OK_HEADER);
+      okhttpHeaders.add(CONTENT_TYPE_HEADER);
+    }
+    addApplicationHeaders(okhttpHeaders, trailers);
+    return okhttpHeaders;
+  }
+
+  private static void addApplicationHeaders(List<Header> okhttpHeaders, Metadata headers) {
     byte[][] serializedHeaders = TransportFrameUtil.toHttp2Headers(headers);
     for (int i = 0; i < serializedHeaders.length; i += 2) {
       ByteString key = ByteString.of(serializedHeaders[i]);
@@ -95,8 +132,6 @@ public class Headers {
         okhttpHeaders.add(new Header(key, value));
       }
     }
-
-    return okhttpHeaders;
   }
 
   /**
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package io.grpc.okhttp;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Sink;
+import okio.Timeout;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * The non-blocking socket of an {@link OkHttpClientTransport}, served by a {@link SelectorLoop}.
+ *
+ * <p>Bytes read are collected in {@link #source()}, and the {@link Listener} is only asked to read
+ * a frame once a complete one is there, so the frame reader never waits for the socket. As a
+ * {@link Sink} it queues written bytes; {@link #flush()} writes as much as the socket takes
+ * without blocking and leaves the rest to the loop, to write when the socket becomes writable.
+ */
+final class NioConnection implements Sink, SelectorLoop.Handler {
+  private static final Logger log = Logger.getLogger(NioConnection.class.getName());
+
+  private static final int FRAME_HEADER_LENGTH = 9;
+  private static final byte TYPE_HEADERS = 0x1;
+  private static final byte TYPE_PUSH_PROMISE = 0x5;
+  private static final byte TYPE_CONTINUATION = 0x9;
+  private static final byte FLAG_END_HEADERS = 0x4;
+
+  /**
+   * Called on the loop's thread.
+   */
+  interface Listener {
+    /**
+     * A complete frame is at the start of {@link #source()}, which must be consumed. Returns
+     * {@code false} to close the connection instead, like after a protocol error.
+     */
+    boolean frameAvailable();
+
+    /**
+     * The connection closed, because the peer closed it, an I/O error, or {@link #close()}. Called
+     * once.
+     */
+    void connectionClosed(@Nullable IOException cause);
+  }
+
+  private final SocketChannel channel;
+  private final SelectorLoop loop;
+  // Only accessed on the loop's thread.
+  private final Buffer source = new Buffer();
+  private Listener listener;
+  private SelectionKey key;
+  private boolean closed;
+
+  private final Object writeLock = new Object();
+  @GuardedBy("writeLock")
+  private final Buffer pendingWrites = new Buffer();
+  /** Bytes taken from {@link #pendingWrites} that the socket did not accept yet. */
+  @GuardedBy("writeLock")
+  private final ByteBuffer writeBuffer = ByteBuffer.allocate(16 * 1024);
+  @GuardedBy("writeLock")
+  private boolean waitingForWritable;
+
+  private final Runnable enableWriteInterest = new Runnable() {
+    @Override
+    public void run() {
+      if (key != null && key.isValid()) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      }
+    }
+  };
+
+  NioConnection(SocketChannel channel, SelectorLoop loop) {
+    this.channel = channel;
+    this.loop = loop;
+    writeBuffer.flip();
+  }
+
+  /**
+   * Returns the bytes read so far. Only to be read from by the {@link Listener}.
+   */
+  BufferedSource source() {
+    return source;
+  }
+
+  /**
+   * Registers the channel with the loop and starts reading. The channel must be non-blocking.
+   */
+  void start(Listener listener) {
+    this.listener = listener;
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          key = loop.register(channel, NioConnection.this);
+        } catch (IOException e) {
+          closeOnLoop(e);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void onReadable(SelectionKey key) {
+    ByteBuffer readBuffer = loop.readBuffer;
+    try {
+      int read;
+      do {
+        readBuffer.clear();
+        read = channel.read(readBuffer);
+        if (read == -1) {
+          closeOnLoop(null);
+          return;
+        }
+        source.write(readBuffer.array(), 0, read);
+      } while (read == readBuffer.capacity());
+    } catch (IOException e) {
+      closeOnLoop(e);
+      return;
+    }
+    while (!closed && hasCompleteFrame(source)) {
+      if (!listener.frameAvailable()) {
+        closeOnLoop(null);
+      }
+    }
+  }
+
+  @Override
+  public void onWritable(SelectionKey key) {
+    IOException failure = null;
+    synchronized (writeLock) {
+      try {
+        if (writePending()) {
+          waitingForWritable = false;
+          key.interestOps(SelectionKey.OP_READ);
+        }
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      closeOnLoop(failure);
+    }
+  }
+
+  @Override
+  public void write(Buffer source, long byteCount) {
+    synchronized (writeLock) {
+      pendingWrites.write(source, byteCount);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    synchronized (writeLock) {
+      if (waitingForWritable) {
+        // The loop writes the rest once the socket is writable.
+        return;
+      }
+      if (!writePending()) {
+        waitingForWritable = true;
+        loop.execute(enableWriteInterest);
+      }
+    }
+  }
+
+  @Override
+  public Timeout timeout() {
+    return Timeout.NONE;
+  }
+
+  /**
+   * Writes what the socket takes right away, then closes the connection on the loop.
+   */
+  @Override
+  public void close() {
+    synchronized (writeLock) {
+      try {
+        writePending();
+      } catch (IOException e) {
+        log.log(Level.FINE, "Failed writing before close", e);
+      }
+    }
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        closeOnLoop(null);
+      }
+    });
+  }
+
+  /**
+   * Writes pending bytes until the socket takes no more. Returns whether all were written.
+   */
+  @GuardedBy("writeLock")
+  private boolean writePending() throws IOException {
+    while (true) {
+      if (!writeBuffer.hasRemaining()) {
+        writeBuffer.clear();
+        int count = pendingWrites.read(writeBuffer.array(), 0, writeBuffer.capacity());
+        if (count <= 0) {
+          writeBuffer.limit(0);
+          return true;
+        }
+        writeBuffer.limit(count);
+      }
+      channel.write(writeBuffer);
+      if (writeBuffer.hasRemaining()) {
+        return false;
+      }
+    }
+  }
+
+  private void closeOnLoop(@Nullable IOException cause) {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (key != null) {
+      key.cancel();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed closing channel", e);
+    }
+    listener.connectionClosed(cause);
+  }
+
+  /**
+   * Returns whether {@code buffer} starts with a complete frame. A HEADERS or PUSH_PROMISE frame
+   * without END_HEADERS is only complete with the CONTINUATION frames that end its header block,
+   * because the frame reader reads them together.
+   */
+  @VisibleForTesting
+  static boolean hasCompleteFrame(Buffer buffer) {
+    long offset = 0;
+    while (true) {
+      if (buffer.size() < offset + FRAME_HEADER_LENGTH) {
+        return false;
+      }
+      int length = (buffer.getByte(offset) & 0xff) << 16
+          | (buffer.getByte(offset + 1) & 0xff) << 8
+          | (buffer.getByte(offset + 2) & 0xff);
+      byte type = buffer.getByte(offset + 3);
+      byte flags = buffer.getByte(offset + 4);
+      offset += FRAME_HEADER_LENGTH + length;
+      if (buffer.size() < offset) {
+        return false;
+      }
+      boolean headerBlock = type == TYPE_HEADERS || type == TYPE_PUSH_PROMISE
+          || type == TYPE_CONTINUATION;
+      if (!headerBlock || (flags & FLAG_END_HEADERS) != 0) {
+        return true;
+      }
+    }
+  }
+}
@@ -32,6 +32,7 @@
 package io.grpc.okhttp;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static io.grpc.internal.GrpcUtil.DEFAULT_MAX_MESSAGE_SIZE;
 
 import com.google.common.base.Preconditions;
@@ -52,11 +53,13 @@ import io.grpc.internal.ManagedClientTransport;
 import io.grpc.internal.SharedResourceHolder;
 import io.grpc.internal.SharedResourceHolder.Resource;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 import javax.net.ssl.SSLSocketFactory;
@@ -82,7 +85,7 @@ public class OkHttpChannelBuilder extends
           .supportsTlsExtensions(true)
           .build();
 
-  private static final Resource<ExecutorService> SHARED_EXECUTOR =
+  static final Resource<ExecutorService> SHARED_EXECUTOR =
       new Resource<ExecutorService>() {
         @Override
         public ExecutorService create() {
@@ -98,6 +101,24 @@ public class OkHttpChannelBuilder extends
         }
       };
 
+  private static final Resource<SelectorLoopGroup> SHARED_SELECTOR_LOOPS =
+      new Resource<SelectorLoopGroup>() {
+        @Override
+        public SelectorLoopGroup create() {
+          try {
+            return new SelectorLoopGroup(
+                Math.min(Runtime.getRuntime().availableProcessors(), 4));
+          } catch (IOException e) {
+            throw new RuntimeException("Failed to open selectors", e);
+          }
+        }
+
+        @Override
+        public void close(SelectorLoopGroup group) {
+          group.shutdown();
+        }
+      };
+
   /** Creates a new builder for the given server host and port. */
   public static OkHttpChannelBuilder forAddress(String host, int port) {
     return new OkHttpChannelBuilder(host, port);
@@ -117,6 +138,10 @@ public class OkHttpChannelBuilder extends
   private ConnectionSpec connectionSpec = DEFAULT_CONNECTION_SPEC;
   private NegotiationType negotiationType = NegotiationType.TLS;
   private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+  private long keepAliveTimeNanos = GrpcUtil.KEEPALIVE_TIME_NANOS_DISABLED;
+  private long keepAliveTimeoutNanos = GrpcUtil.DEFAULT_KEEPALIVE_TIMEOUT_NANOS;
+  private boolean keepAliveWithoutCalls;
+  private boolean nonBlockingIo;
 
   protected OkHttpChannelBuilder(String host, int port) {
     this(GrpcUtil.authorityFromHostAndPort(host, port));
@@ -181,6 +206,49 @@ public class OkHttpChannelBuilder extends
     return this;
   }
 
+  /**
+   * Enables keepalive: if no data is received on a connection for the given time, a PING frame is
+   * sent to check that the peer is still there. If the ping is not answered within the
+   * {@linkplain #keepAliveTimeout keepalive timeout} the connection is closed, failing its calls
+   * with {@link io.grpc.Status.Code#UNAVAILABLE UNAVAILABLE}, and a new connection is made when
+   * needed. Keepalive is disabled by default.
+   */
+  public final OkHttpChannelBuilder keepAliveTime(long keepAliveTime, TimeUnit timeUnit) {
+    checkArgument(keepAliveTime > 0L, "keepalive time must be positive");
+    keepAliveTimeNanos = timeUnit.toNanos(keepAliveTime);
+    return this;
+  }
+
+  /**
+   * Sets how long to wait for a keepalive ping to be answered before closing the connection. If
+   * not called, defaults to 20 seconds. Has no effect unless {@link #keepAliveTime} is set.
+   */
+  public final OkHttpChannelBuilder keepAliveTimeout(long keepAliveTimeout, TimeUnit timeUnit) {
+    checkArgument(keepAliveTimeout > 0L, "keepalive timeout must be positive");
+    keepAliveTimeoutNanos = timeUnit.toNanos(keepAliveTimeout);
+    return this;
+  }
+
+  /**
+   * Sets whether keepalive pings are sent while the connection has no outstanding calls. Defaults
+   * to {@code false}, so idle connections do not generate traffic.
+   */
+  public final OkHttpChannelBuilder keepAliveWithoutCalls(boolean enable) {
+    keepAliveWithoutCalls = enable;
+    return this;
+  }
+
+  /**
+   * Sets whether connections are served by a few shared selector threads using non-blocking I/O,
+   * instead of each having a thread blocked reading its socket. This lets a client keep many
+   * connections open without as many threads. Only supported with
+   * {@link NegotiationType#PLAINTEXT}. Defaults to {@code false}.
+   */
+  public final OkHttpChannelBuilder nonBlockingIo(boolean enable) {
+    nonBlockingIo = enable;
+    return this;
+  }
+
   /**
    * Equivalent to using {@link #negotiationType(NegotiationType)} with {@code PLAINTEXT}.
    */
@@ -196,8 +264,11 @@ public class OkHttpChannelBuilder extends
 
   @Override
   protected final ClientTransportFactory buildTransportFactory() {
+    checkState(!nonBlockingIo || negotiationType == NegotiationType.PLAINTEXT,
+        "Non-blocking I/O is only supported with plaintext");
     return new OkHttpTransportFactory(transportExecutor,
-            createSocketFactory(), connectionSpec, maxMessageSize);
+            createSocketFactory(), connectionSpec, maxMessageSize, keepAliveTimeNanos,
+            keepAliveTimeoutNanos, keepAliveWithoutCalls, nonBlockingIo);
   }
 
   @Override
@@ -236,14 +307,26 @@ public class OkHttpChannelBuilder extends
     private final SSLSocketFactory socketFactory;
     private final ConnectionSpec connectionSpec;
     private final int maxMessageSize;
+    private final long keepAliveTimeNanos;
+    private final long keepAliveTimeoutNanos;
+    private final boolean keepAliveWithoutCalls;
+    @Nullable
+    private final SelectorLoopGroup selectorLoops;
 
     private OkHttpTransportFactory(Executor executor,
                                    SSLSocketFactory socketFactory,
                                    ConnectionSpec connectionSpec,
-                                   int maxMessageSize) {
+                                   int maxMessageSize,
+                                   long keepAliveTimeNanos,
+                                   long keepAliveTimeoutNanos,
+                                   boolean keepAliveWithoutCalls,
+                                   boolean nonBlockingIo) {
       this.socketFactory = socketFactory;
       this.connectionSpec = connectionSpec;
       this.maxMessageSize = maxMessageSize;
+      this.keepAliveTimeNanos = keepAliveTimeNanos;
+      this.keepAliveTimeoutNanos = keepAliveTimeoutNanos;
+      this.keepAliveWithoutCalls = keepAliveWithoutCalls;
 
       usingSharedExecutor = executor == null;
       if (usingSharedExecutor) {
@@ -252,13 +335,20 @@ public class OkHttpChannelBuilder extends
       } else {
         this.executor = executor;
       }
+      selectorLoops = nonBlockingIo ? SharedResourceHolder.get(SHARED_SELECTOR_LOOPS) : null;
     }
 
     @Override
     public ManagedClientTransport newClientTransport(SocketAddress addr, String authority) {
       InetSocketAddress inetSocketAddr = (InetSocketAddress) addr;
-      return new OkHttpClientTransport(inetSocketAddr, authority, executor, socketFactory,
-          Utils.convertSpec(connectionSpec), maxMessageSize);
+      OkHttpClientTransport transport = new OkHttpClientTransport(inetSocketAddr, authority,
+          executor, socketFactory, Utils.convertSpec(connectionSpec), maxMessageSize);
+      transport.enableKeepAlive(keepAliveTimeNanos != GrpcUtil.KEEPALIVE_TIME_NANOS_DISABLED,
+          keepAliveTimeNanos, keepAliveTimeoutNanos, keepAliveWithoutCalls);
+      if (selectorLoops != null) {
+        transport.useSelectorLoop(selectorLoops.next());
+      }
+      return transport;
     }
 
     @Override
@@ -266,6 +356,9 @@ public class OkHttpChannelBuilder extends
       if (usingSharedExecutor) {
         SharedResourceHolder.release(SHARED_EXECUTOR, (ExecutorService) executor);
       }
+      if (selectorLoops != null) {
+        SharedResourceHolder.release(SHARED_SELECTOR_LOOPS, selectorLoops);
+      }
     }
   }
 }
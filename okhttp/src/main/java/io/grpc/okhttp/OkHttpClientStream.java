@@ -31,6 +31,7 @@
 
 package io.grpc.okhttp;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -56,7 +57,7 @@ import javax.annotation.concurrent.GuardedBy;
 /**
  * Client stream for the okhttp transport.
  */
-class OkHttpClientStream extends Http2ClientStream {
+class OkHttpClientStream extends Http2ClientStream implements OutboundFlowController.Stream {
 
   private static final int WINDOW_UPDATE_THRESHOLD = Utils.DEFAULT_WINDOW_SIZE / 2;
 
@@ -74,6 +75,7 @@ class OkHttpClientStream extends Http2ClientStream {
   private final OkHttpClientTransport transport;
   private final Object lock;
   private String authority;
+  private int weight = Utils.DEFAULT_WEIGHT;
   private Object outboundFlowState;
   private volatile Integer id;
   @GuardedBy("lock")
@@ -132,6 +134,18 @@ class OkHttpClientStream extends Http2ClientStream {
     this.authority = checkNotNull(authority, "authority");
   }
 
+  @Override
+  public void setWeight(int weight) {
+    checkState(listener() == null, "must be call before start");
+    checkArgument(weight >= Utils.MIN_WEIGHT && weight <= Utils.MAX_WEIGHT, "weight out of range");
+    this.weight = weight;
+  }
+
+  @Override
+  public int weight() {
+    return weight;
+  }
+
   @Override
   public void start(ClientStreamListener listener) {
     super.start(listener);
@@ -180,7 +194,8 @@ class OkHttpClientStream extends Http2ClientStream {
     onStreamAllocated();
   }
 
-  void onStreamSentBytes(int numBytes) {
+  @Override
+  public void onStreamSentBytes(int numBytes) {
     onSentBytes(numBytes);
   }
 
@@ -290,11 +305,13 @@ class OkHttpClientStream extends Http2ClientStream {
     transport.finishStream(id(), null, null);
   }
 
-  void setOutboundFlowState(Object outboundFlowState) {
+  @Override
+  public void setOutboundFlowState(Object outboundFlowState) {
     this.outboundFlowState = outboundFlowState;
   }
 
-  Object getOutboundFlowState() {
+  @Override
+  public Object getOutboundFlowState() {
     return outboundFlowState;
   }
 
@@ -32,11 +32,13 @@
 package io.grpc.okhttp;
 
 import static com.google.common.base.Preconditions.checkState;
+import static io.grpc.internal.GrpcUtil.TIMER_SERVICE;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 
 import io.grpc.Metadata;
@@ -46,8 +48,11 @@ import io.grpc.Status;
 import io.grpc.Status.Code;
 import io.grpc.internal.GrpcUtil;
 import io.grpc.internal.Http2Ping;
+import io.grpc.internal.KeepAliveManager;
+import io.grpc.internal.KeepAliveManager.KeepAlivePinger;
 import io.grpc.internal.ManagedClientTransport;
 import io.grpc.internal.SerializingExecutor;
+import io.grpc.internal.SharedResourceHolder;
 import io.grpc.okhttp.internal.ConnectionSpec;
 import io.grpc.okhttp.internal.framed.ErrorCode;
 import io.grpc.okhttp.internal.framed.FrameReader;
@@ -68,6 +73,8 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -76,6 +83,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -86,10 +94,22 @@ import javax.net.ssl.SSLSocketFactory;
 /**
  * A okhttp-based {@link ManagedClientTransport} implementation.
  */
-class OkHttpClientTransport implements ManagedClientTransport {
+class OkHttpClientTransport implements ManagedClientTransport,
+    AsyncFrameWriter.TransportExceptionHandler, OutboundFlowController.Transport {
   private static final Map<ErrorCode, Status> ERROR_CODE_TO_STATUS;
   private static final Logger log = Logger.getLogger(OkHttpClientTransport.class.getName());
   private static final OkHttpClientStream[] EMPTY_STREAM_ARRAY = new OkHttpClientStream[0];
+  /**
+   * Callback for keepalive pings. Their acks are reported to the {@link KeepAliveManager} like
+   * any other frame, so there is nothing left to do when they complete.
+   */
+  private static final PingCallback KEEPALIVE_PING_CALLBACK = new PingCallback() {
+    @Override
+    public void onSuccess(long roundTripTimeNanos) {}
+
+    @Override
+    public void onFailure(Throwable cause) {}
+  };
 
   static {
     Map<ErrorCode, Status> errorToStatus = new HashMap<ErrorCode, Status>();
@@ -162,6 +182,15 @@ class OkHttpClientTransport implements ManagedClientTransport {
   private LinkedList<OkHttpClientStream> pendingStreams = new LinkedList<OkHttpClientStream>();
   private final ConnectionSpec connectionSpec;
   private FrameWriter testFrameWriter;
+  private boolean enableKeepAlive;
+  private long keepAliveTimeNanos;
+  private long keepAliveTimeoutNanos;
+  private boolean keepAliveWithoutCalls;
+  @Nullable
+  private KeepAliveManager keepAliveManager;
+  private ScheduledExecutorService scheduler;
+  @Nullable
+  private SelectorLoop selectorLoop;
 
   // The following fields should only be used for test.
   Runnable connectingCallback;
@@ -210,6 +239,27 @@ class OkHttpClientTransport implements ManagedClientTransport {
     return address == null;
   }
 
+  /**
+   * Enables keepalive pings. Must be called before {@link #start}.
+   */
+  void enableKeepAlive(boolean enable, long keepAliveTimeNanos,
+      long keepAliveTimeoutNanos, boolean keepAliveWithoutCalls) {
+    enableKeepAlive = enable;
+    this.keepAliveTimeNanos = keepAliveTimeNanos;
+    this.keepAliveTimeoutNanos = keepAliveTimeoutNanos;
+    this.keepAliveWithoutCalls = keepAliveWithoutCalls;
+  }
+
+  /**
+   * Serves the connection with the given selector loop using non-blocking I/O, instead of a
+   * thread blocked reading the socket. Must be called before {@link #start}. Not supported with
+   * TLS.
+   */
+  void useSelectorLoop(SelectorLoop selectorLoop) {
+    checkState(sslSocketFactory == null, "Non-blocking I/O is not supported with TLS");
+    this.selectorLoop = Preconditions.checkNotNull(selectorLoop, "selectorLoop");
+  }
+
   @Override
   public void ping(final PingCallback callback, Executor executor) {
     checkState(frameWriter != null);
@@ -266,6 +316,9 @@ class OkHttpClientTransport implements ManagedClientTransport {
   private void startStream(OkHttpClientStream stream) {
     Preconditions.checkState(stream.id() == null, "StreamId already assigned");
     streams.put(nextStreamId, stream);
+    if (keepAliveManager != null && streams.size() == 1) {
+      keepAliveManager.onTransportActive();
+    }
     stream.start(nextStreamId);
     stream.allocated();
     // For unary and server streaming, there will be a data frame soon, no need to flush the header.
@@ -315,6 +368,23 @@ class OkHttpClientTransport implements ManagedClientTransport {
     frameWriter = new AsyncFrameWriter(this, serializingExecutor);
     outboundFlow = new OutboundFlowController(this, frameWriter);
 
+    if (enableKeepAlive) {
+      scheduler = SharedResourceHolder.get(TIMER_SERVICE);
+      keepAliveManager = new KeepAliveManager(new KeepAlivePinger() {
+        @Override
+        public void ping() {
+          OkHttpClientTransport.this.ping(KEEPALIVE_PING_CALLBACK,
+              MoreExecutors.directExecutor());
+        }
+
+        @Override
+        public void onPingTimeout() {
+          startGoAway(0, Status.UNAVAILABLE.withDescription(
+              "Keepalive failed. The connection is likely gone"));
+        }
+      }, scheduler, keepAliveTimeNanos, keepAliveTimeoutNanos, keepAliveWithoutCalls);
+    }
+
     // Connecting in the serializingExecutor, so that some stream operations like synStream
     // will be executed after connected.
     serializingExecutor.execute(new Runnable() {
@@ -326,6 +396,9 @@ class OkHttpClientTransport implements ManagedClientTransport {
           }
           clientFrameHandler = new ClientFrameHandler(testFrameReader);
           executor.execute(clientFrameHandler);
+          if (keepAliveManager != null) {
+            keepAliveManager.onTransportStarted();
+          }
           synchronized (lock) {
             maxConcurrentStreams = Integer.MAX_VALUE;
           }
@@ -338,15 +411,27 @@ class OkHttpClientTransport implements ManagedClientTransport {
         BufferedSource source;
         BufferedSink sink;
         Socket sock;
+        NioConnection connection = null;
         try {
-          sock = new Socket(address.getAddress(), address.getPort());
-          if (sslSocketFactory != null) {
-            sock = OkHttpTlsUpgrader.upgrade(
-                sslSocketFactory, sock, getOverridenHost(), getOverridenPort(), connectionSpec);
+          if (selectorLoop != null) {
+            // Connect blocking, as the serializing executor has to wait for it anyway.
+            SocketChannel channel = SocketChannel.open(address);
+            sock = channel.socket();
+            sock.setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            connection = new NioConnection(channel, selectorLoop);
+            source = connection.source();
+            sink = Okio.buffer(connection);
+          } else {
+            sock = new Socket(address.getAddress(), address.getPort());
+            if (sslSocketFactory != null) {
+              sock = OkHttpTlsUpgrader.upgrade(
+                  sslSocketFactory, sock, getOverridenHost(), getOverridenPort(), connectionSpec);
+            }
+            sock.setTcpNoDelay(true);
+            source = Okio.buffer(Okio.source(sock));
+            sink = Okio.buffer(Okio.sink(sock));
           }
-          sock.setTcpNoDelay(true);
-          source = Okio.buffer(Okio.source(sock));
-          sink = Okio.buffer(Okio.sink(sock));
         } catch (RuntimeException e) {
           onException(e);
           throw e;
@@ -373,8 +458,11 @@ class OkHttpClientTransport implements ManagedClientTransport {
         }
 
         Variant variant = new Http2();
-        rawFrameWriter = variant.newWriter(sink, true);
-        frameWriter.becomeConnected(rawFrameWriter, socket);
+        // Frames are written into a buffer, which the AsyncFrameWriter hands to the socket once per
+        // batch of frames.
+        Buffer frameBuffer = new Buffer();
+        rawFrameWriter = variant.newWriter(frameBuffer, true);
+        frameWriter.becomeConnected(rawFrameWriter, frameBuffer, sink, socket);
 
         try {
           // Do these with the raw FrameWriter, so that they will be done in this thread,
@@ -382,6 +470,7 @@ class OkHttpClientTransport implements ManagedClientTransport {
           rawFrameWriter.connectionPreface();
           Settings settings = new Settings();
           rawFrameWriter.settings(settings);
+          frameWriter.flush();
         } catch (RuntimeException e) {
           onException(e);
           throw e;
@@ -391,7 +480,14 @@ class OkHttpClientTransport implements ManagedClientTransport {
         }
 
         clientFrameHandler = new ClientFrameHandler(variant.newReader(source, true));
-        executor.execute(clientFrameHandler);
+        if (connection != null) {
+          connection.start(clientFrameHandler);
+        } else {
+          executor.execute(clientFrameHandler);
+        }
+        if (keepAliveManager != null) {
+          keepAliveManager.onTransportStarted();
+        }
         startPendingStreams();
       }
     });
@@ -459,6 +555,12 @@ class OkHttpClientTransport implements ManagedClientTransport {
     }
   }
 
+  @GuardedBy("lock")
+  @Override
+  public Collection<OkHttpClientStream> activeStreams() {
+    return streams.values();
+  }
+
   @VisibleForTesting
   ClientFrameHandler getHandler() {
     return clientFrameHandler;
@@ -474,7 +576,8 @@ class OkHttpClientTransport implements ManagedClientTransport {
   /**
    * Finish all active streams due to an IOException, then close the transport.
    */
-  void onException(Throwable failureCause) {
+  @Override
+  public void onException(Throwable failureCause) {
     log.log(Level.WARNING, "Transport failed", failureCause);
     startGoAway(0, Status.UNAVAILABLE.withCause(failureCause));
   }
@@ -539,6 +642,9 @@ class OkHttpClientTransport implements ManagedClientTransport {
     synchronized (lock) {
       OkHttpClientStream stream = streams.remove(streamId);
       if (stream != null) {
+        if (keepAliveManager != null && streams.isEmpty()) {
+          keepAliveManager.onTransportIdle();
+        }
         if (errorCode != null) {
           frameWriter.rstStream(streamId, ErrorCode.CANCEL);
         }
@@ -566,6 +672,11 @@ class OkHttpClientTransport implements ManagedClientTransport {
           // thread, which will close the frameReader and notify the listener.
           frameWriter.close();
 
+          if (keepAliveManager != null) {
+            keepAliveManager.onTransportShutdown();
+            scheduler = SharedResourceHolder.release(TIMER_SERVICE, scheduler);
+          }
+
           if (ping != null) {
             ping.failed(getPingFailure());
             ping = null;
@@ -591,7 +702,8 @@ class OkHttpClientTransport implements ManagedClientTransport {
     }
   }
 
-  OkHttpClientStream getStream(int streamId) {
+  @Override
+  public OkHttpClientStream getStream(int streamId) {
     synchronized (lock) {
       return streams.get(streamId);
     }
@@ -608,10 +720,11 @@ class OkHttpClientTransport implements ManagedClientTransport {
   }
 
   /**
-   * Runnable which reads frames and dispatches them to in flight calls.
+   * Runnable which reads frames and dispatches them to in flight calls. With non-blocking I/O it
+   * is instead called back by the {@link NioConnection} for each frame received.
    */
   @VisibleForTesting
-  class ClientFrameHandler implements FrameReader.Handler, Runnable {
+  class ClientFrameHandler implements FrameReader.Handler, Runnable, NioConnection.Listener {
     FrameReader frameReader;
     boolean firstSettings = true;
 
@@ -626,6 +739,9 @@ class OkHttpClientTransport implements ManagedClientTransport {
       try {
         // Read until the underlying socket closes.
         while (frameReader.nextFrame(this)) {
+          if (keepAliveManager != null) {
+            keepAliveManager.onDataReceived();
+          }
         }
         // frameReader.nextFrame() returns false when the underlying read encounters an IOException,
         // it may be triggered by the socket closing, in such case, the startGoAway() will do
@@ -649,6 +765,28 @@ class OkHttpClientTransport implements ManagedClientTransport {
       }
     }
 
+    @Override
+    public boolean frameAvailable() {
+      try {
+        frameReader.nextFrame(this);
+        if (keepAliveManager != null) {
+          keepAliveManager.onDataReceived();
+        }
+        return true;
+      } catch (Exception t) {
+        frameWriter.goAway(0, ErrorCode.PROTOCOL_ERROR, new byte[0]);
+        onException(t);
+        return false;
+      }
+    }
+
+    @Override
+    public void connectionClosed(@Nullable IOException cause) {
+      // Like the end of run(): does nothing if the transport closed the connection.
+      startGoAway(0, Status.UNAVAILABLE);
+      listener.transportTerminated();
+    }
+
     /**
      * Handle a HTTP2 DATA frame.
      */
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package io.grpc.okhttp;
+
+import io.grpc.Metadata;
+import io.grpc.internal.Server;
+import io.grpc.internal.ServerListener;
+import io.grpc.internal.ServerStream;
+import io.grpc.internal.ServerStreamListener;
+import io.grpc.internal.ServerTransportListener;
+import io.grpc.internal.SharedResourceHolder;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A okhttp-based {@link Server}, accepting plaintext HTTP/2 connections with a blocking
+ * {@link ServerSocket}. Each connection takes a thread of the executor to read it.
+ */
+class OkHttpServer implements Server {
+  private static final Logger log = Logger.getLogger(OkHttpServer.class.getName());
+
+  private final SocketAddress address;
+  @Nullable
+  private final Executor transportExecutor;
+  private final int maxMessageSize;
+  /** The server and its live transports, which all run on the executor. */
+  private final AtomicInteger executorUsers = new AtomicInteger(1);
+  private ServerListener listener;
+  private ServerSocket serverSocket;
+  private Executor executor;
+  private volatile boolean shutdown;
+
+  OkHttpServer(SocketAddress address, @Nullable Executor transportExecutor, int maxMessageSize) {
+    this.address = address;
+    this.transportExecutor = transportExecutor;
+    this.maxMessageSize = maxMessageSize;
+  }
+
+  @Override
+  public void start(ServerListener serverListener) throws IOException {
+    listener = serverListener;
+    serverSocket = new ServerSocket();
+    try {
+      serverSocket.setReuseAddress(true);
+      serverSocket.bind(address);
+    } catch (IOException e) {
+      serverSocket.close();
+      throw e;
+    }
+    executor = transportExecutor != null
+        ? transportExecutor : SharedResourceHolder.get(OkHttpChannelBuilder.SHARED_EXECUTOR);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        acceptConnections();
+      }
+    });
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown = true;
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed closing server socket", e);
+    }
+  }
+
+  private void acceptConnections() {
+    String threadName = Thread.currentThread().getName();
+    Thread.currentThread().setName("OkHttpServer");
+    try {
+      while (true) {
+        Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        startTransport(socket);
+      }
+    } catch (IOException e) {
+      if (!shutdown) {
+        log.log(Level.WARNING, "Failed accepting connections", e);
+      }
+    } finally {
+      try {
+        serverSocket.close();
+      } catch (IOException e) {
+        log.log(Level.WARNING, "Failed closing server socket", e);
+      }
+      listener.serverShutdown();
+      releaseExecutor();
+      Thread.currentThread().setName(threadName);
+    }
+  }
+
+  private void startTransport(Socket socket) {
+    OkHttpServerTransport transport = new OkHttpServerTransport(socket, executor, maxMessageSize);
+    final ServerTransportListener transportListener = listener.transportCreated(transport);
+    executorUsers.incrementAndGet();
+    transport.start(new ServerTransportListener() {
+      @Override
+      public ServerStreamListener streamCreated(ServerStream stream, String method,
+          Metadata headers) {
+        return transportListener.streamCreated(stream, method, headers);
+      }
+
+      @Override
+      public void transportTerminated() {
+        transportListener.transportTerminated();
+        releaseExecutor();
+      }
+    });
+  }
+
+  private void releaseExecutor() {
+    if (executorUsers.decrementAndGet() == 0 && transportExecutor == null) {
+      SharedResourceHolder.release(
+          OkHttpChannelBuilder.SHARED_EXECUTOR, (ExecutorService) executor);
+    }
+  }
+}
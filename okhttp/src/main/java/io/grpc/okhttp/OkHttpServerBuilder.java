@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package io.grpc.okhttp;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.grpc.internal.GrpcUtil.DEFAULT_MAX_MESSAGE_SIZE;
+
+import com.google.common.base.Preconditions;
+
+import io.grpc.ExperimentalApi;
+import io.grpc.internal.AbstractServerImplBuilder;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+
+/**
+ * Builder for a small server on the OkHttp transport, for processes that only need a simple gRPC
+ * endpoint and would rather not depend on Netty. It serves plaintext HTTP/2 with blocking sockets,
+ * using a thread per connection.
+ */
+@ExperimentalApi("There is no plan to make this API stable, given transport API instability")
+public final class OkHttpServerBuilder extends AbstractServerImplBuilder<OkHttpServerBuilder> {
+
+  /**
+   * Creates a server builder that will bind to the given port on all interfaces.
+   */
+  public static OkHttpServerBuilder forPort(int port) {
+    return forAddress(new InetSocketAddress(port));
+  }
+
+  /**
+   * Creates a server builder that will bind to the given address.
+   */
+  public static OkHttpServerBuilder forAddress(SocketAddress address) {
+    return new OkHttpServerBuilder(address);
+  }
+
+  private final SocketAddress address;
+  private Executor transportExecutor;
+  private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+
+  private OkHttpServerBuilder(SocketAddress address) {
+    this.address = Preconditions.checkNotNull(address, "address");
+  }
+
+  /**
+   * Override the default executor running the threads that accept and read connections.
+   *
+   * <p>The server does not take ownership of the given executor. It is the caller's
+   * responsibility to shutdown the executor when appropriate.
+   */
+  public OkHttpServerBuilder transportExecutor(@Nullable Executor transportExecutor) {
+    this.transportExecutor = transportExecutor;
+    return this;
+  }
+
+  /**
+   * Sets the maximum message size allowed to be received on the server. If not called,
+   * defaults to {@link io.grpc.internal.GrpcUtil#DEFAULT_MAX_MESSAGE_SIZE}.
+   */
+  public OkHttpServerBuilder maxMessageSize(int maxMessageSize) {
+    checkArgument(maxMessageSize >= 0, "maxMessageSize must be >= 0");
+    this.maxMessageSize = maxMessageSize;
+    return this;
+  }
+
+  @Override
+  protected OkHttpServer buildTransportServer() {
+    return new OkHttpServer(address, transportExecutor, maxMessageSize);
+  }
+
+  @Override
+  public OkHttpServerBuilder useTransportSecurity(File certChain, File privateKey) {
+    throw new UnsupportedOperationException("TLS not supported in OkHttpServer");
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package io.grpc.okhttp;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.internal.AbstractServerStream;
+import io.grpc.internal.WritableBuffer;
+import io.grpc.okhttp.internal.framed.ErrorCode;
+import io.grpc.okhttp.internal.framed.Header;
+
+import okio.Buffer;
+
+import java.util.List;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Server stream for the okhttp transport.
+ */
+class OkHttpServerStream extends AbstractServerStream<Integer>
+    implements OutboundFlowController.Stream {
+
+  private static final int WINDOW_UPDATE_THRESHOLD = Utils.DEFAULT_WINDOW_SIZE / 2;
+
+  private final int id;
+  private final AsyncFrameWriter frameWriter;
+  private final OutboundFlowController outboundFlow;
+  private final OkHttpServerTransport transport;
+  private final Object lock;
+  private Object outboundFlowState;
+  @GuardedBy("lock")
+  private int window = Utils.DEFAULT_WINDOW_SIZE;
+  @GuardedBy("lock")
+  private int processedWindow = Utils.DEFAULT_WINDOW_SIZE;
+  /** Whether the client half-closed the stream. */
+  @GuardedBy("lock")
+  private boolean remoteEndClosed;
+
+  OkHttpServerStream(
+      int id,
+      AsyncFrameWriter frameWriter,
+      OkHttpServerTransport transport,
+      OutboundFlowController outboundFlow,
+      Object lock,
+      int maxMessageSize) {
+    super(new OkHttpWritableBufferAllocator(), maxMessageSize);
+    this.id = id;
+    this.frameWriter = frameWriter;
+    this.transport = transport;
+    this.outboundFlow = outboundFlow;
+    this.lock = lock;
+  }
+
+  @Override
+  public Integer id() {
+    return id;
+  }
+
+  @Override
+  public int weight() {
+    return Utils.DEFAULT_WEIGHT;
+  }
+
+  @Override
+  public void request(int numMessages) {
+    synchronized (lock) {
+      requestMessagesFromDeframer(numMessages);
+    }
+  }
+
+  @Override
+  protected void inboundDeliveryPaused() {
+    // Do nothing.
+  }
+
+  /**
+   * Must be called with holding the transport lock.
+   */
+  @GuardedBy("lock")
+  void transportDataReceived(Buffer frame, boolean endOfStream) {
+    window -= frame.size();
+    if (window < 0) {
+      frameWriter.rstStream(id, ErrorCode.FLOW_CONTROL_ERROR);
+      transport.finishStream(id);
+      abortStream(Status.INTERNAL.withDescription(
+          "Received data size exceeded our receiving window size"), false);
+      return;
+    }
+    if (endOfStream) {
+      remoteEndClosed = true;
+    }
+    inboundDataReceived(new OkHttpReadableBuffer(frame), endOfStream);
+  }
+
+  @Override
+  protected void internalSendHeaders(Metadata headers) {
+    frameWriter.synReply(false, id, Headers.createResponseHeaders(headers));
+    frameWriter.flush();
+  }
+
+  @Override
+  protected void sendFrame(WritableBuffer frame, boolean endOfStream, boolean flush) {
+    Buffer buffer = ((OkHttpWritableBuffer) frame).buffer();
+    int size = (int) buffer.size();
+    if (size > 0) {
+      onSendingBytes(size);
+    }
+    synchronized (lock) {
+      // If buffer > frameWriter.maxDataLength() the flow-controller will ensure that it is
+      // properly chunked.
+      outboundFlow.data(endOfStream, id, buffer, flush);
+    }
+  }
+
+  @Override
+  protected void sendTrailers(Metadata trailers, boolean headersSent) {
+    final List<Header> trailerBlock = Headers.createResponseTrailers(trailers, headersSent);
+    synchronized (lock) {
+      // The trailers end the stream, so they must follow the DATA still held by flow control.
+      outboundFlow.afterData(this, new Runnable() {
+        @Override
+        public void run() {
+          frameWriter.synReply(true, id, trailerBlock);
+          if (!remoteEndClosed) {
+            // The response is complete, the client need not send the rest of the request.
+            frameWriter.rstStream(id, ErrorCode.NO_ERROR);
+          }
+          frameWriter.flush();
+          transport.finishStream(id);
+          complete();
+        }
+      });
+    }
+  }
+
+  @Override
+  protected void returnProcessedBytes(int processedBytes) {
+    synchronized (lock) {
+      processedWindow -= processedBytes;
+      if (processedWindow <= WINDOW_UPDATE_THRESHOLD) {
+        int delta = Utils.DEFAULT_WINDOW_SIZE - processedWindow;
+        window += delta;
+        processedWindow += delta;
+        frameWriter.windowUpdate(id, delta);
+      }
+    }
+  }
+
+  @Override
+  protected void sendStreamAbortToClient(Status status, Metadata trailers) {
+    // A reset is enough. Trailers would have to wait behind the DATA held by flow control, while
+    // the stream is aborted because it can't go on. The client sees the RST_STREAM as CANCELLED,
+    // and the server's listener has already been closed with the actual status.
+    cancel(status);
+  }
+
+  @Override
+  public void cancel(Status status) {
+    synchronized (lock) {
+      if (transport.finishStream(id)) {
+        frameWriter.rstStream(id, ErrorCode.CANCEL);
+        abortStream(status, false);
+      }
+    }
+  }
+
+  /**
+   * Called when the client reset the stream, or the connection closed.
+   */
+  @GuardedBy("lock")
+  void transportReset(Status status) {
+    abortStream(status, false);
+  }
+
+  @Override
+  public void onStreamSentBytes(int numBytes) {
+    onSentBytes(numBytes);
+  }
+
+  @Override
+  public void setOutboundFlowState(Object outboundFlowState) {
+    this.outboundFlowState = outboundFlowState;
+  }
+
+  @Override
+  public Object getOutboundFlowState() {
+    return outboundFlowState;
+  }
+}
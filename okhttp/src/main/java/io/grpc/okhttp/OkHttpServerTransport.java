@@ -0,0 +1,440 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package io.grpc.okhttp;
+
+import static io.grpc.internal.GrpcUtil.CONTENT_TYPE_KEY;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.internal.GrpcUtil;
+import io.grpc.internal.SerializingExecutor;
+import io.grpc.internal.ServerStreamListener;
+import io.grpc.internal.ServerTransport;
+import io.grpc.internal.ServerTransportListener;
+import io.grpc.okhttp.internal.framed.ErrorCode;
+import io.grpc.okhttp.internal.framed.FrameReader;
+import io.grpc.okhttp.internal.framed.FrameWriter;
+import io.grpc.okhttp.internal.framed.Header;
+import io.grpc.okhttp.internal.framed.HeadersMode;
+import io.grpc.okhttp.internal.framed.Http2;
+import io.grpc.okhttp.internal.framed.Settings;
+import io.grpc.okhttp.internal.framed.Variant;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A okhttp-based {@link ServerTransport} serving one plaintext HTTP/2 connection. A thread of the
+ * executor reads the frames, like {@link OkHttpClientTransport} does for clients.
+ */
+class OkHttpServerTransport implements ServerTransport,
+    AsyncFrameWriter.TransportExceptionHandler, OutboundFlowController.Transport {
+  private static final Logger log = Logger.getLogger(OkHttpServerTransport.class.getName());
+  private static final ByteString CONTENT_TYPE_HEADER_NAME =
+      ByteString.encodeUtf8(CONTENT_TYPE_KEY.name());
+
+  private final Socket socket;
+  private final Executor executor;
+  private final int maxMessageSize;
+  private final AsyncFrameWriter frameWriter;
+  private final OutboundFlowController outboundFlow;
+  private final Object lock = new Object();
+  @GuardedBy("lock")
+  private final Map<Integer, OkHttpServerStream> streams =
+      new HashMap<Integer, OkHttpServerStream>();
+  @GuardedBy("lock")
+  private int lastStreamId;
+  @GuardedBy("lock")
+  private boolean goAway;
+  @GuardedBy("lock")
+  private boolean stopped;
+  private ServerTransportListener listener;
+  private ServerFrameHandler serverFrameHandler;
+  @Nullable
+  private final FrameReader testFrameReader;
+  @Nullable
+  private final FrameWriter testFrameWriter;
+
+  OkHttpServerTransport(Socket socket, Executor executor, int maxMessageSize) {
+    this(socket, executor, maxMessageSize, null, null);
+  }
+
+  /**
+   * Create a transport reading frames from {@code testFrameReader} and writing them to {@code
+   * testFrameWriter}, instead of the socket.
+   */
+  @VisibleForTesting
+  OkHttpServerTransport(Socket socket, Executor executor, int maxMessageSize,
+      @Nullable FrameReader testFrameReader, @Nullable FrameWriter testFrameWriter) {
+    this.socket = Preconditions.checkNotNull(socket, "socket");
+    this.executor = Preconditions.checkNotNull(executor, "executor");
+    this.maxMessageSize = maxMessageSize;
+    this.testFrameReader = testFrameReader;
+    this.testFrameWriter = testFrameWriter;
+    frameWriter = new AsyncFrameWriter(this, new SerializingExecutor(executor));
+    outboundFlow = new OutboundFlowController(this, frameWriter);
+  }
+
+  void start(ServerTransportListener listener) {
+    this.listener = Preconditions.checkNotNull(listener, "listener");
+    serverFrameHandler = new ServerFrameHandler();
+    executor.execute(serverFrameHandler);
+  }
+
+  @VisibleForTesting
+  ServerFrameHandler getHandler() {
+    return serverFrameHandler;
+  }
+
+  /**
+   * Sends GOAWAY and refuses new streams. The connection is closed once the streams it has
+   * finish.
+   */
+  @Override
+  public void shutdown() {
+    synchronized (lock) {
+      if (goAway) {
+        return;
+      }
+      goAway = true;
+      frameWriter.goAway(lastStreamId, ErrorCode.NO_ERROR, new byte[0]);
+      stopIfNecessary();
+    }
+  }
+
+  @GuardedBy("lock")
+  @Override
+  public Collection<OkHttpServerStream> activeStreams() {
+    return streams.values();
+  }
+
+  @GuardedBy("lock")
+  @Override
+  public OkHttpServerStream getStream(int streamId) {
+    return streams.get(streamId);
+  }
+
+  /**
+   * Removes the stream, returning whether it was still active.
+   */
+  @GuardedBy("lock")
+  boolean finishStream(int streamId) {
+    if (streams.remove(streamId) == null) {
+      return false;
+    }
+    stopIfNecessary();
+    return true;
+  }
+
+  @Override
+  public void onException(Throwable failureCause) {
+    log.log(Level.WARNING, "Transport failed", failureCause);
+    // Breaks the reader out, which tears the transport down.
+    try {
+      socket.close();
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed closing socket", e);
+    }
+  }
+
+  /**
+   * Sends GOAWAY with PROTOCOL_ERROR and closes the connection, without waiting for the streams.
+   */
+  @GuardedBy("lock")
+  private void connectionError(String message) {
+    log.log(Level.FINE, "Closing connection: {0}", message);
+    goAway = true;
+    if (!stopped) {
+      stopped = true;
+      frameWriter.goAway(lastStreamId, ErrorCode.PROTOCOL_ERROR, new byte[0]);
+      frameWriter.close();
+    }
+  }
+
+  @GuardedBy("lock")
+  private void stopIfNecessary() {
+    if (goAway && streams.isEmpty() && !stopped) {
+      stopped = true;
+      // Closing the socket in the writing thread, after the GOAWAY, breaks the reader out.
+      frameWriter.close();
+    }
+  }
+
+  /**
+   * Runnable which reads frames and dispatches them to the streams.
+   */
+  class ServerFrameHandler implements FrameReader.Handler, Runnable {
+    private int connectionUnacknowledgedBytesRead;
+
+    @Override
+    public void run() {
+      String threadName = Thread.currentThread().getName();
+      Thread.currentThread().setName("OkHttpServerTransport");
+      FrameReader frameReader = null;
+      try {
+        if (testFrameReader != null) {
+          frameWriter.becomeConnected(testFrameWriter, socket);
+          frameReader = testFrameReader;
+        } else {
+          BufferedSource source = Okio.buffer(Okio.source(socket));
+          BufferedSink sink = Okio.buffer(Okio.sink(socket));
+          Variant variant = new Http2();
+          final Buffer frameBuffer = new Buffer();
+          final FrameWriter rawFrameWriter = variant.newWriter(frameBuffer, false);
+          frameWriter.becomeConnected(rawFrameWriter, frameBuffer, sink, socket);
+          frameReader = variant.newReader(source, false);
+        }
+        // The server's preface is its SETTINGS frame.
+        frameWriter.settings(new Settings());
+        frameWriter.flush();
+
+        frameReader.readConnectionPreface();
+        // Read until the underlying socket closes.
+        while (frameReader.nextFrame(this)) {
+        }
+      } catch (Exception t) {
+        log.log(Level.FINE, "Connection failed", t);
+        frameWriter.goAway(0, ErrorCode.PROTOCOL_ERROR, new byte[0]);
+      } finally {
+        if (frameReader != null) {
+          try {
+            frameReader.close();
+          } catch (IOException ex) {
+            log.log(Level.INFO, "Exception closing frame reader", ex);
+          }
+        }
+        terminate();
+        Thread.currentThread().setName(threadName);
+      }
+    }
+
+    private void terminate() {
+      synchronized (lock) {
+        goAway = true;
+        for (OkHttpServerStream stream : streams.values()) {
+          stream.transportReset(Status.UNAVAILABLE.withDescription("Connection closed"));
+        }
+        streams.clear();
+        stopIfNecessary();
+      }
+      listener.transportTerminated();
+    }
+
+    /**
+     * Handle a HTTP2 DATA frame.
+     */
+    @Override
+    public void data(boolean inFinished, int streamId, BufferedSource in, int length)
+        throws IOException {
+      // Wait until the frame is complete.
+      in.require(length);
+      synchronized (lock) {
+        OkHttpServerStream stream = streams.get(streamId);
+        if (stream == null) {
+          frameWriter.rstStream(streamId, ErrorCode.STREAM_CLOSED);
+          in.skip(length);
+        } else {
+          Buffer buf = new Buffer();
+          buf.write(in.buffer(), length);
+          stream.transportDataReceived(buf, inFinished);
+        }
+      }
+
+      // connection window update
+      connectionUnacknowledgedBytesRead += length;
+      if (connectionUnacknowledgedBytesRead >= Utils.DEFAULT_WINDOW_SIZE / 2) {
+        frameWriter.windowUpdate(0, connectionUnacknowledgedBytesRead);
+        connectionUnacknowledgedBytesRead = 0;
+      }
+    }
+
+    /**
+     * Handle HTTP2 HEADER and CONTINUATION frames. Only the request headers start a stream; gRPC
+     * clients send no trailers.
+     */
+    @Override
+    public void headers(boolean outFinished,
+        boolean inFinished,
+        int streamId,
+        int associatedStreamId,
+        List<Header> headerBlock,
+        HeadersMode headersMode) {
+      OkHttpServerStream stream;
+      String method = null;
+      synchronized (lock) {
+        stream = streams.get(streamId);
+        if (stream != null) {
+          // Trailers of the request.
+          stream.transportDataReceived(new Buffer(), inFinished);
+          return;
+        }
+        if (streamId <= lastStreamId || (streamId & 1) == 0) {
+          connectionError("Unexpected stream id " + streamId);
+          return;
+        }
+        lastStreamId = streamId;
+        if (goAway) {
+          frameWriter.rstStream(streamId, ErrorCode.REFUSED_STREAM);
+          return;
+        }
+
+        String contentType = null;
+        for (Header header : headerBlock) {
+          if (header.name.equals(Header.TARGET_PATH)) {
+            method = header.value.utf8();
+          } else if (header.name.equals(CONTENT_TYPE_HEADER_NAME)) {
+            contentType = header.value.utf8();
+          }
+        }
+        if (method == null || !method.startsWith("/")
+            || !GrpcUtil.isGrpcContentType(contentType)) {
+          log.log(Level.FINE, "Refusing non-gRPC request: path {0}, content-type {1}",
+              new Object[] {method, contentType});
+          frameWriter.rstStream(streamId, ErrorCode.REFUSED_STREAM);
+          return;
+        }
+
+        stream = new OkHttpServerStream(
+            streamId, frameWriter, OkHttpServerTransport.this, outboundFlow, lock, maxMessageSize);
+        streams.put(streamId, stream);
+      }
+
+      // The listener is called without the lock, as it may run application code. The stream gets
+      // no frames before its listener is set, as they are all read by this thread.
+      Metadata metadata = Utils.convertHeaders(headerBlock);
+      stream.inboundHeadersReceived(metadata);
+      ServerStreamListener streamListener =
+          listener.streamCreated(stream, method.substring(1), metadata);
+      stream.setListener(streamListener);
+      if (inFinished) {
+        synchronized (lock) {
+          stream.transportDataReceived(new Buffer(), true);
+        }
+      }
+    }
+
+    @Override
+    public void rstStream(int streamId, ErrorCode errorCode) {
+      synchronized (lock) {
+        OkHttpServerStream stream = streams.get(streamId);
+        if (stream != null) {
+          finishStream(streamId);
+          stream.transportReset(Status.CANCELLED);
+        }
+      }
+    }
+
+    @Override
+    public void settings(boolean clearPrevious, Settings settings) {
+      synchronized (lock) {
+        if (OkHttpSettingsUtil.isSet(settings, OkHttpSettingsUtil.INITIAL_WINDOW_SIZE)) {
+          int initialWindowSize = OkHttpSettingsUtil.get(
+              settings, OkHttpSettingsUtil.INITIAL_WINDOW_SIZE);
+          outboundFlow.initialOutboundWindowSize(initialWindowSize);
+        }
+      }
+      frameWriter.ackSettings(settings);
+    }
+
+    @Override
+    public void ping(boolean ack, int payload1, int payload2) {
+      if (!ack) {
+        frameWriter.ping(true, payload1, payload2);
+      }
+    }
+
+    @Override
+    public void ackSettings() {
+      // Do nothing currently.
+    }
+
+    @Override
+    public void goAway(int lastGoodStreamId, ErrorCode errorCode, ByteString debugData) {
+      // The client starts no more streams; close once the current ones finish.
+      synchronized (lock) {
+        goAway = true;
+        stopIfNecessary();
+      }
+    }
+
+    @Override
+    public void pushPromise(int streamId, int promisedStreamId, List<Header> requestHeaders)
+        throws IOException {
+      throw new IOException("PROTOCOL_ERROR: clients must not push");
+    }
+
+    @Override
+    public void windowUpdate(int streamId, long delta) {
+      synchronized (lock) {
+        if (streamId == Utils.CONNECTION_STREAM_ID) {
+          outboundFlow.windowUpdate(null, (int) delta);
+          return;
+        }
+        OkHttpServerStream stream = streams.get(streamId);
+        if (stream != null) {
+          outboundFlow.windowUpdate(stream, (int) delta);
+        }
+      }
+    }
+
+    @Override
+    public void priority(int streamId, int streamDependency, int weight, boolean exclusive) {
+      // Ignore priority change.
+    }
+
+    @Override
+    public void alternateService(int streamId, String origin, ByteString protocol, String host,
+        int port, long maxAge) {
+      // Not used by clients.
+    }
+  }
+}
@@ -63,4 +63,13 @@ class OkHttpWritableBufferAllocator implements WritableBufferAllocator {
     capacityHint = Math.min(MAX_BUFFER, Math.max(MIN_BUFFER, capacityHint));
     return new OkHttpWritableBuffer(new Buffer(), capacityHint);
   }
+
+  /**
+   * Okio buffers only hold the segments that have been written to, so a larger capacity costs
+   * nothing and known-length frames keep the minimum that lets later frames share the buffer.
+   */
+  @Override
+  public WritableBuffer allocateKnownLength(int length) {
+    return allocate(length);
+  }
 }
@@ -33,7 +33,6 @@ package io.grpc.okhttp;
 
 import static io.grpc.okhttp.Utils.CONNECTION_STREAM_ID;
 import static io.grpc.okhttp.Utils.DEFAULT_WINDOW_SIZE;
-import static java.lang.Math.ceil;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
@@ -45,21 +44,59 @@ import okio.Buffer;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Queue;
 
 import javax.annotation.Nullable;
 
 /**
- * Simple outbound flow controller that evenly splits the connection window across all existing
- * streams.
+ * Outbound flow controller that splits the connection window across the streams with pending data
+ * in proportion to their {@linkplain Stream#weight() weights}. Streams with the least pending data
+ * are served first, so short messages are not held up behind large uploads.
  */
 class OutboundFlowController {
-  private final OkHttpClientTransport transport;
+  /**
+   * The transport owning the flow controlled streams. Its methods are called with holding the
+   * transport lock.
+   */
+  interface Transport {
+    Collection<? extends Stream> activeStreams();
+
+    @Nullable
+    Stream getStream(int streamId);
+  }
+
+  /**
+   * A stream whose DATA frames are flow controlled.
+   */
+  interface Stream {
+    Integer id();
+
+    /**
+     * Returns the weight used to share the connection window with other streams.
+     */
+    int weight();
+
+    Object getOutboundFlowState();
+
+    void setOutboundFlowState(Object outboundFlowState);
+
+    /**
+     * Called when {@code numBytes} of DATA were handed to the frame writer.
+     */
+    void onStreamSentBytes(int numBytes);
+  }
+
+  private final Transport transport;
   private final FrameWriter frameWriter;
   private int initialWindowSize = DEFAULT_WINDOW_SIZE;
   private final OutboundFlowState connectionState = new OutboundFlowState(CONNECTION_STREAM_ID);
+  // Reused by every write, which happens with holding the transport lock.
+  private final WriteStatus writeStatus = new WriteStatus();
+  private OutboundFlowState[] pendingStates = new OutboundFlowState[0];
 
-  OutboundFlowController(OkHttpClientTransport transport, FrameWriter frameWriter) {
+  OutboundFlowController(Transport transport, FrameWriter frameWriter) {
     this.transport = Preconditions.checkNotNull(transport, "transport");
     this.frameWriter = Preconditions.checkNotNull(frameWriter, "frameWriter");
   }
@@ -74,7 +111,7 @@ class OutboundFlowController {
 
     int delta = newWindowSize - initialWindowSize;
     initialWindowSize = newWindowSize;
-    for (OkHttpClientStream stream : transport.getActiveStreams()) {
+    for (Stream stream : transport.activeStreams()) {
       OutboundFlowState state = (OutboundFlowState) stream.getOutboundFlowState();
       if (state == null) {
         // Create the OutboundFlowState with the new window size.
@@ -96,7 +133,7 @@ class OutboundFlowController {
    *
    * <p>Must be called with holding transport lock.
    */
-  void windowUpdate(@Nullable OkHttpClientStream stream, int delta) {
+  void windowUpdate(@Nullable Stream stream, int delta) {
     if (stream == null) {
       // Update the connection window and write any pending frames for all streams.
       connectionState.incrementStreamWindow(delta);
@@ -106,7 +143,7 @@ class OutboundFlowController {
       OutboundFlowState state = state(stream);
       state.incrementStreamWindow(delta);
 
-      WriteStatus writeStatus = new WriteStatus();
+      writeStatus.reset();
       state.writeBytes(state.writableWindow(), writeStatus);
       if (writeStatus.hasWritten()) {
         flush();
@@ -120,7 +157,7 @@ class OutboundFlowController {
   void data(boolean outFinished, int streamId, Buffer source, boolean flush) {
     Preconditions.checkNotNull(source, "source");
 
-    OkHttpClientStream stream = transport.getStream(streamId);
+    Stream stream = transport.getStream(streamId);
     if (stream == null) {
       // This is possible for a stream that has received end-of-stream from server (but hasn't sent
       // end-of-stream), and was removed from the transport stream map.
@@ -168,7 +205,22 @@ class OutboundFlowController {
     }
   }
 
-  private OutboundFlowState state(OkHttpClientStream stream) {
+  /**
+   * Runs {@code action} once the DATA queued for the stream so far has been written, like writing
+   * trailers after the last message.
+   *
+   * <p>Must be called with holding transport lock.
+   */
+  void afterData(Stream stream, Runnable action) {
+    OutboundFlowState state = state(stream);
+    if (state.hasFrame()) {
+      state.afterData = action;
+    } else {
+      action.run();
+    }
+  }
+
+  private OutboundFlowState state(Stream stream) {
     OutboundFlowState state = (OutboundFlowState) stream.getOutboundFlowState();
     if (state == null) {
       state = new OutboundFlowState(stream);
@@ -181,34 +233,59 @@ class OutboundFlowController {
    * Writes as much data for all the streams as possible given the current flow control windows.
    */
   private void writeStreams() {
-    OkHttpClientStream[] streams = transport.getActiveStreams();
+    int numStates = 0;
+    for (Stream stream : transport.activeStreams()) {
+      OutboundFlowState state = state(stream);
+      if (!state.hasFrame()) {
+        continue;
+      }
+      if (numStates == pendingStates.length) {
+        pendingStates = Arrays.copyOf(pendingStates, max(8, numStates * 2));
+      }
+      // Insertion sort, so the streams with the least data to write come first.
+      int index = numStates++;
+      int streamableBytes = state.streamableBytes();
+      while (index > 0 && pendingStates[index - 1].streamableBytes() > streamableBytes) {
+        pendingStates[index] = pendingStates[index - 1];
+        index--;
+      }
+      pendingStates[index] = state;
+    }
+
+    // Each pass gives every stream that still has data its weighted share of the window left,
+    // until the window is used up or all data is allocated.
     int connectionWindow = connectionState.window();
-    for (int numStreams = streams.length; numStreams > 0 && connectionWindow > 0;) {
-      int nextNumStreams = 0;
-      int windowSlice = (int) ceil(connectionWindow / (float) numStreams);
-      for (int index = 0; index < numStreams && connectionWindow > 0; ++index) {
-        OkHttpClientStream stream = streams[index];
-        OutboundFlowState state = state(stream);
-
-        int bytesForStream = min(connectionWindow, min(state.unallocatedBytes(), windowSlice));
-        if (bytesForStream > 0) {
+    while (connectionWindow > 0) {
+      long totalWeight = 0;
+      for (int index = 0; index < numStates; ++index) {
+        OutboundFlowState state = pendingStates[index];
+        if (state.unallocatedBytes() > 0) {
+          totalWeight += state.stream.weight();
+        }
+      }
+      if (totalWeight == 0) {
+        break;
+      }
+      long window = connectionWindow;
+      for (int index = 0; index < numStates && connectionWindow > 0; ++index) {
+        OutboundFlowState state = pendingStates[index];
+        int unallocatedBytes = state.unallocatedBytes();
+        if (unallocatedBytes > 0) {
+          // Round up, so that every pass allocates something.
+          int windowSlice =
+              (int) ((window * state.stream.weight() + totalWeight - 1) / totalWeight);
+          int bytesForStream = min(connectionWindow, min(unallocatedBytes, windowSlice));
           state.allocateBytes(bytesForStream);
           connectionWindow -= bytesForStream;
         }
-
-        if (state.unallocatedBytes() > 0) {
-          // There is more data to process for this stream. Add it to the next
-          // pass.
-          streams[nextNumStreams++] = stream;
-        }
       }
-      numStreams = nextNumStreams;
     }
 
-    // Now take one last pass through all of the streams and write any allocated bytes.
-    WriteStatus writeStatus = new WriteStatus();
-    for (OkHttpClientStream stream : transport.getActiveStreams()) {
-      OutboundFlowState state = state(stream);
+    // Now take one last pass through the streams and write any allocated bytes.
+    writeStatus.reset();
+    for (int index = 0; index < numStates; ++index) {
+      OutboundFlowState state = pendingStates[index];
+      pendingStates[index] = null;
       state.writeBytes(state.allocatedBytes(), writeStatus);
       state.clearAllocatedBytes();
     }
@@ -228,6 +305,10 @@ class OutboundFlowController {
       numWrites++;
     }
 
+    void reset() {
+      numWrites = 0;
+    }
+
     boolean hasWritten() {
       return numWrites > 0;
     }
@@ -242,14 +323,17 @@ class OutboundFlowController {
     int queuedBytes;
     int window = initialWindowSize;
     int allocatedBytes;
-    OkHttpClientStream stream;
+    Stream stream;
+    /** Run once {@link #pendingWriteQueue} is empty. */
+    @Nullable
+    Runnable afterData;
 
     OutboundFlowState(int streamId) {
       this.streamId = streamId;
       pendingWriteQueue = new ArrayDeque<Frame>(2);
     }
 
-    OutboundFlowState(OkHttpClientStream stream) {
+    OutboundFlowState(Stream stream) {
       this(stream.id());
       this.stream = stream;
     }
@@ -406,6 +490,11 @@ class OutboundFlowController {
               // It's enqueued - remove it from the head of the pending write queue.
               queuedBytes -= bytesToWrite;
               pendingWriteQueue.remove(this);
+              if (afterData != null && pendingWriteQueue.isEmpty()) {
+                Runnable action = afterData;
+                afterData = null;
+                action.run();
+              }
             }
             return;
           }
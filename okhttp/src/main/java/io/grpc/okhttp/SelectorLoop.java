@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package io.grpc.okhttp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A thread serving many non-blocking sockets with one {@link Selector}. Tasks passed to
+ * {@link #execute} run on the loop's thread, between selects; registering channels and changing
+ * their interest must happen there.
+ */
+final class SelectorLoop implements Runnable {
+  private static final Logger log = Logger.getLogger(SelectorLoop.class.getName());
+
+  /**
+   * Notified on the loop's thread about readiness of a registered channel. Must not throw or block.
+   */
+  interface Handler {
+    void onReadable(SelectionKey key);
+
+    void onWritable(SelectionKey key);
+  }
+
+  /** Scratch buffer for reads, only used on the loop's thread. */
+  final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+  private final Selector selector;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private volatile boolean shutdown;
+
+  SelectorLoop() throws IOException {
+    selector = Selector.open();
+  }
+
+  /**
+   * Runs the task on the loop's thread, waking the loop up if it is waiting for readiness.
+   */
+  void execute(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  /**
+   * Registers the channel for reads. Must be called on the loop's thread.
+   */
+  SelectionKey register(SelectableChannel channel, Handler handler)
+      throws ClosedChannelException {
+    return channel.register(selector, SelectionKey.OP_READ, handler);
+  }
+
+  /**
+   * Stops the loop once it finishes the current iteration. Channels still registered are not
+   * closed.
+   */
+  void shutdown() {
+    shutdown = true;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!shutdown) {
+        selector.select();
+        runTasks();
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          Handler handler = (Handler) key.attachment();
+          try {
+            if (key.isValid() && key.isWritable()) {
+              handler.onWritable(key);
+            }
+            if (key.isValid() && key.isReadable()) {
+              handler.onReadable(key);
+            }
+          } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Exception handling selected channel", e);
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.log(Level.SEVERE, "Selector failed", e);
+    } finally {
+      try {
+        selector.close();
+      } catch (IOException e) {
+        log.log(Level.WARNING, "Failed closing selector", e);
+      }
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        log.log(Level.WARNING, "Exception running selector loop task", e);
+      }
+    }
+  }
+}
@@ -45,6 +45,10 @@ import java.util.List;
 class Utils {
   static final int DEFAULT_WINDOW_SIZE = 65535;
   static final int CONNECTION_STREAM_ID = 0;
+  /** The HTTP/2 default stream weight, and the range of weights. */
+  static final int DEFAULT_WEIGHT = 16;
+  static final int MIN_WEIGHT = 1;
+  static final int MAX_WEIGHT = 256;
 
   public static Metadata convertHeaders(List<Header> http2Headers) {
     return new Metadata(convertHeadersToArray(http2Headers));
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.okhttp;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.grpc.internal.SerializingExecutor;
+import io.grpc.okhttp.internal.framed.ErrorCode;
+import io.grpc.okhttp.internal.framed.FrameWriter;
+import io.grpc.okhttp.internal.framed.Header;
+import io.grpc.okhttp.internal.framed.Http2;
+
+import okio.Buffer;
+import okio.BufferedSink;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Tests for {@link AsyncFrameWriter}.
+ */
+@RunWith(JUnit4.class)
+public class AsyncFrameWriterTest {
+  @Mock private OkHttpClientTransport transport;
+  @Mock private BufferedSink sink;
+  @Mock private Socket socket;
+  @Mock private FrameWriter mockFrameWriter;
+
+  private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+  private final Buffer frameBuffer = new Buffer();
+  private AsyncFrameWriter writer;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    // Consume what is written, like a real sink.
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        Buffer source = (Buffer) invocation.getArguments()[0];
+        source.skip((Long) invocation.getArguments()[1]);
+        return null;
+      }
+    }).when(sink).write(any(Buffer.class), anyLong());
+    writer = new AsyncFrameWriter(transport, new SerializingExecutor(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        tasks.add(command);
+      }
+    }));
+  }
+
+  @Test
+  public void framesAreHandedToSocketOnceAndFlushedOnce() throws Exception {
+    writer.becomeConnected(new Http2().newWriter(frameBuffer, true), frameBuffer, sink, socket);
+    writer.windowUpdate(0, 100);
+    writer.rstStream(3, ErrorCode.CANCEL);
+    writer.ping(false, 1, 2);
+    writer.flush();
+    runTasks();
+
+    // WINDOW_UPDATE and RST_STREAM have a 4 byte payload, PING an 8 byte one.
+    verify(sink).write(any(Buffer.class), eq(9L + 4 + 9 + 4 + 9 + 8));
+    verify(sink, times(1)).flush();
+  }
+
+  @Test
+  public void dataIsNotFlushedUnlessRequested() throws Exception {
+    writer.becomeConnected(new Http2().newWriter(frameBuffer, true), frameBuffer, sink, socket);
+    Buffer data = new Buffer().writeUtf8("hello");
+    writer.data(false, 3, data, 5);
+    runTasks();
+
+    verify(sink).write(any(Buffer.class), eq(9L + 5));
+    verify(sink, never()).flush();
+
+    writer.flush();
+    runTasks();
+    verify(sink).flush();
+  }
+
+  @Test
+  public void unbufferedFrameWriterIsFlushedOncePerBatch() throws Exception {
+    writer.becomeConnected(mockFrameWriter, socket);
+    writer.synStream(false, false, 3, 0, Collections.<Header>emptyList());
+    writer.flush();
+    writer.flush();
+    runTasks();
+
+    verify(mockFrameWriter).synStream(
+        eq(false), eq(false), eq(3), eq(0), anyListOf(Header.class));
+    verify(mockFrameWriter, times(1)).flush();
+  }
+
+  @Test
+  public void closeWritesPendingFramesFirst() throws Exception {
+    writer.becomeConnected(new Http2().newWriter(frameBuffer, true), frameBuffer, sink, socket);
+    writer.goAway(0, ErrorCode.NO_ERROR, new byte[0]);
+    writer.close();
+    runTasks();
+
+    InOrder inOrder = inOrder(sink, socket);
+    inOrder.verify(sink).write(any(Buffer.class), eq(9L + 8));
+    inOrder.verify(sink).flush();
+    inOrder.verify(socket).close();
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      task.run();
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package io.grpc.okhttp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import okio.Buffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tests for {@link NioConnection}.
+ */
+@RunWith(JUnit4.class)
+public class NioConnectionTest {
+  private static final byte TYPE_DATA = 0x0;
+  private static final byte TYPE_HEADERS = 0x1;
+  private static final byte TYPE_CONTINUATION = 0x9;
+  private static final byte FLAG_END_HEADERS = 0x4;
+
+  private SelectorLoopGroup loops;
+  private ServerSocket serverSocket;
+  private Socket peer;
+  private NioConnection connection;
+  private final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<byte[]>();
+  private final CountDownLatch closed = new CountDownLatch(1);
+
+  @Before
+  public void setUp() throws Exception {
+    loops = new SelectorLoopGroup(1);
+    serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    SocketChannel channel = SocketChannel.open(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()));
+    peer = serverSocket.accept();
+    channel.configureBlocking(false);
+    connection = new NioConnection(channel, loops.next());
+    connection.start(new NioConnection.Listener() {
+      @Override
+      public boolean frameAvailable() {
+        try {
+          Buffer source = connection.source().buffer();
+          int length = (source.getByte(0) & 0xff) << 16
+              | (source.getByte(1) & 0xff) << 8
+              | (source.getByte(2) & 0xff);
+          frames.add(source.readByteArray(9 + length));
+          return true;
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+
+      @Override
+      public void connectionClosed(@Nullable IOException cause) {
+        closed.countDown();
+      }
+    });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    peer.close();
+    serverSocket.close();
+    loops.shutdown();
+  }
+
+  @Test
+  public void hasCompleteFrame() {
+    Buffer buffer = new Buffer();
+    assertFalse(NioConnection.hasCompleteFrame(buffer));
+    buffer.write(frame(TYPE_DATA, 0, 10), 0, 12);
+    assertFalse(NioConnection.hasCompleteFrame(buffer));
+    buffer.write(new byte[7]);
+    assertTrue(NioConnection.hasCompleteFrame(buffer));
+  }
+
+  @Test
+  public void headersAreOnlyCompleteWithTheirContinuations() {
+    Buffer buffer = new Buffer();
+    buffer.write(frame(TYPE_HEADERS, 0, 5));
+    assertFalse(NioConnection.hasCompleteFrame(buffer));
+    buffer.write(frame(TYPE_CONTINUATION, 0, 5));
+    assertFalse(NioConnection.hasCompleteFrame(buffer));
+    buffer.write(frame(TYPE_CONTINUATION, FLAG_END_HEADERS, 5));
+    assertTrue(NioConnection.hasCompleteFrame(buffer));
+  }
+
+  @Test
+  public void deliversOnlyCompleteFrames() throws Exception {
+    byte[] first = frame(TYPE_DATA, 0, 100);
+    byte[] second = frame(TYPE_DATA, 0, 3);
+    OutputStream out = peer.getOutputStream();
+    out.write(first, 0, 50);
+    out.flush();
+    assertNull(frames.poll(100, TimeUnit.MILLISECONDS));
+
+    out.write(first, 50, first.length - 50);
+    out.write(second);
+    out.flush();
+    assertArrayEquals(first, frames.poll(5, TimeUnit.SECONDS));
+    assertArrayEquals(second, frames.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void writesWhatIsFlushed() throws Exception {
+    byte[] data = new byte[1024 * 1024];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    // More than the socket buffers hold, so the loop has to finish the write.
+    connection.write(new Buffer().write(data), data.length);
+    connection.flush();
+
+    byte[] received = new byte[data.length];
+    InputStream in = peer.getInputStream();
+    int read = 0;
+    while (read < received.length) {
+      read += in.read(received, read, received.length - read);
+    }
+    assertArrayEquals(data, received);
+  }
+
+  @Test
+  public void peerCloseIsReported() throws Exception {
+    peer.close();
+    assertTrue(closed.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void closeIsReported() throws Exception {
+    connection.close();
+    assertTrue(closed.await(5, TimeUnit.SECONDS));
+    assertEquals(-1, peer.getInputStream().read());
+  }
+
+  private static byte[] frame(byte type, int flags, int length) {
+    byte[] frame = new byte[9 + length];
+    frame[0] = (byte) (length >>> 16);
+    frame[1] = (byte) (length >>> 8);
+    frame[2] = (byte) length;
+    frame[3] = type;
+    frame[4] = (byte) flags;
+    return frame;
+  }
+}
@@ -49,6 +49,7 @@ import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
@@ -93,6 +94,7 @@ import org.junit.rules.Timeout;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -604,6 +606,67 @@ public class OkHttpClientTransportTest {
     shutdownAndVerify();
   }
 
+  @Test
+  public void outboundFlowControlSharesConnectionWindowByWeight() throws Exception {
+    initTransport();
+    OkHttpClientStream windowUser = useUpConnectionWindow();
+    MockStreamListener listener1 = new MockStreamListener();
+    OkHttpClientStream stream1 = clientTransport.newStream(method, new Metadata());
+    stream1.setWeight(48);
+    stream1.start(listener1);
+    MockStreamListener listener2 = new MockStreamListener();
+    OkHttpClientStream stream2 = clientTransport.newStream(method, new Metadata());
+    stream2.start(listener2);
+    stream1.writeMessage(new ByteArrayInputStream(new byte[1000]));
+    stream1.flush();
+    stream2.writeMessage(new ByteArrayInputStream(new byte[1000]));
+    stream2.flush();
+
+    // The default weight is 16, so stream 5 gets three times as much as stream 7.
+    frameHandler().windowUpdate(0, 400);
+    verify(frameWriter, timeout(TIME_OUT_MS)).data(eq(false), eq(5), any(Buffer.class), eq(300));
+    verify(frameWriter, timeout(TIME_OUT_MS)).data(eq(false), eq(7), any(Buffer.class), eq(100));
+
+    windowUser.cancel(Status.CANCELLED);
+    stream1.cancel(Status.CANCELLED);
+    stream2.cancel(Status.CANCELLED);
+    listener1.waitUntilStreamClosed();
+    listener2.waitUntilStreamClosed();
+    shutdownAndVerify();
+  }
+
+  @Test
+  public void outboundFlowControlServesSmallestStreamFirst() throws Exception {
+    initTransport();
+    OkHttpClientStream windowUser = useUpConnectionWindow();
+    MockStreamListener listener1 = new MockStreamListener();
+    OkHttpClientStream stream1 = clientTransport.newStream(method, new Metadata());
+    stream1.start(listener1);
+    MockStreamListener listener2 = new MockStreamListener();
+    OkHttpClientStream stream2 = clientTransport.newStream(method, new Metadata());
+    stream2.start(listener2);
+    stream1.writeMessage(new ByteArrayInputStream(new byte[1000]));
+    stream1.flush();
+    stream2.writeMessage(new ByteArrayInputStream(new byte[10]));
+    stream2.flush();
+
+    frameHandler().windowUpdate(0, 2000);
+    verify(frameWriter, timeout(TIME_OUT_MS))
+        .data(eq(false), eq(5), any(Buffer.class), eq(HEADER_LENGTH + 1000));
+    verify(frameWriter, timeout(TIME_OUT_MS))
+        .data(eq(false), eq(7), any(Buffer.class), eq(HEADER_LENGTH + 10));
+    InOrder inOrder = inOrder(frameWriter);
+    inOrder.verify(frameWriter).data(eq(false), eq(7), any(Buffer.class), anyInt());
+    inOrder.verify(frameWriter).data(eq(false), eq(5), any(Buffer.class), anyInt());
+
+    windowUser.cancel(Status.CANCELLED);
+    stream1.cancel(Status.CANCELLED);
+    stream2.cancel(Status.CANCELLED);
+    listener1.waitUntilStreamClosed();
+    listener2.waitUntilStreamClosed();
+    shutdownAndVerify();
+  }
+
   @Test
   public void outboundFlowControlWithInitialWindowSizeChange() throws Exception {
     initTransport();
@@ -1379,6 +1442,21 @@ public class OkHttpClientTransportTest {
     frameHandler().settings(false, settings);
   }
 
+  /**
+   * Sends the whole connection window on stream 3, which is returned open.
+   */
+  private OkHttpClientStream useUpConnectionWindow() throws Exception {
+    MockStreamListener listener = new MockStreamListener();
+    OkHttpClientStream stream = clientTransport.newStream(method, new Metadata());
+    stream.start(listener);
+    stream.writeMessage(
+        new ByteArrayInputStream(new byte[Utils.DEFAULT_WINDOW_SIZE - HEADER_LENGTH]));
+    stream.flush();
+    verify(frameWriter, timeout(TIME_OUT_MS))
+        .data(eq(false), eq(3), any(Buffer.class), eq(Utils.DEFAULT_WINDOW_SIZE));
+    return stream;
+  }
+
   private void setInitialWindowSize(int size) throws Exception {
     Settings settings = new Settings();
     OkHttpSettingsUtil.set(settings, OkHttpSettingsUtil.INITIAL_WINDOW_SIZE, size);
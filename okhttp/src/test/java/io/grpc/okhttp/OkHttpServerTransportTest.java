@@ -0,0 +1,364 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.okhttp;
+
+import static io.grpc.internal.GrpcUtil.DEFAULT_MAX_MESSAGE_SIZE;
+import static io.grpc.okhttp.Headers.CONTENT_TYPE_HEADER;
+import static io.grpc.okhttp.Headers.METHOD_HEADER;
+import static io.grpc.okhttp.Headers.SCHEME_HEADER;
+import static io.grpc.okhttp.Headers.TE_HEADER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.internal.ServerStream;
+import io.grpc.internal.ServerStreamListener;
+import io.grpc.internal.ServerTransportListener;
+import io.grpc.okhttp.OkHttpServerTransport.ServerFrameHandler;
+import io.grpc.okhttp.internal.framed.ErrorCode;
+import io.grpc.okhttp.internal.framed.FrameReader;
+import io.grpc.okhttp.internal.framed.FrameWriter;
+import io.grpc.okhttp.internal.framed.Header;
+import io.grpc.okhttp.internal.framed.HeadersMode;
+import io.grpc.okhttp.internal.framed.Settings;
+
+import okio.Buffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link OkHttpServerTransport}.
+ */
+@RunWith(JUnit4.class)
+public class OkHttpServerTransportTest {
+  private static final int TIME_OUT_MS = 2000;
+
+  @Rule
+  public Timeout globalTimeout = new Timeout(10 * 1000);
+
+  @Mock
+  private FrameWriter frameWriter;
+  @Mock
+  private ServerTransportListener transportListener;
+  @Mock
+  private ServerStreamListener streamListener;
+  private OkHttpServerTransport serverTransport;
+  private MockFrameReader frameReader;
+  private ExecutorService executor;
+
+  /** Set up for test. */
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    executor = Executors.newCachedThreadPool();
+    when(frameWriter.maxDataLength()).thenReturn(Integer.MAX_VALUE);
+    when(transportListener.streamCreated(
+        any(ServerStream.class), anyString(), any(Metadata.class))).thenReturn(streamListener);
+    frameReader = new MockFrameReader();
+    serverTransport = new OkHttpServerTransport(new MockSocket(frameReader), executor,
+        DEFAULT_MAX_MESSAGE_SIZE, frameReader, frameWriter);
+    serverTransport.start(transportListener);
+    // The SETTINGS preface is written once the transport is connected.
+    verify(frameWriter, timeout(TIME_OUT_MS)).settings(any(Settings.class));
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void grpcRequestStartsStream() throws Exception {
+    frameHandler().headers(false, false, 1, 0, grpcRequestHeaders(), HeadersMode.HTTP_20_HEADERS);
+
+    ArgumentCaptor<Metadata> headersCaptor = ArgumentCaptor.forClass(Metadata.class);
+    verify(transportListener).streamCreated(
+        any(ServerStream.class), eq("service/method"), headersCaptor.capture());
+    assertEquals("value",
+        headersCaptor.getValue().get(Metadata.Key.of("custom", Metadata.ASCII_STRING_MARSHALLER)));
+    assertEquals(1, activeStreamCount());
+  }
+
+  @Test
+  public void nonGrpcRequestIsRefused() throws Exception {
+    List<Header> headers = Arrays.asList(
+        METHOD_HEADER,
+        new Header(Header.TARGET_PATH, "/index.html"),
+        new Header("content-type", "text/html"));
+    frameHandler().headers(false, true, 1, 0, headers, HeadersMode.HTTP_20_HEADERS);
+
+    verify(frameWriter, timeout(TIME_OUT_MS)).rstStream(eq(1), eq(ErrorCode.REFUSED_STREAM));
+    verify(transportListener, never()).streamCreated(
+        any(ServerStream.class), anyString(), any(Metadata.class));
+    assertEquals(0, activeStreamCount());
+  }
+
+  @Test
+  public void requestWithoutPathIsRefused() throws Exception {
+    List<Header> headers = Arrays.asList(METHOD_HEADER, CONTENT_TYPE_HEADER);
+    frameHandler().headers(false, true, 1, 0, headers, HeadersMode.HTTP_20_HEADERS);
+
+    verify(frameWriter, timeout(TIME_OUT_MS)).rstStream(eq(1), eq(ErrorCode.REFUSED_STREAM));
+    verify(transportListener, never()).streamCreated(
+        any(ServerStream.class), anyString(), any(Metadata.class));
+  }
+
+  @Test
+  public void decreasingStreamIdIsConnectionError() throws Exception {
+    frameHandler().headers(false, false, 3, 0, grpcRequestHeaders(), HeadersMode.HTTP_20_HEADERS);
+    frameHandler().headers(false, false, 1, 0, grpcRequestHeaders(), HeadersMode.HTTP_20_HEADERS);
+
+    verify(frameWriter, timeout(TIME_OUT_MS))
+        .goAway(eq(3), eq(ErrorCode.PROTOCOL_ERROR), any(byte[].class));
+    verify(frameWriter, timeout(TIME_OUT_MS)).close();
+    verify(transportListener).streamCreated(
+        any(ServerStream.class), anyString(), any(Metadata.class));
+    verify(transportListener, timeout(TIME_OUT_MS)).transportTerminated();
+    // The streams the connection had are reset when it closes.
+    verify(streamListener, timeout(TIME_OUT_MS)).closed(any(Status.class));
+  }
+
+  @Test
+  public void evenStreamIdIsConnectionError() throws Exception {
+    frameHandler().headers(false, false, 2, 0, grpcRequestHeaders(), HeadersMode.HTTP_20_HEADERS);
+
+    verify(frameWriter, timeout(TIME_OUT_MS))
+        .goAway(eq(0), eq(ErrorCode.PROTOCOL_ERROR), any(byte[].class));
+    verify(frameWriter, timeout(TIME_OUT_MS)).close();
+    verify(transportListener, never()).streamCreated(
+        any(ServerStream.class), anyString(), any(Metadata.class));
+  }
+
+  @Test
+  public void streamsAfterGoAwayAreRefused() throws Exception {
+    frameHandler().headers(false, false, 1, 0, grpcRequestHeaders(), HeadersMode.HTTP_20_HEADERS);
+    serverTransport.shutdown();
+    verify(frameWriter, timeout(TIME_OUT_MS))
+        .goAway(eq(1), eq(ErrorCode.NO_ERROR), any(byte[].class));
+
+    frameHandler().headers(false, false, 3, 0, grpcRequestHeaders(), HeadersMode.HTTP_20_HEADERS);
+
+    verify(frameWriter, timeout(TIME_OUT_MS)).rstStream(eq(3), eq(ErrorCode.REFUSED_STREAM));
+    verify(transportListener).streamCreated(
+        any(ServerStream.class), anyString(), any(Metadata.class));
+    assertEquals(1, activeStreamCount());
+    // The connection stays open until the stream it has finishes.
+    verify(frameWriter, never()).close();
+  }
+
+  @Test
+  public void dataForUnknownStreamIsReset() throws Exception {
+    Buffer buffer = new Buffer().write(new byte[10]);
+    frameHandler().data(false, 1, buffer, 10);
+
+    verify(frameWriter, timeout(TIME_OUT_MS)).rstStream(eq(1), eq(ErrorCode.STREAM_CLOSED));
+    assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void connectionWindowUpdateIsBatched() throws Exception {
+    frameHandler().headers(false, false, 1, 0, grpcRequestHeaders(), HeadersMode.HTTP_20_HEADERS);
+    int length = Utils.DEFAULT_WINDOW_SIZE / 4;
+    frameHandler().data(false, 1, new Buffer().write(new byte[length]), length);
+    frameHandler().data(false, 1, new Buffer().write(new byte[length]), length);
+    // The first update is sent once half of the window has been read.
+    frameHandler().data(false, 1, new Buffer().write(new byte[length]), length);
+
+    verify(frameWriter, timeout(TIME_OUT_MS)).windowUpdate(eq(0), eq((long) 3 * length));
+    verify(frameWriter, never()).windowUpdate(eq(0), eq((long) length));
+    verify(frameWriter, never()).windowUpdate(eq(0), eq((long) 2 * length));
+    // Nothing was read from the stream, so its window isn't updated.
+    verify(frameWriter, never()).windowUpdate(eq(1), anyLong());
+  }
+
+  @Test
+  public void rstStreamClosesStream() throws Exception {
+    frameHandler().headers(false, false, 1, 0, grpcRequestHeaders(), HeadersMode.HTTP_20_HEADERS);
+    frameHandler().rstStream(1, ErrorCode.CANCEL);
+
+    verify(streamListener).closed(Status.CANCELLED);
+    assertEquals(0, activeStreamCount());
+
+    // The stream is gone, so more of its data is refused.
+    frameHandler().data(false, 1, new Buffer().write(new byte[10]), 10);
+    verify(frameWriter, timeout(TIME_OUT_MS)).rstStream(eq(1), eq(ErrorCode.STREAM_CLOSED));
+  }
+
+  @Test
+  public void terminateResetsStreams() throws Exception {
+    frameHandler().headers(false, false, 1, 0, grpcRequestHeaders(), HeadersMode.HTTP_20_HEADERS);
+    frameHandler().headers(false, false, 3, 0, grpcRequestHeaders(), HeadersMode.HTTP_20_HEADERS);
+
+    frameReader.nextFrameAtEndOfStream();
+
+    verify(transportListener, timeout(TIME_OUT_MS)).transportTerminated();
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(streamListener, timeout(TIME_OUT_MS).times(2)).closed(statusCaptor.capture());
+    for (Status status : statusCaptor.getAllValues()) {
+      assertEquals(Status.Code.UNAVAILABLE, status.getCode());
+    }
+    assertEquals(0, activeStreamCount());
+    frameReader.assertClosed();
+  }
+
+  @Test
+  public void streamCreatedIsCalledWithoutLock() throws Exception {
+    final CountDownLatch shutdownDone = new CountDownLatch(1);
+    when(transportListener.streamCreated(
+        any(ServerStream.class), anyString(), any(Metadata.class)))
+        .thenAnswer(new Answer<ServerStreamListener>() {
+          @Override
+          public ServerStreamListener answer(InvocationOnMock invocation) throws Exception {
+            // Another thread taking the transport lock must not wait for the listener.
+            executor.execute(new Runnable() {
+              @Override
+              public void run() {
+                serverTransport.shutdown();
+                shutdownDone.countDown();
+              }
+            });
+            assertTrue(shutdownDone.await(TIME_OUT_MS, TimeUnit.MILLISECONDS));
+            return streamListener;
+          }
+        });
+
+    frameHandler().headers(false, false, 1, 0, grpcRequestHeaders(), HeadersMode.HTTP_20_HEADERS);
+
+    verify(frameWriter, timeout(TIME_OUT_MS))
+        .goAway(eq(1), eq(ErrorCode.NO_ERROR), any(byte[].class));
+    assertEquals(1, activeStreamCount());
+  }
+
+  private ServerFrameHandler frameHandler() {
+    return serverTransport.getHandler();
+  }
+
+  private int activeStreamCount() {
+    return serverTransport.activeStreams().size();
+  }
+
+  private static List<Header> grpcRequestHeaders() {
+    return Arrays.asList(
+        METHOD_HEADER,
+        SCHEME_HEADER,
+        new Header(Header.TARGET_PATH, "/service/method"),
+        CONTENT_TYPE_HEADER,
+        TE_HEADER,
+        new Header("custom", "value"));
+  }
+
+  private static class MockFrameReader implements FrameReader {
+    CountDownLatch closed = new CountDownLatch(1);
+    boolean returnFalseInNextFrame;
+
+    @Override
+    public void close() throws IOException {
+      closed.countDown();
+    }
+
+    void assertClosed() {
+      try {
+        if (!closed.await(TIME_OUT_MS, TimeUnit.MILLISECONDS)) {
+          fail("Failed waiting frame reader to be closed.");
+        }
+      } catch (InterruptedException e) {
+        fail("Interrupted while waiting for frame reader to be closed.");
+      }
+    }
+
+    @Override
+    public synchronized boolean nextFrame(Handler handler) throws IOException {
+      if (returnFalseInNextFrame) {
+        return false;
+      }
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      return !returnFalseInNextFrame;
+    }
+
+    synchronized void nextFrameAtEndOfStream() {
+      returnFalseInNextFrame = true;
+      notifyAll();
+    }
+
+    @Override
+    public void readConnectionPreface() throws IOException {
+      // not used.
+    }
+  }
+
+  private static class MockSocket extends Socket {
+    MockFrameReader frameReader;
+
+    MockSocket(MockFrameReader frameReader) {
+      this.frameReader = frameReader;
+    }
+
+    @Override
+    public void close() {
+      frameReader.nextFrameAtEndOfStream();
+    }
+  }
+}
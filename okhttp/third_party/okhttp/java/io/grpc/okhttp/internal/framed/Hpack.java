@@ -23,9 +23,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import okio.Buffer;
 import okio.BufferedSource;
@@ -373,31 +375,217 @@ final class Hpack {
   }
 
   static final class Writer {
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 4096;
+
+    /**
+     * The peer may allow a dynamic table of any size; we only keep up to this many bytes of
+     * entries to bound the memory used per connection.
+     */
+    private static final int SETTINGS_HEADER_TABLE_SIZE_LIMIT = 16384;
+
+    /**
+     * Values of sensitive headers shorter than this are never indexed, as an attacker able to add
+     * headers to the connection could guess them one by one by observing the compressed size.
+     * Longer values, like bearer tokens, are considered random enough to be indexed.
+     */
+    // http://tools.ietf.org/html/rfc7541#section-7.1.3
+    private static final int MIN_INDEXED_SENSITIVE_VALUE_LENGTH = 20;
+
+    private static final Set<ByteString> SENSITIVE_NAMES = byteStringSet(
+        "authorization", "proxy-authorization", "cookie", "set-cookie");
+
+    /** Headers whose value changes with every request, so indexing them would evict others. */
+    private static final Set<ByteString> UNINDEXED_NAMES = byteStringSet("grpc-timeout");
+
     private final Buffer out;
 
+    /**
+     * In the scenario where the dynamic table size changes multiple times between transmission of
+     * header blocks, we need to keep track of the smallest value in that interval.
+     */
+    private int smallestHeaderTableSizeSetting = Integer.MAX_VALUE;
+    private boolean emitDynamicTableSizeUpdate;
+
+    int maxDynamicTableByteCount;
+
+    // Visible for testing.
+    io.grpc.okhttp.internal.framed.Header[] dynamicTable = new io.grpc.okhttp.internal.framed.Header[8];
+    // Array is populated back to front, so new entries always have lowest index.
+    int nextHeaderIndex = dynamicTable.length - 1;
+    int headerCount = 0;
+    int dynamicTableByteCount = 0;
+
     Writer(Buffer out) {
+      this(SETTINGS_HEADER_TABLE_SIZE, out);
+    }
+
+    Writer(int headerTableSizeSetting, Buffer out) {
+      this.maxDynamicTableByteCount = headerTableSizeSetting;
       this.out = out;
     }
 
-    /** This does not use "never indexed" semantics for sensitive headers. */
-    // http://tools.ietf.org/html/draft-ietf-httpbis-header-compression-12#section-6.2.3
+    /**
+     * Called when the peer sent {@link Settings#HEADER_TABLE_SIZE}. Evicts entries as needed, and
+     * signals the new size at the start of the next header block.
+     */
+    void setHeaderTableSizeSetting(int headerTableSizeSetting) {
+      int effectiveHeaderTableSize =
+          Math.min(headerTableSizeSetting, SETTINGS_HEADER_TABLE_SIZE_LIMIT);
+      if (maxDynamicTableByteCount == effectiveHeaderTableSize) {
+        return; // No change.
+      }
+      if (effectiveHeaderTableSize < maxDynamicTableByteCount) {
+        smallestHeaderTableSizeSetting =
+            Math.min(smallestHeaderTableSizeSetting, effectiveHeaderTableSize);
+      }
+      emitDynamicTableSizeUpdate = true;
+      maxDynamicTableByteCount = effectiveHeaderTableSize;
+      adjustDynamicTableByteCount();
+    }
+
+    private void adjustDynamicTableByteCount() {
+      if (maxDynamicTableByteCount < dynamicTableByteCount) {
+        if (maxDynamicTableByteCount == 0) {
+          clearDynamicTable();
+        } else {
+          evictToRecoverBytes(dynamicTableByteCount - maxDynamicTableByteCount);
+        }
+      }
+    }
+
+    private void clearDynamicTable() {
+      Arrays.fill(dynamicTable, null);
+      nextHeaderIndex = dynamicTable.length - 1;
+      headerCount = 0;
+      dynamicTableByteCount = 0;
+    }
+
+    /** Returns the count of entries evicted. */
+    private int evictToRecoverBytes(int bytesToRecover) {
+      int entriesToEvict = 0;
+      if (bytesToRecover > 0) {
+        // determine how many headers need to be evicted.
+        for (int j = dynamicTable.length - 1; j >= nextHeaderIndex && bytesToRecover > 0; j--) {
+          bytesToRecover -= dynamicTable[j].hpackSize;
+          dynamicTableByteCount -= dynamicTable[j].hpackSize;
+          headerCount--;
+          entriesToEvict++;
+        }
+        System.arraycopy(dynamicTable, nextHeaderIndex + 1, dynamicTable,
+            nextHeaderIndex + 1 + entriesToEvict, headerCount);
+        Arrays.fill(dynamicTable, nextHeaderIndex + 1, nextHeaderIndex + 1 + entriesToEvict, null);
+        nextHeaderIndex += entriesToEvict;
+      }
+      return entriesToEvict;
+    }
+
+    private void insertIntoDynamicTable(io.grpc.okhttp.internal.framed.Header entry) {
+      int delta = entry.hpackSize;
+
+      // if the new header is too big, drop all entries.
+      if (delta > maxDynamicTableByteCount) {
+        clearDynamicTable();
+        return;
+      }
+
+      // Evict headers to the required length.
+      int bytesToRecover = (dynamicTableByteCount + delta) - maxDynamicTableByteCount;
+      evictToRecoverBytes(bytesToRecover);
+
+      if (headerCount + 1 > dynamicTable.length) { // Need to grow the dynamic table.
+        io.grpc.okhttp.internal.framed.Header[] doubled = new io.grpc.okhttp.internal.framed.Header[dynamicTable.length * 2];
+        System.arraycopy(dynamicTable, 0, doubled, dynamicTable.length, dynamicTable.length);
+        nextHeaderIndex = dynamicTable.length - 1;
+        dynamicTable = doubled;
+      }
+      int index = nextHeaderIndex--;
+      dynamicTable[index] = entry;
+      headerCount++;
+      dynamicTableByteCount += delta;
+    }
+
+    /**
+     * Writes a header block. Headers in the static or dynamic table are written as an index.
+     * Others are added to the dynamic table, unless they are too large, change with every
+     * request, or are short sensitive values, which are written with "never indexed" semantics.
+     */
+    // http://tools.ietf.org/html/rfc7541#section-6
     void writeHeaders(List<io.grpc.okhttp.internal.framed.Header> headerBlock) throws IOException {
-      // TODO: implement index tracking
+      if (emitDynamicTableSizeUpdate) {
+        if (smallestHeaderTableSizeSetting < maxDynamicTableByteCount) {
+          // Multiple dynamic table size updates!
+          writeInt(smallestHeaderTableSizeSetting, PREFIX_5_BITS, 0x20);
+        }
+        emitDynamicTableSizeUpdate = false;
+        smallestHeaderTableSizeSetting = Integer.MAX_VALUE;
+        writeInt(maxDynamicTableByteCount, PREFIX_5_BITS, 0x20);
+      }
+
       for (int i = 0, size = headerBlock.size(); i < size; i++) {
         ByteString name = headerBlock.get(i).name.toAsciiLowercase();
+        ByteString value = headerBlock.get(i).value;
+        int headerIndex = -1;
+        int headerNameIndex = -1;
+
         Integer staticIndex = NAME_TO_FIRST_INDEX.get(name);
         if (staticIndex != null) {
-          // Literal Header Field without Indexing - Indexed Name.
-          writeInt(staticIndex + 1, PREFIX_4_BITS, 0);
-          writeByteString(headerBlock.get(i).value);
+          headerNameIndex = staticIndex + 1;
+          // Entries of the same name are adjacent in the static table.
+          for (int j = staticIndex;
+              j < STATIC_HEADER_TABLE.length && STATIC_HEADER_TABLE[j].name.equals(name); j++) {
+            if (STATIC_HEADER_TABLE[j].value.equals(value)) {
+              headerIndex = j + 1;
+              break;
+            }
+          }
+        }
+
+        if (headerIndex == -1) {
+          for (int j = nextHeaderIndex + 1; j < dynamicTable.length; j++) {
+            if (dynamicTable[j].name.equals(name)) {
+              if (dynamicTable[j].value.equals(value)) {
+                headerIndex = j - nextHeaderIndex + STATIC_HEADER_TABLE.length;
+                break;
+              } else if (headerNameIndex == -1) {
+                headerNameIndex = j - nextHeaderIndex + STATIC_HEADER_TABLE.length;
+              }
+            }
+          }
+        }
+
+        if (headerIndex != -1) {
+          // Indexed Header Field.
+          writeInt(headerIndex, PREFIX_7_BITS, 0x80);
+        } else if (SENSITIVE_NAMES.contains(name)
+            && value.size() < MIN_INDEXED_SENSITIVE_VALUE_LENGTH) {
+          // Literal Header Field Never Indexed.
+          writeLiteral(headerNameIndex, PREFIX_4_BITS, 0x10, name, value);
         } else {
-          out.writeByte(0x00); // Literal Header without Indexing - New Name.
-          writeByteString(name);
-          writeByteString(headerBlock.get(i).value);
+          io.grpc.okhttp.internal.framed.Header entry = new io.grpc.okhttp.internal.framed.Header(name, value);
+          if (UNINDEXED_NAMES.contains(name) || entry.hpackSize > maxDynamicTableByteCount) {
+            // Literal Header Field without Indexing.
+            writeLiteral(headerNameIndex, PREFIX_4_BITS, 0x00, name, value);
+          } else {
+            // Literal Header Field with Incremental Indexing.
+            writeLiteral(headerNameIndex, PREFIX_6_BITS, 0x40, name, value);
+            insertIntoDynamicTable(entry);
+          }
         }
       }
     }
 
+    /** Writes a literal header field, with an indexed name if {@code nameIndex != -1}. */
+    private void writeLiteral(int nameIndex, int prefixMask, int bits, ByteString name,
+        ByteString value) throws IOException {
+      if (nameIndex != -1) {
+        writeInt(nameIndex, prefixMask, bits);
+      } else {
+        out.writeByte(bits);
+        writeByteString(name);
+      }
+      writeByteString(value);
+    }
+
     // http://tools.ietf.org/html/draft-ietf-httpbis-header-compression-12#section-4.1.1
     void writeInt(int value, int prefixMask, int bits) throws IOException {
       // Write the raw value for a single byte value.
@@ -419,9 +607,25 @@ final class Hpack {
       out.writeByte(value);
     }
 
+    /** Writes a byte string, Huffman encoded if that makes it shorter. */
     void writeByteString(ByteString data) throws IOException {
-      writeInt(data.size(), PREFIX_7_BITS, 0);
-      out.write(data);
+      byte[] bytes = data.toByteArray();
+      int huffmanLength = io.grpc.okhttp.internal.framed.Huffman.get().encodedLength(bytes);
+      if (huffmanLength < bytes.length) {
+        writeInt(huffmanLength, PREFIX_7_BITS, 0x80);
+        io.grpc.okhttp.internal.framed.Huffman.get().encode(bytes, out.outputStream());
+      } else {
+        writeInt(bytes.length, PREFIX_7_BITS, 0);
+        out.write(data);
+      }
+    }
+
+    private static Set<ByteString> byteStringSet(String... values) {
+      Set<ByteString> result = new HashSet<ByteString>(values.length);
+      for (String value : values) {
+        result.add(ByteString.encodeUtf8(value));
+      }
+      return Collections.unmodifiableSet(result);
     }
   }
 
@@ -35,6 +35,7 @@ import com.google.common.io.ByteStreams;
 import com.google.protobuf.nano.CodedInputByteBufferNano;
 import com.google.protobuf.nano.MessageNano;
 
+import io.grpc.MethodDescriptor.CopyingMarshaller;
 import io.grpc.MethodDescriptor.Marshaller;
 import io.grpc.Status;
 
@@ -48,10 +49,13 @@ public class NanoUtils {
 
   private NanoUtils() {}
 
-  /** Adapt {@code parser} to a {@code Marshaller}. */
+  /**
+   * Adapt {@code parser} to a {@code Marshaller}. Nano messages are mutable, so the marshaller
+   * copies the messages that in-process transports pass through without serializing them.
+   */
   public static <T extends MessageNano> Marshaller<T> marshaller(
       final MessageNanoFactory<T> factory) {
-    return new Marshaller<T>() {
+    return new CopyingMarshaller<T>() {
       @Override
       public InputStream stream(T value) {
         return new NanoProtoInputStream(value);
@@ -72,6 +76,16 @@ public class NanoUtils {
               .asRuntimeException();
         }
       }
+
+      @Override
+      public T copy(T value) {
+        try {
+          return MessageNano.mergeFrom(factory.newInstance(), MessageNano.toByteArray(value));
+        } catch (IOException ipbe) {
+          throw Status.INTERNAL.withDescription("Failed copying nano proto message")
+              .withCause(ipbe).asRuntimeException();
+        }
+      }
     };
   }
 }
@@ -40,6 +40,7 @@ import static org.junit.Assert.fail;
 import com.google.protobuf.nano.InvalidProtocolBufferNanoException;
 import com.google.protobuf.nano.MessageNano;
 
+import io.grpc.MethodDescriptor.CopyingMarshaller;
 import io.grpc.MethodDescriptor.Marshaller;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
@@ -77,6 +78,30 @@ public class NanoUtilsTest {
     assertTrue(MessageNano.messageNanoEquals(m, m2));
   }
 
+  @Test
+  public void testCopy() {
+    Message m = new Message();
+    m.i = 2;
+    m.s = "string";
+    Message m2 = ((CopyingMarshaller<Message>) marshaller).copy(m);
+    assertNotSame(m, m2);
+    assertTrue(MessageNano.messageNanoEquals(m, m2));
+    m.i = 3;
+    assertEquals(2, m2.i);
+  }
+
+  @Test
+  public void testCopyIsDeep() {
+    assertTrue(marshaller instanceof CopyingMarshaller);
+    Message m = new Message();
+    m.bs = new byte[] {1, 2};
+    Message m2 = ((CopyingMarshaller<Message>) marshaller).copy(m);
+    assertNotSame(m.bs, m2.bs);
+    m.bs[0] = 3;
+    assertEquals(1, m2.bs[0]);
+    assertEquals(2, m2.bs[1]);
+  }
+
   @Test
   public void parseInvalid() throws Exception {
     InputStream is = new ByteArrayInputStream(new byte[] {-127});
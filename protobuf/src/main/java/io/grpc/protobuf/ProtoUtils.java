@@ -39,6 +39,7 @@ import com.google.protobuf.MessageLite;
 import com.google.protobuf.Parser;
 
 import io.grpc.Metadata;
+import io.grpc.MethodDescriptor.ImmutableMarshaller;
 import io.grpc.MethodDescriptor.Marshaller;
 import io.grpc.Status;
 
@@ -49,12 +50,15 @@ import java.io.InputStream;
  */
 public class ProtoUtils {
 
-  /** Create a {@code Marshaller} for protos of the same type as {@code defaultInstance}. */
+  /**
+   * Create a {@code Marshaller} for protos of the same type as {@code defaultInstance}. Protos are
+   * immutable, so in-process transports may pass them through without serializing them.
+   */
   public static <T extends MessageLite> Marshaller<T> marshaller(final T defaultInstance) {
     Parser<?> parserGeneric = defaultInstance.getParserForType();
     @SuppressWarnings("unchecked")
     final Parser<T> parser = (Parser<T>) parserGeneric;
-    return new Marshaller<T>() {
+    return new ImmutableMarshaller<T>() {
       @Override
       public InputStream stream(T value) {
         return new ProtoInputStream(value, parser);
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.grpc.ExperimentalApi;
+import io.grpc.internal.AbstractManagedChannelImplBuilder;
+import io.grpc.internal.AbstractReferenceCounted;
+import io.grpc.internal.ClientTransportFactory;
+import io.grpc.internal.ManagedClientTransport;
+
+import java.io.File;
+import java.net.SocketAddress;
+
+/**
+ * Builder for a channel to a server of the same machine, communicating through shared memory.
+ * Clients identify the server by its name, as given to {@link ShmServerBuilder#forName}.
+ *
+ * <p>Each connection uses a pair of ring buffers in a file of {@code /dev/shm}, one per direction.
+ * Calls are not encrypted or compressed, so the transport should only be used between processes
+ * trusting each other. Only Linux is supported.
+ */
+@ExperimentalApi("There is no plan to make this API stable.")
+public final class ShmChannelBuilder extends AbstractManagedChannelImplBuilder<ShmChannelBuilder> {
+  /** The default size of each ring buffer. */
+  public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+  /** The largest size of each ring buffer, 512 MiB. */
+  public static final int MAX_BUFFER_SIZE = ShmRing.MAX_CAPACITY;
+  private static final int MIN_BUFFER_SIZE = 1024;
+
+  /**
+   * Create a channel builder that will connect to the server with the given name.
+   *
+   * @param name the identity of the server to connect to
+   * @return a new builder
+   */
+  public static ShmChannelBuilder forName(String name) {
+    return new ShmChannelBuilder(name);
+  }
+
+  private final File directory;
+  private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+  private ShmChannelBuilder(String name) {
+    super(new ShmSocketAddress(ShmServerBuilder.directory(name)), "localhost");
+    this.directory = ShmServerBuilder.directory(name);
+  }
+
+  /**
+   * Sets the size in bytes of the ring buffer of each direction of a connection, rounded up to a
+   * power of two. Messages larger than a quarter of it are sent in several parts. Defaults to
+   * {@link #DEFAULT_BUFFER_SIZE}, and may be at most {@link #MAX_BUFFER_SIZE}.
+   */
+  public ShmChannelBuilder bufferSize(int bufferSize) {
+    checkArgument(bufferSize > 0 && bufferSize <= MAX_BUFFER_SIZE,
+        "bufferSize out of range: %s", bufferSize);
+    this.bufferSize = Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(bufferSize - 1) << 1);
+    return this;
+  }
+
+  /**
+   * Does nothing.
+   */
+  @Override
+  public ShmChannelBuilder usePlaintext(boolean skipNegotiation) {
+    return this;
+  }
+
+  @Override
+  protected ClientTransportFactory buildTransportFactory() {
+    return new ShmClientTransportFactory(directory, bufferSize);
+  }
+
+  private static class ShmClientTransportFactory extends AbstractReferenceCounted
+          implements ClientTransportFactory {
+    private final File directory;
+    private final int bufferSize;
+
+    private ShmClientTransportFactory(File directory, int bufferSize) {
+      this.directory = directory;
+      this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public ManagedClientTransport newClientTransport(SocketAddress addr, String authority) {
+      return new ShmClientTransport(directory, bufferSize);
+    }
+
+    @Override
+    protected void deallocate() {
+      // Do nothing.
+    }
+  }
+
+  private static class ShmSocketAddress extends SocketAddress {
+    final File directory;
+
+    ShmSocketAddress(File directory) {
+      this.directory = directory;
+    }
+
+    @Override
+    public String toString() {
+      return directory.getPath();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.internal.ClientStream;
+import io.grpc.internal.ClientStreamListener;
+
+/**
+ * The client end-point of a call over shared memory.
+ */
+final class ShmClientStream extends ShmStream<ClientStreamListener> implements ClientStream {
+  private final ShmClientTransport clientTransport;
+  private final MethodDescriptor<?, ?> method;
+  private final Metadata headers;
+
+  // Only accessed by the transport's thread.
+  private Status trailersStatus;
+  private Metadata trailers;
+
+  ShmClientStream(ShmClientTransport transport, MethodDescriptor<?, ?> method, Metadata headers) {
+    super(transport);
+    this.clientTransport = transport;
+    this.method = method;
+    this.headers = headers;
+  }
+
+  @Override
+  public void start(ClientStreamListener listener) {
+    this.listener = listener;
+    clientTransport.startStream(this, method.getFullMethodName(), headers);
+  }
+
+  @Override
+  public void halfClose() {
+    if (outboundClosed) {
+      return;
+    }
+    outboundClosed = true;
+    transport.send(ShmFrames.halfClose(id));
+  }
+
+  @Override
+  public void cancel(final Status reason) {
+    if (id == 0) {
+      // Not started, nobody to tell.
+      return;
+    }
+    outboundClosed = true;
+    transport.send(ShmFrames.rstStream(id, reason));
+    transport.execute(new Runnable() {
+      @Override
+      public void run() {
+        closeListener(reason, null);
+      }
+    });
+  }
+
+  @Override
+  public void setAuthority(String authority) {}
+
+  @Override
+  public void setWeight(int weight) {}
+
+  /**
+   * Handles a {@link ShmFrames#RESPONSE_HEADERS} frame.
+   */
+  void inboundHeaders(Metadata headers) {
+    if (!closed) {
+      listener.headersRead(headers);
+    }
+  }
+
+  /**
+   * Handles a {@link ShmFrames#TRAILERS} frame. The call closes once the messages before them
+   * were delivered.
+   */
+  void inboundTrailers(Status status, Metadata trailers) {
+    if (closed || trailersStatus != null) {
+      return;
+    }
+    trailersStatus = status;
+    this.trailers = trailers;
+    // The server forgot about the stream.
+    outboundClosed = true;
+    inboundFinished();
+  }
+
+  @Override
+  void finished() {
+    closeListener(trailersStatus, trailers);
+  }
+
+  @Override
+  void closed(Status status, Metadata trailers) {
+    listener.closed(status, trailers);
+  }
+
+  @Override
+  void transportCancel(Status status) {
+    transport.send(ShmFrames.rstStream(id, Status.CANCELLED.withDescription(
+        status.getDescription())));
+    closeListener(status, null);
+  }
+}
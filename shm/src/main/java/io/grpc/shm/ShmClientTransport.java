@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import com.google.common.base.Stopwatch;
+
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.internal.ClientStream;
+import io.grpc.internal.ClientStreamListener;
+import io.grpc.internal.Http2Ping;
+import io.grpc.internal.ManagedClientTransport;
+import io.grpc.internal.NoopClientStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A transport connecting a client to a server of the same machine over shared memory.
+ */
+@ThreadSafe
+final class ShmClientTransport extends ShmTransport implements ManagedClientTransport {
+  /** Time the server has to accept the connection. */
+  private static final long ACCEPT_TIMEOUT_MILLIS = 10000;
+
+  private final File directory;
+  private final int bufferSize;
+  private final AtomicInteger nextStreamId = new AtomicInteger(1);
+  private final Random random = new Random();
+  private ManagedClientTransport.Listener listener;
+  private volatile Status shutdownStatus;
+
+  // Only accessed by the transport's thread.
+  private ShmConnection connection;
+  private long acceptDeadlineMillis;
+  private boolean ready;
+  private Http2Ping ping;
+  private Status terminationStatus;
+
+  ShmClientTransport(File directory, int bufferSize) {
+    super(ShmRing.maxRecordLength(bufferSize));
+    this.directory = directory;
+    this.bufferSize = bufferSize;
+  }
+
+  @Override
+  public void start(ManagedClientTransport.Listener listener) {
+    this.listener = listener;
+    startThread("grpc-shm-client-" + directory.getName());
+  }
+
+  @Override
+  ShmConnection connect() throws IOException {
+    acceptDeadlineMillis = System.currentTimeMillis() + ACCEPT_TIMEOUT_MILLIS;
+    connection = ShmConnection.connect(directory, bufferSize);
+    return connection;
+  }
+
+  @Override
+  public ClientStream newStream(MethodDescriptor<?, ?> method, Metadata headers) {
+    final Status capturedStatus = shutdownStatus;
+    if (capturedStatus != null) {
+      return new NoopClientStream() {
+        @Override
+        public void start(ClientStreamListener listener) {
+          listener.closed(capturedStatus, new Metadata());
+        }
+      };
+    }
+    return new ShmClientStream(this, method, headers);
+  }
+
+  /**
+   * Registers a stream and sends its headers.
+   */
+  void startStream(final ShmClientStream stream, String method, Metadata headers) {
+    stream.id = nextStreamId.getAndAdd(2);
+    streams.put(stream.id, stream);
+    // Checked after registering, so either the stream is failed here or by the shutdown.
+    final Status capturedStatus = shutdownStatus;
+    if (capturedStatus != null) {
+      execute(new Runnable() {
+        @Override
+        public void run() {
+          stream.closeListener(capturedStatus, null);
+        }
+      });
+      return;
+    }
+    send(ShmFrames.headers(stream.id, method, headers));
+  }
+
+  @Override
+  public void ping(final PingCallback callback, final Executor executor) {
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        if (terminationStatus != null) {
+          Http2Ping.notifyFailed(callback, executor, terminationStatus.asException());
+          return;
+        }
+        if (ping == null) {
+          ping = new Http2Ping(random.nextLong(), Stopwatch.createStarted());
+          send(ShmFrames.ping(false, ping.payload()));
+        }
+        ping.addCallback(callback, executor);
+      }
+    });
+  }
+
+  @Override
+  public void shutdown() {
+    if (shutdownStatus == null) {
+      shutdownStatus = Status.UNAVAILABLE.withDescription("transport was requested to shut down");
+    }
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        startShutdown(Status.OK.withDescription(shutdownStatus.getDescription()));
+      }
+    });
+  }
+
+  @Override
+  void handleFrame(byte type, int streamId, ByteBuffer payload) {
+    ShmClientStream stream;
+    switch (type) {
+      case ShmFrames.PREFACE:
+        if (!ready) {
+          ready = true;
+          connection.accepted();
+          listener.transportReady();
+        }
+        break;
+      case ShmFrames.RESPONSE_HEADERS:
+        stream = (ShmClientStream) streams.get(streamId);
+        if (stream != null) {
+          stream.inboundHeaders(ShmFrames.readMetadata(payload));
+        }
+        break;
+      case ShmFrames.TRAILERS:
+        stream = (ShmClientStream) streams.get(streamId);
+        if (stream != null) {
+          Status status = ShmFrames.readStatus(payload);
+          stream.inboundTrailers(status, ShmFrames.readMetadata(payload));
+        }
+        break;
+      case ShmFrames.GO_AWAY:
+        goAway(payload.getInt());
+        break;
+      case ShmFrames.PING_ACK:
+        long data = payload.getLong();
+        if (ping != null && ping.payload() == data) {
+          ping.complete();
+          ping = null;
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unexpected frame type " + type);
+    }
+  }
+
+  private void goAway(int lastStreamId) {
+    Status status = Status.UNAVAILABLE.withDescription("server is shutting down");
+    if (shutdownStatus == null) {
+      shutdownStatus = status;
+    }
+    startShutdown(status);
+    for (ShmStream<?> stream : streams.values()) {
+      if (stream.id > lastStreamId) {
+        stream.closeListener(status, null);
+      }
+    }
+  }
+
+  @Override
+  void checkPeer(long now, long peerHeartbeat) {
+    if (!ready && now > acceptDeadlineMillis) {
+      terminate(Status.UNAVAILABLE.withDescription("Server did not accept the connection"));
+      return;
+    }
+    super.checkPeer(now, peerHeartbeat);
+  }
+
+  @Override
+  void notifyShutdown(Status status) {
+    if (shutdownStatus == null) {
+      shutdownStatus = status;
+    }
+    listener.transportShutdown(status);
+  }
+
+  @Override
+  void notifyTerminated(Status status) {
+    terminationStatus = status;
+    if (ping != null) {
+      ping.failed(status.asException());
+      ping = null;
+    }
+    listener.transportTerminated();
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + "(" + directory + ")";
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+
+/**
+ * The shared memory of a connection: a file holding a {@link ShmRing} for each direction.
+ *
+ * <p>A server listens in a directory. A client connects by creating a file there under a
+ * temporary name and renaming it to one ending in {@link #CONNECT_SUFFIX} once initialized. The
+ * server claims the file by renaming it again, maps it and deletes it; the memory stays shared
+ * until both processes unmap it.
+ */
+final class ShmConnection {
+  static final String CONNECT_SUFFIX = ".connect";
+  private static final String PENDING_SUFFIX = ".pending";
+  private static final String ACCEPTED_SUFFIX = ".accepted";
+
+  private static final int MAGIC = 0x67536d31;
+  /** Magic number and ring capacity, padded to keep the rings aligned. */
+  private static final int FILE_HEADER_SIZE = 256;
+
+  /**
+   * Creates a connection to the server listening in {@code directory}, with rings of
+   * {@code capacity} bytes.
+   */
+  static ShmConnection connect(File directory, int capacity) throws IOException {
+    ShmRing.checkAvailable();
+    if (!directory.isDirectory()) {
+      throw new FileNotFoundException("No server listening in " + directory);
+    }
+    String id = UUID.randomUUID().toString();
+    File pending = new File(directory, id + PENDING_SUFFIX);
+    File connect = new File(directory, id + CONNECT_SUFFIX);
+    MappedByteBuffer buffer;
+    try {
+      buffer = map(pending, fileSize(capacity));
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(4, capacity);
+      if (!pending.renameTo(connect)) {
+        throw new IOException("Failed connecting to " + directory);
+      }
+    } finally {
+      pending.delete();
+    }
+    return new ShmConnection(buffer, capacity, connect, true);
+  }
+
+  /**
+   * Accepts a connection whose file ends in {@link #CONNECT_SUFFIX}.
+   *
+   * @return the connection, or {@code null} if the client gave up on it
+   */
+  static ShmConnection accept(File connect) throws IOException {
+    String name = connect.getName();
+    File accepted = new File(connect.getParentFile(),
+        name.substring(0, name.length() - CONNECT_SUFFIX.length()) + ACCEPTED_SUFFIX);
+    if (!connect.renameTo(accepted)) {
+      return null;
+    }
+    try {
+      RandomAccessFile file = new RandomAccessFile(accepted, "rw");
+      try {
+        if (file.length() < FILE_HEADER_SIZE || file.readInt() != MAGIC) {
+          throw new IOException("Not a connection: " + connect);
+        }
+        int capacity = file.readInt();
+        int size = fileSize(capacity);
+        if (file.length() != size) {
+          throw new IOException("Truncated connection: " + connect);
+        }
+        MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return new ShmConnection(buffer, capacity, null, false);
+      } finally {
+        file.close();
+      }
+    } finally {
+      // The mapping keeps the memory, the name is no longer needed.
+      accepted.delete();
+    }
+  }
+
+  /**
+   * Returns the size of the file of a connection with rings of {@code capacity} bytes.
+   */
+  static int fileSize(int capacity) {
+    return FILE_HEADER_SIZE + 2 * ShmRing.regionSize(capacity);
+  }
+
+  private static MappedByteBuffer map(File file, int size) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(size);
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /** The ring the connection reads from. */
+  final ShmRing inbound;
+  /** The ring the connection writes to. */
+  final ShmRing outbound;
+  /** The file of a client until the server accepted it, {@code null} afterwards. */
+  private File connectFile;
+
+  private ShmConnection(MappedByteBuffer buffer, int capacity, File connectFile, boolean client) {
+    int ringSize = ShmRing.regionSize(capacity);
+    ShmRing clientToServer = new ShmRing(region(buffer, FILE_HEADER_SIZE, ringSize));
+    ShmRing serverToClient = new ShmRing(region(buffer, FILE_HEADER_SIZE + ringSize, ringSize));
+    inbound = client ? serverToClient : clientToServer;
+    outbound = client ? clientToServer : serverToClient;
+    this.connectFile = connectFile;
+  }
+
+  private static ByteBuffer region(ByteBuffer buffer, int offset, int size) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(offset);
+    duplicate.limit(offset + size);
+    return duplicate.slice();
+  }
+
+  /**
+   * Called by a client once the server accepted the connection.
+   */
+  void accepted() {
+    connectFile = null;
+  }
+
+  /**
+   * Closes the outbound ring, and withdraws a connection the server didn't accept yet.
+   */
+  void close() {
+    outbound.close();
+    if (connectFile != null) {
+      connectFile.delete();
+      connectFile = null;
+    }
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+/**
+ * The frames exchanged through the rings. Each is one record, starting with the frame type and
+ * the stream id. Messages larger than a record are split in several {@link #MESSAGE} frames.
+ */
+final class ShmFrames {
+  /** Sent by the server once it accepted the connection. */
+  static final byte PREFACE = 0;
+  /** Starts a stream: method name and headers. */
+  static final byte HEADERS = 1;
+  /** Response headers. */
+  static final byte RESPONSE_HEADERS = 2;
+  /** A flags byte, then (a part of) a message. */
+  static final byte MESSAGE = 3;
+  /** The receiver requests more messages. */
+  static final byte REQUEST = 4;
+  /** The client sent all its messages. */
+  static final byte HALF_CLOSE = 5;
+  /** Status and trailers, which end the stream. */
+  static final byte TRAILERS = 6;
+  /** Cancels the stream with a status. */
+  static final byte RST_STREAM = 7;
+  /** No new streams are accepted. */
+  static final byte GO_AWAY = 8;
+  static final byte PING = 9;
+  static final byte PING_ACK = 10;
+
+  /** Frame type and stream id. */
+  static final int HEADER_LENGTH = 5;
+  /** Frame header and the flags of a {@link #MESSAGE}. */
+  static final int MESSAGE_HEADER_LENGTH = HEADER_LENGTH + 1;
+  /** Set on the {@link #MESSAGE} frame holding the end of a message. */
+  static final byte FLAG_END_OF_MESSAGE = 1;
+
+  private ShmFrames() {}
+
+  static byte[] preface() {
+    return new FrameBuilder(PREFACE, 0).build();
+  }
+
+  static byte[] headers(int streamId, String method, Metadata headers) {
+    return new FrameBuilder(HEADERS, streamId).writeString(method).writeMetadata(headers).build();
+  }
+
+  static byte[] responseHeaders(int streamId, Metadata headers) {
+    return new FrameBuilder(RESPONSE_HEADERS, streamId).writeMetadata(headers).build();
+  }
+
+  /**
+   * Returns a {@link #MESSAGE} frame with room for {@code length} bytes of message after
+   * {@link #MESSAGE_HEADER_LENGTH}.
+   */
+  static byte[] message(int streamId, boolean endOfMessage, int length) {
+    byte[] frame = new byte[MESSAGE_HEADER_LENGTH + length];
+    writeHeader(frame, MESSAGE, streamId);
+    frame[HEADER_LENGTH] = endOfMessage ? FLAG_END_OF_MESSAGE : 0;
+    return frame;
+  }
+
+  static byte[] request(int streamId, int numMessages) {
+    return new FrameBuilder(REQUEST, streamId).writeInt(numMessages).build();
+  }
+
+  static byte[] halfClose(int streamId) {
+    return new FrameBuilder(HALF_CLOSE, streamId).build();
+  }
+
+  static byte[] trailers(int streamId, Status status, Metadata trailers) {
+    return new FrameBuilder(TRAILERS, streamId).writeStatus(status).writeMetadata(trailers).build();
+  }
+
+  static byte[] rstStream(int streamId, Status status) {
+    return new FrameBuilder(RST_STREAM, streamId).writeStatus(status).build();
+  }
+
+  static byte[] goAway(int lastStreamId) {
+    return new FrameBuilder(GO_AWAY, 0).writeInt(lastStreamId).build();
+  }
+
+  static byte[] ping(boolean ack, long payload) {
+    return new FrameBuilder(ack ? PING_ACK : PING, 0).writeLong(payload).build();
+  }
+
+  private static void writeHeader(byte[] frame, byte type, int streamId) {
+    frame[0] = type;
+    frame[1] = (byte) (streamId >>> 24);
+    frame[2] = (byte) (streamId >>> 16);
+    frame[3] = (byte) (streamId >>> 8);
+    frame[4] = (byte) streamId;
+  }
+
+  /**
+   * Returns the payload of a frame, positioned after the frame header.
+   */
+  static ByteBuffer payload(byte[] frame) {
+    ByteBuffer payload = ByteBuffer.wrap(frame);
+    payload.position(HEADER_LENGTH);
+    return payload;
+  }
+
+  static byte type(byte[] frame) {
+    return frame[0];
+  }
+
+  static int streamId(byte[] frame) {
+    return ByteBuffer.wrap(frame).getInt(1);
+  }
+
+  @Nullable
+  static String readString(ByteBuffer payload) {
+    int length = payload.getInt();
+    if (length < 0) {
+      return null;
+    }
+    String value = new String(payload.array(), payload.position(), length, UTF_8);
+    payload.position(payload.position() + length);
+    return value;
+  }
+
+  static Metadata readMetadata(ByteBuffer payload) {
+    byte[][] serialized = new byte[payload.getInt()][];
+    for (int i = 0; i < serialized.length; i++) {
+      serialized[i] = new byte[payload.getInt()];
+      payload.get(serialized[i]);
+    }
+    return new Metadata(serialized);
+  }
+
+  static Status readStatus(ByteBuffer payload) {
+    return Status.fromCodeValue(payload.getInt()).withDescription(readString(payload));
+  }
+
+  private static final class FrameBuilder extends ByteArrayOutputStream {
+    FrameBuilder(byte type, int streamId) {
+      super(64);
+      write(type);
+      writeInt(streamId);
+    }
+
+    FrameBuilder writeInt(int value) {
+      write(value >>> 24);
+      write(value >>> 16);
+      write(value >>> 8);
+      write(value);
+      return this;
+    }
+
+    FrameBuilder writeLong(long value) {
+      writeInt((int) (value >>> 32));
+      return writeInt((int) value);
+    }
+
+    FrameBuilder writeString(@Nullable String value) {
+      if (value == null) {
+        return writeInt(-1);
+      }
+      byte[] bytes = value.getBytes(UTF_8);
+      writeInt(bytes.length);
+      write(bytes, 0, bytes.length);
+      return this;
+    }
+
+    FrameBuilder writeMetadata(Metadata metadata) {
+      byte[][] serialized = metadata.serialize();
+      writeInt(serialized.length);
+      for (byte[] bytes : serialized) {
+        writeInt(bytes.length);
+        write(bytes, 0, bytes.length);
+      }
+      return this;
+    }
+
+    FrameBuilder writeStatus(Status status) {
+      writeInt(status.getCode().value());
+      return writeString(status.getDescription());
+    }
+
+    byte[] build() {
+      return count == buf.length ? buf : toByteArray();
+    }
+  }
+}
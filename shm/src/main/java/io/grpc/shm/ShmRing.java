@@ -0,0 +1,259 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.annotation.Nullable;
+
+/**
+ * A single-producer single-consumer queue of byte records in a region of shared memory. The
+ * producer and the consumer may be in different processes.
+ *
+ * <p>The region starts with a header holding the producer's and the consumer's positions, each on
+ * its own cache line, followed by the records. Positions only grow; the producer publishes a
+ * record by advancing its position with a store-release after writing the record, and the
+ * consumer frees the space by advancing its own. A record that doesn't fit before the end of the
+ * region is preceded by padding up to the end, so records are always contiguous.
+ */
+final class ShmRing {
+  static final int HEADER_SIZE = 256;
+  /**
+   * The largest capacity of a ring, which keeps the two rings of a connection within a mapping of
+   * at most {@link Integer#MAX_VALUE} bytes.
+   */
+  static final int MAX_CAPACITY = 1 << 29;
+  /** Bytes written by the producer. */
+  private static final int TAIL_OFFSET = 0;
+  /** Bytes consumed by the consumer. */
+  private static final int HEAD_OFFSET = 64;
+  /** Non-zero once the producer wrote its last record. */
+  private static final int CLOSED_OFFSET = 128;
+  /** Wall clock time at which the consumer was last seen alive. */
+  private static final int HEARTBEAT_OFFSET = 192;
+
+  private static final int RECORD_HEADER_SIZE = 4;
+  private static final int ALIGNMENT = 8;
+  private static final int PADDING = -1;
+
+  private static final Unsafe UNSAFE;
+  private static final long ADDRESS_FIELD_OFFSET;
+  private static final Throwable UNAVAILABILITY_CAUSE;
+
+  static {
+    Unsafe unsafe = null;
+    long addressFieldOffset = -1;
+    Throwable cause = null;
+    try {
+      Field field = Unsafe.class.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = (Unsafe) field.get(null);
+      addressFieldOffset = unsafe.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+    } catch (Throwable t) {
+      cause = t;
+      unsafe = null;
+    }
+    UNSAFE = unsafe;
+    ADDRESS_FIELD_OFFSET = addressFieldOffset;
+    UNAVAILABILITY_CAUSE = cause;
+  }
+
+  /**
+   * Throws if this JVM doesn't give access to the memory ordering operations the rings rely on.
+   */
+  static void checkAvailable() {
+    if (UNAVAILABILITY_CAUSE != null) {
+      throw new UnsupportedOperationException(
+          "Shared memory transport is not supported by this JVM", UNAVAILABILITY_CAUSE);
+    }
+  }
+
+  /**
+   * Returns the size of the region for a ring holding {@code capacity} bytes of records.
+   */
+  static int regionSize(int capacity) {
+    checkArgument(Integer.bitCount(capacity) == 1 && capacity >= 1024 && capacity <= MAX_CAPACITY,
+        "capacity must be a power of two between 1024 and %s: %s", MAX_CAPACITY, capacity);
+    return HEADER_SIZE + capacity;
+  }
+
+  private final long headerAddress;
+  private final ByteBuffer records;
+  /** Views of the records, each used by only one side. */
+  private final ByteBuffer writeView;
+  private final ByteBuffer readView;
+  private final int capacity;
+  private final int mask;
+
+  // Only accessed by the producer.
+  private long tail;
+  private long cachedHead;
+
+  // Only accessed by the consumer.
+  private long head;
+  private long cachedTail;
+
+  /**
+   * Creates a ring on {@code region}, a direct buffer of {@link #regionSize} bytes which is either
+   * zeroed or already holds a ring.
+   */
+  ShmRing(ByteBuffer region) {
+    checkAvailable();
+    checkArgument(region.isDirect(), "region must be direct");
+    capacity = region.capacity() - HEADER_SIZE;
+    regionSize(capacity);
+    mask = capacity - 1;
+    headerAddress = UNSAFE.getLong(region, ADDRESS_FIELD_OFFSET);
+    ByteBuffer duplicate = region.duplicate();
+    duplicate.position(HEADER_SIZE);
+    records = duplicate.slice().order(ByteOrder.nativeOrder());
+    writeView = records.duplicate();
+    readView = records.duplicate();
+    tail = UNSAFE.getLongVolatile(null, headerAddress + TAIL_OFFSET);
+    cachedHead = head = UNSAFE.getLongVolatile(null, headerAddress + HEAD_OFFSET);
+    cachedTail = tail;
+  }
+
+  /**
+   * The largest record the ring accepts. Larger messages have to be split.
+   */
+  int maxRecordLength() {
+    return maxRecordLength(capacity);
+  }
+
+  /**
+   * The largest record a ring of {@code capacity} bytes accepts.
+   */
+  static int maxRecordLength(int capacity) {
+    return capacity / 4;
+  }
+
+  /**
+   * Appends a record, if there is room for it. Must only be called by the producer.
+   *
+   * @return false if the ring is too full, in which case nothing was written
+   */
+  boolean offer(byte[] record) {
+    int length = record.length;
+    checkArgument(length <= maxRecordLength(), "record too large: %s", length);
+    int size = align(RECORD_HEADER_SIZE + length);
+    int index = (int) tail & mask;
+    int toEnd = capacity - index;
+    int required = size > toEnd ? toEnd + size : size;
+    if (tail + required - cachedHead > capacity) {
+      cachedHead = UNSAFE.getLongVolatile(null, headerAddress + HEAD_OFFSET);
+      if (tail + required - cachedHead > capacity) {
+        return false;
+      }
+    }
+    if (size > toEnd) {
+      records.putInt(index, PADDING);
+      tail += toEnd;
+      index = 0;
+    }
+    records.putInt(index, length);
+    writeView.position(index + RECORD_HEADER_SIZE);
+    writeView.put(record, 0, length);
+    tail += size;
+    // Publishes the record.
+    UNSAFE.putOrderedLong(null, headerAddress + TAIL_OFFSET, tail);
+    return true;
+  }
+
+  /**
+   * Removes the oldest record. Must only be called by the consumer.
+   *
+   * @return the record, or {@code null} if the ring is empty
+   */
+  @Nullable
+  byte[] poll() {
+    if (head == cachedTail) {
+      cachedTail = UNSAFE.getLongVolatile(null, headerAddress + TAIL_OFFSET);
+      if (head == cachedTail) {
+        return null;
+      }
+    }
+    int index = (int) head & mask;
+    int length = records.getInt(index);
+    if (length == PADDING) {
+      head += capacity - index;
+      index = 0;
+      length = records.getInt(index);
+    }
+    byte[] record = new byte[length];
+    readView.position(index + RECORD_HEADER_SIZE);
+    readView.get(record, 0, length);
+    head += align(RECORD_HEADER_SIZE + length);
+    // Frees the space of the record.
+    UNSAFE.putOrderedLong(null, headerAddress + HEAD_OFFSET, head);
+    return record;
+  }
+
+  /**
+   * Marks that the producer will write no more records. Must only be called by the producer.
+   */
+  void close() {
+    UNSAFE.putLongVolatile(null, headerAddress + CLOSED_OFFSET, 1);
+  }
+
+  /**
+   * Whether the producer will write no more records. Records written before may still be left.
+   */
+  boolean isClosed() {
+    return UNSAFE.getLongVolatile(null, headerAddress + CLOSED_OFFSET) != 0;
+  }
+
+  /**
+   * Records that the consumer is alive. Must only be called by the consumer.
+   */
+  void heartbeat(long currentTimeMillis) {
+    UNSAFE.putOrderedLong(null, headerAddress + HEARTBEAT_OFFSET, currentTimeMillis);
+  }
+
+  /**
+   * The time of the consumer's last heartbeat, or 0 if it never had one.
+   */
+  long lastHeartbeat() {
+    return UNSAFE.getLongVolatile(null, headerAddress + HEARTBEAT_OFFSET);
+  }
+
+  private static int align(int size) {
+    return (size + ALIGNMENT - 1) & -ALIGNMENT;
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import io.grpc.internal.Server;
+import io.grpc.internal.ServerListener;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A server accepting connections over shared memory. Clients connect by creating a file in the
+ * server's directory, which the server maps and deletes. The directory holds a lock while the
+ * server is running.
+ */
+@ThreadSafe
+final class ShmServer implements Server, Runnable {
+  private static final Logger log = Logger.getLogger(ShmServer.class.getName());
+
+  private static final String LOCK_FILE = "server.lock";
+  private static final long ACCEPT_INTERVAL_MILLIS = 1;
+  private static final FilenameFilter CONNECT_FILTER = new FilenameFilter() {
+    @Override
+    public boolean accept(File dir, String name) {
+      return name.endsWith(ShmConnection.CONNECT_SUFFIX);
+    }
+  };
+
+  private final File directory;
+  private ServerListener listener;
+  private RandomAccessFile lockFile;
+  private FileLock lock;
+  private Thread acceptThread;
+  private volatile boolean shutdown;
+
+  ShmServer(File directory) {
+    this.directory = directory;
+  }
+
+  @Override
+  public synchronized void start(ServerListener listener) throws IOException {
+    ShmRing.checkAvailable();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create " + directory);
+    }
+    lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+    try {
+      lock = lockFile.getChannel().tryLock();
+    } catch (OverlappingFileLockException e) {
+      lock = null;
+    }
+    if (lock == null) {
+      lockFile.close();
+      throw new IOException("A server is already listening in " + directory);
+    }
+    this.listener = listener;
+    acceptThread = new Thread(this, "grpc-shm-accept-" + directory.getName());
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!shutdown) {
+        File[] files = directory.listFiles(CONNECT_FILTER);
+        if (files != null) {
+          for (File file : files) {
+            accept(file);
+          }
+        }
+        Thread.sleep(ACCEPT_INTERVAL_MILLIS);
+      }
+    } catch (InterruptedException e) {
+      // Shutting down.
+    } finally {
+      listener.serverShutdown();
+    }
+  }
+
+  private void accept(File file) {
+    ShmConnection connection;
+    try {
+      connection = ShmConnection.accept(file);
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed accepting " + file, e);
+      return;
+    }
+    if (connection != null) {
+      ShmServerTransport transport = new ShmServerTransport(connection, file.getName());
+      transport.start(listener.transportCreated(transport));
+    }
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    if (shutdown) {
+      return;
+    }
+    shutdown = true;
+    acceptThread.interrupt();
+    try {
+      lock.release();
+      lockFile.close();
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed releasing " + LOCK_FILE, e);
+    }
+    new File(directory, LOCK_FILE).delete();
+    directory.delete();
+  }
+}
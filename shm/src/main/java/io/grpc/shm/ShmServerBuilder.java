@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import com.google.common.base.Preconditions;
+
+import io.grpc.ExperimentalApi;
+import io.grpc.HandlerRegistry;
+import io.grpc.internal.AbstractServerImplBuilder;
+
+import java.io.File;
+
+/**
+ * Builder for a server that services requests of the same machine through shared memory. Clients
+ * identify the server by its name.
+ *
+ * <p>Only one server can use a given name at a time. See {@link ShmChannelBuilder} for the
+ * limitations of the transport.
+ */
+@ExperimentalApi("There is no plan to make this API stable.")
+public final class ShmServerBuilder extends AbstractServerImplBuilder<ShmServerBuilder> {
+  private static final File SHM_ROOT = new File("/dev/shm");
+
+  /**
+   * Create a server builder that will bind with the given name.
+   *
+   * @param name the identity of the server for clients to connect to
+   * @param registry the registry of handlers used for dispatching incoming calls
+   * @return a new builder
+   */
+  public static ShmServerBuilder forName(String name, HandlerRegistry registry) {
+    return new ShmServerBuilder(name, registry);
+  }
+
+  /**
+   * Create a server builder that will bind with the given name.
+   *
+   * @param name the identity of the server for clients to connect to
+   * @return a new builder
+   */
+  public static ShmServerBuilder forName(String name) {
+    return new ShmServerBuilder(name);
+  }
+
+  /**
+   * Returns the directory in which the server of the given name accepts connections.
+   */
+  static File directory(String name) {
+    Preconditions.checkArgument(name.indexOf('/') < 0 && !name.startsWith("."),
+        "invalid name: %s", name);
+    return new File(SHM_ROOT, "grpc-" + name);
+  }
+
+  private final String name;
+
+  private ShmServerBuilder(String name, HandlerRegistry registry) {
+    super(registry);
+    this.name = Preconditions.checkNotNull(name, "name");
+  }
+
+  private ShmServerBuilder(String name) {
+    this.name = Preconditions.checkNotNull(name, "name");
+  }
+
+  @Override
+  protected ShmServer buildTransportServer() {
+    return new ShmServer(directory(name));
+  }
+
+  @Override
+  public ShmServerBuilder useTransportSecurity(File certChain, File privateKey) {
+    throw new UnsupportedOperationException("TLS not supported in ShmServer");
+  }
+}
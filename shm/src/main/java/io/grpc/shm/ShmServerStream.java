@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.internal.ServerStream;
+import io.grpc.internal.ServerStreamListener;
+
+/**
+ * The server end-point of a call over shared memory.
+ */
+final class ShmServerStream extends ShmStream<ServerStreamListener> implements ServerStream {
+
+  ShmServerStream(ShmTransport transport, int id) {
+    super(transport);
+    this.id = id;
+  }
+
+  @Override
+  public void writeHeaders(Metadata headers) {
+    transport.send(ShmFrames.responseHeaders(id, headers));
+  }
+
+  @Override
+  public void close(Status status, Metadata trailers) {
+    if (outboundClosed) {
+      return;
+    }
+    outboundClosed = true;
+    transport.send(ShmFrames.trailers(id, status, trailers));
+    closeLater(Status.OK);
+  }
+
+  @Override
+  public void cancel(Status status) {
+    if (outboundClosed) {
+      return;
+    }
+    outboundClosed = true;
+    transport.send(ShmFrames.rstStream(id,
+        Status.CANCELLED.withDescription("server cancelled stream")));
+    closeLater(status);
+  }
+
+  private void closeLater(final Status status) {
+    transport.execute(new Runnable() {
+      @Override
+      public void run() {
+        closeListener(status, null);
+      }
+    });
+  }
+
+  @Override
+  void finished() {
+    listener.halfClosed();
+  }
+
+  @Override
+  void closed(Status status, Metadata trailers) {
+    listener.closed(status);
+  }
+
+  @Override
+  void transportCancel(Status status) {
+    transport.send(ShmFrames.rstStream(id, status));
+    closeListener(status, null);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.internal.ServerTransport;
+import io.grpc.internal.ServerTransportListener;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The server side of a connection from a client of the same machine.
+ */
+@ThreadSafe
+final class ShmServerTransport extends ShmTransport implements ServerTransport {
+  private final ShmConnection connection;
+  private final String name;
+  private ServerTransportListener listener;
+
+  // Only accessed by the transport's thread.
+  private int lastStreamId;
+
+  ShmServerTransport(ShmConnection connection, String name) {
+    super(connection.outbound.maxRecordLength());
+    this.connection = connection;
+    this.name = name;
+  }
+
+  void start(ServerTransportListener listener) {
+    this.listener = listener;
+    startThread("grpc-shm-server-" + name);
+  }
+
+  @Override
+  ShmConnection connect() {
+    send(ShmFrames.preface());
+    return connection;
+  }
+
+  @Override
+  public void shutdown() {
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        if (startShutdown(Status.UNAVAILABLE.withDescription("server is shutting down"))) {
+          send(ShmFrames.goAway(lastStreamId));
+        }
+      }
+    });
+  }
+
+  @Override
+  void handleFrame(byte type, int streamId, ByteBuffer payload) {
+    switch (type) {
+      case ShmFrames.HEADERS:
+        String method = ShmFrames.readString(payload);
+        Metadata headers = ShmFrames.readMetadata(payload);
+        if (isShutdown()) {
+          send(ShmFrames.rstStream(streamId,
+              Status.UNAVAILABLE.withDescription("server is shutting down")));
+          return;
+        }
+        lastStreamId = streamId;
+        ShmServerStream stream = new ShmServerStream(this, streamId);
+        streams.put(streamId, stream);
+        stream.listener = listener.streamCreated(stream, method, headers);
+        break;
+      case ShmFrames.HALF_CLOSE:
+        ShmStream<?> halfClosed = streams.get(streamId);
+        if (halfClosed != null) {
+          halfClosed.inboundFinished();
+        }
+        break;
+      case ShmFrames.PING_ACK:
+        break;
+      default:
+        throw new IllegalStateException("Unexpected frame type " + type);
+    }
+  }
+
+  @Override
+  void notifyShutdown(Status status) {}
+
+  @Override
+  void notifyTerminated(Status status) {
+    listener.transportTerminated();
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + "(" + name + ")";
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import io.grpc.Compressor;
+import io.grpc.Decompressor;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.internal.GrpcUtil;
+import io.grpc.internal.Stream;
+import io.grpc.internal.StreamListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * The common part of client and server streams. Messages are sent as they are written, and
+ * delivered to the listener as it requests them. The listener is only called by the transport's
+ * thread.
+ */
+abstract class ShmStream<L extends StreamListener> implements Stream {
+  final ShmTransport transport;
+  /** Messages the remote end-point requested and was not sent yet. */
+  private final AtomicInteger peerRequested = new AtomicInteger();
+  volatile int id;
+  /** Whether this side sent all it had to send. */
+  volatile boolean outboundClosed;
+
+  // Only accessed by the transport's thread.
+  L listener;
+  boolean closed;
+  private final ArrayDeque<InputStream> inbound = new ArrayDeque<InputStream>();
+  private int requested;
+  private ByteArrayOutputStream partialMessage;
+  private boolean inboundFinished;
+
+  ShmStream(ShmTransport transport) {
+    this.transport = transport;
+  }
+
+  @Override
+  public final void request(final int numMessages) {
+    transport.send(ShmFrames.request(id, numMessages));
+    transport.execute(new Runnable() {
+      @Override
+      public void run() {
+        requested += numMessages;
+        deliver();
+      }
+    });
+  }
+
+  @Override
+  public final void writeMessage(InputStream message) {
+    if (outboundClosed) {
+      return;
+    }
+    peerRequested.decrementAndGet();
+    transport.sendMessage(id, message);
+  }
+
+  @Override
+  public final void flush() {}
+
+  @Override
+  public final boolean isReady() {
+    return !outboundClosed && peerRequested.get() > 0;
+  }
+
+  @Override
+  public final void setCompressor(Compressor compressor) {}
+
+  @Override
+  public final void setDecompressor(Decompressor decompressor) {}
+
+  @Override
+  public final void setMessageCompression(boolean enable) {}
+
+  /**
+   * Handles a {@link ShmFrames#MESSAGE} frame.
+   */
+  final void inboundMessage(byte[] frame) {
+    if (closed) {
+      return;
+    }
+    int length = frame.length - ShmFrames.MESSAGE_HEADER_LENGTH;
+    boolean endOfMessage = (frame[ShmFrames.HEADER_LENGTH] & ShmFrames.FLAG_END_OF_MESSAGE) != 0;
+    if (partialMessage == null && endOfMessage) {
+      inbound.add(new ByteArrayInputStream(frame, ShmFrames.MESSAGE_HEADER_LENGTH, length));
+    } else {
+      if (partialMessage == null) {
+        partialMessage = new ByteArrayOutputStream(2 * length);
+      }
+      partialMessage.write(frame, ShmFrames.MESSAGE_HEADER_LENGTH, length);
+      if (partialMessage.size() > GrpcUtil.DEFAULT_MAX_MESSAGE_SIZE) {
+        transportCancel(Status.RESOURCE_EXHAUSTED.withDescription(
+            "Message exceeds " + GrpcUtil.DEFAULT_MAX_MESSAGE_SIZE + " bytes"));
+        return;
+      }
+      if (!endOfMessage) {
+        return;
+      }
+      inbound.add(new ByteArrayInputStream(partialMessage.toByteArray()));
+      partialMessage = null;
+    }
+    deliver();
+  }
+
+  /**
+   * Handles a {@link ShmFrames#REQUEST} frame.
+   */
+  final void inboundRequest(int numMessages) {
+    int nowRequested = peerRequested.addAndGet(numMessages);
+    if (!closed && nowRequested > 0 && nowRequested - numMessages <= 0) {
+      listener.onReady();
+    }
+  }
+
+  /**
+   * The remote end-point sent all its messages, which is told to the listener once they were
+   * delivered.
+   */
+  final void inboundFinished() {
+    inboundFinished = true;
+    deliver();
+  }
+
+  private void deliver() {
+    while (!closed && requested > 0 && !inbound.isEmpty()) {
+      requested--;
+      listener.messageRead(inbound.poll());
+    }
+    if (!closed && inboundFinished && inbound.isEmpty()) {
+      inboundFinished = false;
+      finished();
+    }
+  }
+
+  /**
+   * Closes the listener with {@code status}, discarding the messages not delivered yet. Must
+   * only be called by the transport's thread.
+   *
+   * @param trailers the trailers received from the server, if any
+   */
+  final void closeListener(Status status, @Nullable Metadata trailers) {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    outboundClosed = true;
+    inbound.clear();
+    partialMessage = null;
+    transport.streamClosed(this);
+    closed(status, trailers != null ? trailers : new Metadata());
+  }
+
+  /**
+   * Called once the messages of the remote end-point were all delivered.
+   */
+  abstract void finished();
+
+  /**
+   * Tells the listener that the stream closed.
+   */
+  abstract void closed(Status status, Metadata trailers);
+
+  /**
+   * Cancels the stream because of an error found by the transport.
+   */
+  abstract void transportCancel(Status status);
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import com.google.common.io.ByteStreams;
+
+import io.grpc.KnownLength;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * The common part of client and server transports. Each transport has a thread which reads the
+ * frames of the peer, runs the tasks submitted by other threads and writes what didn't fit in the
+ * outbound ring right away.
+ *
+ * <p>The JVM has no way to wait on shared memory, so the thread spins for a while when it runs
+ * out of work, then yields, then parks for increasingly long up to {@link #MAX_PARK_NANOS}. That
+ * bounds the latency of an idle connection. Tasks submitted within the process wake the thread
+ * right away.
+ */
+abstract class ShmTransport implements Runnable {
+  private static final Logger log = Logger.getLogger(ShmTransport.class.getName());
+
+  private static final int SPINS = 2000;
+  private static final int YIELDS = 50;
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  /** Frames read before going back to the other work. */
+  private static final int MAX_READS_PER_ROUND = 64;
+  private static final long HEARTBEAT_INTERVAL_MILLIS = 100;
+  /** Time without a heartbeat of the peer after which it is considered dead. */
+  static final long PEER_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  final ConcurrentMap<Integer, ShmStream<?>> streams =
+      new ConcurrentHashMap<Integer, ShmStream<?>>();
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private final Object writeLock = new Object();
+  @GuardedBy("writeLock")
+  private final ArrayDeque<byte[]> pendingWrites = new ArrayDeque<byte[]>();
+  @GuardedBy("writeLock")
+  private ShmRing outbound;
+  private volatile Thread thread;
+  /** Set once the thread stopped, after which tasks run in the thread submitting them. */
+  private volatile boolean stopped;
+  /** The largest frame the peer accepts. */
+  private final int maxFrameLength;
+
+  // Only accessed by the transport's thread.
+  private ShmConnection connection;
+  private boolean shutdown;
+  private boolean terminated;
+  private long nextHeartbeatMillis;
+
+  ShmTransport(int maxFrameLength) {
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  /**
+   * Starts the transport's thread.
+   */
+  final void startThread(String name) {
+    Thread thread = new Thread(this, name);
+    thread.setDaemon(true);
+    this.thread = thread;
+    thread.start();
+  }
+
+  /**
+   * Runs a task in the transport's thread.
+   */
+  final void execute(Runnable task) {
+    tasks.add(task);
+    if (stopped) {
+      runTasksAfterStop();
+      return;
+    }
+    Thread thread = this.thread;
+    if (thread != Thread.currentThread()) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /**
+   * Sends a frame. May be called from any thread.
+   */
+  final void send(byte[] frame) {
+    if (stopped) {
+      return;
+    }
+    synchronized (writeLock) {
+      if (pendingWrites.isEmpty() && outbound != null && outbound.offer(frame)) {
+        return;
+      }
+      pendingWrites.add(frame);
+    }
+    LockSupport.unpark(thread);
+  }
+
+  /**
+   * Sends a message, split in as many frames as needed. May be called from any thread.
+   */
+  final void sendMessage(int streamId, InputStream message) {
+    int maxLength = maxFrameLength - ShmFrames.MESSAGE_HEADER_LENGTH;
+    try {
+      if (message instanceof KnownLength) {
+        int length = message.available();
+        if (length <= maxLength) {
+          // Serialize straight into the frame.
+          byte[] frame = ShmFrames.message(streamId, true, length);
+          ByteStreams.readFully(message, frame, ShmFrames.MESSAGE_HEADER_LENGTH, length);
+          send(frame);
+          return;
+        }
+      }
+      byte[] bytes = ByteStreams.toByteArray(message);
+      int offset = 0;
+      do {
+        int length = Math.min(maxLength, bytes.length - offset);
+        boolean endOfMessage = offset + length == bytes.length;
+        byte[] frame = ShmFrames.message(streamId, endOfMessage, length);
+        System.arraycopy(bytes, offset, frame, ShmFrames.MESSAGE_HEADER_LENGTH, length);
+        send(frame);
+        offset += length;
+      } while (offset < bytes.length);
+    } catch (IOException e) {
+      throw Status.INTERNAL.withDescription("Failed reading message").withCause(e)
+          .asRuntimeException();
+    }
+  }
+
+  @Override
+  public final void run() {
+    Status failure = null;
+    try {
+      connection = connect();
+      if (connection == null) {
+        return;
+      }
+      synchronized (writeLock) {
+        outbound = connection.outbound;
+      }
+      int idleRounds = 0;
+      while (!terminated) {
+        boolean worked = runTasks();
+        worked |= readFrames();
+        worked |= flushWrites();
+        checkTermination();
+        long now = System.currentTimeMillis();
+        if (now >= nextHeartbeatMillis) {
+          nextHeartbeatMillis = now + HEARTBEAT_INTERVAL_MILLIS;
+          connection.inbound.heartbeat(now);
+          checkPeer(now, connection.outbound.lastHeartbeat());
+        }
+        idleRounds = worked ? 0 : idleRounds + 1;
+        idle(idleRounds);
+      }
+    } catch (Throwable t) {
+      log.log(Level.FINE, "Transport failed", t);
+      failure = Status.UNAVAILABLE.withDescription("Transport failed").withCause(t);
+    } finally {
+      if (failure != null || !terminated) {
+        terminate(failure != null ? failure : Status.UNAVAILABLE.withDescription("Not connected"));
+      }
+      stopped = true;
+      runTasksAfterStop();
+    }
+  }
+
+  private void runTasksAfterStop() {
+    synchronized (tasks) {
+      runTasks();
+    }
+  }
+
+  private static void idle(int idleRounds) {
+    if (idleRounds == 0 || idleRounds < SPINS) {
+      return;
+    }
+    if (idleRounds < SPINS + YIELDS) {
+      Thread.yield();
+      return;
+    }
+    int parks = Math.min(idleRounds - SPINS - YIELDS, 20);
+    LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << parks));
+  }
+
+  private boolean runTasks() {
+    boolean worked = false;
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      worked = true;
+      task.run();
+    }
+    return worked;
+  }
+
+  private boolean readFrames() {
+    ShmRing inbound = connection.inbound;
+    for (int i = 0; i < MAX_READS_PER_ROUND; i++) {
+      // Checked before polling, as the peer closes the ring after its last frame.
+      boolean peerClosed = inbound.isClosed();
+      byte[] frame = inbound.poll();
+      if (frame == null) {
+        if (peerClosed) {
+          terminate(Status.UNAVAILABLE.withDescription("Connection closed by peer"));
+        }
+        return i > 0;
+      }
+      handleFrame(frame);
+      if (terminated) {
+        return true;
+      }
+    }
+    return true;
+  }
+
+  private boolean flushWrites() {
+    synchronized (writeLock) {
+      if (pendingWrites.isEmpty()) {
+        return false;
+      }
+      byte[] frame;
+      boolean worked = false;
+      while ((frame = pendingWrites.peek()) != null && outbound.offer(frame)) {
+        pendingWrites.poll();
+        worked = true;
+      }
+      return worked;
+    }
+  }
+
+  private void handleFrame(byte[] frame) {
+    byte type = ShmFrames.type(frame);
+    int streamId = ShmFrames.streamId(frame);
+    ByteBuffer payload = ShmFrames.payload(frame);
+    ShmStream<?> stream;
+    switch (type) {
+      case ShmFrames.MESSAGE:
+        stream = streams.get(streamId);
+        if (stream != null) {
+          stream.inboundMessage(frame);
+        }
+        break;
+      case ShmFrames.REQUEST:
+        stream = streams.get(streamId);
+        if (stream != null) {
+          stream.inboundRequest(payload.getInt());
+        }
+        break;
+      case ShmFrames.RST_STREAM:
+        stream = streams.get(streamId);
+        if (stream != null) {
+          stream.closeListener(ShmFrames.readStatus(payload), null);
+        }
+        break;
+      case ShmFrames.PING:
+        send(ShmFrames.ping(true, payload.getLong()));
+        break;
+      default:
+        handleFrame(type, streamId, payload);
+    }
+  }
+
+  /**
+   * Starts shutting down: no new streams, and the connection closes once the streams finished.
+   * Must be called by the transport's thread.
+   *
+   * @return false if the transport was already shutting down
+   */
+  final boolean startShutdown(Status status) {
+    if (shutdown) {
+      return false;
+    }
+    shutdown = true;
+    notifyShutdown(status);
+    checkTermination();
+    return true;
+  }
+
+  /**
+   * Returns whether the transport is shutting down. Must be called by the transport's thread.
+   */
+  final boolean isShutdown() {
+    return shutdown;
+  }
+
+  /**
+   * Called by {@link ShmStream#closeListener}.
+   */
+  final void streamClosed(ShmStream<?> stream) {
+    streams.remove(stream.id, stream);
+  }
+
+  private void checkTermination() {
+    if (!shutdown || terminated || connection == null || !streams.isEmpty()) {
+      return;
+    }
+    synchronized (writeLock) {
+      if (!pendingWrites.isEmpty()) {
+        return;
+      }
+    }
+    terminate(null);
+  }
+
+  /**
+   * Closes the connection, failing the streams left with {@code status}. Must be called by the
+   * transport's thread.
+   */
+  final void terminate(Status status) {
+    if (terminated) {
+      return;
+    }
+    terminated = true;
+    if (connection != null) {
+      connection.close();
+    }
+    Status failure = status != null ? status : Status.UNAVAILABLE;
+    for (ShmStream<?> stream : streams.values()) {
+      stream.closeListener(failure, null);
+    }
+    streams.clear();
+    if (!shutdown) {
+      shutdown = true;
+      notifyShutdown(failure);
+    }
+    notifyTerminated(failure);
+  }
+
+  /**
+   * Connects to the peer, in the transport's thread.
+   *
+   * @return the connection, or {@code null} if the transport terminated instead
+   */
+  abstract ShmConnection connect() throws IOException;
+
+  /**
+   * Handles the frames that are specific to the client or the server.
+   */
+  abstract void handleFrame(byte type, int streamId, ByteBuffer payload);
+
+  /**
+   * Checks the liveness of the peer, given the time of its last heartbeat.
+   */
+  void checkPeer(long now, long peerHeartbeat) {
+    if (peerHeartbeat != 0 && now - peerHeartbeat > PEER_TIMEOUT_MILLIS) {
+      terminate(Status.UNAVAILABLE.withDescription("Peer stopped responding"));
+    }
+  }
+
+  /**
+   * Called once when the transport starts shutting down, whether it was asked to or not.
+   */
+  abstract void notifyShutdown(Status status);
+
+  /**
+   * Called once the connection closed, with the status the remaining streams were failed with.
+   */
+  abstract void notifyTerminated(Status status);
+}
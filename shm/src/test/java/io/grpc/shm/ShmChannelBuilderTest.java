@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package io.grpc.shm;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ShmChannelBuilder}. */
+@RunWith(JUnit4.class)
+public class ShmChannelBuilderTest {
+  @Rule public final ExpectedException thrown = ExpectedException.none();
+
+  private final ShmChannelBuilder builder = ShmChannelBuilder.forName("test");
+
+  @Test
+  public void largestBufferSizeFitsInConnectionFile() {
+    builder.bufferSize(ShmChannelBuilder.MAX_BUFFER_SIZE);
+    // Rounded up to the largest size
+    builder.bufferSize(ShmChannelBuilder.MAX_BUFFER_SIZE / 2 + 1);
+
+    int fileSize = ShmConnection.fileSize(ShmChannelBuilder.MAX_BUFFER_SIZE);
+    assertTrue(fileSize > 2 * ShmChannelBuilder.MAX_BUFFER_SIZE);
+  }
+
+  @Test
+  public void bufferSizeAboveLargestIsRejected() {
+    thrown.expect(IllegalArgumentException.class);
+    builder.bufferSize(ShmChannelBuilder.MAX_BUFFER_SIZE + 1);
+  }
+
+  @Test
+  public void ringAboveLargestIsRejected() {
+    thrown.expect(IllegalArgumentException.class);
+    ShmConnection.fileSize(ShmChannelBuilder.MAX_BUFFER_SIZE * 2);
+  }
+}
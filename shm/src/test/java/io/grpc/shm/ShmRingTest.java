@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016, Google Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following disclaimer
+ * in the documentation and/or other materials provided with the
+ * distribution.
+ *
+ *    * Neither the name of Google Inc. nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.grpc.shm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.ByteBuffer;
+
+/** Unit tests for {@link ShmRing}. */
+@RunWith(JUnit4.class)
+public class ShmRingTest {
+  private static final int CAPACITY = 1024;
+
+  private final ByteBuffer region = ByteBuffer.allocateDirect(ShmRing.regionSize(CAPACITY));
+  private final ShmRing producer = new ShmRing(region);
+  private final ShmRing consumer = new ShmRing(region);
+
+  @Test
+  public void offerAndPoll() {
+    assertNull(consumer.poll());
+    assertTrue(producer.offer(record(1, 10)));
+    assertTrue(producer.offer(record(2, 0)));
+    assertTrue(producer.offer(record(3, 100)));
+
+    assertArrayEquals(record(1, 10), consumer.poll());
+    assertArrayEquals(record(2, 0), consumer.poll());
+    assertArrayEquals(record(3, 100), consumer.poll());
+    assertNull(consumer.poll());
+  }
+
+  @Test
+  public void wrapsAround() {
+    // Records which don't divide the capacity, so that some end up padded to the start.
+    for (int i = 0; i < 100; i++) {
+      assertTrue(producer.offer(record(i, 200)));
+      assertTrue(producer.offer(record(i + 1, 50)));
+      assertArrayEquals(record(i, 200), consumer.poll());
+      assertArrayEquals(record(i + 1, 50), consumer.poll());
+    }
+    assertNull(consumer.poll());
+  }
+
+  @Test
+  public void fullRing() {
+    int offered = 0;
+    while (producer.offer(record(offered, 100))) {
+      offered++;
+    }
+    assertTrue(offered > 0);
+    assertFalse(producer.offer(record(offered, 100)));
+
+    assertArrayEquals(record(0, 100), consumer.poll());
+    assertTrue(producer.offer(record(offered, 100)));
+    for (int i = 1; i <= offered; i++) {
+      assertArrayEquals(record(i, 100), consumer.poll());
+    }
+    assertNull(consumer.poll());
+  }
+
+  @Test
+  public void recordTooLarge() {
+    assertEquals(CAPACITY / 4, producer.maxRecordLength());
+    assertTrue(producer.offer(new byte[producer.maxRecordLength()]));
+    try {
+      producer.offer(new byte[producer.maxRecordLength() + 1]);
+      fail("Expected exception");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void close() {
+    assertTrue(producer.offer(record(1, 10)));
+    assertFalse(consumer.isClosed());
+
+    producer.close();
+
+    assertTrue(consumer.isClosed());
+    // Records written before closing are still delivered.
+    assertArrayEquals(record(1, 10), consumer.poll());
+    assertNull(consumer.poll());
+  }
+
+  @Test
+  public void heartbeat() {
+    assertEquals(0, producer.lastHeartbeat());
+    consumer.heartbeat(1234);
+    assertEquals(1234, producer.lastHeartbeat());
+  }
+
+  @Test
+  public void reopenedRingKeepsPosition() {
+    assertTrue(producer.offer(record(1, 10)));
+    assertArrayEquals(record(1, 10), consumer.poll());
+    assertTrue(producer.offer(record(2, 10)));
+
+    assertArrayEquals(record(2, 10), new ShmRing(region).poll());
+  }
+
+  private static byte[] record(int seed, int length) {
+    byte[] record = new byte[length];
+    for (int i = 0; i < length; i++) {
+      record[i] = (byte) (seed + i);
+    }
+    return record;
+  }
+}